@@ -0,0 +1,111 @@
+package biz.netcentric.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import biz.netcentric.template.ExpressionScanner;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link ExpressionScanner} with the split and replace approach the servlet used
+ * before, on documents from 10 KB to 10 MB. Both benchmarks replace every $-expression of the
+ * document with its value; the values are looked up in a map so the cost of the Javascript engine
+ * is left out and only the scanning and copying is measured.
+ * <p>
+ * Run it with {@code java -jar target/benchmarks.jar ExpressionScanBenchmark -prof gc} to also see
+ * the allocation rate of each approach.
+ *
+ * @author Jhoan Muñoz
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExpressionScanBenchmark
+{
+    /** Characters used by the split and replace approach to split the document. */
+    private static final String LEGACY_SEPARATOR = "${";
+
+    /** Chunk of HTML repeated to build the documents, with three $-expressions. */
+    private static final String CHUNK =
+        "<li title=\"${item.name}\">\n  <span>${item.name}</span> costs ${item.price}\n</li>\n";
+
+    /** Size of the scanned document, in characters. */
+    @Param({"10240", "1048576", "10485760"})
+    public int size;
+
+    /** Document to scan. */
+    private String document;
+
+    /** Values of the expressions. */
+    private final Map<String, Object> values = new HashMap<>();
+
+    /** Buffer reused by the scanner benchmark, like the buffer of a response. */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** Handler appending the static text and the values of the expressions to the buffer. */
+    private final ExpressionScanner.Handler handler =
+        new ExpressionScanner.Handler()
+        {
+            @Override
+            public void text(String source, int start, int end)
+            {
+                buffer.append(source, start, end);
+            }
+
+            @Override
+            public void expression(String source, int start, int end)
+            {
+                buffer.append(values.get(source.substring(start, end)));
+            }
+        };
+
+    @Setup
+    public void setUp()
+    {
+        StringBuilder builder = new StringBuilder(size + CHUNK.length());
+        while (builder.length() < size)
+        {
+            builder.append(CHUNK);
+        }
+
+        document = builder.toString();
+        values.put("item.name", "Refactoring");
+        values.put("item.price", 42);
+    }
+
+    @Benchmark
+    public int scanner()
+    {
+        buffer.setLength(0);
+        ExpressionScanner.scan(document, handler);
+        return buffer.length();
+    }
+
+    @Benchmark
+    public int splitAndReplace()
+    {
+        String[] expressions = StringUtils.split(document, LEGACY_SEPARATOR);
+        for (int i = 1; i < expressions.length; i++)
+        {
+            String expression = expressions[i].substring(0, expressions[i].indexOf('}'));
+            expressions[i] =
+                expressions[i].replace(expression + "}", String.valueOf(values.get(expression)));
+        }
+
+        return StringUtils.join(expressions).length();
+    }
+}
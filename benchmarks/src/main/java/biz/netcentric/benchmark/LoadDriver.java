@@ -0,0 +1,438 @@
+package biz.netcentric.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import biz.netcentric.servlet.HTLProcessor;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Multithreaded load test of the servlet running in an embedded Jetty server. For every template
+ * and number of concurrent clients, the clients send requests over keep-alive connections as fast
+ * as they can for a fixed time and the driver reports:
+ * <ul>
+ *     <li>Requests per second</li>
+ *     <li>p50, p99 and maximum latency</li>
+ *     <li>Allocation rate of the server threads, in MB per second and KB per request</li>
+ *     <li>Number of failed requests, any response other than 200</li>
+ * </ul>
+ *
+ * Everything runs in the same JVM on the loopback interface, so no network access is needed. The
+ * settings are given as {@code name=value} arguments:
+ * <pre>
+ * java -cp target/benchmarks.jar biz.netcentric.benchmark.LoadDriver clients=1,4,16,64
+ *     warmup=5 duration=10 templates=/index.html?id=2 param.optimizationLevel=9
+ * </pre>
+ * Arguments starting with {@code param.} are passed to the servlet as init parameters.
+ *
+ * @author Jhoan Muñoz
+ */
+public final class LoadDriver
+{
+    /** Templates requested when none are given, with the request parameters they need. */
+    static final String DEFAULT_TEMPLATES =
+        "/index.html?id=2,/tests/test1.html?id=2,"
+            + "/tests/test2.html?name=Refactoring&author=Fowler&year=2002";
+
+    /** Numbers of concurrent clients used when none are given. */
+    static final String DEFAULT_CLIENTS = "1,4,16,64";
+
+    /** Prefix of the arguments passed to the servlet as init parameters. */
+    static final String INIT_PARAM_PREFIX = "param.";
+
+    /** Name prefix of the server threads, used to measure their allocations. */
+    static final String SERVER_THREAD_PREFIX = "slightly-server";
+
+    /** Number of server threads. */
+    static final int SERVER_THREADS = 128;
+
+    private LoadDriver()
+    {
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args Settings of the load test, as {@code name=value} pairs
+     *
+     * @throws Exception If the server can't be started.
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        Map<String, String> settings = new HashMap<>();
+        Map<String, String> initParameters = new HashMap<>();
+        for (String arg : args)
+        {
+            int separator = arg.indexOf('=');
+            if (separator < 0)
+            {
+                throw new IllegalArgumentException("Arguments must be name=value pairs: " + arg);
+            }
+
+            String name = arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+            if (name.startsWith(INIT_PARAM_PREFIX))
+            {
+                initParameters.put(name.substring(INIT_PARAM_PREFIX.length()), value);
+            }
+            else
+            {
+                settings.put(name, value);
+            }
+        }
+
+        List<String> templates =
+            Arrays.asList(settings.getOrDefault("templates", DEFAULT_TEMPLATES).split(","));
+        int[] clients =
+            Arrays.stream(settings.getOrDefault("clients", DEFAULT_CLIENTS).split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long warmupNanos =
+            TimeUnit.SECONDS.toNanos(Long.parseLong(settings.getOrDefault("warmup", "5")));
+        long durationNanos =
+            TimeUnit.SECONDS.toNanos(Long.parseLong(settings.getOrDefault("duration", "10")));
+
+        // Keep one connection per client alive, the JDK only keeps 5 by default
+        System.setProperty(
+            "http.maxConnections", String.valueOf(Arrays.stream(clients).max().orElse(1)));
+
+        Server server = startServer(initParameters);
+        try
+        {
+            int port = ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+            System.out.println(
+                String.format(
+                    "%-60s %7s %10s %10s %9s %9s %9s %10s %9s %7s", "TEMPLATE", "CLIENTS",
+                    "REQUESTS", "REQ/S", "P50(ms)", "P99(ms)", "MAX(ms)", "ALLOC MB/s", "KB/REQ",
+                    "ERRORS"));
+            for (String template : templates)
+            {
+                URL url = new URL("http", "localhost", port, template.trim());
+                for (int clientCount : clients)
+                {
+                    System.out.println(
+                        run(url, clientCount, warmupNanos, durationNanos).format(
+                            template.trim(), clientCount));
+                }
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * Starts the embedded server with the servlet mapped to every path.
+     *
+     * @param initParameters Init parameters of the servlet
+     *
+     * @return The started server, listening on a random port.
+     *
+     * @throws Exception If the server can't be started.
+     */
+    static Server startServer(Map<String, String> initParameters)
+    throws Exception
+    {
+        QueuedThreadPool threadPool = new QueuedThreadPool(SERVER_THREADS);
+        threadPool.setName(SERVER_THREAD_PREFIX);
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+
+        ServletContextHandler handler = new ServletContextHandler();
+        handler.setContextPath("/");
+        handler.setResourceBase(
+            new File(System.getProperty(
+                ServletStubs.WEBAPP_DIR_PROPERTY, ServletStubs.DEFAULT_WEBAPP_DIR))
+                .getAbsolutePath());
+        ServletHolder holder = new ServletHolder(HTLProcessor.class);
+        holder.setInitParameter("preloadedImports", ServletStubs.PRELOADED_IMPORTS);
+        holder.setInitParameters(initParameters);
+        holder.setAsyncSupported(true);
+        handler.addServlet(holder, "/*");
+        server.setHandler(handler);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Runs a warm up and a measurement phase with the given number of clients.
+     *
+     * @param url URL requested by the clients
+     * @param clientCount Number of concurrent clients
+     * @param warmupNanos Duration of the warm up phase, not measured
+     * @param durationNanos Duration of the measurement phase
+     *
+     * @return The measured results.
+     *
+     * @throws InterruptedException If the driver is interrupted while waiting for the clients.
+     */
+    static Result run(URL url, int clientCount, long warmupNanos, long durationNanos)
+    throws InterruptedException
+    {
+        runPhase(url, clientCount, warmupNanos);
+
+        long allocatedBefore = serverAllocatedBytes();
+        long start = System.nanoTime();
+        List<Client> clients = runPhase(url, clientCount, durationNanos);
+        long elapsed = System.nanoTime() - start;
+        long allocated = serverAllocatedBytes() - allocatedBefore;
+
+        Result result = new Result(elapsed, allocated);
+        for (Client client : clients)
+        {
+            result.add(client);
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts the clients and waits until they run for the given time.
+     *
+     * @param url URL requested by the clients
+     * @param clientCount Number of concurrent clients
+     * @param durationNanos Time the clients keep sending requests
+     *
+     * @return The clients, holding the latencies of their requests.
+     *
+     * @throws InterruptedException If the driver is interrupted while waiting for the clients.
+     */
+    private static List<Client> runPhase(URL url, int clientCount, long durationNanos)
+    throws InterruptedException
+    {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Client> clients = new ArrayList<>(clientCount);
+        List<Thread> threads = new ArrayList<>(clientCount);
+        long deadline = System.nanoTime() + durationNanos;
+        for (int i = 0; i < clientCount; i++)
+        {
+            Client client = new Client(url, startSignal, deadline);
+            Thread thread = new Thread(client, "slightly-client-" + i);
+            thread.start();
+            clients.add(client);
+            threads.add(thread);
+        }
+
+        startSignal.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        return clients;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the server threads.
+     *
+     * @return The allocated bytes, or -1 if the JVM can't measure them.
+     */
+    private static long serverAllocatedBytes()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+        {
+            return -1;
+        }
+
+        com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (thread.getName().startsWith(SERVER_THREAD_PREFIX))
+            {
+                total += Math.max(0, threadBean.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Client sending requests in a loop until the deadline.
+     */
+    private static final class Client implements Runnable
+    {
+        private final URL url;
+        private final CountDownLatch startSignal;
+        private final long deadline;
+
+        /** Buffer used to read the response bodies. */
+        private final byte[] buffer = new byte[8192];
+
+        /** Latencies of the successful requests, in nanoseconds. */
+        private long[] latencies = new long[1024];
+
+        /** Number of successful requests. */
+        private int count;
+
+        /** Number of failed requests. */
+        private int errors;
+
+        Client(URL url, CountDownLatch startSignal, long deadline)
+        {
+            this.url = url;
+            this.startSignal = startSignal;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                startSignal.await();
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            while (System.nanoTime() < deadline)
+            {
+                long start = System.nanoTime();
+                if (request())
+                {
+                    record(System.nanoTime() - start);
+                }
+                else
+                {
+                    errors++;
+                }
+            }
+        }
+
+        /**
+         * Sends a request and reads the whole response, so the connection can be reused.
+         *
+         * @return {@code true} if the server answered with a 200 status.
+         */
+        private boolean request()
+        {
+            HttpURLConnection connection = null;
+            try
+            {
+                connection = (HttpURLConnection)url.openConnection();
+                int status = connection.getResponseCode();
+                try (InputStream in =
+                         status < HttpURLConnection.HTTP_BAD_REQUEST
+                             ? connection.getInputStream() : connection.getErrorStream())
+                {
+                    while (in != null && in.read(buffer) >= 0)
+                    {
+                        // Discard the body
+                    }
+                }
+
+                return status == HttpURLConnection.HTTP_OK;
+            }
+            catch (IOException ioe)
+            {
+                if (connection != null)
+                {
+                    connection.disconnect();
+                }
+
+                return false;
+            }
+        }
+
+        private void record(long latency)
+        {
+            if (count == latencies.length)
+            {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+
+            latencies[count++] = latency;
+        }
+    }
+
+    /**
+     * Results of a measurement phase.
+     */
+    static final class Result
+    {
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+        private long[] latencies = new long[0];
+        private int errors;
+
+        Result(long elapsedNanos, long allocatedBytes)
+        {
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * Adds the latencies and errors of the given client.
+         *
+         * @param client Client that took part in the phase
+         */
+        private void add(Client client)
+        {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + client.count);
+            System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+            errors += client.errors;
+        }
+
+        /**
+         * Returns the given percentile of the latencies.
+         *
+         * @param percentile Percentile, between 0 and 100
+         *
+         * @return The latency in milliseconds, or 0 if there were no successful requests.
+         */
+        double percentile(double percentile)
+        {
+            if (latencies.length == 0)
+            {
+                return 0;
+            }
+
+            int index = (int)Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        /**
+         * Formats the results as a line of the report.
+         *
+         * @param template Requested template
+         * @param clientCount Number of concurrent clients
+         *
+         * @return The line of the report.
+         */
+        String format(String template, int clientCount)
+        {
+            Arrays.sort(latencies);
+            int requests = latencies.length;
+            double seconds = elapsedNanos / 1e9;
+            return String.format(
+                "%-60s %7d %10d %10.1f %9.3f %9.3f %9.3f %10s %9s %7d", template, clientCount,
+                requests, requests / seconds, percentile(50), percentile(99), percentile(100),
+                allocatedBytes < 0 ? "n/a" : String.format("%.1f", allocatedBytes / seconds / 1e6),
+                allocatedBytes < 0 || requests == 0
+                    ? "n/a" : String.format("%.1f", allocatedBytes / 1024.0 / requests),
+                errors);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package biz.netcentric.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the request processing of the servlet, with its default configuration, on the bundled
+ * templates. The servlet is shared by all the benchmark threads, like in a web server, so the
+ * benchmark can be run with several threads to check the contention of the shared caches and
+ * scope, for example {@code java -jar target/benchmarks.jar ProcessRequestBenchmark -t 8}.
+ * <p>
+ * The throughput benchmark reports the requests per second and the latency benchmark reports the
+ * latency percentiles. Add {@code -prof gc} to also get the allocation rate.
+ *
+ * @author Jhoan Muñoz
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class ProcessRequestBenchmark
+{
+    /**
+     * Holds the servlet shared by all the threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Servlet
+    {
+        private HttpServlet servlet;
+
+        /**
+         * Creates the servlet with its default configuration.
+         *
+         * @throws ServletException If the servlet can't be initialized.
+         */
+        @Setup
+        public void setUp()
+        throws ServletException
+        {
+            servlet = ServletStubs.newServlet(Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Holds the request and response of a single thread.
+     */
+    @State(Scope.Thread)
+    public static class Request
+    {
+        /** Template requested on every invocation. */
+        @Param({"/index.html?id=2", "/tests/test1.html?id=2",
+            "/tests/test2.html?name=Refactoring&author=Fowler&year=2002"})
+        public String template;
+
+        private HttpServletRequest request;
+
+        private ServletStubs.DiscardingResponse response;
+
+        @Setup
+        public void setUp()
+        {
+            request = ServletStubs.newRequest(template);
+            response = ServletStubs.newResponse();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long throughput(Servlet servlet, Request request)
+    throws ServletException, IOException
+    {
+        return process(servlet, request);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long latency(Servlet servlet, Request request)
+    throws ServletException, IOException
+    {
+        return process(servlet, request);
+    }
+
+    /**
+     * Processes the request of the given thread.
+     *
+     * @param servlet State holding the shared servlet
+     * @param request State holding the request and response of the thread
+     *
+     * @return The number of written characters, so the JIT can't remove the work.
+     *
+     * @throws ServletException If the servlet fails.
+     * @throws IOException If the response can't be written.
+     */
+    private static long process(Servlet servlet, Request request)
+    throws ServletException, IOException
+    {
+        servlet.servlet.service(request.request, request.response.getResponse());
+        return request.response.reset();
+    }
+}
@@ -0,0 +1,103 @@
+package biz.netcentric.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import biz.netcentric.entity.Person;
+import biz.netcentric.template.PropertyPath;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.SharedScope;
+import biz.netcentric.template.TemplateContextFactory;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptableObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of a single expression evaluated by Rhino, through the compiled scripts of the
+ * {@link ScriptCache}, with the same expression resolved as a {@link PropertyPath}:
+ * <ul>
+ *     <li><b>rhino:</b> Executes the compiled expression, which looks up the variable and reads
+ *     the property through Rhino's reflection and wrappers.</li>
+ *     <li><b>propertyPath:</b> Looks up the variable and calls the getter through a cached method
+ *     handle.</li>
+ * </ul>
+ *
+ * Run it with {@code java -jar target/benchmarks.jar PropertyPathBenchmark -prof gc} to also see
+ * the allocations of each approach.
+ *
+ * @author Jhoan Muñoz
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PropertyPathBenchmark
+{
+    /** Evaluated expression: a string property, a boolean property and a loop variable. */
+    @Param({"person.name", "person.married", "child"})
+    public String expression;
+
+    /** Rhino optimization level. */
+    @Param({"-1", "9"})
+    public int optimizationLevel;
+
+    private Context context;
+
+    private ScriptableObject scope;
+
+    private ScriptCache scriptCache;
+
+    private PropertyPath path;
+
+    /**
+     * Enters a Javascript context and creates a request scope holding a person and a loop
+     * variable, like the ones of the bundled templates.
+     */
+    @Setup
+    public void setUp()
+    {
+        context =
+            new TemplateContextFactory(optimizationLevel, Context.VERSION_DEFAULT).enterContext();
+        scope =
+            new SharedScope(context, Collections.singletonList(Person.class.getName()))
+                .newRequestScope();
+        context.evaluateString(
+            scope, "var person = Person.lookup('2'); var child = 'Child 0';", "<setUp>", 1, null);
+        scriptCache = new ScriptCache(ScriptCache.DEFAULT_MAX_ENTRIES);
+        path = PropertyPath.parse(expression);
+        if (path.resolve(context, scope) == PropertyPath.UNRESOLVED)
+        {
+            throw new IllegalStateException("The expression is not resolved: " + expression);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        Context.exit();
+    }
+
+    @Benchmark
+    public Object rhino()
+    {
+        return scriptCache.exec(context, scope, "/benchmark.html", expression);
+    }
+
+    @Benchmark
+    public Object propertyPath()
+    {
+        return path.resolve(context, scope);
+    }
+}
@@ -0,0 +1,133 @@
+package biz.netcentric.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Rhino interpreted mode (optimization level -1) with the compiled modes (levels 0
+ * and 9) on the bundled templates:
+ * <ul>
+ *     <li><b>render:</b> Steady state cost of a request, once the template and all of its
+ *     Javascript snippets are compiled and cached.</li>
+ *     <li><b>firstRender:</b> Cost of the first request served by a new servlet, which includes
+ *     parsing the template and compiling every snippet.</li>
+ * </ul>
+ *
+ * Run it with {@code java -jar target/benchmarks.jar RhinoModeBenchmark} from the benchmarks
+ * directory.
+ *
+ * @author Jhoan Muñoz
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RhinoModeBenchmark
+{
+    /** Rhino optimization level given to the servlet. */
+    @Param({"-1", "0", "9"})
+    public int optimizationLevel;
+
+    /** Template requested on every invocation. */
+    @Param({"/index.html?id=2", "/tests/test1.html?id=2",
+        "/tests/test2.html?name=Refactoring&author=Fowler&year=2002"})
+    public String template;
+
+    /** Servlet used by the steady state benchmark. */
+    private HttpServlet servlet;
+
+    private HttpServletRequest request;
+
+    private ServletStubs.DiscardingResponse response;
+
+    /**
+     * Creates the servlet and renders the template once so it's compiled and cached.
+     *
+     * @throws ServletException If the servlet can't be initialized.
+     * @throws IOException If the template can't be rendered.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    throws ServletException, IOException
+    {
+        servlet = createServlet();
+        request = ServletStubs.newRequest(template);
+        response = ServletStubs.newResponse();
+        servlet.service(request, response.getResponse());
+        response.reset();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long render()
+    throws ServletException, IOException
+    {
+        servlet.service(request, response.getResponse());
+        return response.reset();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 50, batchSize = 1)
+    @Warmup(iterations = 10, batchSize = 1)
+    public long firstRender(NewServlet newServlet)
+    throws ServletException, IOException
+    {
+        newServlet.servlet.service(request, response.getResponse());
+        return response.reset();
+    }
+
+    /**
+     * Creates a new servlet configured with the optimization level of the benchmark.
+     *
+     * @return The initialized servlet.
+     *
+     * @throws ServletException If the servlet can't be initialized.
+     */
+    private HttpServlet createServlet()
+    throws ServletException
+    {
+        return ServletStubs.newServlet(
+            Collections.singletonMap("optimizationLevel", String.valueOf(optimizationLevel)));
+    }
+
+    /**
+     * Holds a servlet with empty caches, created again before each first render invocation.
+     */
+    @State(Scope.Thread)
+    public static class NewServlet
+    {
+        private HttpServlet servlet;
+
+        /**
+         * Creates the servlet for the next invocation.
+         *
+         * @param benchmark Benchmark state holding the optimization level
+         *
+         * @throws ServletException If the servlet can't be initialized.
+         */
+        @Setup(Level.Invocation)
+        public void setUp(RhinoModeBenchmark benchmark)
+        throws ServletException
+        {
+            servlet = benchmark.createServlet();
+        }
+    }
+}
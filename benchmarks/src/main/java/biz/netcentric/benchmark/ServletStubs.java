@@ -0,0 +1,355 @@
+package biz.netcentric.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import biz.netcentric.servlet.HTLProcessor;
+
+/**
+ * Minimal servlet container objects used to drive the {@link HTLProcessor} outside of a web
+ * server. Only the methods used by the servlet are implemented, every other method returns the
+ * default value of its return type.
+ *
+ * @author Jhoan Muñoz
+ */
+public final class ServletStubs
+{
+    /** System property holding the directory of the web application. */
+    public static final String WEBAPP_DIR_PROPERTY = "slightly.webapp";
+
+    /** Web application directory used when the system property is not set. */
+    public static final String DEFAULT_WEBAPP_DIR = "../src/main/webapp";
+
+    /** Classes preloaded in the shared Javascript scope, same as in the web.xml file. */
+    public static final String PRELOADED_IMPORTS =
+        "biz.netcentric.entity.Person, biz.netcentric.entity.Book";
+
+    private ServletStubs()
+    {
+    }
+
+    /**
+     * Creates and initializes a new servlet serving the templates of the web application.
+     *
+     * @param initParameters Init parameters of the servlet
+     *
+     * @return The initialized servlet.
+     *
+     * @throws ServletException If the servlet can't be initialized.
+     */
+    public static HttpServlet newServlet(Map<String, String> initParameters)
+    throws ServletException
+    {
+        Map<String, String> parameters = new HashMap<>(initParameters);
+        parameters.putIfAbsent("preloadedImports", PRELOADED_IMPORTS);
+
+        File webappDir =
+            new File(System.getProperty(WEBAPP_DIR_PROPERTY, DEFAULT_WEBAPP_DIR)).getAbsoluteFile();
+        ServletContext servletContext =
+            proxy(ServletContext.class, (proxy, method, args) -> {
+                if (method.getName().equals("getResource"))
+                {
+                    File file = new File(webappDir, (String)args[0]);
+                    return file.exists() ? file.toURI().toURL() : null;
+                }
+
+                return defaultValue(method.getReturnType());
+            });
+        ServletConfig config =
+            proxy(ServletConfig.class, (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                    case "getServletContext":
+                        return servletContext;
+                    case "getServletName":
+                        return "HTLProcessor";
+                    case "getInitParameter":
+                        return parameters.get(args[0]);
+                    case "getInitParameterNames":
+                        return Collections.enumeration(parameters.keySet());
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            });
+
+        HTLProcessor servlet = new HTLProcessor();
+        servlet.init(config);
+        return servlet;
+    }
+
+    /**
+     * Creates a GET request for the given URI.
+     *
+     * @param uri Path of the template, optionally followed by a query string
+     *
+     * @return The request.
+     */
+    public static HttpServletRequest newRequest(String uri)
+    {
+        int queryStart = uri.indexOf('?');
+        String path = queryStart < 0 ? uri : uri.substring(0, queryStart);
+        Map<String, String> parameters = new HashMap<>();
+        if (queryStart >= 0)
+        {
+            for (String pair : uri.substring(queryStart + 1).split("&"))
+            {
+                int separator = pair.indexOf('=');
+                parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+            }
+        }
+
+        return proxy(HttpServletRequest.class, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "getMethod":
+                    return "GET";
+                case "getPathInfo":
+                    return path;
+                case "getRequestURI":
+                    return path;
+                case "getQueryString":
+                    return queryStart < 0 ? null : uri.substring(queryStart + 1);
+                case "getParameter":
+                    return parameters.get(args[0]);
+                case "getParameterMap":
+                    return parameters;
+                case "getProtocol":
+                    return "HTTP/1.1";
+                case "getDateHeader":
+                case "getIntHeader":
+                    return -1;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Creates a response that discards its body but counts the written characters and bytes.
+     *
+     * @return The response.
+     */
+    public static DiscardingResponse newResponse()
+    {
+        return new DiscardingResponse();
+    }
+
+    /**
+     * Creates a dynamic proxy implementing the given interface.
+     *
+     * @param type Interface to implement
+     * @param handler Handler of the method calls
+     * @param <T> Type of the interface
+     *
+     * @return The proxy.
+     */
+    static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(
+            Proxy.newProxyInstance(ServletStubs.class.getClassLoader(), new Class<?>[]{type},
+                handler));
+    }
+
+    /**
+     * Returns the default value of the given type, used for the methods the stubs don't implement.
+     *
+     * @param type Return type of a method
+     *
+     * @return {@code null}, {@code false} or zero.
+     */
+    static Object defaultValue(Class<?> type)
+    {
+        if (!type.isPrimitive() || type == void.class)
+        {
+            return null;
+        }
+
+        if (type == boolean.class)
+        {
+            return false;
+        }
+
+        if (type == long.class)
+        {
+            return 0L;
+        }
+
+        if (type == float.class)
+        {
+            return 0f;
+        }
+
+        if (type == double.class)
+        {
+            return 0d;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Response that discards its body. The number of written characters and bytes is kept so the
+     * benchmarks can return it and keep the JIT from removing the work.
+     */
+    public static final class DiscardingResponse
+    {
+        /** Number of characters written through the writer. */
+        private long chars;
+
+        /** Number of bytes written through the output stream. */
+        private long bytes;
+
+        /** Response status. */
+        private int status = HttpServletResponse.SC_OK;
+
+        /** Response headers. */
+        private final Map<String, String> headers = new HashMap<>();
+
+        /** Writer returned by the response. */
+        private final PrintWriter writer =
+            new PrintWriter(
+                new Writer()
+                {
+                    @Override
+                    public void write(char[] buffer, int offset, int length)
+                    {
+                        chars += length;
+                    }
+
+                    @Override
+                    public void write(String text, int offset, int length)
+                    {
+                        chars += length;
+                    }
+
+                    @Override
+                    public void flush()
+                    {
+                    }
+
+                    @Override
+                    public void close()
+                    {
+                    }
+                });
+
+        /** Output stream returned by the response. */
+        private final ServletOutputStream outputStream =
+            new ServletOutputStream()
+            {
+                @Override
+                public void write(int value)
+                {
+                    bytes++;
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length)
+                {
+                    bytes += length;
+                }
+
+                @Override
+                public boolean isReady()
+                {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener)
+                {
+                    try
+                    {
+                        writeListener.onWritePossible();
+                    }
+                    catch (IOException ioe)
+                    {
+                        writeListener.onError(ioe);
+                    }
+                }
+            };
+
+        /** Servlet response backed by this object. */
+        private final HttpServletResponse response =
+            proxy(HttpServletResponse.class, (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                    case "getWriter":
+                        return writer;
+                    case "getOutputStream":
+                        return outputStream;
+                    case "getCharacterEncoding":
+                        return "UTF-8";
+                    case "setStatus":
+                    case "sendError":
+                        status = (Integer)args[0];
+                        return null;
+                    case "getStatus":
+                        return status;
+                    case "setHeader":
+                    case "addHeader":
+                        headers.put((String)args[0], String.valueOf(args[1]));
+                        return null;
+                    case "setIntHeader":
+                    case "setDateHeader":
+                        headers.put((String)args[0], String.valueOf(args[1]));
+                        return null;
+                    case "getHeader":
+                        return headers.get(args[0]);
+                    case "containsHeader":
+                        return headers.containsKey(args[0]);
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            });
+
+        private DiscardingResponse()
+        {
+        }
+
+        public HttpServletResponse getResponse()
+        {
+            return response;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public String getHeader(String name)
+        {
+            return headers.get(name);
+        }
+
+        /**
+         * Returns the total amount of written output and resets the counters, the status and the
+         * headers so the response can be used again.
+         *
+         * @return Number of characters plus number of bytes written since the last reset.
+         */
+        public long reset()
+        {
+            long written = chars + bytes;
+            chars = 0;
+            bytes = 0;
+            status = HttpServletResponse.SC_OK;
+            headers.clear();
+            return written;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package biz.netcentric.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import biz.netcentric.entity.Person;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.SharedScope;
+import biz.netcentric.template.Template;
+import biz.netcentric.template.TemplateContextFactory;
+import biz.netcentric.template.TemplateEngine;
+import org.mozilla.javascript.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link TemplateEngine#renderAll} rendering a page per person of a batch, with pools of
+ * different sizes, to check how the throughput scales with the number of cores. The pages are
+ * rendered from a template like the bundled index page and discarded by the sink.
+ *
+ * @author Jhoan Muñoz
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TemplateEngineBenchmark
+{
+    /** Number of pages rendered by every invocation. */
+    static final int BATCH_SIZE = 1000;
+
+    private static final String TEMPLATE =
+        "<!DOCTYPE html><html><script type=\"server/javascript\">"
+            + "var title = person.name + (person.married ? ' and ' + person.spouse : '')</script>"
+            + "<head><title>${title}</title></head><body><h1 title=\"${person.name}\">"
+            + "${person.name}</h1><h2 data-if=\"person.married\" title=\"${person.spouse}\">"
+            + "${person.spouse}</h2><div data-for-child=\"person.children\">Child: ${child}</div>"
+            + "</body></html>";
+
+    /** Parallelism of the pool. */
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private ForkJoinPool pool;
+
+    private TemplateEngine engine;
+
+    private Template template;
+
+    private List<Map<String, ?>> items;
+
+    /**
+     * Creates the engine and compiles the template.
+     *
+     * @throws IOException If the template can't be written or compiled.
+     */
+    @Setup
+    public void setUp()
+    throws IOException
+    {
+        TemplateContextFactory contextFactory =
+            new TemplateContextFactory(
+                TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL,
+                TemplateContextFactory.DEFAULT_LANGUAGE_VERSION);
+        SharedScope sharedScope;
+        Context context = contextFactory.enterContext();
+        try
+        {
+            sharedScope =
+                new SharedScope(context, Collections.singletonList(Person.class.getName()));
+        }
+        finally
+        {
+            Context.exit();
+        }
+
+        pool = new ForkJoinPool(threads);
+        engine =
+            new TemplateEngine(
+                contextFactory, sharedScope, new ScriptCache(ScriptCache.DEFAULT_MAX_ENTRIES),
+                pool);
+        Path file = Files.createTempFile("benchmark", ".html");
+        try
+        {
+            Files.write(file, TEMPLATE.getBytes(StandardCharsets.UTF_8));
+            template = engine.compile(file);
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+
+        items = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++)
+        {
+            Person person = new Person("Person " + i, "Spouse " + i, i % 2 == 0, i % 4);
+            items.add(Collections.singletonMap("person", person));
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Renders a batch of pages.
+     *
+     * @return The number of rendered pages, so the JIT can't remove the work.
+     *
+     * @throws InterruptedException If the benchmark thread is interrupted.
+     */
+    @Benchmark
+    public long renderAll()
+    throws InterruptedException
+    {
+        return engine.renderAll(template, items, (index, bindings, page) -> page.size())
+            .getRendered();
+    }
+}
@@ -1,6 +1,7 @@
 package biz.netcentric.entity;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 
@@ -11,6 +12,14 @@ import java.util.List;
  */
 public class Book
 {
+    /**
+     * System property holding the path of a file written by {@link MappedBookStore.Writer} with
+     * the books returned by {@link #getCatalog()}.
+     */
+    public static final String CATALOG_FILE_PROPERTY = "biz.netcentric.books.file";
+
+    private static volatile List<Book> catalog = createDefaultCatalog();
+
     private String name;
     private String author;
     private int year;
@@ -29,7 +38,58 @@ public class Book
         this.name = name;
         this.author = author;
         this.year = year;
-        this.genres = Arrays.asList(genres);
+        this.genres = GenreList.of(genres);
+    }
+
+    /**
+     * Returns the catalog of books shared by all the templates. The file of the catalog is mapped
+     * once and stays open, so iterating the catalog doesn't deserialize the books.
+     *
+     * @return The read only list of books of the catalog.
+     */
+    public static List<Book> getCatalog()
+    {
+        return catalog;
+    }
+
+    /**
+     * Replaces the catalog returned by {@link #getCatalog()}.
+     *
+     * @param newCatalog Books of the catalog
+     */
+    public static void setCatalog(List<Book> newCatalog)
+    {
+        if (newCatalog == null)
+        {
+            throw new IllegalArgumentException("The catalog can't be null");
+        }
+
+        catalog = newCatalog;
+    }
+
+    /**
+     * Creates the catalog used until another one is set: the books of the file given by the
+     * {@link #CATALOG_FILE_PROPERTY} system property or, if there's none, an empty catalog.
+     *
+     * @return The default catalog.
+     */
+    private static List<Book> createDefaultCatalog()
+    {
+        String file = System.getProperty(CATALOG_FILE_PROPERTY);
+        if (file != null && !file.trim().isEmpty())
+        {
+            try
+            {
+                return MappedBookStore.open(Paths.get(file.trim())).asList();
+            }
+            catch (IOException ioe)
+            {
+                System.err.println("Unable to load the books from " + file + ", using no books");
+                ioe.printStackTrace();
+            }
+        }
+
+        return Collections.emptyList();
     }
 
     public String getName()
@@ -0,0 +1,86 @@
+package biz.netcentric.entity;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of the generated children of a {@link Person}: "Child 0", "Child 1"... The
+ * names are not stored in the list, each one is produced when it's read. The names of the first
+ * {@link #SHARED_SIZE} children and the lists of up to that number of children are created once and
+ * shared by every person, so creating a person with a few children doesn't allocate anything.
+ *
+ * @author Jhoan Muñoz
+ */
+final class ChildrenList extends AbstractList<String> implements RandomAccess
+{
+    /** Number of children whose names and lists are shared. */
+    static final int SHARED_SIZE = 64;
+
+    /** Prefix of the names of the children. */
+    private static final String PREFIX = "Child ";
+
+    /** Shared names of the first children, by index. */
+    private static final String[] NAMES = new String[SHARED_SIZE];
+
+    /** Shared lists, by number of children. */
+    private static final ChildrenList[] LISTS = new ChildrenList[SHARED_SIZE + 1];
+
+    static
+    {
+        for (int i = 0; i < SHARED_SIZE; i++)
+        {
+            NAMES[i] = PREFIX + i;
+        }
+
+        for (int i = 0; i <= SHARED_SIZE; i++)
+        {
+            LISTS[i] = new ChildrenList(i);
+        }
+    }
+
+    /** Number of children. */
+    private final int size;
+
+    private ChildrenList(int size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * Returns the list of the given number of children.
+     *
+     * @param numberOfChildren Number of children, a negative number is taken as none
+     *
+     * @return An immutable list, shared if the number of children is up to {@link #SHARED_SIZE}.
+     */
+    static List<String> of(int numberOfChildren)
+    {
+        if (numberOfChildren <= 0)
+        {
+            return Collections.emptyList();
+        }
+
+        return numberOfChildren <= SHARED_SIZE
+            ? LISTS[numberOfChildren]
+            : new ChildrenList(numberOfChildren);
+    }
+
+    @Override
+    public String get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+
+        return index < SHARED_SIZE ? NAMES[index] : PREFIX + index;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+}
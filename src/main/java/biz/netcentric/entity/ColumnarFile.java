@@ -0,0 +1,579 @@
+package biz.netcentric.entity;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * File of records stored by column and read through memory mapped buffers, so the records are
+ * read straight from the page cache of the operating system instead of the Java heap. The file
+ * starts with a header holding a magic number identifying the kind of records, the format
+ * version, the number of records and the offset and length of every section; the sections follow,
+ * each one aligned to 8 bytes. Sections are read with absolute methods only, so a file can be read
+ * by several threads at the same time. Columns use one or more consecutive sections:
+ * <ul>
+ *     <li><b>Fixed size columns:</b> One section with a value per record, for example an
+ *     {@code int} or a {@code byte}.</li>
+ *     <li><b>String columns:</b> Two sections, the {@code int} end offset of each string followed
+ *     by a blob with all the strings encoded in UTF-8.</li>
+ *     <li><b>List columns:</b> Three sections, the {@code int} end index of the items of each
+ *     record followed by a string column with all the items.</li>
+ * </ul>
+ *
+ * Every section is mapped separately, so it can't be larger than 2 GB.
+ *
+ * @author Jhoan Muñoz
+ */
+final class ColumnarFile implements Closeable
+{
+    /** Version of the file format. */
+    static final int VERSION = 1;
+
+    /** Bytes of the fixed part of the header: magic number, version, records and sections. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Bytes of the header entry of every section: offset and length. */
+    private static final int SECTION_ENTRY_SIZE = 16;
+
+    /** Alignment of the sections. */
+    private static final int ALIGNMENT = 8;
+
+    /** Channel of the mapped file. */
+    private final FileChannel channel;
+
+    /** Number of records. */
+    private final int count;
+
+    /** Mapped sections. */
+    private final ByteBuffer[] sections;
+
+    private ColumnarFile(FileChannel channel, int count, ByteBuffer[] sections)
+    {
+        this.channel = channel;
+        this.count = count;
+        this.sections = sections;
+    }
+
+    /**
+     * Opens and maps the given file.
+     *
+     * @param file File to open
+     * @param magic Magic number identifying the kind of records expected in the file
+     * @param sectionCount Number of sections expected in the file
+     *
+     * @return The opened file.
+     *
+     * @throws IOException If the file can't be read or it's not a valid file of the expected kind.
+     */
+    static ColumnarFile open(Path file, int magic, int sectionCount)
+    throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer header =
+                ByteBuffer.allocate(HEADER_SIZE + sectionCount * SECTION_ENTRY_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+            {
+                // Keep reading until the header is complete or the file ends
+            }
+
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != magic)
+            {
+                throw new IOException(file + " is not a file of the expected kind");
+            }
+
+            int version = header.getInt();
+            int count = header.getInt();
+            int sections = header.getInt();
+            if (version != VERSION || count < 0 || sections != sectionCount
+                || header.remaining() < sectionCount * SECTION_ENTRY_SIZE)
+            {
+                throw new IOException(file + " has an unsupported version or layout");
+            }
+
+            ByteBuffer[] mapped = new ByteBuffer[sectionCount];
+            for (int i = 0; i < sectionCount; i++)
+            {
+                long offset = header.getLong();
+                long length = header.getLong();
+                if (offset < 0 || length < 0 || length > Integer.MAX_VALUE
+                    || offset + length > channel.size())
+                {
+                    throw new IOException(file + " is truncated or corrupted");
+                }
+
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+
+            return new ColumnarFile(channel, count, mapped);
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Returns whether the given file starts with the given magic number.
+     *
+     * @param file File to check
+     * @param magic Magic number identifying a kind of records
+     *
+     * @return {@code true} if the file is a columnar file of the given kind.
+     *
+     * @throws IOException If the file can't be read.
+     */
+    static boolean hasMagic(Path file, int magic)
+    throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+            {
+                // Keep reading until the magic number is complete or the file ends
+            }
+
+            return !header.hasRemaining() && header.getInt(0) == magic;
+        }
+    }
+
+    int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes of the given section.
+     *
+     * @param section Index of the section
+     *
+     * @return The length of the section.
+     */
+    int getLength(int section)
+    {
+        return sections[section].capacity();
+    }
+
+    /**
+     * Reads a value of an {@code int} column.
+     *
+     * @param section Index of the section of the column
+     * @param index Index of the value
+     *
+     * @return The value.
+     */
+    int getInt(int section, int index)
+    {
+        return sections[section].getInt(index * Integer.BYTES);
+    }
+
+    /**
+     * Reads a value of a {@code byte} column.
+     *
+     * @param section Index of the section of the column
+     * @param index Index of the value
+     *
+     * @return The value.
+     */
+    byte getByte(int section, int index)
+    {
+        return sections[section].get(index);
+    }
+
+    /**
+     * Reads a value of a string column.
+     *
+     * @param section Index of the first section of the column
+     * @param index Index of the value
+     *
+     * @return The decoded string.
+     */
+    String getString(int section, int index)
+    {
+        int start = index == 0 ? 0 : getInt(section, index - 1);
+        int end = getInt(section, index);
+        ByteBuffer blob = sections[section + 1];
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = blob.get(start + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a value of a list column. The list is a view of the file, each item is decoded when
+     * it's read.
+     *
+     * @param section Index of the first section of the column
+     * @param index Index of the value
+     *
+     * @return A read only list with the items of the value.
+     */
+    List<String> getList(int section, int index)
+    {
+        int start = index == 0 ? 0 : getInt(section, index - 1);
+        return new ListView(section + 1, start, getInt(section, index));
+    }
+
+    /**
+     * Closes the file. The mapped buffers stay valid until they are garbage collected.
+     *
+     * @throws IOException If there's any problem closing the file.
+     */
+    @Override
+    public void close()
+    throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Read only view of the items of a list column.
+     */
+    private final class ListView extends AbstractList<String> implements RandomAccess
+    {
+        /** Index of the first section of the string column holding the items. */
+        private final int itemSection;
+
+        /** Index of the first item. */
+        private final int start;
+
+        /** Index after the last item. */
+        private final int end;
+
+        ListView(int itemSection, int start, int end)
+        {
+            this.itemSection = itemSection;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String get(int index)
+        {
+            if (index < 0 || index >= end - start)
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+            }
+
+            return getString(itemSection, start + index);
+        }
+
+        @Override
+        public int size()
+        {
+            return end - start;
+        }
+    }
+
+    /**
+     * Writer of a columnar file. Every section is written to its own temporary file while the
+     * records are added, so the records don't need to fit in memory, and the sections are copied
+     * into the final file when the writer is closed. The final file is written next to the target
+     * and then moved over it atomically, so stores that still have the previous file mapped keep
+     * reading it instead of crashing on a truncated mapping. Records are added by writing a value
+     * to every column and then calling {@link #endRecord()}.
+     */
+    static final class Writer implements Closeable
+    {
+        /** Size of the buffer of every section. */
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        /** File being written. */
+        private final Path file;
+
+        /** Magic number identifying the kind of records. */
+        private final int magic;
+
+        /** Temporary files holding the sections. */
+        private final Path[] sectionFiles;
+
+        /** Outputs of the temporary files. */
+        private final DataOutputStream[] outputs;
+
+        /** Number of bytes written to every section. */
+        private final long[] lengths;
+
+        /** Number of items written to every list column, by its first section. */
+        private final int[] itemCounts;
+
+        /** Number of records. */
+        private int count;
+
+        /** Whether the writer is closed. */
+        private boolean closed;
+
+        /**
+         * Creates a new writer.
+         *
+         * @param file File to write, replaced if it exists
+         * @param magic Magic number identifying the kind of records
+         * @param sectionCount Number of sections of the file
+         *
+         * @throws IOException If the temporary files can't be created.
+         */
+        Writer(Path file, int magic, int sectionCount)
+        throws IOException
+        {
+            this.file = file;
+            this.magic = magic;
+            this.sectionFiles = new Path[sectionCount];
+            this.outputs = new DataOutputStream[sectionCount];
+            this.lengths = new long[sectionCount];
+            this.itemCounts = new int[sectionCount];
+            Path directory = file.toAbsolutePath().getParent();
+            try
+            {
+                for (int i = 0; i < sectionCount; i++)
+                {
+                    sectionFiles[i] =
+                        Files.createTempFile(directory, file.getFileName() + ".", ".section");
+                    outputs[i] =
+                        new DataOutputStream(
+                            new BufferedOutputStream(
+                                Files.newOutputStream(sectionFiles[i]), BUFFER_SIZE));
+                }
+            }
+            catch (IOException ioe)
+            {
+                discard();
+                throw ioe;
+            }
+        }
+
+        /**
+         * Writes a value of an {@code int} column.
+         *
+         * @param section Index of the section of the column
+         * @param value Value to write
+         *
+         * @throws IOException If there's any problem writing the value.
+         */
+        void writeInt(int section, int value)
+        throws IOException
+        {
+            outputs[section].writeInt(value);
+            lengths[section] += Integer.BYTES;
+        }
+
+        /**
+         * Writes a value of a {@code byte} column.
+         *
+         * @param section Index of the section of the column
+         * @param value Value to write
+         *
+         * @throws IOException If there's any problem writing the value.
+         */
+        void writeByte(int section, int value)
+        throws IOException
+        {
+            outputs[section].writeByte(value);
+            lengths[section]++;
+        }
+
+        /**
+         * Writes a value of a string column. A {@code null} string is written as an empty one.
+         *
+         * @param section Index of the first section of the column
+         * @param value Value to write
+         *
+         * @throws IOException If there's any problem writing the value or the column exceeds 2 GB.
+         */
+        void writeString(int section, String value)
+        throws IOException
+        {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            long end = lengths[section + 1] + bytes.length;
+            if (end > Integer.MAX_VALUE)
+            {
+                throw new IOException("The strings of a column can't exceed 2 GB");
+            }
+
+            outputs[section + 1].write(bytes);
+            lengths[section + 1] = end;
+            writeInt(section, (int)end);
+        }
+
+        /**
+         * Writes a value of a list column. A {@code null} list is written as an empty one.
+         *
+         * @param section Index of the first section of the column
+         * @param items Value to write
+         *
+         * @throws IOException If there's any problem writing the value or the column exceeds 2 GB.
+         */
+        void writeList(int section, List<String> items)
+        throws IOException
+        {
+            if (items != null)
+            {
+                for (String item : items)
+                {
+                    writeString(section + 1, item);
+                    itemCounts[section]++;
+                }
+            }
+
+            writeInt(section, itemCounts[section]);
+        }
+
+        /**
+         * Finishes the current record.
+         */
+        void endRecord()
+        {
+            count++;
+        }
+
+        int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Writes the header and copies the sections into a temporary file, moves it over the
+         * target file and then deletes the temporary files of the sections.
+         *
+         * @throws IOException If there's any problem writing the file.
+         */
+        @Override
+        public void close()
+        throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            closed = true;
+            try
+            {
+                for (DataOutputStream output : outputs)
+                {
+                    output.close();
+                }
+
+                ByteBuffer header =
+                    ByteBuffer.allocate(HEADER_SIZE + outputs.length * SECTION_ENTRY_SIZE);
+                header.putInt(magic).putInt(VERSION).putInt(count).putInt(outputs.length);
+                long offset = align(header.capacity());
+                for (long length : lengths)
+                {
+                    header.putLong(offset).putLong(length);
+                    offset = align(offset + length);
+                }
+
+                header.flip();
+                // Unlike a temporary file, the new file gets the default permissions
+                Path target =
+                    file.resolveSibling(
+                        file.getFileName() + "."
+                            + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+                try (FileChannel channel =
+                    FileChannel.open(
+                        target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+                {
+                    channel.write(header, 0);
+                    offset = align(header.capacity());
+                    for (int i = 0; i < sectionFiles.length; i++)
+                    {
+                        try (FileChannel section =
+                            FileChannel.open(sectionFiles[i], StandardOpenOption.READ))
+                        {
+                            long copied = 0;
+                            while (copied < lengths[i])
+                            {
+                                copied +=
+                                    section.transferTo(
+                                        copied, lengths[i] - copied, channel.position(
+                                            offset + copied));
+                            }
+                        }
+
+                        offset = align(offset + lengths[i]);
+                    }
+
+                    // Empty trailing sections start at the aligned end of the file
+                    if (channel.size() < offset)
+                    {
+                        channel.write(
+                            ByteBuffer.allocate((int)(offset - channel.size())), channel.size());
+                    }
+                }
+                catch (IOException ioe)
+                {
+                    Files.deleteIfExists(target);
+                    throw ioe;
+                }
+
+                try
+                {
+                    Files.move(
+                        target, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (IOException ioe)
+                {
+                    Files.deleteIfExists(target);
+                    throw ioe;
+                }
+            }
+            finally
+            {
+                discard();
+            }
+        }
+
+        /**
+         * Closes and deletes the temporary files.
+         *
+         * @throws IOException If any of the temporary files can't be deleted.
+         */
+        private void discard()
+        throws IOException
+        {
+            for (int i = 0; i < sectionFiles.length; i++)
+            {
+                if (outputs[i] != null)
+                {
+                    outputs[i].close();
+                }
+
+                if (sectionFiles[i] != null)
+                {
+                    Files.deleteIfExists(sectionFiles[i]);
+                }
+            }
+        }
+
+        /**
+         * Rounds the given offset up to the alignment of the sections.
+         *
+         * @param offset Offset in the file
+         *
+         * @return The aligned offset.
+         */
+        private static long align(long offset)
+        {
+            return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        }
+    }
+}
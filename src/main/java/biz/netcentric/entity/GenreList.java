@@ -0,0 +1,121 @@
+package biz.netcentric.entity;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable list of the genres of a {@link Book}. Books usually share a handful of genres and
+ * combinations of them, so the lists are kept in a shared dictionary: books with the same genres
+ * share the same list, and the same genre is held by a single string whatever the number of books
+ * and lists using it.
+ * <p>
+ * The genres may come from user input, for example from the parameters of a request, so the
+ * dictionaries are bounded: once they are full, new genres and combinations get a list of their
+ * own which is not shared.
+ *
+ * @author Jhoan Muñoz
+ */
+final class GenreList extends AbstractList<String> implements RandomAccess
+{
+    /** Maximum number of genres and of lists in the dictionaries. */
+    static final int MAX_SHARED = 4096;
+
+    /** Shared genres. */
+    private static final ConcurrentMap<String, String> GENRES = new ConcurrentHashMap<>();
+
+    /** Shared lists, by their genres. */
+    private static final ConcurrentMap<List<String>, GenreList> LISTS = new ConcurrentHashMap<>();
+
+    /** Genres of the list. */
+    private final String[] genres;
+
+    private GenreList(String[] genres)
+    {
+        this.genres = genres;
+    }
+
+    /**
+     * Returns the list of the given genres. The array is not kept by the list, so it can be
+     * modified afterwards.
+     *
+     * @param genres Genres of a book
+     *
+     * @return An immutable list, shared by all the books with the same genres while the dictionary
+     *         is not full.
+     */
+    static List<String> of(String... genres)
+    {
+        if (genres == null || genres.length == 0)
+        {
+            return Collections.emptyList();
+        }
+
+        GenreList list = LISTS.get(Arrays.asList(genres));
+        if (list != null)
+        {
+            return list;
+        }
+
+        String[] shared = new String[genres.length];
+        for (int i = 0; i < genres.length; i++)
+        {
+            shared[i] = intern(genres[i]);
+        }
+
+        list = new GenreList(shared);
+        if (LISTS.size() >= MAX_SHARED)
+        {
+            return list;
+        }
+
+        GenreList previous = LISTS.putIfAbsent(list, list);
+        return previous == null ? list : previous;
+    }
+
+    /**
+     * Returns the shared instance of the given genre.
+     *
+     * @param genre Genre of a book
+     *
+     * @return The shared string equal to the given genre, or the genre itself if the dictionary is
+     *         full.
+     */
+    private static String intern(String genre)
+    {
+        if (genre == null)
+        {
+            return null;
+        }
+
+        String shared = GENRES.get(genre);
+        if (shared != null)
+        {
+            return shared;
+        }
+
+        if (GENRES.size() >= MAX_SHARED)
+        {
+            return genre;
+        }
+
+        shared = GENRES.putIfAbsent(genre, genre);
+        return shared == null ? genre : shared;
+    }
+
+    @Override
+    public String get(int index)
+    {
+        return genres[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return genres.length;
+    }
+}
@@ -0,0 +1,313 @@
+package biz.netcentric.entity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link PersonRepository} holding the persons in memory, indexed by id in an open addressing
+ * hash table. The ids are stored in a plain {@code int} array, so neither filling the table nor
+ * looking up a person creates any object, and every lookup takes constant time whatever the
+ * number of persons.
+ * <p>
+ * The repository is filled with {@link #put(int, Person)} before it's published, either by code
+ * or from a file with {@link #load(Path)}. Once published it must not be modified; from then on it
+ * can be read by any number of threads.
+ *
+ * @author Jhoan Muñoz
+ */
+public class InMemoryPersonRepository implements PersonRepository
+{
+    /** Number of persons the table is sized for when no capacity is given. */
+    public static final int DEFAULT_EXPECTED_SIZE = 16;
+
+    /** Separator of the columns of the files read by {@link #load(Path)}. */
+    static final char SEPARATOR = '\t';
+
+    /** Prefix of the comment lines of the files read by {@link #load(Path)}. */
+    static final String COMMENT_PREFIX = "#";
+
+    /** Number of columns of the files read by {@link #load(Path)}. */
+    private static final int COLUMNS = 5;
+
+    /** Maximum fraction of slots in use before the table grows. */
+    private static final double LOAD_FACTOR = 0.5;
+
+    /** Maximum number of slots of a table, the largest power of two an array can hold. */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** Maximum number of persons of a table. */
+    static final int MAXIMUM_SIZE = (int)(MAXIMUM_CAPACITY * LOAD_FACTOR);
+
+    /** Ids of the persons, by slot. */
+    private int[] ids;
+
+    /** Persons, at the slot of their id. An empty slot holds {@code null}. */
+    private Person[] persons;
+
+    /** Number of persons in the table. */
+    private int size;
+
+    /** Number of persons the table can hold before it grows. */
+    private int threshold;
+
+    /**
+     * Creates an empty repository sized for {@link #DEFAULT_EXPECTED_SIZE} persons.
+     */
+    public InMemoryPersonRepository()
+    {
+        this(DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Creates an empty repository sized for the given number of persons, so it doesn't need to grow
+     * while it's filled.
+     *
+     * @param expectedSize Number of persons the repository is expected to hold, at most
+     *        536,870,912
+     */
+    public InMemoryPersonRepository(int expectedSize)
+    {
+        if (expectedSize < 0)
+        {
+            throw new IllegalArgumentException("The expected size can't be negative");
+        }
+
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Reads the persons from the given file. Every line holds a person, with its id, name, spouse,
+     * marital status ({@code true} or {@code false}) and number of children separated by tabs.
+     * Empty lines and lines starting with {@code #} are skipped.
+     *
+     * @param file File holding the persons
+     *
+     * @return A new repository with the persons of the file.
+     *
+     * @throws IOException If the file can't be read or any of its lines is not valid.
+     */
+    public static InMemoryPersonRepository load(Path file)
+    throws IOException
+    {
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String[] columns = new String[COLUMNS];
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith(COMMENT_PREFIX))
+                {
+                    continue;
+                }
+
+                if (split(line, columns) != COLUMNS)
+                {
+                    throw new IOException(
+                        "Invalid person at " + file + ":" + lineNumber + ", expected " + COLUMNS
+                            + " columns");
+                }
+
+                try
+                {
+                    repository.put(
+                        Integer.parseInt(columns[0].trim()),
+                        new Person(
+                            columns[1], columns[2], Boolean.parseBoolean(columns[3].trim()),
+                            Integer.parseInt(columns[4].trim())));
+                }
+                catch (NumberFormatException nfe)
+                {
+                    throw new IOException("Invalid person at " + file + ":" + lineNumber, nfe);
+                }
+            }
+        }
+
+        return repository;
+    }
+
+    /**
+     * Stores the given person, replacing the person with the same id if there's one.
+     *
+     * @param id Id of the person
+     * @param person Person to store
+     *
+     * @throws IllegalArgumentException If the person is {@code null}, or if it's a new person and
+     *         the repository already holds the maximum number of persons.
+     */
+    public void put(int id, Person person)
+    {
+        if (person == null)
+        {
+            throw new IllegalArgumentException("The person can't be null");
+        }
+
+        int slot = slot(id);
+        if (persons[slot] == null)
+        {
+            if (size == threshold)
+            {
+                grow();
+                slot = slot(id);
+            }
+
+            ids[slot] = id;
+            size++;
+        }
+
+        persons[slot] = person;
+    }
+
+    @Override
+    public Person lookup(int id)
+    {
+        return persons[slot(id)];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots of the table.
+     *
+     * @return The capacity of the table, a power of two.
+     */
+    int getCapacity()
+    {
+        return persons.length;
+    }
+
+    /**
+     * Returns the slot of the given id: the slot holding it, or the empty slot where it would be
+     * stored. Collisions are resolved by probing the following slots.
+     *
+     * @param id Id of a person
+     *
+     * @return The index of the slot.
+     */
+    private int slot(int id)
+    {
+        int mask = persons.length - 1;
+        int slot = hash(id) & mask;
+        while (persons[slot] != null && ids[slot] != id)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Doubles the size of the table and stores the persons again.
+     */
+    private void grow()
+    {
+        int[] oldIds = ids;
+        Person[] oldPersons = persons;
+        allocate(tableSizeFor(size + 1));
+        for (int i = 0; i < oldPersons.length; i++)
+        {
+            if (oldPersons[i] != null)
+            {
+                int slot = slot(oldIds[i]);
+                ids[slot] = oldIds[i];
+                persons[slot] = oldPersons[i];
+            }
+        }
+    }
+
+    /**
+     * Allocates an empty table with the given number of slots.
+     *
+     * @param capacity Number of slots, a power of two
+     */
+    private void allocate(int capacity)
+    {
+        ids = new int[capacity];
+        persons = new Person[capacity];
+        threshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Returns the number of slots needed to hold the given number of persons.
+     *
+     * @param expectedSize Number of persons
+     *
+     * @return A power of two, at most {@link #MAXIMUM_CAPACITY}.
+     *
+     * @throws IllegalArgumentException If the persons don't fit in the largest table.
+     */
+    static int tableSizeFor(int expectedSize)
+    {
+        if (expectedSize > MAXIMUM_SIZE)
+        {
+            throw new IllegalArgumentException(
+                "A table can't hold more than " + MAXIMUM_SIZE + " persons");
+        }
+
+        int capacity = 2;
+        while (capacity * LOAD_FACTOR < expectedSize)
+        {
+            capacity *= 2;
+        }
+
+        return capacity;
+    }
+
+    /**
+     * Spreads the bits of the given id, so consecutive ids don't fill consecutive slots.
+     *
+     * @param id Id of a person
+     *
+     * @return The hash of the id.
+     */
+    static int hash(int id)
+    {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Splits the given line by the {@link #SEPARATOR}.
+     *
+     * @param line Line to split
+     * @param columns Array where the columns are stored
+     *
+     * @return The number of columns of the line, which may be greater than the array length.
+     */
+    private static int split(String line, String[] columns)
+    {
+        int count = 0;
+        int start = 0;
+        while (true)
+        {
+            int end = line.indexOf(SEPARATOR, start);
+            if (count < columns.length)
+            {
+                columns[count] = end < 0 ? line.substring(start) : line.substring(start, end);
+            }
+
+            count++;
+            if (end < 0)
+            {
+                return count;
+            }
+
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "InMemoryPersonRepository [size=" + size + ", capacity=" + persons.length + "]";
+    }
+}
@@ -0,0 +1,78 @@
+package biz.netcentric.entity;
+
+import java.util.List;
+
+/**
+ * Read only {@link Book} backed by a record of a {@link MappedBookStore}. The view only holds the
+ * file and the index of the record; every property is read from the file when its getter is
+ * called.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MappedBook extends Book
+{
+    /** File holding the book. */
+    private final ColumnarFile file;
+
+    /** Index of the record of the book. */
+    private final int record;
+
+    MappedBook(ColumnarFile file, int record)
+    {
+        this.file = file;
+        this.record = record;
+    }
+
+    @Override
+    public String getName()
+    {
+        return file.getString(MappedBookStore.NAME, record);
+    }
+
+    @Override
+    public void setName(String name)
+    {
+        throw new UnsupportedOperationException("Mapped books are read only");
+    }
+
+    @Override
+    public String getAuthor()
+    {
+        return file.getString(MappedBookStore.AUTHOR, record);
+    }
+
+    @Override
+    public void setAuthor(String author)
+    {
+        throw new UnsupportedOperationException("Mapped books are read only");
+    }
+
+    @Override
+    public int getYear()
+    {
+        return file.getInt(MappedBookStore.YEAR, record);
+    }
+
+    @Override
+    public void setYear(int year)
+    {
+        throw new UnsupportedOperationException("Mapped books are read only");
+    }
+
+    /**
+     * Returns the genres of the book as a read only list which decodes every genre when it's read.
+     *
+     * @return The genres of the book.
+     */
+    @Override
+    public List<String> getGenres()
+    {
+        return file.getList(MappedBookStore.GENRES, record);
+    }
+
+    @Override
+    public void setGenres(List<String> genres)
+    {
+        throw new UnsupportedOperationException("Mapped books are read only");
+    }
+}
@@ -0,0 +1,213 @@
+package biz.netcentric.entity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Catalog of books read from a memory mapped {@link ColumnarFile}, so the size of the catalog is
+ * not limited by the heap and the books are not deserialized when the file is opened. The years
+ * are stored in an {@code int} column, the names and authors in string columns and the genres in a
+ * list column.
+ * <p>
+ * The books are {@link MappedBook} views which read their properties from the file when they are
+ * called. The whole catalog can be iterated by the templates through {@link #asList()}. Files are
+ * written with {@link Writer}.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MappedBookStore implements Closeable
+{
+    /** Magic number of the files of books, {@code SLB1} in ASCII. */
+    public static final int MAGIC = 0x534C4231;
+
+    /** Section of the years, by record. */
+    static final int YEAR = 0;
+
+    /** First section of the names. */
+    static final int NAME = 1;
+
+    /** First section of the authors. */
+    static final int AUTHOR = 3;
+
+    /** First section of the genres. */
+    static final int GENRES = 5;
+
+    /** Number of sections of the files. */
+    static final int SECTIONS = 8;
+
+    /** Mapped file. */
+    private final ColumnarFile file;
+
+    private MappedBookStore(ColumnarFile file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Opens and maps the given file of books.
+     *
+     * @param path File written by a {@link Writer}
+     *
+     * @return The store reading the books of the file.
+     *
+     * @throws IOException If the file can't be read or it's not a valid file of books.
+     */
+    public static MappedBookStore open(Path path)
+    throws IOException
+    {
+        ColumnarFile file = ColumnarFile.open(path, MAGIC, SECTIONS);
+        if (file.getLength(YEAR) != file.getCount() * Integer.BYTES)
+        {
+            file.close();
+            throw new IOException(path + " is not a valid file of books");
+        }
+
+        return new MappedBookStore(file);
+    }
+
+    /**
+     * Returns a view of the book at the given position of the catalog.
+     *
+     * @param index Position of the book, from 0 to {@link #size()} exclusive
+     *
+     * @return The book.
+     */
+    public Book get(int index)
+    {
+        if (index < 0 || index >= file.getCount())
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        return new MappedBook(file, index);
+    }
+
+    /**
+     * Returns the number of books in the catalog.
+     *
+     * @return The number of books.
+     */
+    public int size()
+    {
+        return file.getCount();
+    }
+
+    /**
+     * Returns a read only list view of the catalog. The views of the books are created when they
+     * are read, so iterating the list doesn't hold the books in memory.
+     *
+     * @return The books of the catalog.
+     */
+    public List<Book> asList()
+    {
+        return new BookList();
+    }
+
+    @Override
+    public void close()
+    throws IOException
+    {
+        file.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MappedBookStore [size=" + size() + "]";
+    }
+
+    /**
+     * Read only list view of the books of the store.
+     */
+    private final class BookList extends AbstractList<Book> implements RandomAccess
+    {
+        @Override
+        public Book get(int index)
+        {
+            return MappedBookStore.this.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return MappedBookStore.this.size();
+        }
+    }
+
+    /**
+     * Writer of the files read by {@link MappedBookStore}. The books are streamed to disk while
+     * they are added, so the catalog doesn't need to fit in memory.
+     */
+    public static final class Writer implements Closeable
+    {
+        /** Writer of the file. */
+        private final ColumnarFile.Writer writer;
+
+        /**
+         * Creates a writer of the given file.
+         *
+         * @param path File to write, replaced if it exists
+         *
+         * @throws IOException If the file can't be created.
+         */
+        public Writer(Path path)
+        throws IOException
+        {
+            writer = new ColumnarFile.Writer(path, MAGIC, SECTIONS);
+        }
+
+        /**
+         * Adds the given book at the end of the catalog.
+         *
+         * @param book Book to add
+         *
+         * @throws IOException If the book can't be written.
+         */
+        public void add(Book book)
+        throws IOException
+        {
+            if (book == null)
+            {
+                throw new IllegalArgumentException("The book can't be null");
+            }
+
+            writer.writeInt(YEAR, book.getYear());
+            writer.writeString(NAME, book.getName());
+            writer.writeString(AUTHOR, book.getAuthor());
+            writer.writeList(GENRES, book.getGenres());
+            writer.endRecord();
+        }
+
+        /**
+         * Adds the given books at the end of the catalog.
+         *
+         * @param books Books to add
+         *
+         * @throws IOException If any of the books can't be written.
+         */
+        public void addAll(Book... books)
+        throws IOException
+        {
+            for (Book book : books)
+            {
+                add(book);
+            }
+        }
+
+        /**
+         * Completes the file.
+         *
+         * @throws IOException If the file can't be written.
+         */
+        @Override
+        public void close()
+        throws IOException
+        {
+            writer.close();
+        }
+    }
+}
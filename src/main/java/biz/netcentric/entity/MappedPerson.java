@@ -0,0 +1,86 @@
+package biz.netcentric.entity;
+
+import java.util.List;
+
+/**
+ * Read only {@link Person} backed by a record of a {@link MappedPersonStore}. The view only holds
+ * the file and the index of the record; every property is read from the file when its getter is
+ * called, so looking up a person doesn't deserialize the rest of its properties.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MappedPerson extends Person
+{
+    /** File holding the person. */
+    private final ColumnarFile file;
+
+    /** Index of the record of the person. */
+    private final int record;
+
+    MappedPerson(ColumnarFile file, int record)
+    {
+        this.file = file;
+        this.record = record;
+    }
+
+    @Override
+    public String getName()
+    {
+        return file.getString(MappedPersonStore.NAME, record);
+    }
+
+    @Override
+    public void setName(String name)
+    {
+        throw new UnsupportedOperationException("Mapped persons are read only");
+    }
+
+    @Override
+    public String getSpouse()
+    {
+        return file.getString(MappedPersonStore.SPOUSE, record);
+    }
+
+    @Override
+    public void setSpouse(String spouse)
+    {
+        throw new UnsupportedOperationException("Mapped persons are read only");
+    }
+
+    @Override
+    public boolean isMarried()
+    {
+        return file.getByte(MappedPersonStore.MARRIED, record) != 0;
+    }
+
+    @Override
+    public void setMarried(boolean married)
+    {
+        throw new UnsupportedOperationException("Mapped persons are read only");
+    }
+
+    /**
+     * Returns the children of the person as a read only list which decodes every child when it's
+     * read.
+     *
+     * @return The children of the person.
+     */
+    @Override
+    public List<String> getChildren()
+    {
+        return file.getList(MappedPersonStore.CHILDREN, record);
+    }
+
+    @Override
+    public void setChildren(List<String> children)
+    {
+        throw new UnsupportedOperationException("Mapped persons are read only");
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Person [name=" + getName() + ", married=" + isMarried() + ", spouse="
+            + getSpouse() + ", children=" + getChildren() + "]";
+    }
+}
@@ -0,0 +1,258 @@
+package biz.netcentric.entity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * {@link PersonRepository} reading the persons from a memory mapped {@link ColumnarFile}, so the
+ * number of persons is not limited by the heap and the persons are not deserialized when the file
+ * is opened. The marital status is stored in a {@code byte} column, the names and spouses in string
+ * columns and the children in a list column. The ids are indexed by an open addressing hash table
+ * stored in the file as well, so every lookup takes constant time and only reads the pages it
+ * needs.
+ * <p>
+ * The persons returned by {@link #lookup(int)} are {@link MappedPerson} views which read their
+ * properties from the file when they are called. Files are written with {@link Writer}.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MappedPersonStore implements PersonRepository, Closeable
+{
+    /** Magic number of the files of persons, {@code SLP1} in ASCII. */
+    public static final int MAGIC = 0x534C5031;
+
+    /** Section of the ids, by record. */
+    static final int IDS = 0;
+
+    /** Section of the hash table of the ids, holding the record of every slot plus one. */
+    static final int INDEX = 1;
+
+    /** Section of the marital status, by record. */
+    static final int MARRIED = 2;
+
+    /** First section of the names. */
+    static final int NAME = 3;
+
+    /** First section of the spouses. */
+    static final int SPOUSE = 5;
+
+    /** First section of the children. */
+    static final int CHILDREN = 7;
+
+    /** Number of sections of the files. */
+    static final int SECTIONS = 10;
+
+    /**
+     * Maximum number of persons of a file, so the hash table of the ids, twice as large, fits in a
+     * section of 2 GB.
+     */
+    static final int MAXIMUM_SIZE = 1 << 27;
+
+    /** Mapped file. */
+    private final ColumnarFile file;
+
+    /** Mask of the slots of the hash table. */
+    private final int mask;
+
+    private MappedPersonStore(ColumnarFile file, int mask)
+    {
+        this.file = file;
+        this.mask = mask;
+    }
+
+    /**
+     * Opens and maps the given file of persons.
+     *
+     * @param path File written by a {@link Writer}
+     *
+     * @return The store reading the persons of the file.
+     *
+     * @throws IOException If the file can't be read or it's not a valid file of persons.
+     */
+    public static MappedPersonStore open(Path path)
+    throws IOException
+    {
+        ColumnarFile file = ColumnarFile.open(path, MAGIC, SECTIONS);
+        int capacity = file.getLength(INDEX) / Integer.BYTES;
+        if (Integer.bitCount(capacity) != 1 || capacity <= file.getCount()
+            || file.getLength(IDS) != file.getCount() * Integer.BYTES
+            || file.getLength(MARRIED) != file.getCount())
+        {
+            file.close();
+            throw new IOException(path + " is not a valid file of persons");
+        }
+
+        return new MappedPersonStore(file, capacity - 1);
+    }
+
+    /**
+     * Returns whether the given file is a file of persons written by a {@link Writer}.
+     *
+     * @param path File to check
+     *
+     * @return {@code true} if the file starts with the {@link #MAGIC} number.
+     *
+     * @throws IOException If the file can't be read.
+     */
+    public static boolean isMappedFile(Path path)
+    throws IOException
+    {
+        return ColumnarFile.hasMagic(path, MAGIC);
+    }
+
+    /**
+     * Returns a view of the person with the given id. Creating the view only allocates the view
+     * itself; its properties are read from the file when they are called.
+     *
+     * @param id Id of the person
+     *
+     * @return The person, or {@code null} if there's no person with the given id.
+     */
+    @Override
+    public Person lookup(int id)
+    {
+        int slot = InMemoryPersonRepository.hash(id) & mask;
+        while (true)
+        {
+            int record = file.getInt(INDEX, slot) - 1;
+            if (record < 0)
+            {
+                return null;
+            }
+
+            if (file.getInt(IDS, record) == id)
+            {
+                return new MappedPerson(file, record);
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return file.getCount();
+    }
+
+    @Override
+    public void close()
+    throws IOException
+    {
+        file.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MappedPersonStore [size=" + size() + ", capacity=" + (mask + 1) + "]";
+    }
+
+    /**
+     * Writer of the files read by {@link MappedPersonStore}. The properties of the persons are
+     * streamed to disk while they are added; only the ids are kept in memory, to build the hash
+     * table when the writer is closed.
+     */
+    public static final class Writer implements Closeable
+    {
+        /** Writer of the file. */
+        private final ColumnarFile.Writer writer;
+
+        /** Ids of the persons, by record. */
+        private int[] ids = new int[InMemoryPersonRepository.DEFAULT_EXPECTED_SIZE];
+
+        /**
+         * Creates a writer of the given file.
+         *
+         * @param path File to write, replaced if it exists
+         *
+         * @throws IOException If the file can't be created.
+         */
+        public Writer(Path path)
+        throws IOException
+        {
+            writer = new ColumnarFile.Writer(path, MAGIC, SECTIONS);
+        }
+
+        /**
+         * Adds the given person.
+         *
+         * @param id Id of the person, unique within the file
+         * @param person Person to add
+         *
+         * @throws IOException If the person can't be written or the file already holds
+         *         {@link #MAXIMUM_SIZE} persons.
+         */
+        public void add(int id, Person person)
+        throws IOException
+        {
+            if (person == null)
+            {
+                throw new IllegalArgumentException("The person can't be null");
+            }
+
+            int record = writer.getCount();
+            if (record == MAXIMUM_SIZE)
+            {
+                throw new IOException("A file can't hold more than " + MAXIMUM_SIZE + " persons");
+            }
+
+            if (record == ids.length)
+            {
+                ids = Arrays.copyOf(ids, record * 2);
+            }
+
+            ids[record] = id;
+            writer.writeInt(IDS, id);
+            writer.writeByte(MARRIED, person.isMarried() ? 1 : 0);
+            writer.writeString(NAME, person.getName());
+            writer.writeString(SPOUSE, person.getSpouse());
+            writer.writeList(CHILDREN, person.getChildren());
+            writer.endRecord();
+        }
+
+        /**
+         * Writes the hash table of the ids and completes the file.
+         *
+         * @throws IOException If the file can't be written or there are duplicated ids.
+         */
+        @Override
+        public void close()
+        throws IOException
+        {
+            try
+            {
+                int count = writer.getCount();
+                int capacity = InMemoryPersonRepository.tableSizeFor(count);
+                int mask = capacity - 1;
+                int[] slots = new int[capacity];
+                for (int record = 0; record < count; record++)
+                {
+                    int slot = InMemoryPersonRepository.hash(ids[record]) & mask;
+                    while (slots[slot] != 0)
+                    {
+                        if (ids[slots[slot] - 1] == ids[record])
+                        {
+                            throw new IOException("Duplicated person id " + ids[record]);
+                        }
+
+                        slot = (slot + 1) & mask;
+                    }
+
+                    slots[slot] = record + 1;
+                }
+
+                for (int slot : slots)
+                {
+                    writer.writeInt(INDEX, slot);
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package biz.netcentric.entity;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 
@@ -9,14 +11,14 @@ import java.util.List;
  */
 public class Person {
 
-    private static final List<Person> persons = new ArrayList<Person>() {
-        private static final long serialVersionUID = 8751914654566394666L;
-        {
-            add(new Person("Kerstin", "Jose", false, 1));
-            add(new Person("Erik", "Dora", true, 3));
-            add(new Person("Svajune", "Thomas", true, 0));
-        }
-    };
+    /**
+     * System property holding the path of a file with the persons returned by
+     * {@link #lookup(String)}: a file written by {@link MappedPersonStore.Writer} or a text file,
+     * see {@link InMemoryPersonRepository#load(java.nio.file.Path)}.
+     */
+    public static final String REPOSITORY_FILE_PROPERTY = "biz.netcentric.persons.file";
+
+    private static volatile PersonRepository repository = createDefaultRepository();
 
     private String name;
     private boolean married;
@@ -35,24 +37,68 @@ public class Person {
         this.name = name;
         this.spouse = spouse;
         this.married = isMarried;
-        children = new ArrayList<String>();
-
-        for (int i = 0; i < numberOfChildren; i++) {
-            children.add("Child " + i);
-        }
+        children = ChildrenList.of(numberOfChildren);
     }
 
     public static Person lookup(final String id) {
         if (id != null) {
-            final int personId = Integer.valueOf(id);
-            if (personId > 0 && personId <= persons.size()) {
-                return persons.get(personId - 1);
+            final Person person = repository.lookup(Integer.parseInt(id));
+            if (person != null) {
+                return person;
             }
         }
 
         return new Person("Empty Name", "Empty spouse", false, 0);
     }
 
+    public static PersonRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Replaces the repository used by {@link #lookup(String)}.
+     *
+     * @param newRepository Repository holding the persons
+     */
+    public static void setRepository(final PersonRepository newRepository) {
+        if (newRepository == null) {
+            throw new IllegalArgumentException("The repository can't be null");
+        }
+
+        repository = newRepository;
+    }
+
+    /**
+     * Creates the repository used until another one is set: the persons of the file given by the
+     * {@link #REPOSITORY_FILE_PROPERTY} system property or, if there's none, three sample persons
+     * with ids 1 to 3.
+     *
+     * @return The default repository.
+     */
+    private static PersonRepository createDefaultRepository() {
+        final String file = System.getProperty(REPOSITORY_FILE_PROPERTY);
+        if (file != null && !file.trim().isEmpty()) {
+            try {
+                final Path path = Paths.get(file.trim());
+                if (MappedPersonStore.isMappedFile(path)) {
+                    return MappedPersonStore.open(path);
+                }
+
+                return InMemoryPersonRepository.load(path);
+            } catch (IOException ioe) {
+                System.err.println("Unable to load the persons from " + file
+                        + ", using the sample persons");
+                ioe.printStackTrace();
+            }
+        }
+
+        final InMemoryPersonRepository samples = new InMemoryPersonRepository();
+        samples.put(1, new Person("Kerstin", "Jose", false, 1));
+        samples.put(2, new Person("Erik", "Dora", true, 3));
+        samples.put(3, new Person("Svajune", "Thomas", true, 0));
+        return samples;
+    }
+
     public String getName() {
         return name;
     }
@@ -0,0 +1,64 @@
+package biz.netcentric.entity;
+
+/**
+ * Source of the {@link Person} entities looked up by the templates through
+ * {@link Person#lookup(String)}. The repository used by {@link Person} can be replaced with
+ * {@link Person#setRepository(PersonRepository)}.
+ * <p>
+ * Implementations must be safe to read from several threads at the same time.
+ *
+ * @author Jhoan Muñoz
+ */
+public interface PersonRepository
+{
+    /**
+     * Returns the person with the given id.
+     *
+     * @param id Id of the person
+     *
+     * @return The person, or {@code null} if there's no person with the given id.
+     */
+    Person lookup(int id);
+
+    /**
+     * Looks up the persons with the given ids and stores them in the given array, each one at the
+     * index its id has in the ids array. Missing persons are stored as {@code null}. Nothing is
+     * allocated, so the same array can be reused for every batch.
+     *
+     * @param ids Ids of the persons
+     * @param persons Array where the persons are stored, at least as long as the ids
+     */
+    default void lookupAll(int[] ids, Person[] persons)
+    {
+        if (persons.length < ids.length)
+        {
+            throw new IllegalArgumentException("The array can't hold " + ids.length + " persons");
+        }
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            persons[i] = lookup(ids[i]);
+        }
+    }
+
+    /**
+     * Returns the persons with the given ids.
+     *
+     * @param ids Ids of the persons
+     *
+     * @return The persons, in the order of their ids. Missing persons are {@code null}.
+     */
+    default Person[] lookupAll(int[] ids)
+    {
+        Person[] persons = new Person[ids.length];
+        lookupAll(ids, persons);
+        return persons;
+    }
+
+    /**
+     * Returns the number of persons in the repository.
+     *
+     * @return The number of persons.
+     */
+    int size();
+}
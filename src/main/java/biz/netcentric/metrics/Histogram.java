@@ -0,0 +1,161 @@
+package biz.netcentric.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds. Recording a value doesn't allocate memory nor take locks,
+ * so it can be used in the request path by several threads at the same time.
+ * <p>
+ * The values are counted in fixed buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} buckets of the same width, so the percentiles have a relative error below
+ * 12.5% for any value up to several minutes, using a fixed amount of memory.
+ *
+ * @author Jhoan Muñoz
+ */
+public class Histogram
+{
+    /** Number of bits of the value used to pick the bucket inside a power of two. */
+    static final int SUB_BUCKET_BITS = 3;
+
+    /** Number of buckets every power of two is split into. */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Total number of buckets, enough for any positive long value. */
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** Number of values in each bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded values. */
+    private final LongAdder count = new LongAdder();
+
+    /** Sum of the recorded values. */
+    private final LongAdder sum = new LongAdder();
+
+    /** Largest recorded value. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration. Negative values are recorded as zero.
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value))
+        {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getSum()
+    {
+        return sum.sum();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return The mean in nanoseconds, or 0 if no value was recorded.
+     */
+    public double getMean()
+    {
+        long total = getCount();
+        return total == 0 ? 0 : (double)getSum() / total;
+    }
+
+    /**
+     * Returns an estimation of the given percentile of the recorded values: the upper bound of the
+     * bucket holding the percentile, capped to the largest recorded value.
+     *
+     * @param percentile Percentile, between 0 and 100
+     *
+     * @return The percentile in nanoseconds, or 0 if no value was recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank)
+            {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket of the given value.
+     *
+     * @param value Positive value
+     *
+     * @return The index of the bucket.
+     */
+    static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int)value;
+        }
+
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * Returns the largest value counted in the given bucket.
+     *
+     * @param bucket Index of the bucket
+     *
+     * @return The upper bound of the bucket.
+     */
+    static long upperBoundOf(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+        long upperBound = lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+}
@@ -0,0 +1,551 @@
+package biz.netcentric.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import biz.netcentric.template.OutputCache;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.TemplateCache;
+
+/**
+ * Metrics of a servlet: the {@link TemplateMetrics} of every requested template, the errors that
+ * can't be related to a template and the statistics of the template, script and output caches.
+ * <p>
+ * The metrics can be read through JMX, once {@link #registerMBeans(String)} is called, or as
+ * text in the Prometheus exposition format, see {@link #writeText(Appendable)}.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MetricsRegistry implements MetricsRegistryMXBean
+{
+    /** Name of the servlet context attribute holding the registry of the web application. */
+    public static final String CONTEXT_ATTRIBUTE = MetricsRegistry.class.getName();
+
+    /** Domain of the JMX object names. */
+    public static final String JMX_DOMAIN = "biz.netcentric";
+
+    /** Prefix of the metric names in the text output. */
+    static final String PREFIX = "slightly_";
+
+    /** Percentiles written to the text output. */
+    private static final double[] QUANTILES = {0.5, 0.99};
+
+    /** Cache of the compiled templates. */
+    private final TemplateCache templateCache;
+
+    /** Cache of the compiled Javascript code. */
+    private final ScriptCache scriptCache;
+
+    /** Cache of the rendered output. */
+    private final OutputCache outputCache;
+
+    /** Metrics of every template, keyed by servlet path. */
+    private final ConcurrentMap<String, TemplateMetrics> templates = new ConcurrentHashMap<>();
+
+    /** Number of requests for templates that don't exist. */
+    private final LongAdder notFound = new LongAdder();
+
+    /** Number of requests with a malformed path. */
+    private final LongAdder badUri = new LongAdder();
+
+    /** Number of requests answered with a 304 status because the client had the page. */
+    private final LongAdder notModified = new LongAdder();
+
+    /** Number of requests rejected because the async render queue was full. */
+    private final LongAdder rejected = new LongAdder();
+
+    /** Number of async requests answered with an error because they weren't rendered in time. */
+    private final LongAdder timedOut = new LongAdder();
+
+    /** Number of requests aborted because their Javascript code exceeded its budget. */
+    private final LongAdder budgetExceeded = new LongAdder();
+
+    /** Names of the registered MBeans, empty until they are registered. */
+    private final List<ObjectName> mbeanNames = new ArrayList<>();
+
+    /** Name of the servlet, part of the JMX object names. {@code null} until registered. */
+    private String servletName;
+
+    /**
+     * Creates a new registry.
+     *
+     * @param templateCache Cache of the compiled templates
+     * @param scriptCache Cache of the compiled Javascript code
+     * @param outputCache Cache of the rendered output
+     */
+    public MetricsRegistry(
+        TemplateCache templateCache, ScriptCache scriptCache, OutputCache outputCache)
+    {
+        this.templateCache = templateCache;
+        this.scriptCache = scriptCache;
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Returns the metrics of the given template, creating them the first time.
+     *
+     * @param path Servlet path of the template
+     *
+     * @return The metrics of the template.
+     */
+    public TemplateMetrics forTemplate(String path)
+    {
+        TemplateMetrics metrics = templates.get(path);
+        if (metrics != null)
+        {
+            return metrics;
+        }
+
+        metrics = new TemplateMetrics(path);
+        TemplateMetrics existing = templates.putIfAbsent(path, metrics);
+        if (existing != null)
+        {
+            return existing;
+        }
+
+        synchronized (mbeanNames)
+        {
+            if (servletName != null)
+            {
+                register(templateObjectName(path), metrics);
+            }
+        }
+
+        return metrics;
+    }
+
+    public Collection<TemplateMetrics> getTemplates()
+    {
+        return templates.values();
+    }
+
+    /**
+     * Records a request for a template that doesn't exist.
+     */
+    public void recordNotFound()
+    {
+        notFound.increment();
+    }
+
+    /**
+     * Records a request with a malformed path.
+     */
+    public void recordBadUri()
+    {
+        badUri.increment();
+    }
+
+    /**
+     * Records a request answered with a 304 status because the client already had the page.
+     */
+    public void recordNotModified()
+    {
+        notModified.increment();
+    }
+
+    /**
+     * Records a request rejected because the async render queue was full.
+     */
+    public void recordRejected()
+    {
+        rejected.increment();
+    }
+
+    /**
+     * Records an async request that wasn't rendered before its timeout.
+     */
+    public void recordTimeout()
+    {
+        timedOut.increment();
+    }
+
+    /**
+     * Records a request aborted because its Javascript code exceeded its instruction budget or
+     * time limit.
+     */
+    public void recordBudgetExceeded()
+    {
+        budgetExceeded.increment();
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        long total = getNotFoundCount() + getBadUriCount() + getRejectedCount();
+        for (TemplateMetrics metrics : templates.values())
+        {
+            total += metrics.getRequestCount();
+        }
+
+        return total;
+    }
+
+    @Override
+    public long getNotFoundCount()
+    {
+        return notFound.sum();
+    }
+
+    @Override
+    public long getBadUriCount()
+    {
+        return badUri.sum();
+    }
+
+    @Override
+    public long getNotModifiedCount()
+    {
+        return notModified.sum();
+    }
+
+    @Override
+    public long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getTimeoutCount()
+    {
+        return timedOut.sum();
+    }
+
+    @Override
+    public long getBudgetExceededCount()
+    {
+        return budgetExceeded.sum();
+    }
+
+    @Override
+    public long getScriptErrorCount()
+    {
+        long total = 0;
+        for (TemplateMetrics metrics : templates.values())
+        {
+            total += metrics.getErrorCount();
+        }
+
+        return total;
+    }
+
+    @Override
+    public long getTemplateCacheHitCount()
+    {
+        return templateCache.getHitCount();
+    }
+
+    @Override
+    public long getTemplateCacheMissCount()
+    {
+        return templateCache.getMissCount();
+    }
+
+    @Override
+    public long getTemplateCacheEvictionCount()
+    {
+        return templateCache.getEvictionCount();
+    }
+
+    @Override
+    public long getTemplateReloadCount()
+    {
+        return templateCache.getReloadCount();
+    }
+
+    @Override
+    public long getTemplateReloadFailureCount()
+    {
+        return templateCache.getReloadFailureCount();
+    }
+
+    @Override
+    public long getScriptCacheHitCount()
+    {
+        return scriptCache.getHitCount();
+    }
+
+    @Override
+    public long getScriptCacheCompileCount()
+    {
+        return scriptCache.getCompileCount();
+    }
+
+    @Override
+    public long getScriptCacheEvictionCount()
+    {
+        return scriptCache.getEvictionCount();
+    }
+
+    @Override
+    public long getOutputCacheHitCount()
+    {
+        return outputCache.getHitCount();
+    }
+
+    @Override
+    public long getOutputCacheMissCount()
+    {
+        return outputCache.getMissCount();
+    }
+
+    @Override
+    public long getOutputCacheEvictionCount()
+    {
+        return outputCache.getEvictionCount();
+    }
+
+    @Override
+    public long getOutputCacheBytes()
+    {
+        return outputCache.getBytes();
+    }
+
+    @Override
+    public double getOutputCacheHitRate()
+    {
+        return outputCache.getHitRate();
+    }
+
+    @Override
+    public String[] getTemplatePaths()
+    {
+        return templates.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Registers this registry and the metrics of every template in the platform MBean server. The
+     * metrics of the templates requested later are registered when they are created.
+     *
+     * @param name Name of the servlet, used to tell apart the metrics of different servlets
+     */
+    public void registerMBeans(String name)
+    {
+        synchronized (mbeanNames)
+        {
+            servletName = String.valueOf(name);
+            register(objectName("type=HTLProcessor"), this);
+            for (TemplateMetrics metrics : templates.values())
+            {
+                register(templateObjectName(metrics.getPath()), metrics);
+            }
+        }
+    }
+
+    /**
+     * Removes all the MBeans registered by this registry from the platform MBean server.
+     */
+    public void unregisterMBeans()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (mbeanNames)
+        {
+            for (ObjectName name : mbeanNames)
+            {
+                try
+                {
+                    server.unregisterMBean(name);
+                }
+                catch (JMException jme)
+                {
+                    jme.printStackTrace();
+                }
+            }
+
+            mbeanNames.clear();
+            servletName = null;
+        }
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format. Durations are written in
+     * seconds.
+     *
+     * @param out Output where the metrics are written
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    public void writeText(Appendable out)
+    throws IOException
+    {
+        writeCounter(out, "not_found_total", "Requests for templates that don't exist.",
+            getNotFoundCount());
+        writeCounter(out, "bad_uri_total", "Requests with a malformed path.", getBadUriCount());
+        writeCounter(out, "not_modified_total", "Requests answered with a 304 status.",
+            getNotModifiedCount());
+        writeCounter(out, "rejected_total", "Async requests rejected because the queue was full.",
+            getRejectedCount());
+        writeCounter(out, "timeouts_total", "Async requests not rendered before the timeout.",
+            getTimeoutCount());
+        writeCounter(out, "budget_exceeded_total",
+            "Requests aborted because their Javascript code ran for too long.",
+            getBudgetExceededCount());
+        writeCounter(out, "template_cache_hits_total", "Templates served from the cache.",
+            getTemplateCacheHitCount());
+        writeCounter(out, "template_cache_misses_total", "Templates read and compiled.",
+            getTemplateCacheMissCount());
+        writeCounter(out, "template_cache_evictions_total", "Templates evicted from the cache.",
+            getTemplateCacheEvictionCount());
+        writeCounter(out, "template_reloads_total",
+            "Templates compiled again in the background after their file changed.",
+            getTemplateReloadCount());
+        writeCounter(out, "template_reload_failures_total",
+            "Background compilations that failed, keeping the previous template.",
+            getTemplateReloadFailureCount());
+        writeCounter(out, "script_cache_hits_total", "Scripts served from the cache.",
+            getScriptCacheHitCount());
+        writeCounter(out, "script_cache_compilations_total", "Scripts compiled.",
+            getScriptCacheCompileCount());
+        writeCounter(out, "script_cache_evictions_total", "Scripts evicted from the cache.",
+            getScriptCacheEvictionCount());
+        writeCounter(out, "output_cache_hits_total", "Output served from the cache.",
+            getOutputCacheHitCount());
+        writeCounter(out, "output_cache_misses_total", "Output rendered to fill the cache.",
+            getOutputCacheMissCount());
+        writeCounter(out, "output_cache_evictions_total", "Output evicted from the cache.",
+            getOutputCacheEvictionCount());
+        writeHeader(out, "output_cache_bytes", "gauge", "Bytes of output held by the cache.");
+        writeSample(out, "output_cache_bytes", null, getOutputCacheBytes());
+
+        Map<String, TemplateMetrics> sorted = new TreeMap<>(templates);
+        writeHeader(out, "requests_total", "counter", "Processed requests per template.");
+        for (TemplateMetrics metrics : sorted.values())
+        {
+            writeSample(out, "requests_total", label(metrics), metrics.getRequestCount());
+        }
+
+        writeHeader(
+            out, "script_errors_total", "counter", "Requests failed by a Javascript error.");
+        for (TemplateMetrics metrics : sorted.values())
+        {
+            writeSample(out, "script_errors_total", label(metrics), metrics.getErrorCount());
+        }
+
+        writeHeader(
+            out, "expression_evaluations_total", "counter", "Evaluated expressions per template.");
+        for (TemplateMetrics metrics : sorted.values())
+        {
+            writeSample(
+                out, "expression_evaluations_total", label(metrics),
+                metrics.getExpressionEvaluationCount());
+        }
+
+        writeHeader(out, "stage_seconds", "summary", "Duration of each request stage.");
+        for (TemplateMetrics metrics : sorted.values())
+        {
+            for (Stage stage : Stage.values())
+            {
+                Histogram histogram = metrics.getHistogram(stage);
+                String labels = label(metrics) + ",stage=\"" + stage.label() + "\"";
+                for (double quantile : QUANTILES)
+                {
+                    writeSample(
+                        out, "stage_seconds", labels + ",quantile=\"" + quantile + "\"",
+                        histogram.getPercentile(quantile * 100) / 1e9);
+                }
+
+                writeSample(out, "stage_seconds_sum", labels, histogram.getSum() / 1e9);
+                writeSample(out, "stage_seconds_count", labels, histogram.getCount());
+                writeSample(out, "stage_seconds_max", labels, histogram.getMax() / 1e9);
+            }
+        }
+    }
+
+    /**
+     * Registers the given MBean, ignoring the errors so the metrics never break the servlet.
+     *
+     * @param name Object name of the MBean
+     * @param mbean MBean to register
+     */
+    private void register(ObjectName name, Object mbean)
+    {
+        if (name == null)
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            mbeanNames.add(name);
+        }
+        catch (JMException jme)
+        {
+            jme.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the object name of the metrics of the given template.
+     *
+     * @param path Servlet path of the template
+     *
+     * @return The object name, or {@code null} if it's not valid.
+     */
+    private ObjectName templateObjectName(String path)
+    {
+        return objectName("type=Template,path=" + ObjectName.quote(path));
+    }
+
+    /**
+     * Returns the object name with the given properties, in the domain of this servlet.
+     *
+     * @param properties Key properties of the object name
+     *
+     * @return The object name, or {@code null} if it's not valid.
+     */
+    private ObjectName objectName(String properties)
+    {
+        try
+        {
+            return new ObjectName(
+                JMX_DOMAIN + ":servlet=" + ObjectName.quote(servletName) + "," + properties);
+        }
+        catch (JMException jme)
+        {
+            jme.printStackTrace();
+            return null;
+        }
+    }
+
+    private static String label(TemplateMetrics metrics)
+    {
+        return "template=\"" + metrics.getPath().replace("\\", "\\\\").replace("\"", "\\\"")
+            + "\"";
+    }
+
+    private static void writeCounter(Appendable out, String name, String help, long value)
+    throws IOException
+    {
+        writeHeader(out, name, "counter", help);
+        writeSample(out, name, null, value);
+    }
+
+    private static void writeHeader(Appendable out, String name, String type, String help)
+    throws IOException
+    {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(Appendable out, String name, String labels, Object value)
+    throws IOException
+    {
+        out.append(PREFIX).append(name);
+        if (labels != null)
+        {
+            out.append('{').append(labels).append('}');
+        }
+
+        out.append(' ').append(String.valueOf(value)).append('\n');
+    }
+}
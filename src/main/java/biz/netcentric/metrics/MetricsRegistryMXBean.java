@@ -0,0 +1,53 @@
+package biz.netcentric.metrics;
+
+/**
+ * Management interface of the metrics shared by all the templates.
+ *
+ * @author Jhoan Muñoz
+ */
+public interface MetricsRegistryMXBean
+{
+    long getRequestCount();
+
+    long getNotFoundCount();
+
+    long getBadUriCount();
+
+    long getNotModifiedCount();
+
+    long getRejectedCount();
+
+    long getTimeoutCount();
+
+    long getBudgetExceededCount();
+
+    long getScriptErrorCount();
+
+    long getTemplateCacheHitCount();
+
+    long getTemplateCacheMissCount();
+
+    long getTemplateCacheEvictionCount();
+
+    long getTemplateReloadCount();
+
+    long getTemplateReloadFailureCount();
+
+    long getScriptCacheHitCount();
+
+    long getScriptCacheCompileCount();
+
+    long getScriptCacheEvictionCount();
+
+    long getOutputCacheHitCount();
+
+    long getOutputCacheMissCount();
+
+    long getOutputCacheEvictionCount();
+
+    long getOutputCacheBytes();
+
+    double getOutputCacheHitRate();
+
+    String[] getTemplatePaths();
+}
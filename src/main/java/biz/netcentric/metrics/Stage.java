@@ -0,0 +1,34 @@
+package biz.netcentric.metrics;
+
+/**
+ * Stages of the processing of a request, timed separately for every template.
+ *
+ * @author Jhoan Muñoz
+ */
+public enum Stage
+{
+    /** Getting the compiled template, which includes reading and compiling it on a cache miss. */
+    LOAD,
+
+    /** Executing the server side script of the template. */
+    SCRIPT,
+
+    /** Rendering the compiled template, which includes evaluating its expressions. */
+    RENDER,
+
+    /** Sending the rest of the rendered HTML to the client. */
+    WRITE,
+
+    /** Whole request, from the beginning of the load stage to the end of the write stage. */
+    TOTAL;
+
+    /**
+     * Returns the name of the stage used in the metrics output.
+     *
+     * @return The name of the stage in lower case.
+     */
+    public String label()
+    {
+        return name().toLowerCase();
+    }
+}
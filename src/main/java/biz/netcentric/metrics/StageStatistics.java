@@ -0,0 +1,77 @@
+package biz.netcentric.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the durations recorded for a stage, in microseconds. It's exposed as a composite
+ * value through JMX.
+ *
+ * @author Jhoan Muñoz
+ */
+public class StageStatistics
+{
+    private final long count;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double maxMicros;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param count Number of recorded durations
+     * @param meanMicros Mean duration
+     * @param p50Micros Median duration
+     * @param p99Micros 99th percentile of the durations
+     * @param maxMicros Longest duration
+     */
+    @ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+    public StageStatistics(
+        long count, double meanMicros, double p50Micros, double p99Micros, double maxMicros)
+    {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * Creates a snapshot of the given histogram.
+     *
+     * @param histogram Histogram of durations in nanoseconds
+     *
+     * @return The snapshot.
+     */
+    static StageStatistics of(Histogram histogram)
+    {
+        return new StageStatistics(
+            histogram.getCount(), histogram.getMean() / 1e3, histogram.getPercentile(50) / 1e3,
+            histogram.getPercentile(99) / 1e3, histogram.getMax() / 1e3);
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMeanMicros()
+    {
+        return meanMicros;
+    }
+
+    public double getP50Micros()
+    {
+        return p50Micros;
+    }
+
+    public double getP99Micros()
+    {
+        return p99Micros;
+    }
+
+    public double getMaxMicros()
+    {
+        return maxMicros;
+    }
+}
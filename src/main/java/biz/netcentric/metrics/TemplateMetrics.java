@@ -0,0 +1,136 @@
+package biz.netcentric.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single template: the duration of every stage of its requests and the number of
+ * requests, errors and evaluated expressions. Recording doesn't allocate memory nor take locks.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateMetrics implements TemplateMetricsMXBean
+{
+    /** Servlet path of the template. */
+    private final String path;
+
+    /** Durations of each stage. */
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+
+    /** Number of processed requests. */
+    private final LongAdder requests = new LongAdder();
+
+    /** Number of requests that failed because of an error in the Javascript code. */
+    private final LongAdder errors = new LongAdder();
+
+    /** Number of evaluated data-if, data-for-x and $-expressions. */
+    private final LongAdder expressionEvaluations = new LongAdder();
+
+    /**
+     * Creates the metrics of a template.
+     *
+     * @param path Servlet path of the template
+     */
+    public TemplateMetrics(String path)
+    {
+        this.path = path;
+        for (Stage stage : Stage.values())
+        {
+            stages.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param stage Stage of the request
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(Stage stage, long nanos)
+    {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Records a processed request.
+     *
+     * @param expressions Number of expressions evaluated by the request
+     * @param failed Whether the request failed
+     */
+    public void recordRequest(int expressions, boolean failed)
+    {
+        requests.increment();
+        expressionEvaluations.add(expressions);
+        if (failed)
+        {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Returns the histogram of the given stage.
+     *
+     * @param stage Stage of the request
+     *
+     * @return The histogram of durations in nanoseconds.
+     */
+    public Histogram getHistogram(Stage stage)
+    {
+        return stages.get(stage);
+    }
+
+    @Override
+    public String getPath()
+    {
+        return path;
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return requests.sum();
+    }
+
+    @Override
+    public long getErrorCount()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public long getExpressionEvaluationCount()
+    {
+        return expressionEvaluations.sum();
+    }
+
+    @Override
+    public StageStatistics getLoad()
+    {
+        return StageStatistics.of(stages.get(Stage.LOAD));
+    }
+
+    @Override
+    public StageStatistics getScript()
+    {
+        return StageStatistics.of(stages.get(Stage.SCRIPT));
+    }
+
+    @Override
+    public StageStatistics getRender()
+    {
+        return StageStatistics.of(stages.get(Stage.RENDER));
+    }
+
+    @Override
+    public StageStatistics getWrite()
+    {
+        return StageStatistics.of(stages.get(Stage.WRITE));
+    }
+
+    @Override
+    public StageStatistics getTotal()
+    {
+        return StageStatistics.of(stages.get(Stage.TOTAL));
+    }
+}
@@ -0,0 +1,27 @@
+package biz.netcentric.metrics;
+
+/**
+ * Management interface of the metrics of a single template.
+ *
+ * @author Jhoan Muñoz
+ */
+public interface TemplateMetricsMXBean
+{
+    String getPath();
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getExpressionEvaluationCount();
+
+    StageStatistics getLoad();
+
+    StageStatistics getScript();
+
+    StageStatistics getRender();
+
+    StageStatistics getWrite();
+
+    StageStatistics getTotal();
+}
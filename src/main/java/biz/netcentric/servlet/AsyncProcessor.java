@@ -0,0 +1,622 @@
+package biz.netcentric.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import biz.netcentric.metrics.MetricsRegistry;
+
+/**
+ * Processes requests asynchronously, so the container threads are not held while the templates
+ * are rendered. Each request is handled in these steps:
+ * <ol>
+ *     <li>The request is put in async mode and handed to a dedicated executor with a bounded
+ *     number of threads and a bounded queue. When the queue is full, the request is rejected right
+ *     away with a 503 status.</li>
+ *     <li>A render thread processes the request, writing the status, the headers and the
+ *     rendered HTML to a buffer.</li>
+ *     <li>The buffer is written to the client with non-blocking I/O, through a
+ *     {@link WriteListener}, and the request is completed.</li>
+ * </ol>
+ *
+ * If the request isn't rendered before the timeout, it's answered with a 503 status and the result
+ * of the rendering, if it ever finishes, is discarded. Since the whole page is buffered, the
+ * flushing settings of the {@link ResponseWriter} don't apply in async mode.
+ *
+ * @author Jhoan Muñoz
+ */
+public class AsyncProcessor
+{
+    /** Seconds the clients are asked to wait before retrying a rejected request. */
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    /** Number of bytes written at once to the response. */
+    static final int WRITE_CHUNK_SIZE = 8192;
+
+    /** Processes a request synchronously. */
+    @FunctionalInterface
+    public interface RequestHandler
+    {
+        /**
+         * Processes the given request.
+         *
+         * @param request Object containing the request information
+         * @param response Object containing the response information
+         * @throws ServletException If there's any exception not treated during the processing.
+         * @throws IOException If there's any problem writing the response.
+         */
+        void process(HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException;
+    }
+
+    /** Handler rendering the requests in the render threads. */
+    private final RequestHandler handler;
+
+    /** Executor running the renderings. */
+    private final ThreadPoolExecutor executor;
+
+    /** Milliseconds a request can wait and render before it's answered with a 503 status. */
+    private final long timeoutMillis;
+
+    /** Metrics where the rejected and timed out requests are recorded. */
+    private final MetricsRegistry metrics;
+
+    /**
+     * Creates a new processor.
+     *
+     * @param handler Handler rendering the requests
+     * @param threads Number of render threads
+     * @param queueSize Maximum number of requests waiting for a render thread
+     * @param timeoutMillis Milliseconds a request can wait and render before it's answered with a
+     *                      503 status
+     * @param metrics Metrics where the rejected and timed out requests are recorded
+     */
+    public AsyncProcessor(
+        RequestHandler handler, int threads, int queueSize, long timeoutMillis,
+        MetricsRegistry metrics)
+    {
+        if (threads < 1 || queueSize < 1)
+        {
+            throw new IllegalArgumentException("At least one thread and one queue slot needed");
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.handler = handler;
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = metrics;
+        this.executor =
+            new ThreadPoolExecutor(
+                threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread =
+                        new Thread(runnable, "slightly-render-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Starts the asynchronous processing of the given request. The method returns right away,
+     * before the request is rendered.
+     *
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     */
+    public void process(HttpServletRequest request, HttpServletResponse response)
+    {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeoutMillis);
+        AtomicBoolean answered = new AtomicBoolean();
+        asyncContext.addListener(new TimeoutListener(answered));
+
+        try
+        {
+            executor.execute(() -> render(asyncContext, request, response, answered));
+        }
+        catch (RejectedExecutionException ree)
+        {
+            metrics.recordRejected();
+            if (answered.compareAndSet(false, true))
+            {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+                asyncContext.complete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a render thread.
+     *
+     * @return The length of the queue.
+     */
+    public int getQueueDepth()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the render threads, waiting a bit for the running renderings to finish.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Renders the given request in a buffer and starts writing it to the client. Runs in a render
+     * thread.
+     *
+     * @param asyncContext Async context of the request
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     * @param answered Whether the request was already answered, for example because of a timeout
+     */
+    private void render(
+        AsyncContext asyncContext, HttpServletRequest request, HttpServletResponse response,
+        AtomicBoolean answered)
+    {
+        if (answered.get())
+        {
+            return;
+        }
+
+        BufferedResponse bufferedResponse = new BufferedResponse(response);
+        try
+        {
+            handler.process(request, bufferedResponse);
+        }
+        catch (Throwable throwable)
+        {
+            throwable.printStackTrace();
+            bufferedResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        // The status and headers are only copied once the request is ours, after a timeout the
+        // container may have recycled the response for another request
+        if (!answered.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            byte[] content = bufferedResponse.toByteArray();
+            bufferedResponse.copyTo(response);
+            response.setContentLength(content.length);
+            response.getOutputStream().setWriteListener(
+                new NonBlockingWriter(asyncContext, response.getOutputStream(), content));
+        }
+        catch (Throwable throwable)
+        {
+            throwable.printStackTrace();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Answers the requests that time out with a 503 status, unless they were already answered.
+     */
+    private final class TimeoutListener implements AsyncListener
+    {
+        private final AtomicBoolean answered;
+
+        TimeoutListener(AtomicBoolean answered)
+        {
+            this.answered = answered;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            if (answered.compareAndSet(false, true))
+            {
+                metrics.recordTimeout();
+                ((HttpServletResponse)event.getSuppliedResponse()).setStatus(
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                event.getAsyncContext().complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            answered.set(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+
+    /**
+     * Writes a buffer to the client only while the output is ready, so no thread blocks on a slow
+     * client, and completes the request at the end.
+     */
+    static final class NonBlockingWriter implements WriteListener
+    {
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final byte[] content;
+
+        /** Number of bytes already written. */
+        private int position;
+
+        NonBlockingWriter(AsyncContext asyncContext, ServletOutputStream out, byte[] content)
+        {
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.content = content;
+        }
+
+        @Override
+        public void onWritePossible()
+        throws IOException
+        {
+            while (out.isReady())
+            {
+                if (position == content.length)
+                {
+                    asyncContext.complete();
+                    return;
+                }
+
+                int length = Math.min(WRITE_CHUNK_SIZE, content.length - position);
+                out.write(content, position, length);
+                position += length;
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            throwable.printStackTrace();
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Response that keeps the status, the headers and the body in memory instead of sending them,
+     * so nothing reaches the wrapped response until {@link #copyTo(HttpServletResponse)} is
+     * called.
+     */
+    static final class BufferedResponse extends HttpServletResponseWrapper
+    {
+        /** Format of the date headers. */
+        private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+        /** Body of the response. */
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(WRITE_CHUNK_SIZE);
+
+        /** Headers of the response, by name. */
+        private final Map<String, List<String>> headers =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        /** Status of the response. */
+        private int status = SC_OK;
+
+        /** Content type of the response, {@code null} if it's not set. */
+        private String contentType;
+
+        /** Character encoding of the response, {@code null} if it's not set. */
+        private String characterEncoding;
+
+        /** Writer over the body, created on demand. */
+        private PrintWriter writer;
+
+        /** Output stream over the body. */
+        private final ServletOutputStream outputStream =
+            new ServletOutputStream()
+            {
+                @Override
+                public void write(int value)
+                {
+                    body.write(value);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length)
+                {
+                    body.write(buffer, offset, length);
+                }
+
+                @Override
+                public boolean isReady()
+                {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener)
+                {
+                    throw new IllegalStateException("The response is buffered");
+                }
+            };
+
+        BufferedResponse(HttpServletResponse response)
+        {
+            super(response);
+        }
+
+        @Override
+        public PrintWriter getWriter()
+        {
+            if (writer == null)
+            {
+                writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+            }
+
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream()
+        {
+            return outputStream;
+        }
+
+        @Override
+        public void flushBuffer()
+        {
+            if (writer != null)
+            {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public boolean isCommitted()
+        {
+            return false;
+        }
+
+        @Override
+        public void resetBuffer()
+        {
+            flushBuffer();
+            body.reset();
+        }
+
+        @Override
+        public void reset()
+        {
+            resetBuffer();
+            headers.clear();
+            status = SC_OK;
+            contentType = null;
+            characterEncoding = null;
+        }
+
+        @Override
+        public void setBufferSize(int size)
+        {
+            // The whole body is buffered
+        }
+
+        @Override
+        public void setStatus(int status)
+        {
+            this.status = status;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int status, String message)
+        {
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status)
+        {
+            resetBuffer();
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status, String message)
+        {
+            sendError(status);
+            getWriter().print(message);
+        }
+
+        @Override
+        public void sendRedirect(String location)
+        {
+            resetBuffer();
+            status = SC_FOUND;
+            setHeader("Location", location);
+        }
+
+        @Override
+        public int getStatus()
+        {
+            return status;
+        }
+
+        @Override
+        public void setContentType(String type)
+        {
+            contentType = type;
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset)
+        {
+            characterEncoding = charset;
+        }
+
+        @Override
+        public String getCharacterEncoding()
+        {
+            return characterEncoding == null
+                ? StandardCharsets.UTF_8.name()
+                : characterEncoding;
+        }
+
+        @Override
+        public void setContentLength(int length)
+        {
+            // Set from the buffered body when the response is sent
+        }
+
+        @Override
+        public void setContentLengthLong(long length)
+        {
+            // Set from the buffered body when the response is sent
+        }
+
+        @Override
+        public void setHeader(String name, String value)
+        {
+            List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+
+        @Override
+        public void addHeader(String name, String value)
+        {
+            headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value)
+        {
+            setHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public void addIntHeader(String name, int value)
+        {
+            addHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public void setDateHeader(String name, long date)
+        {
+            setHeader(name, DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+        }
+
+        @Override
+        public void addDateHeader(String name, long date)
+        {
+            addHeader(name, DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+        }
+
+        @Override
+        public boolean containsHeader(String name)
+        {
+            return headers.containsKey(name);
+        }
+
+        @Override
+        public String getHeader(String name)
+        {
+            List<String> values = headers.get(name);
+            return values == null ? null : values.get(0);
+        }
+
+        @Override
+        public Collection<String> getHeaders(String name)
+        {
+            List<String> values = headers.get(name);
+            return values == null
+                ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(values);
+        }
+
+        @Override
+        public Collection<String> getHeaderNames()
+        {
+            return Collections.unmodifiableSet(headers.keySet());
+        }
+
+        /**
+         * Returns the buffered body.
+         *
+         * @return The bytes written to the response.
+         */
+        byte[] toByteArray()
+        {
+            flushBuffer();
+            return body.toByteArray();
+        }
+
+        /**
+         * Sets the buffered status, content type, character encoding and headers in the given
+         * response. The body is not copied.
+         *
+         * @param response Response where the buffered values are set
+         */
+        void copyTo(HttpServletResponse response)
+        {
+            response.setStatus(status);
+            if (contentType != null)
+            {
+                response.setContentType(contentType);
+            }
+
+            if (characterEncoding != null)
+            {
+                response.setCharacterEncoding(characterEncoding);
+            }
+
+            headers.forEach(
+                (name, values) -> {
+                    response.setHeader(name, values.get(0));
+                    for (int i = 1; i < values.size(); i++)
+                    {
+                        response.addHeader(name, values.get(i));
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package biz.netcentric.servlet;
+
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import biz.netcentric.template.Template;
+
+/**
+ * Computes the strong entity tags of the rendered pages and evaluates the {@code If-None-Match}
+ * request header against them.
+ * <p>
+ * A page only gets an entity tag when its template declares the request parameters it depends on,
+ * see {@link Template#getVaryParameters()}. The tag is made of the hash of the template content
+ * and a hash of the values of those parameters, so it changes whenever the template or any of its
+ * declared inputs change.
+ * <p>
+ * The hash of the parameters is not cryptographic, so values crafted by a client can collide with
+ * the tag of another page. That only matters for the revalidation of the client's own copy; the
+ * server side page cache is keyed by {@link #cacheKey(Template, HttpServletRequest)} instead, which
+ * holds the exact values.
+ *
+ * @author Jhoan Muñoz
+ */
+final class ETag
+{
+    /** Name of the response header holding the entity tag. */
+    static final String HEADER = "ETag";
+
+    /** Name of the request header holding the entity tags the client already has. */
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    /** Value of the {@code If-None-Match} header matching any entity tag. */
+    static final String ANY = "*";
+
+    /** Prefix of the weak entity tags. */
+    private static final String WEAK_PREFIX = "W/";
+
+    /** Initial value of the FNV-1a hash. */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /** Multiplier of the FNV-1a hash. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ETag()
+    {
+    }
+
+    /**
+     * Computes the entity tag of the page rendered from the given template for the given request.
+     *
+     * @param template Compiled template requested by the user
+     * @param request Object containing the request information
+     *
+     * @return The quoted entity tag, or {@code null} if the template doesn't declare the request
+     *         parameters it depends on.
+     */
+    static String compute(Template template, HttpServletRequest request)
+    {
+        List<String> parameters = template.getVaryParameters();
+        if (parameters == null)
+        {
+            return null;
+        }
+
+        long hash = FNV_OFFSET_BASIS;
+        for (String parameter : parameters)
+        {
+            hash = hash(hash, parameter);
+            String[] values = request.getParameterValues(parameter);
+            if (values == null)
+            {
+                hash = hash(hash, '\1');
+                continue;
+            }
+
+            for (String value : values)
+            {
+                hash = hash(hash(hash, '\0'), value);
+            }
+
+            hash = hash(hash, '\2');
+        }
+
+        return '"' + Long.toHexString(template.getContentHash()) + '-' + Long.toHexString(hash)
+            + '"';
+    }
+
+    /**
+     * Computes the key of the page rendered from the given template for the given request in the
+     * output cache. Unlike the entity tag, the key holds the declared parameters and their values
+     * themselves, each one prefixed with its length, so two different sets of values never share
+     * a key.
+     *
+     * @param template Compiled template requested by the user
+     * @param request Object containing the request information
+     *
+     * @return The cache key, or {@code null} if the template doesn't declare the request
+     *         parameters it depends on.
+     */
+    static String cacheKey(Template template, HttpServletRequest request)
+    {
+        List<String> parameters = template.getVaryParameters();
+        if (parameters == null)
+        {
+            return null;
+        }
+
+        StringBuilder key =
+            new StringBuilder(template.getPath()).append(':').append(
+                Long.toHexString(template.getContentHash()));
+        for (String parameter : parameters)
+        {
+            append(key, parameter);
+            String[] values = request.getParameterValues(parameter);
+            if (values == null)
+            {
+                key.append('-');
+                continue;
+            }
+
+            key.append(values.length);
+            for (String value : values)
+            {
+                append(key, value);
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Returns whether the given {@code If-None-Match} header matches the given entity tag. Weak
+     * tags in the header are compared as if they were strong, as required for this header.
+     *
+     * @param ifNoneMatch Value of the {@code If-None-Match} header, may be {@code null}
+     * @param etag Quoted entity tag of the page
+     *
+     * @return {@code true} if the client already has the page.
+     */
+    static boolean matches(String ifNoneMatch, String etag)
+    {
+        if (ifNoneMatch == null)
+        {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(","))
+        {
+            String tag = candidate.trim();
+            if (tag.startsWith(WEAK_PREFIX))
+            {
+                tag = tag.substring(WEAK_PREFIX.length());
+            }
+
+            if (tag.equals(ANY) || tag.equals(etag))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Turns the given entity tag into a weak one, for example for a compressed body, which is not
+     * byte for byte the page the strong tag identifies.
+     *
+     * @param etag Quoted entity tag
+     *
+     * @return The weak entity tag.
+     */
+    static String weaken(String etag)
+    {
+        return etag.startsWith(WEAK_PREFIX) ? etag : WEAK_PREFIX + etag;
+    }
+
+    /**
+     * Appends the given text to a cache key, prefixed with its length.
+     *
+     * @param key Cache key being built
+     * @param text Text to append
+     */
+    private static void append(StringBuilder key, String text)
+    {
+        key.append(':').append(text.length()).append(':').append(text);
+    }
+
+    /**
+     * Adds the characters of the given text to an FNV-1a hash.
+     *
+     * @param hash Current hash
+     * @param text Text to add
+     *
+     * @return The new hash.
+     */
+    private static long hash(long hash, String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            hash = hash(hash, text.charAt(i));
+        }
+
+        return hash;
+    }
+
+    /**
+     * Adds the given character to an FNV-1a hash.
+     *
+     * @param hash Current hash
+     * @param character Character to add
+     *
+     * @return The new hash.
+     */
+    private static long hash(long hash, char character)
+    {
+        return ((hash ^ (character >>> Byte.SIZE)) * FNV_PRIME ^ (character & 0xFF)) * FNV_PRIME;
+    }
+}
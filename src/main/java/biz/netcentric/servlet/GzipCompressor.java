@@ -0,0 +1,331 @@
+package biz.netcentric.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Compresses the responses in the gzip format with the {@link Deflater} of the JDK.
+ * <p>
+ * Creating a {@link Deflater} allocates native memory that is only released when it's ended, so
+ * the deflaters are kept in a bounded pool and reused by the following responses instead of being
+ * created for every request. The gzip header and trailer are written by this class, since
+ * {@link java.util.zip.GZIPOutputStream} always creates its own deflater.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author Jhoan Muñoz
+ */
+final class GzipCompressor
+{
+    /** Name of the request header listing the encodings accepted by the client. */
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    /** Name of the response header holding the encoding of the body. */
+    static final String CONTENT_ENCODING = "Content-Encoding";
+
+    /** Name of the response header listing the request headers the response depends on. */
+    static final String VARY = "Vary";
+
+    /** Name of the gzip encoding. */
+    static final String GZIP = "gzip";
+
+    /** Compression level used when none is configured. */
+    static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    /** Minimum number of bytes of a body to compress it, when none is configured. */
+    static final int DEFAULT_MIN_SIZE = 1024;
+
+    /** Legacy name of the gzip encoding, still accepted. */
+    private static final String X_GZIP = "x-gzip";
+
+    /** Name of the encoding matching any encoding not listed. */
+    private static final String ANY = "*";
+
+    /** Name of the quality parameter of the accepted encodings. */
+    private static final String QUALITY = "q=";
+
+    /** Gzip header: magic number, deflate method, no flags, no time, no extra flags, unknown OS. */
+    private static final byte[] HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /** Size of the buffer used to deflate, in bytes. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Compression level of the deflaters, from 0 to 9 or -1 for the default level. */
+    private final int level;
+
+    /** Minimum number of bytes of a body to compress it. */
+    private final int minSize;
+
+    /** Deflaters ready to be reused. */
+    private final BlockingQueue<Deflater> pool;
+
+    /**
+     * Creates a new compressor.
+     *
+     * @param level Compression level, from 0 to 9 or -1 for the default level
+     * @param minSize Minimum number of bytes of a body to compress it
+     * @param poolSize Maximum number of idle deflaters kept for reuse
+     */
+    GzipCompressor(int level, int minSize, int poolSize)
+    {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            && level != Deflater.DEFAULT_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+
+        if (minSize < 0 || poolSize < 1)
+        {
+            throw new IllegalArgumentException("Invalid compression settings");
+        }
+
+        this.level = level;
+        this.minSize = minSize;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Returns whether the given request accepts gzip encoded responses, according to its
+     * {@code Accept-Encoding} header.
+     *
+     * @param request Object containing the request information
+     *
+     * @return {@code true} if gzip is accepted with a quality greater than zero.
+     */
+    static boolean accepts(HttpServletRequest request)
+    {
+        String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+
+        float anyQuality = 0;
+        for (String encoding : acceptEncoding.split(","))
+        {
+            String[] parts = encoding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            float quality = 1;
+            for (int i = 1; i < parts.length; i++)
+            {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith(QUALITY))
+                {
+                    quality = parseQuality(parameter.substring(QUALITY.length()));
+                }
+            }
+
+            if (name.equals(GZIP) || name.equals(X_GZIP))
+            {
+                return quality > 0;
+            }
+
+            if (name.equals(ANY))
+            {
+                anyQuality = quality;
+            }
+        }
+
+        return anyQuality > 0;
+    }
+
+    /**
+     * Returns whether a body of the given size is worth compressing.
+     *
+     * @param length Number of bytes of the body
+     *
+     * @return {@code true} if the body reaches the minimum size.
+     */
+    boolean shouldCompress(int length)
+    {
+        return length >= minSize;
+    }
+
+    /**
+     * Compresses the given bytes.
+     *
+     * @param data Bytes to compress
+     *
+     * @return The bytes in the gzip format.
+     */
+    byte[] compress(byte[] data)
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (OutputStream stream = open(compressed))
+        {
+            stream.write(data);
+        }
+        catch (IOException ioe)
+        {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(ioe);
+        }
+
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Opens a stream that compresses what is written to it into the given stream. Flushing the
+     * stream sends what was written so far, so a page can be compressed while it's sent in chunks.
+     * The stream must be closed to finish the gzip format and give its deflater back to the pool.
+     *
+     * @param out Stream where the compressed bytes are written
+     *
+     * @return The compressing stream.
+     *
+     * @throws IOException If there's any problem writing the gzip header.
+     */
+    OutputStream open(OutputStream out)
+    throws IOException
+    {
+        Deflater deflater = pool.poll();
+        if (deflater == null)
+        {
+            deflater = new Deflater(level, true);
+        }
+
+        out.write(HEADER);
+        return new GzipStream(out, deflater);
+    }
+
+    /**
+     * Returns the number of idle deflaters in the pool.
+     *
+     * @return The size of the pool.
+     */
+    int getPoolSize()
+    {
+        return pool.size();
+    }
+
+    /**
+     * Ends the idle deflaters, releasing their native memory. Deflaters given back later are ended
+     * if the pool is full.
+     */
+    void close()
+    {
+        for (Deflater deflater = pool.poll(); deflater != null; deflater = pool.poll())
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Gives the given deflater back to the pool, or ends it if the pool is full.
+     *
+     * @param deflater Deflater no longer used
+     */
+    private void release(Deflater deflater)
+    {
+        deflater.reset();
+        if (!pool.offer(deflater))
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Helper method that parses the quality of an accepted encoding.
+     *
+     * @param value Value of the quality parameter
+     *
+     * @return The quality, or zero if it's not a number.
+     */
+    private static float parseQuality(String value)
+    {
+        try
+        {
+            return Float.parseFloat(value.trim());
+        }
+        catch (NumberFormatException nfe)
+        {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GzipCompressor [level=" + level + ", minSize=" + minSize + ", pooled="
+            + pool.size() + "]";
+    }
+
+    /**
+     * Stream writing the deflated bytes followed by the gzip trailer.
+     */
+    private final class GzipStream extends DeflaterOutputStream
+    {
+        /** Checksum of the uncompressed bytes. */
+        private final CRC32 crc = new CRC32();
+
+        /** Whether the deflater was already given back to the pool. */
+        private boolean released;
+
+        GzipStream(OutputStream out, Deflater deflater)
+        {
+            super(out, deflater, BUFFER_SIZE, true);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+        throws IOException
+        {
+            super.write(bytes, offset, length);
+            crc.update(bytes, offset, length);
+        }
+
+        @Override
+        public void finish()
+        throws IOException
+        {
+            if (!def.finished())
+            {
+                super.finish();
+                writeInt((int)crc.getValue());
+                writeInt((int)def.getBytesRead());
+            }
+        }
+
+        @Override
+        public void close()
+        throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                if (!released)
+                {
+                    released = true;
+                    release(def);
+                }
+            }
+        }
+
+        /**
+         * Writes the given value in little endian order, as the gzip trailer requires.
+         *
+         * @param value Value to write
+         *
+         * @throws IOException If there's any problem writing to the stream.
+         */
+        private void writeInt(int value)
+        throws IOException
+        {
+            out.write(value & 0xFF);
+            out.write(value >> 8 & 0xFF);
+            out.write(value >> 16 & 0xFF);
+            out.write(value >> 24 & 0xFF);
+        }
+    }
+}
@@ -3,25 +3,33 @@ package biz.netcentric.servlet;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletException;
+import biz.netcentric.metrics.MetricsRegistry;
+import biz.netcentric.metrics.Stage;
+import biz.netcentric.metrics.TemplateMetrics;
+import biz.netcentric.template.BudgetExceededError;
+import biz.netcentric.template.OutputCache;
+import biz.netcentric.template.RenderContext;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.SharedScope;
+import biz.netcentric.template.Template;
+import biz.netcentric.template.TemplateCache;
+import biz.netcentric.template.TemplateCompiler;
+import biz.netcentric.template.TemplateContextFactory;
+import biz.netcentric.template.TemplateWatcher;
+import biz.netcentric.template.Utf8Buffer;
 import org.apache.commons.lang3.StringUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Attribute;
-import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
 import org.mozilla.javascript.Context;
-import org.mozilla.javascript.ImporterTopLevel;
-import org.mozilla.javascript.NativeJavaObject;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.ScriptableObject;
 
@@ -29,72 +37,199 @@ import org.mozilla.javascript.ScriptableObject;
  * Servlet that receives requests for HTML documents. These documents are expected to be templates
  * that may contain three types of expressions:
  * <ul>
- *     <li><b>data-if expressions:</b> Elements that are displayed based on a boolean value. These
- *     kind of elements are evaluated by the method
- *     {@link #evaluateIfExpressions(Document, Context, ScriptableObject)}.</li>
+ *     <li><b>data-if expressions:</b> Elements that are displayed based on a boolean value.</li>
  *     <li><b>data-for-x expressions:</b> Elements that iterate over the specified list and render
- *     as many elements as the list has. These kind of elements are evaluated by the method
- *     {@link #evaluateForExpressions(Document, Context, ScriptableObject)}</li>
- *     <li><b>$-expressions:</b></li> Elements contained inside the ${ } characters which content is
- *     evaluated by the javascript engine. These kind of elements are evaluated by the method
- *     {@link #evaluateExpressions(Document, Context, ScriptableObject)}
+ *     as many elements as the list has.</li>
+ *     <li><b>$-expressions:</b> Elements contained inside the ${ } characters which content is
+ *     evaluated by the javascript engine.</li>
  * </ul>
  *
  * The servlet is also capable of evaluate any Javascript code embedded inside a {@code <script>}
  * tag with the {@code type} attribute set to {@code "server/javascript"}.
+ * <p>
+ * Templates are compiled once by the {@link TemplateCompiler} into a tree of static text chunks,
+ * data-if branches, data-for-x loops and $-expressions, which is then rendered on every request.
  */
 public class HTLProcessor extends HttpServlet
 {
-    /** Charset used to load the HTML document. */
-    static final String CHARSET_NAME = "UTF-8";
-
     /** Default path received by the servlet when no file is specified. */
     static final String DEFAULT_PATH = "/";
 
-    /** Prefix of the attribute used for data-for-x expressions. */
-    static final String DATA_FOR_ATTR_PREFIX = "data-for";
+    /** Path for the index.html file. */
+    static final String INDEX_PATH = "/index.html";
 
-    /** Index of the "x" variable in the data-for-x expressions. */
-    static final int DATA_FOR_X_IDX = 2;
+    /** Key used to store the request object in the Javascript execution scope. */
+    static final String REQUEST_OBJ_KEY = "request";
 
-    /** Name of the attribute used for data-if expressions. */
-    static final String DATA_IF_ATTR_NAME = "data-if";
+    /** Content type used for the Servlet response. */
+    static final String RESPONSE_CONTENT_TYPE = "text/html;charset=UTF-8";
 
-    /** Prefix used for $-expressions. */
-    static final String EXPR_PREFIX = "${";
+    /** Init parameter holding the maximum number of compiled templates kept in memory. */
+    static final String TEMPLATE_CACHE_SIZE_PARAM = "templateCacheSize";
 
-    /** Suffix used for $-expressions. */
-    static final String EXPR_SUFFIX = "}";
+    /** Init parameter holding the maximum number of compiled Javascript snippets kept in memory. */
+    static final String SCRIPT_CACHE_SIZE_PARAM = "scriptCacheSize";
 
-    /** Path for the index.html file. */
-    static final String INDEX_PATH = "/index.html";
+    /**
+     * Init parameter holding the comma separated list of Java classes imported in the shared
+     * Javascript scope. Names ending with ".*" are imported as packages.
+     */
+    static final String PRELOADED_IMPORTS_PARAM = "preloadedImports";
 
     /**
-     * Name of the attribute expected to be used in the {@code <script>} tag containing the
-     * Javascript code to be executed by the servlet
+     * Init parameter holding the Rhino optimization level: -1 to run the Javascript code in
+     * interpreted mode or 0 to 9 to compile it to Java bytecode.
      */
-    static final String JS_ATTR_NAME = "type";
+    static final String OPTIMIZATION_LEVEL_PARAM = "optimizationLevel";
+
+    /** Init parameter holding the Javascript language version, for example 180 or 200. */
+    static final String LANGUAGE_VERSION_PARAM = "languageVersion";
 
     /**
-     * Value for the attribute expected to be used in the {@code <script>} tag containing the
-     * Javascript code to be executed by the servlet.
+     * Init parameter holding the maximum number of Javascript instructions run by a request, zero
+     * for no limit.
      */
-    static final String JS_ATTR_VAL = "server/javascript";
+    static final String INSTRUCTION_BUDGET_PARAM = "instructionBudget";
 
-    /** Reference name used to execute Javascript code in the engine. */
-    static final String JS_SOURCE_NAME = "<code>";
+    /**
+     * Init parameter holding the maximum number of milliseconds a request can run Javascript code,
+     * zero for no limit.
+     */
+    static final String SCRIPT_TIMEOUT_PARAM = "scriptTimeout";
 
-    /** Key used to store the request object in the Javascript execution scope. */
-    static final String REQUEST_OBJ_KEY = "request";
+    /**
+     * Init parameter holding the number of rendered characters buffered before sending them to
+     * the client. Zero buffers the whole page.
+     */
+    static final String FLUSH_THRESHOLD_PARAM = "flushThreshold";
 
-    /** Content type used for the Servlet response. */
-    static final String RESPONSE_CONTENT_TYPE = "text/html;charset=UTF-8";
+    /**
+     * Init parameter telling whether the rendered HTML is sent to the client right after the
+     * {@code </head>} tag, before rendering the body.
+     */
+    static final String FLUSH_AFTER_HEAD_PARAM = "flushAfterHead";
+
+    /**
+     * Init parameter holding the {@code Cache-Control} header sent with the pages whose templates
+     * declare the request parameters they depend on.
+     */
+    static final String CACHE_CONTROL_PARAM = "cacheControl";
+
+    /** Cache-Control header used when none is configured: clients must revalidate the page. */
+    static final String DEFAULT_CACHE_CONTROL = "no-cache";
+
+    /** Name of the Cache-Control header. */
+    static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
+    /** Init parameter holding the maximum number of bytes of rendered output kept in memory. */
+    static final String OUTPUT_CACHE_SIZE_PARAM = "outputCacheSize";
+
+    /**
+     * Init parameter telling whether the requests are rendered asynchronously, in a dedicated
+     * thread pool, see {@link AsyncProcessor}. The servlet must be declared with
+     * {@code <async-supported>true</async-supported>}.
+     */
+    static final String ASYNC_ENABLED_PARAM = "asyncEnabled";
+
+    /** Init parameter holding the number of render threads used in async mode. */
+    static final String ASYNC_THREADS_PARAM = "asyncThreads";
+
+    /** Init parameter holding the number of requests that can wait for a render thread. */
+    static final String ASYNC_QUEUE_SIZE_PARAM = "asyncQueueSize";
+
+    /** Init parameter holding the milliseconds an async request can take before failing. */
+    static final String ASYNC_TIMEOUT_PARAM = "asyncTimeout";
+
+    /**
+     * Init parameter telling whether the responses are gzip encoded for the clients accepting it,
+     * see {@link GzipCompressor}.
+     */
+    static final String COMPRESSION_ENABLED_PARAM = "compressionEnabled";
+
+    /** Init parameter holding the compression level, from 0 to 9 or -1 for the default level. */
+    static final String COMPRESSION_LEVEL_PARAM = "compressionLevel";
+
+    /** Init parameter holding the minimum number of bytes of a page to compress it. */
+    static final String COMPRESSION_MIN_SIZE_PARAM = "compressionMinSize";
+
+    /**
+     * Init parameter telling whether the template files are watched and compiled again in the
+     * background when they change, see {@link TemplateWatcher}.
+     */
+    static final String WATCH_TEMPLATES_PARAM = "watchTemplates";
+
+    /**
+     * Init parameter telling whether all the templates of the web application are compiled when
+     * the servlet starts, see {@link Warmup}.
+     */
+    static final String PRECOMPILE_TEMPLATES_PARAM = "precompileTemplates";
+
+    /** Init parameter holding the number of times each warm-up URL is rendered at startup. */
+    static final String WARMUP_REQUESTS_PARAM = "warmupRequests";
+
+    /**
+     * Init parameter holding the comma separated list of URLs rendered at startup, each one a path
+     * optionally followed by a query string. By default all the templates are rendered.
+     */
+    static final String WARMUP_URLS_PARAM = "warmupUrls";
+
+    /** Suffix of the output cache keys of the gzip encoded pages. */
+    static final String GZIP_KEY_SUFFIX = ";gzip";
+
+    /** Number of requests that can wait for a render thread when none is configured. */
+    static final int DEFAULT_ASYNC_QUEUE_SIZE = 256;
+
+    /** Milliseconds an async request can take when no timeout is configured. */
+    static final int DEFAULT_ASYNC_TIMEOUT = 30000;
 
     /** {@link javax.servlet.ServletConfig} instance used to get the servlet context. */
     private ServletConfig servletConfig;
 
+    /** Cache of the compiled templates, so each template is parsed only once. */
+    private TemplateCache templateCache;
+
+    /** Cache of the compiled Javascript code, so each snippet is compiled only once. */
+    private ScriptCache scriptCache;
+
+    /** Cache of the rendered pages, so the cacheable pages are rendered only once per TTL. */
+    private OutputCache outputCache;
+
+    /** Factory of the Javascript contexts, shared by all the threads. */
+    private TemplateContextFactory contextFactory;
+
+    /** Sealed Javascript scope shared by all the requests. */
+    private SharedScope sharedScope;
+
+    /** Number of rendered bytes buffered before sending them to the client. */
+    private int flushThreshold;
+
+    /** Whether the rendered HTML is sent to the client right after the head of the page. */
+    private boolean flushAfterHead;
+
+    /** Cache-Control header sent with the pages that have an entity tag. */
+    private String cacheControl;
+
+    /** Timings and counters of the processed requests. */
+    private MetricsRegistry metrics;
+
+    /** Processor of the requests in async mode, {@code null} if async mode is disabled. */
+    private AsyncProcessor asyncProcessor;
+
+    /** Compressor of the responses, {@code null} if compression is disabled. */
+    private GzipCompressor compressor;
+
+    /** Watcher of the template files, {@code null} if the files are not watched. */
+    private TemplateWatcher templateWatcher;
+
+    /** Warm-up run in the background after the servlet is initialized. */
+    private Warmup warmup;
+
     /**
-     * Stores the given configuration object in the class variable so it can be used later.
+     * Stores the given configuration object in the class variable so it can be used later,
+     * creates the caches for the compiled templates, Javascript code and rendered pages and
+     * initializes the Javascript context factory and the scope shared by all the requests. It also
+     * reads the flushing and compression settings of the responses, publishes the metrics of the
+     * servlet, starts the render threads if async mode is enabled and finally starts the warm-up.
      *
      * @param config Servlet configuration object
      * @throws ServletException If there's any problem while initiating the servlet.
@@ -105,23 +240,99 @@ public class HTLProcessor extends HttpServlet
     {
         super.init(config);
         servletConfig = config;
+        templateCache =
+            new TemplateCache(
+                new TemplateCompiler(),
+                getIntParameter(
+                    config, TEMPLATE_CACHE_SIZE_PARAM, TemplateCache.DEFAULT_MAX_ENTRIES));
+        scriptCache =
+            new ScriptCache(
+                getIntParameter(config, SCRIPT_CACHE_SIZE_PARAM, ScriptCache.DEFAULT_MAX_ENTRIES));
+        outputCache =
+            new OutputCache(
+                getIntParameter(config, OUTPUT_CACHE_SIZE_PARAM, OutputCache.DEFAULT_MAX_BYTES));
+        contextFactory = createContextFactory(config);
+        sharedScope = createSharedScope(config);
+        flushThreshold =
+            getIntParameter(config, FLUSH_THRESHOLD_PARAM, ResponseWriter.DEFAULT_FLUSH_THRESHOLD);
+        flushAfterHead = Boolean.parseBoolean(config.getInitParameter(FLUSH_AFTER_HEAD_PARAM));
+        cacheControl =
+            StringUtils.defaultIfBlank(
+                config.getInitParameter(CACHE_CONTROL_PARAM), DEFAULT_CACHE_CONTROL);
+        templateWatcher = createTemplateWatcher(config);
+        compressor = createCompressor(config);
+        metrics = createMetricsRegistry(config);
+        asyncProcessor = createAsyncProcessor(config);
+        warmup = createWarmup(config);
+        warmup.start();
+    }
+
+    /**
+     * Logs the statistics of the template and script caches, stops the warm-up, the render threads
+     * and the template watcher, releases the pooled deflaters and withdraws the metrics and the
+     * readiness before the servlet is taken out of service.
+     */
+    @Override
+    public void destroy()
+    {
+        warmup.stop();
+        getServletContext().removeAttribute(Warmup.CONTEXT_ATTRIBUTE);
+        if (templateWatcher != null)
+        {
+            try
+            {
+                templateWatcher.close();
+            }
+            catch (IOException ioe)
+            {
+                ioe.printStackTrace();
+            }
+        }
+
+        if (asyncProcessor != null)
+        {
+            asyncProcessor.shutdown();
+        }
+
+        if (compressor != null)
+        {
+            compressor.close();
+        }
+
+        metrics.unregisterMBeans();
+        getServletContext().removeAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE);
+        log(String.valueOf(contextFactory));
+        log(String.valueOf(templateCache));
+        log(String.valueOf(scriptCache));
+        log(String.valueOf(outputCache));
+        super.destroy();
     }
 
     /**
      * Processes the given request by performing the following steps:
      * <ol>
-     *     <li>Load the requested HTML document based on the request path</li>
+     *     <li>Load the requested HTML document based on the request path. The document is compiled
+     *     only the first time it's requested or when it changes, see {@link TemplateCache}</li>
+     *     <li>If the template declares the request parameters it depends on, compute the entity
+     *     tag of the page. If the client already has it, answer with a 304 status and stop here,
+     *     see {@link ETag}</li>
+     *     <li>If the template declares a page cache TTL, take the rendered page from the
+     *     {@link OutputCache} and stop here. Otherwise the page is rendered as described below and
+     *     stored in the cache.</li>
      *     <li>Evaluate Javascript code in the specified HTML document. The servlet will only
      *     evaluate code inside a {@code <script>} tag with the {@code type} attribute set to
      *     {@code "server/javascript"}.</li>
-     *     <li>Evaluate data-if expressions</li>
-     *     <li>Evaluate data-for-x expressions</li>
-     *     <li>Evaluate $-expressions</li>
-     *     <li>Print out the response</li>
+     *     <li>Render the compiled template, evaluating the data-if, data-for-x and $-expressions
+     *     </li>
+     *     <li>Print out the response. The rendered HTML is sent to the client in chunks as it's
+     *     rendered, see {@link ResponseWriter}</li>
      * </ol>
      *
      * If there's any problem during the execution of the steps above, the exception will be caught
-     * and an error message will be returned as response.
+     * and an error message will be returned as response. If part of the page was already sent to
+     * the client, the error message is appended to it instead.
+     * <p>
+     * The duration of every step is recorded in the metrics of the template, see {@link Stage}.
      *
      * @param request Object containing the request information
      * @param response Object containing the response information
@@ -131,148 +342,214 @@ public class HTLProcessor extends HttpServlet
     void processRequest(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException
     {
-        StringBuilder responseBuilder = new StringBuilder();
+        long start = System.nanoTime();
+        ResponseWriter responseWriter = createResponseWriter(request, response);
         String filePath =
             request.getPathInfo().equals(DEFAULT_PATH) ? INDEX_PATH : request.getPathInfo();
+        TemplateMetrics templateMetrics = null;
+        RenderContext renderContext = null;
+        long stageStart = start;
+        boolean failed = false;
 
+        Context context = enterContext();
         try
         {
             ServletContext servletContext = servletConfig.getServletContext();
-            File htmlFile = loadHTMLFile(servletContext, filePath);
-            Document htmlDoc = Jsoup.parse(htmlFile, CHARSET_NAME);
+            Template template = loadTemplate(servletContext, filePath);
+            templateMetrics = metrics.forTemplate(template.getPath());
+            stageStart = recordStage(templateMetrics, Stage.LOAD, stageStart);
+            String etag = computeETag(template, request);
+            if (etag != null && answerNotModified(etag, request, response, responseWriter))
+            {
+                metrics.recordNotModified();
+                return;
+            }
+
+            if (etag != null && template.getPageCacheTtlMillis() > 0)
+            {
+                // The entity tag is only a hash, the page is keyed by the exact parameters
+                String pageKey = ETag.cacheKey(template, request);
 
-            // Evaluate Javascript code
-            String jsCode = htmlDoc.getElementsByAttributeValue(JS_ATTR_NAME, JS_ATTR_VAL).html();
-            Context context = Context.enter();
-            ScriptableObject scope = createScope(context);
-            scope.put(REQUEST_OBJ_KEY, scope, request);
-            evaluateJS(context, scope, jsCode);
+                // Only one request renders the missing page, the rest wait for it
+                TemplateMetrics pageMetrics = templateMetrics;
+                RenderContext[] rendered = new RenderContext[1];
+                byte[] page =
+                    outputCache.get(
+                        pageKey, template.getPageCacheTtlMillis(), () -> {
+                            Utf8Buffer html =
+                                new Utf8Buffer(ResponseWriter.DEFAULT_FLUSH_THRESHOLD);
+                            rendered[0] = renderPage(context, request, template, html, pageMetrics);
+                            return html.append(System.lineSeparator()).toByteArray();
+                        });
+                renderContext = rendered[0];
+                boolean compressed = responseWriter.isCompressed(page.length);
+                if (compressed)
+                {
+                    // The compressed page is cached too, so cache hits cost no compression
+                    byte[] identity = page;
+                    page =
+                        outputCache.get(
+                            pageKey + GZIP_KEY_SUFFIX, template.getPageCacheTtlMillis(),
+                            () -> compressor.compress(identity));
+                }
 
-            evaluateIfExpressions(htmlDoc, context, scope);
-            evaluateForExpressions(htmlDoc, context, scope);
-            responseBuilder.append(evaluateExpressions(htmlDoc, context, scope));
+                responseWriter.finish(page, compressed);
+            }
+            else
+            {
+                renderContext =
+                    renderPage(context, request, template, responseWriter, templateMetrics);
+            }
+
+            stageStart = System.nanoTime();
         }
         catch (FileNotFoundException | NullPointerException exception)
         {
-            responseBuilder.delete(0, responseBuilder.length());
-            responseBuilder.append("The requested HTML file doesn't exist");
+            metrics.recordNotFound();
+            printError(responseWriter, "The requested HTML file doesn't exist");
             exception.printStackTrace();
         }
         catch (URISyntaxException use)
         {
-            responseBuilder.delete(0, responseBuilder.length());
-            responseBuilder.append("The provided URL is not correctly formed");
+            metrics.recordBadUri();
+            printError(responseWriter, "The provided URL is not correctly formed");
             use.printStackTrace();
         }
         catch (RhinoException rhe)
         {
-            responseBuilder.delete(0, responseBuilder.length());
-            responseBuilder.append("There's an error in the javascript code in the requested page.");
-            responseBuilder.append(rhe.getMessage());
+            failed = true;
+            printError(
+                responseWriter, "There's an error in the javascript code in the requested page.");
+            responseWriter.append(rhe.getMessage());
             rhe.printStackTrace();
         }
+        catch (BudgetExceededError bee)
+        {
+            failed = true;
+            metrics.recordBudgetExceeded();
+            printError(
+                responseWriter,
+                "The javascript code in the requested page was aborted, it ran for too long.");
+            responseWriter.append(bee.getMessage());
+            bee.printStackTrace();
+        }
         finally
         {
-            printResponse(response, responseBuilder.toString());
+            responseWriter.finish();
             Context.exit();
+            if (templateMetrics != null)
+            {
+                if (!failed)
+                {
+                    recordStage(templateMetrics, Stage.WRITE, stageStart);
+                }
+
+                recordStage(templateMetrics, Stage.TOTAL, start);
+                templateMetrics.recordRequest(
+                    renderContext == null ? 0 : renderContext.getEvaluationCount(), failed);
+            }
         }
     }
 
     /**
-     * Evaluates the data-if expressions. It looks for all the expressions of this kind in the HTML
-     * document and evaluates its content using the Javascript engine. If the evaluation result is
-     * true, the element is preserved; otherwise, it's removed. In any case, the data-if attribute
-     * is removed from the element.
+     * Runs the server side script of the given template and renders it to the given output. The
+     * duration of both stages is recorded in the metrics of the template.
+     *
+     * @param context Javascript engine execution context
+     * @param request Object containing the request information
+     * @param template Compiled template requested by the user
+     * @param output Output where the rendered HTML is written
+     * @param templateMetrics Metrics of the template
+     *
+     * @return The rendering context, which counted the evaluated expressions.
      *
-     * @param htmlDoc HTML document requested by the user
-     * @param context Javascript evaluation context
-     * @param scope Javascript evaluation scope
+     * @throws IOException If there's any problem writing the rendered HTML.
      */
-    void evaluateIfExpressions(Document htmlDoc, Context context, ScriptableObject scope)
+    private RenderContext renderPage(
+        Context context, HttpServletRequest request, Template template, Appendable output,
+        TemplateMetrics templateMetrics)
+    throws IOException
     {
-        Elements dataIfElements = htmlDoc.getElementsByAttributeStarting(DATA_IF_ATTR_NAME);
-        dataIfElements.stream().forEach((element) -> {
-            Object result = evaluateJS(context, scope, element.attr(DATA_IF_ATTR_NAME));
-            if (!Boolean.valueOf(result.toString()))
-            {
-                element.remove();
-            }
+        long stageStart = System.nanoTime();
+        ScriptableObject scope = createScope(context);
+        scope.put(REQUEST_OBJ_KEY, scope, request);
+        evaluateJS(context, scope, template.getPath(), template.getScript());
+        stageStart = recordStage(templateMetrics, Stage.SCRIPT, stageStart);
 
-            element.removeAttr(DATA_IF_ATTR_NAME);
-        });
+        RenderContext renderContext =
+            new RenderContext(
+                context, scope, scriptCache, template.getPath(), output, outputCache);
+        renderTemplate(template, renderContext);
+        recordStage(templateMetrics, Stage.RENDER, stageStart);
+        return renderContext;
     }
 
     /**
-     * Evaluates the data-for-x expressions by following these steps:
-     * <ol>
-     *     <li>Look for all the elements containing attributes that start with the
-     *     {@link #DATA_FOR_ATTR_PREFIX} prefix</li>
-     *     <li>Identify the "x" value </li>
-     *     <li>Evaluate the Javascript expression corresponding to the elements to display</li>
-     *     <li>Generate as many elements as the list has and replace the "x" value with the actual
-     *     values from the list</li>
-     *     <li>Remove the data-for-x attribute so clean HTML is returned</li>
-     * </ol>
+     * Computes the entity tag of the page rendered from the given template for the given request.
+     * Only GET and HEAD requests for templates that declare the request parameters they depend on
+     * get an entity tag.
      *
-     * @param htmlDoc HTML document requested by the user
-     * @param context Javascript evaluation context
-     * @param scope Javascript evaluation scope
+     * @param template Compiled template requested by the user
+     * @param request Object containing the request information
+     *
+     * @return The entity tag, or {@code null} if the page doesn't have one.
      */
-    void evaluateForExpressions(Document htmlDoc, Context context, ScriptableObject scope)
+    String computeETag(Template template, HttpServletRequest request)
     {
-        Elements dataIfElements = htmlDoc.getElementsByAttributeStarting(DATA_FOR_ATTR_PREFIX);
-        dataIfElements.stream().forEach((element) -> {
-            Optional<Attribute> forAttr =
-                element.attributes().asList().stream().filter(
-                    attribute -> attribute.getKey().startsWith(DATA_FOR_ATTR_PREFIX)).findFirst();
-            String fullForAttr = forAttr.get().getKey();
-            String forAttrWildcard = fullForAttr.split("-")[DATA_FOR_X_IDX];
-            Object result = evaluateJS(context, scope, element.attr(fullForAttr));
-            NativeJavaObject nativeJavaObject = (NativeJavaObject)result;
-            List<String> unwrappedVal = (List<String>)nativeJavaObject.unwrap();
-            element.removeAttr(fullForAttr);
-
-            unwrappedVal.stream().forEach(forElement -> {
-                String elemHTML = element.outerHtml();
-                elemHTML = elemHTML.replace(EXPR_PREFIX + forAttrWildcard + EXPR_SUFFIX, forElement);
-                element.before(elemHTML);
-            });
-            element.remove();
-        });
+        String method = request.getMethod();
+        boolean safeMethod = "GET".equals(method) || "HEAD".equals(method);
+        return safeMethod ? ETag.compute(template, request) : null;
     }
 
     /**
-     * Evaluates the $-expressions. To evaluate this expressions, the HTML code is analyzed to find
-     * the occurrences of elements with the {@code ${x}} pattern. Each ocurrence is evaluated using
-     * the Javascript engine and its value is placed in the document.
+     * Sets the given entity tag and the Cache-Control header of the page, and answers the request
+     * with a 304 status if the {@code If-None-Match} header matches the entity tag.
      *
-     * @param htmlDoc HTML document requested by the user
-     * @param context Javascript evaluation context
-     * @param scope Javascript evaluation scope
+     * @param etag Entity tag of the page
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     * @param responseWriter Writer where the rendered HTML is written
      *
-     * @return A string representation of the HTML document with the $-expressions replaced by their
-     *         actual values.
+     * @return {@code true} if the request was answered with a 304 status, so the page doesn't
+     *         need to be rendered.
      */
-    String evaluateExpressions(Document htmlDoc, Context context, ScriptableObject scope)
+    boolean answerNotModified(
+        String etag, HttpServletRequest request, HttpServletResponse response,
+        ResponseWriter responseWriter)
     {
-        String html = htmlDoc.html();
-        String[] expressions = StringUtils.split(html, EXPR_PREFIX);
-        for (int i = 1; i < expressions.length; i++)
+        if (ETag.matches(request.getHeader(ETag.IF_NONE_MATCH), etag))
         {
-            String expression = expressions[i].substring(0, expressions[i].indexOf(EXPR_SUFFIX));
-            Object result = evaluateJS(context, scope, expression);
-            Object unwrappedVal =
-                result instanceof NativeJavaObject ? ((NativeJavaObject)result).unwrap() : result;
-            expressions[i] =
-                expressions[i].replace(expression + EXPR_SUFFIX, unwrappedVal.toString());
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.setHeader(ETag.HEADER, responseWriter.entityTag(etag));
+            response.setHeader(CACHE_CONTROL_HEADER, cacheControl);
+            responseWriter.discardBody();
+            return true;
         }
 
-        return StringUtils.join(expressions);
+        responseWriter.setPageHeader(ETag.HEADER, etag);
+        responseWriter.setPageHeader(CACHE_CONTROL_HEADER, cacheControl);
+        return false;
     }
 
     /**
-     * Method executed when the servlet receives a POST request. Right now it'll always execute the
-     * {@link #processRequest(HttpServletRequest, HttpServletResponse)} method.
+     * Renders the given template, evaluating its data-if, data-for-x and $-expressions with the
+     * Javascript scope held by the given rendering context.
+     *
+     * @param template Compiled template requested by the user
+     * @param renderContext Context holding the Javascript scope and the response output
+     *
+     * @throws IOException If there's any problem writing the rendered HTML.
+     */
+    void renderTemplate(Template template, RenderContext renderContext)
+    throws IOException
+    {
+        template.render(renderContext);
+    }
+
+    /**
+     * Method executed when the servlet receives a POST request. It executes the
+     * {@link #processRequest(HttpServletRequest, HttpServletResponse)} method, in a render thread
+     * if async mode is enabled and supported by the request.
      *
      * @param request Object containing the request information
      * @param response Object containing the response information
@@ -283,12 +560,13 @@ public class HTLProcessor extends HttpServlet
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException
     {
-        processRequest(request, response);
+        dispatch(request, response);
     }
 
     /**
-     * Method executed when the servlet receives a GET request. Right now it'll always execute the
-     * {@link #processRequest(HttpServletRequest, HttpServletResponse)} method.
+     * Method executed when the servlet receives a GET request. It executes the
+     * {@link #processRequest(HttpServletRequest, HttpServletResponse)} method, in a render thread
+     * if async mode is enabled and supported by the request.
      *
      * @param request Object containing the request information
      * @param response Object containing the response information
@@ -299,7 +577,293 @@ public class HTLProcessor extends HttpServlet
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException
     {
-        processRequest(request, response);
+        dispatch(request, response);
+    }
+
+    /**
+     * Helper method that processes the given request asynchronously if async mode is enabled and
+     * the request supports it, or in the current thread otherwise.
+     *
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     * @throws ServletException If there's any exception not treated during the request processing.
+     * @throws IOException If there's any problem trying to load the specified HTML document.
+     */
+    private void dispatch(HttpServletRequest request, HttpServletResponse response)
+    throws ServletException, IOException
+    {
+        if (asyncProcessor != null && request.isAsyncSupported())
+        {
+            asyncProcessor.process(request, response);
+        }
+        else
+        {
+            processRequest(request, response);
+        }
+    }
+
+    /**
+     * Helper method that returns the compiled template for the given path. The template is taken
+     * from the {@link TemplateCache}, so the file is only parsed when it's not cached yet or when
+     * it changed since the last time it was parsed. When the template files are watched, a cached
+     * template is returned without touching the file, which is compiled again in the background
+     * when it changes.
+     *
+     * @param servletContext Context to locate the file
+     * @param filePath Path for the required file in the given context
+     *
+     * @return The compiled template.
+     *
+     * @throws URISyntaxException If the given file path or context lead to a wrong URI.
+     * @throws IOException If the template file can't be read.
+     */
+    Template loadTemplate(ServletContext servletContext, String filePath)
+    throws URISyntaxException, IOException
+    {
+        if (templateWatcher != null)
+        {
+            Template template = templateCache.getIfPresent(filePath);
+            if (template != null)
+            {
+                return template;
+            }
+        }
+
+        File file = loadHTMLFile(servletContext, filePath);
+        if (templateWatcher != null)
+        {
+            templateWatcher.watch(filePath, file);
+        }
+
+        return templateCache.get(filePath, file);
+    }
+
+    /**
+     * Returns the cache of compiled templates used by this servlet.
+     *
+     * @return The template cache.
+     */
+    TemplateCache getTemplateCache()
+    {
+        return templateCache;
+    }
+
+    /**
+     * Returns the cache of compiled Javascript code used by this servlet.
+     *
+     * @return The script cache.
+     */
+    ScriptCache getScriptCache()
+    {
+        return scriptCache;
+    }
+
+    /**
+     * Returns the cache of rendered output used by this servlet.
+     *
+     * @return The output cache.
+     */
+    OutputCache getOutputCache()
+    {
+        return outputCache;
+    }
+
+    /**
+     * Returns the metrics of the requests processed by this servlet.
+     *
+     * @return The metrics registry.
+     */
+    MetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Helper method that creates the registry of the metrics of this servlet. The registry is
+     * published as a servlet context attribute, so the {@link MetricsServlet} can read it, and
+     * through JMX.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The metrics registry.
+     */
+    MetricsRegistry createMetricsRegistry(ServletConfig config)
+    {
+        MetricsRegistry registry = new MetricsRegistry(templateCache, scriptCache, outputCache);
+        config.getServletContext().setAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE, registry);
+        registry.registerMBeans(config.getServletName());
+        return registry;
+    }
+
+    /**
+     * Helper method that creates the processor of the requests in async mode, configured with the
+     * async settings given as init parameters. By default there's one render thread per available
+     * processor.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The async processor, or {@code null} if async mode is disabled.
+     *
+     * @throws ServletException If any of the async settings is not valid.
+     */
+    AsyncProcessor createAsyncProcessor(ServletConfig config)
+    throws ServletException
+    {
+        if (!Boolean.parseBoolean(config.getInitParameter(ASYNC_ENABLED_PARAM)))
+        {
+            return null;
+        }
+
+        int threads =
+            getIntParameter(
+                config, ASYNC_THREADS_PARAM, Runtime.getRuntime().availableProcessors());
+        int queueSize = getIntParameter(config, ASYNC_QUEUE_SIZE_PARAM, DEFAULT_ASYNC_QUEUE_SIZE);
+        int timeout = getIntParameter(config, ASYNC_TIMEOUT_PARAM, DEFAULT_ASYNC_TIMEOUT);
+        try
+        {
+            return new AsyncProcessor(this::processRequest, threads, queueSize, timeout, metrics);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new ServletException(iae.getMessage(), iae);
+        }
+    }
+
+    /**
+     * Helper method that records the duration of a request stage.
+     *
+     * @param templateMetrics Metrics of the requested template
+     * @param stage Finished stage
+     * @param stageStart Value of {@link System#nanoTime()} when the stage started
+     *
+     * @return The value of {@link System#nanoTime()} when the stage finished.
+     */
+    private static long recordStage(TemplateMetrics templateMetrics, Stage stage, long stageStart)
+    {
+        long now = System.nanoTime();
+        templateMetrics.record(stage, now - stageStart);
+        return now;
+    }
+
+    /**
+     * Helper method that creates the writer where the rendered HTML is written, configured with
+     * the flushing settings given as init parameters. If compression is enabled, the response
+     * varies by the {@code Accept-Encoding} header and it's compressed when the client accepts
+     * gzip.
+     *
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     *
+     * @return The response writer.
+     */
+    ResponseWriter createResponseWriter(HttpServletRequest request, HttpServletResponse response)
+    {
+        if (compressor == null)
+        {
+            return new ResponseWriter(response, flushThreshold, flushAfterHead);
+        }
+
+        response.setHeader(GzipCompressor.VARY, GzipCompressor.ACCEPT_ENCODING);
+        return new ResponseWriter(
+            response, flushThreshold, flushAfterHead,
+            GzipCompressor.accepts(request) ? compressor : null);
+    }
+
+    /**
+     * Helper method that creates the watcher of the template files, if watching them is enabled.
+     * If the file system can't be watched, the error is logged and the files are checked on every
+     * request instead.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The template watcher, or {@code null} if the files are not watched.
+     */
+    TemplateWatcher createTemplateWatcher(ServletConfig config)
+    {
+        if (!Boolean.parseBoolean(config.getInitParameter(WATCH_TEMPLATES_PARAM)))
+        {
+            return null;
+        }
+
+        try
+        {
+            return new TemplateWatcher(templateCache);
+        }
+        catch (IOException ioe)
+        {
+            log("Unable to watch the template files, they are checked on every request", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Helper method that creates the warm-up of the servlet, configured with the warm-up settings
+     * given as init parameters. The warm-up is published as a servlet context attribute, so the
+     * {@link HealthServlet} can tell whether it finished.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The warm-up, not started yet.
+     *
+     * @throws ServletException If any of the warm-up settings is not valid.
+     */
+    Warmup createWarmup(ServletConfig config)
+    throws ServletException
+    {
+        boolean precompile =
+            Boolean.parseBoolean(config.getInitParameter(PRECOMPILE_TEMPLATES_PARAM));
+        int requests = getIntParameter(config, WARMUP_REQUESTS_PARAM, 0);
+        String urls = StringUtils.defaultString(config.getInitParameter(WARMUP_URLS_PARAM));
+        List<String> sampleUrls = new ArrayList<>();
+        for (String url : StringUtils.split(urls, ','))
+        {
+            sampleUrls.add(url.trim());
+        }
+
+        try
+        {
+            Warmup newWarmup =
+                new Warmup(this, config.getServletContext(), precompile, sampleUrls, requests);
+            config.getServletContext().setAttribute(Warmup.CONTEXT_ATTRIBUTE, newWarmup);
+            return newWarmup;
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new ServletException(iae.getMessage(), iae);
+        }
+    }
+
+    /**
+     * Helper method that creates the compressor of the responses, configured with the compression
+     * settings given as init parameters. The pool keeps two deflaters per processor, enough for
+     * the threads compressing at once.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The compressor, or {@code null} if compression is disabled.
+     *
+     * @throws ServletException If any of the compression settings is not valid.
+     */
+    GzipCompressor createCompressor(ServletConfig config)
+    throws ServletException
+    {
+        if (!Boolean.parseBoolean(config.getInitParameter(COMPRESSION_ENABLED_PARAM)))
+        {
+            return null;
+        }
+
+        int level = getIntParameter(config, COMPRESSION_LEVEL_PARAM, GzipCompressor.DEFAULT_LEVEL);
+        int minSize =
+            getIntParameter(config, COMPRESSION_MIN_SIZE_PARAM, GzipCompressor.DEFAULT_MIN_SIZE);
+        try
+        {
+            return new GzipCompressor(
+                level, minSize, Runtime.getRuntime().availableProcessors() * 2);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new ServletException(iae.getMessage(), iae);
+        }
     }
 
     /**
@@ -320,9 +884,89 @@ public class HTLProcessor extends HttpServlet
     }
 
     /**
-     * Helper method that initializes an instance of {@link ImporterTopLevel} which can be used as
-     * scope for the JS engine. This instance is required in order to be able to access the methods
-     * to interact with Java classes from JS code like "importClass".
+     * Helper method that creates the factory of the Javascript contexts, configured with the
+     * optimization level, language version and execution limits given as init parameters.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The context factory.
+     *
+     * @throws ServletException If the optimization level, the language version or the execution
+     *                          limits are not valid.
+     */
+    TemplateContextFactory createContextFactory(ServletConfig config)
+    throws ServletException
+    {
+        int optimizationLevel =
+            getIntParameter(
+                config,
+                OPTIMIZATION_LEVEL_PARAM,
+                TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL);
+        int languageVersion =
+            getIntParameter(
+                config, LANGUAGE_VERSION_PARAM, TemplateContextFactory.DEFAULT_LANGUAGE_VERSION);
+        int instructionBudget = getIntParameter(config, INSTRUCTION_BUDGET_PARAM, 0);
+        int scriptTimeout = getIntParameter(config, SCRIPT_TIMEOUT_PARAM, 0);
+
+        try
+        {
+            return new TemplateContextFactory(
+                optimizationLevel, languageVersion, instructionBudget, scriptTimeout);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new ServletException(iae.getMessage(), iae);
+        }
+    }
+
+    /**
+     * Helper method that enters a Javascript context for the current thread using the context
+     * factory of this servlet. Every call must be followed by a call to {@link Context#exit()}.
+     *
+     * @return The Javascript context associated with the current thread.
+     */
+    Context enterContext()
+    {
+        return contextFactory.enterContext();
+    }
+
+    /**
+     * Helper method that initializes the sealed Javascript scope shared by all the requests. The
+     * standard Javascript objects and the classes listed in the {@link #PRELOADED_IMPORTS_PARAM}
+     * init parameter are initialized only once, here.
+     *
+     * @param config Servlet configuration object
+     *
+     * @return The shared scope.
+     *
+     * @throws ServletException If any of the preloaded imports can't be found.
+     */
+    SharedScope createSharedScope(ServletConfig config)
+    throws ServletException
+    {
+        String imports =
+            StringUtils.defaultString(config.getInitParameter(PRELOADED_IMPORTS_PARAM));
+        Context context = enterContext();
+        try
+        {
+            return new SharedScope(context, Arrays.asList(StringUtils.split(imports, ',')));
+        }
+        catch (IllegalArgumentException | RhinoException exception)
+        {
+            throw new ServletException("Invalid value for init parameter "
+                + PRELOADED_IMPORTS_PARAM + ": " + imports, exception);
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Helper method that creates the scope for a single request. The scope has the shared scope as
+     * prototype, so the standard Javascript objects and the preloaded classes are not initialized
+     * again. This scope is also required in order to be able to access the methods to interact
+     * with Java classes from JS code like "importClass".
      *
      * @param context JS engine execution context.
      *
@@ -330,39 +974,74 @@ public class HTLProcessor extends HttpServlet
      */
     ScriptableObject createScope(Context context)
     {
-        return new ImporterTopLevel(context);
+        return sharedScope.newRequestScope();
     }
 
     /**
-     * Executes the given JS expression, in the JS engine, using the given context and scope.
+     * Executes the given JS code, in the JS engine, using the given context and scope. The code is
+     * compiled only the first time it's executed for the given template, see {@link ScriptCache}.
      *
      * @param context JS engine execution context. This object should come from the execution of the
-     *                {@link Context#enter()} method.
+     *                {@link #enterContext()} method.
      * @param scope Scope used to execute the JS code.
+     * @param templatePath Path of the template containing the JS code.
      * @param jsCode JS code to be executed.
      *
      * @return An object containing the result of the execution.
      */
-    Object evaluateJS(Context context, ScriptableObject scope, String jsCode)
+    Object evaluateJS(Context context, ScriptableObject scope, String templatePath, String jsCode)
     {
-        return context.evaluateString(scope, jsCode, JS_SOURCE_NAME, 1, null);
+        return scriptCache.exec(context, scope, templatePath, jsCode);
     }
 
     /**
-     * Prints the servlet response.
+     * Helper method that reads an integer init parameter from the servlet configuration.
      *
-     * @param response Object containing the response information
-     * @param text Text to be printed as response.
+     * @param config Servlet configuration object
+     * @param name Name of the init parameter
+     * @param defaultValue Value used when the parameter is not set
+     *
+     * @return The value of the parameter, or the default value if it's not set.
+     *
+     * @throws ServletException If the parameter is set but it's not a valid integer.
+     */
+    static int getIntParameter(ServletConfig config, String name, int defaultValue)
+    throws ServletException
+    {
+        String value = config.getInitParameter(name);
+        if (StringUtils.isBlank(value))
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new ServletException("Invalid value for init parameter " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Prints the given error message as response. The rendered HTML not sent to the client yet is
+     * discarded; if part of the page was already sent, the message is appended in a new line.
+     *
+     * @param responseWriter Writer where the rendered HTML is written
+     * @param message Error message to be printed as response
      *
      * @throws IOException If there's any problem trying to print the response.
      */
-    private void printResponse(HttpServletResponse response, String text)
+    private void printError(ResponseWriter responseWriter, String message)
     throws IOException
     {
-        response.setContentType(RESPONSE_CONTENT_TYPE);
-        try (PrintWriter out = response.getWriter())
+        responseWriter.resetBuffer();
+        if (responseWriter.isCommitted())
         {
-            out.println(text);
+            responseWriter.append(System.lineSeparator());
         }
+
+        responseWriter.append(message);
     }
 }
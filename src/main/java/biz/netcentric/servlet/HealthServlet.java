@@ -0,0 +1,52 @@
+package biz.netcentric.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that tells whether the {@link HTLProcessor} is ready to take traffic, to be used as the
+ * readiness probe of the load balancer. The processor is ready once it's initialized and its
+ * {@link Warmup} finished; until then the servlet answers with a 503 status.
+ *
+ * @author Jhoan Muñoz
+ */
+public class HealthServlet extends HttpServlet
+{
+    /** Content type of the response. */
+    static final String RESPONSE_CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+    /** Body of the response when the processor is ready. */
+    static final String READY = "READY";
+
+    /**
+     * Answers with a 200 status if the {@link HTLProcessor} is ready, or with a 503 status if it's
+     * not initialized yet or it's still warming up.
+     *
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     * @throws ServletException If there's any exception not treated during the request processing.
+     * @throws IOException If there's any problem writing the response.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws ServletException, IOException
+    {
+        Object warmup = getServletContext().getAttribute(Warmup.CONTEXT_ATTRIBUTE);
+        if (!(warmup instanceof Warmup) || !((Warmup)warmup).isReady())
+        {
+            response.sendError(
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The templates are warming up");
+            return;
+        }
+
+        response.setContentType(RESPONSE_CONTENT_TYPE);
+        try (PrintWriter out = response.getWriter())
+        {
+            out.print(READY);
+        }
+    }
+}
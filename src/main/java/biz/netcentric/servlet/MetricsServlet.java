@@ -0,0 +1,51 @@
+package biz.netcentric.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import biz.netcentric.metrics.MetricsRegistry;
+
+/**
+ * Servlet that prints the metrics of the {@link HTLProcessor} as plain text, in the Prometheus
+ * exposition format: per template timings of every request stage, and counters of requests,
+ * errors, evaluated expressions and cache hits. The metrics are taken from the servlet context,
+ * where the {@link HTLProcessor} publishes them when it's initialized.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MetricsServlet extends HttpServlet
+{
+    /** Content type of the Prometheus text exposition format. */
+    static final String RESPONSE_CONTENT_TYPE = "text/plain;version=0.0.4;charset=UTF-8";
+
+    /**
+     * Prints the metrics, or answers with a 503 status if the {@link HTLProcessor} is not
+     * initialized yet.
+     *
+     * @param request Object containing the request information
+     * @param response Object containing the response information
+     * @throws ServletException If there's any exception not treated during the request processing.
+     * @throws IOException If there's any problem writing the response.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws ServletException, IOException
+    {
+        Object metrics = getServletContext().getAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE);
+        if (!(metrics instanceof MetricsRegistry))
+        {
+            response.sendError(
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The metrics are not available yet");
+            return;
+        }
+
+        response.setContentType(RESPONSE_CONTENT_TYPE);
+        try (PrintWriter out = response.getWriter())
+        {
+            ((MetricsRegistry)metrics).writeText(out);
+        }
+    }
+}
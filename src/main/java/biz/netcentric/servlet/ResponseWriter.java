@@ -0,0 +1,388 @@
+package biz.netcentric.servlet;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import biz.netcentric.template.Utf8Buffer;
+import biz.netcentric.template.Utf8Output;
+
+/**
+ * Output of the rendered HTML. The text is buffered as UTF-8 bytes and sent to the client in chunks
+ * through the output stream of the response:
+ * <ul>
+ *     <li>When the buffered bytes reach the flush threshold, so the memory used by a request
+ *     doesn't grow with the size of the page.</li>
+ *     <li>At the flush points of the template, for example right after the {@code </head>} tag,
+ *     when flushing at flush points is enabled.</li>
+ * </ul>
+ *
+ * Until the first chunk is sent the response is not committed, so any error found while rendering
+ * can still replace the page with a clean error message. Once the response is committed the error
+ * message can only be appended to what was already sent. The headers describing the page, like its
+ * entity tag, are only set when the response is committed, so they are dropped together with the
+ * page when it's replaced. When the whole page fits in the buffer, its {@code Content-Length} is
+ * set too.
+ * <p>
+ * The static chunks of the templates come already encoded, see {@link Utf8Output}, so only the
+ * values of the $-expressions are encoded while rendering.
+ * <p>
+ * When the writer has a {@link GzipCompressor}, the body is sent gzip encoded: a page that fits in
+ * the buffer is compressed at once if it reaches the minimum size of the compressor, and a page
+ * sent in chunks is compressed as it's sent. The entity tag is turned into a weak one whenever gzip
+ * is negotiated, since the body no longer has the exact bytes of the page. The tag doesn't depend
+ * on whether a particular body reaches the minimum size, so it's the same in 200 and 304 responses,
+ * see {@link #entityTag(String)}.
+ * <p>
+ * Instances are not thread safe and must be used by a single request.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ResponseWriter implements Utf8Output, Flushable
+{
+    /** Flush threshold used when none is configured, in bytes. */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+    /** Response where the text is written. */
+    private final HttpServletResponse response;
+
+    /**
+     * Number of buffered bytes that triggers sending them to the client. Zero or less means the
+     * whole page is buffered.
+     */
+    private final int flushThreshold;
+
+    /** Whether the flush points of the template send the buffered text to the client. */
+    private final boolean flushAtFlushPoints;
+
+    /** Encoded text not sent to the client yet. */
+    private final Utf8Buffer buffer;
+
+    /** Output stream of the response, {@code null} until the first chunk is sent. */
+    private OutputStream out;
+
+    /** Compressor of the body, {@code null} if the response is not compressed. */
+    private final GzipCompressor compressor;
+
+    /** Headers set when the response is committed, {@code null} until one is added. */
+    private Map<String, String> pageHeaders;
+
+    /** Whether the response was already finished, so {@link #finish()} has nothing to send. */
+    private boolean finished;
+
+    /**
+     * Creates a new writer for the given response.
+     *
+     * @param response Response where the text is written
+     * @param flushThreshold Number of buffered bytes that triggers sending them to the client, or
+     *                       zero to buffer the whole page
+     * @param flushAtFlushPoints Whether the flush points of the template send the buffered text to
+     *                           the client
+     */
+    public ResponseWriter(
+        HttpServletResponse response, int flushThreshold, boolean flushAtFlushPoints)
+    {
+        this(response, flushThreshold, flushAtFlushPoints, null);
+    }
+
+    /**
+     * Creates a new writer for the given response, compressing its body with the given compressor.
+     *
+     * @param response Response where the text is written
+     * @param flushThreshold Number of buffered bytes that triggers sending them to the client, or
+     *                       zero to buffer the whole page
+     * @param flushAtFlushPoints Whether the flush points of the template send the buffered text to
+     *                           the client
+     * @param compressor Compressor of the body, or {@code null} to send it uncompressed
+     */
+    ResponseWriter(
+        HttpServletResponse response, int flushThreshold, boolean flushAtFlushPoints,
+        GzipCompressor compressor)
+    {
+        this.response = response;
+        this.compressor = compressor;
+        this.flushThreshold = flushThreshold;
+        this.flushAtFlushPoints = flushAtFlushPoints;
+        this.buffer = new Utf8Buffer(flushThreshold > 0 ? flushThreshold : DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    @Override
+    public ResponseWriter append(CharSequence text)
+    throws IOException
+    {
+        buffer.append(text);
+        flushIfFull();
+        return this;
+    }
+
+    @Override
+    public ResponseWriter append(CharSequence text, int start, int end)
+    throws IOException
+    {
+        buffer.append(text, start, end);
+        flushIfFull();
+        return this;
+    }
+
+    @Override
+    public ResponseWriter append(char character)
+    throws IOException
+    {
+        buffer.append(character);
+        flushIfFull();
+        return this;
+    }
+
+    @Override
+    public void writeUtf8(byte[] encoded)
+    throws IOException
+    {
+        buffer.writeUtf8(encoded);
+        flushIfFull();
+    }
+
+    /**
+     * Sends the buffered text to the client if flushing at flush points is enabled.
+     *
+     * @throws IOException If there's any problem writing to the response.
+     */
+    @Override
+    public void flush()
+    throws IOException
+    {
+        if (flushAtFlushPoints)
+        {
+            send();
+        }
+    }
+
+    /**
+     * Returns whether part of the page was already sent to the client, in which case it can't be
+     * replaced anymore.
+     *
+     * @return {@code true} if the response is committed.
+     */
+    public boolean isCommitted()
+    {
+        return out != null;
+    }
+
+    /**
+     * Returns whether a body of the given size is sent compressed.
+     *
+     * @param length Number of bytes of the uncompressed body
+     *
+     * @return {@code true} if the response is compressed and the body reaches the minimum size of
+     *         the compressor.
+     */
+    public boolean isCompressed(int length)
+    {
+        return compressor != null && compressor.shouldCompress(length);
+    }
+
+    /**
+     * Returns the entity tag sent for the given page with the encoding negotiated for this
+     * response: the weak form of the tag if gzip was negotiated, or the tag itself otherwise. The
+     * same value must be sent in 200 and 304 responses, so a resource has a single validator per
+     * encoding.
+     *
+     * @param etag Strong entity tag of the page
+     *
+     * @return The entity tag to send.
+     */
+    public String entityTag(String etag)
+    {
+        return compressor != null ? ETag.weaken(etag) : etag;
+    }
+
+    /**
+     * Sets a header describing the rendered page. The header is set in the response when it's
+     * committed, unless the page is discarded before with {@link #resetBuffer()}.
+     *
+     * @param name Name of the header
+     * @param value Value of the header
+     */
+    public void setPageHeader(String name, String value)
+    {
+        if (pageHeaders == null)
+        {
+            pageHeaders = new LinkedHashMap<>();
+        }
+
+        pageHeaders.put(name, value);
+    }
+
+    /**
+     * Discards the text that wasn't sent to the client yet. If nothing was sent, the headers of the
+     * page are discarded too.
+     */
+    public void resetBuffer()
+    {
+        buffer.reset();
+        if (!isCommitted())
+        {
+            pageHeaders = null;
+        }
+    }
+
+    /**
+     * Discards the text that wasn't sent to the client yet and makes {@link #finish()} send the
+     * response without a body, for example for a 304 response.
+     */
+    public void discardBody()
+    {
+        buffer.reset();
+        finished = true;
+    }
+
+    /**
+     * Sends the remaining text, followed by a line break, and closes the response output stream.
+     * If nothing was sent before, the whole page is compressed if it's worth it and the
+     * {@code Content-Length} of the response is set.
+     *
+     * @throws IOException If there's any problem writing to the response.
+     */
+    public void finish()
+    throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+
+        buffer.append(System.lineSeparator());
+        if (!isCommitted())
+        {
+            if (isCompressed(buffer.size()))
+            {
+                finish(compressor.compress(buffer.toByteArray()), true);
+                return;
+            }
+
+            commitHeaders(false);
+            response.setContentLength(buffer.size());
+            out = response.getOutputStream();
+        }
+
+        try (OutputStream stream = getOutputStream())
+        {
+            buffer.writeTo(stream);
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Sends the given body, already encoded in UTF-8, instead of the rendered text and closes the
+     * response. Nothing must have been sent before.
+     *
+     * @param body Encoded body, for example a page taken from a cache
+     *
+     * @throws IOException If there's any problem writing to the response.
+     */
+    public void finish(byte[] body)
+    throws IOException
+    {
+        finish(body, false);
+    }
+
+    /**
+     * Sends the given body instead of the rendered text and closes the response. Nothing must have
+     * been sent before.
+     *
+     * @param body Encoded body, for example a page taken from a cache
+     * @param compressed Whether the body is already gzip encoded
+     *
+     * @throws IOException If there's any problem writing to the response.
+     */
+    public void finish(byte[] body, boolean compressed)
+    throws IOException
+    {
+        discardBody();
+        commitHeaders(compressed);
+        response.setContentLength(body.length);
+        try (OutputStream stream = response.getOutputStream())
+        {
+            stream.write(body);
+        }
+    }
+
+    /**
+     * Sends the buffered text to the client when it reaches the flush threshold.
+     *
+     * @throws IOException If there's any problem writing to the response.
+     */
+    private void flushIfFull()
+    throws IOException
+    {
+        if (flushThreshold > 0 && buffer.size() >= flushThreshold)
+        {
+            send();
+        }
+    }
+
+    /**
+     * Sends the buffered text to the client, committing the response.
+     *
+     * @throws IOException If there's any problem writing to the response.
+     */
+    private void send()
+    throws IOException
+    {
+        if (buffer.size() == 0)
+        {
+            return;
+        }
+
+        OutputStream stream = getOutputStream();
+        buffer.writeTo(stream);
+        stream.flush();
+        buffer.reset();
+    }
+
+    /**
+     * Returns the output stream of the response, setting the content type and the headers of the
+     * page the first time it's requested. If the response is compressed, the returned stream
+     * compresses what is written to it.
+     *
+     * @return The response output stream.
+     *
+     * @throws IOException If the output stream can't be obtained.
+     */
+    private OutputStream getOutputStream()
+    throws IOException
+    {
+        if (out == null)
+        {
+            commitHeaders(compressor != null);
+            out =
+                compressor != null
+                    ? compressor.open(response.getOutputStream())
+                    : response.getOutputStream();
+        }
+
+        return out;
+    }
+
+    /**
+     * Sets the content type and the headers of the page in the response.
+     *
+     * @param compressed Whether the body is gzip encoded
+     */
+    private void commitHeaders(boolean compressed)
+    {
+        response.setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
+        if (compressed)
+        {
+            response.setHeader(GzipCompressor.CONTENT_ENCODING, GzipCompressor.GZIP);
+        }
+
+        if (pageHeaders != null)
+        {
+            pageHeaders.forEach(
+                (name, value) -> response.setHeader(
+                    name, name.equals(ETag.HEADER) ? entityTag(value) : value));
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package biz.netcentric.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Warm-up phase run in a background thread right after the {@link HTLProcessor} is initialized,
+ * so the first requests after a deploy don't pay for reading, parsing and compiling the templates
+ * nor run the Javascript code in a cold JVM:
+ * <ol>
+ *     <li><b>Precompilation:</b> Every {@code .html} file of the web application, except the ones
+ *     under {@code /WEB-INF/}, is loaded into the {@link biz.netcentric.template.TemplateCache}.
+ *     </li>
+ *     <li><b>Synthetic requests:</b> Each sample URL, a path optionally followed by a query
+ *     string with the request parameters, is rendered the given number of times and the output
+ *     is discarded. Without sample URLs, the precompiled templates are rendered without
+ *     parameters.</li>
+ * </ol>
+ *
+ * Templates that can't be compiled and renders that fail are reported and counted, but they don't
+ * stop the warm-up. The warm-up is published as a servlet context attribute, so the
+ * {@link HealthServlet} can tell whether it finished, see {@link #isReady()}.
+ *
+ * @author Jhoan Muñoz
+ */
+final class Warmup implements Runnable
+{
+    /** Name of the servlet context attribute holding the warm-up. */
+    static final String CONTEXT_ATTRIBUTE = Warmup.class.getName();
+
+    /** Name of the background thread. */
+    static final String THREAD_NAME = "slightly-warmup";
+
+    /** Extension of the template files. */
+    static final String TEMPLATE_EXTENSION = ".html";
+
+    /** Directory of the web application that doesn't hold templates. */
+    static final String WEB_INF_PATH = "/WEB-INF/";
+
+    /** Servlet rendering the templates. */
+    private final HTLProcessor processor;
+
+    /** Context to locate the template files. */
+    private final ServletContext servletContext;
+
+    /** Whether all the templates are compiled before the synthetic requests. */
+    private final boolean precompile;
+
+    /** Sample URLs rendered by the synthetic requests, empty to render the templates found. */
+    private final List<String> sampleUrls;
+
+    /** Number of times each sample URL is rendered. */
+    private final int requests;
+
+    /** Number of templates compiled. */
+    private final AtomicInteger compiledTemplates = new AtomicInteger();
+
+    /** Number of synthetic requests rendered. */
+    private final AtomicInteger renderedRequests = new AtomicInteger();
+
+    /** Number of templates or synthetic requests that failed. */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** Background thread running the warm-up, {@code null} until it's started. */
+    private Thread thread;
+
+    /** Whether the warm-up finished. */
+    private volatile boolean ready;
+
+    /**
+     * Creates a new warm-up.
+     *
+     * @param processor Servlet rendering the templates
+     * @param servletContext Context to locate the template files
+     * @param precompile Whether all the templates are compiled before the synthetic requests
+     * @param sampleUrls Sample URLs rendered by the synthetic requests, empty to render the
+     *                   templates found in the web application
+     * @param requests Number of times each sample URL is rendered
+     */
+    Warmup(
+        HTLProcessor processor, ServletContext servletContext, boolean precompile,
+        List<String> sampleUrls, int requests)
+    {
+        if (requests < 0)
+        {
+            throw new IllegalArgumentException("The number of warm-up requests can't be negative");
+        }
+
+        this.processor = processor;
+        this.servletContext = servletContext;
+        this.precompile = precompile;
+        this.sampleUrls = sampleUrls;
+        this.requests = requests;
+    }
+
+    /**
+     * Starts the warm-up in a background thread. If there's nothing to do, the warm-up is ready at
+     * once.
+     */
+    synchronized void start()
+    {
+        if (!precompile && requests == 0)
+        {
+            ready = true;
+            return;
+        }
+
+        thread = new Thread(this, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Interrupts the warm-up if it's still running. It stops before the next template or request.
+     */
+    synchronized void stop()
+    {
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Compiles the templates and renders the synthetic requests, then marks the warm-up as ready.
+     * An interrupted warm-up is never ready.
+     */
+    @Override
+    public void run()
+    {
+        long start = System.nanoTime();
+        List<String> templates =
+            precompile || sampleUrls.isEmpty()
+                ? findTemplates("/") : Collections.<String>emptyList();
+        if (precompile)
+        {
+            for (String path : templates)
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    return;
+                }
+
+                compile(path);
+            }
+        }
+
+        List<String> urls = sampleUrls.isEmpty() ? templates : sampleUrls;
+        for (int i = 0; i < requests; i++)
+        {
+            for (String url : urls)
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    return;
+                }
+
+                render(url);
+            }
+        }
+
+        ready = true;
+        servletContext.log(
+            "Warm-up finished in " + (System.nanoTime() - start) / 1000000 + " ms: " + this);
+    }
+
+    /**
+     * Returns whether the warm-up finished, so the servlet is ready to take traffic.
+     *
+     * @return {@code true} if all the templates were compiled and all the synthetic requests were
+     *         rendered.
+     */
+    boolean isReady()
+    {
+        return ready;
+    }
+
+    int getCompiledTemplates()
+    {
+        return compiledTemplates.get();
+    }
+
+    int getRenderedRequests()
+    {
+        return renderedRequests.get();
+    }
+
+    int getFailures()
+    {
+        return failures.get();
+    }
+
+    /**
+     * Returns the paths of all the templates under the given directory of the web application,
+     * sorted alphabetically.
+     *
+     * @param directory Path of the directory, ending with a slash
+     *
+     * @return The servlet paths of the templates.
+     */
+    List<String> findTemplates(String directory)
+    {
+        List<String> templates = new ArrayList<>();
+        Set<String> paths = servletContext.getResourcePaths(directory);
+        if (paths == null)
+        {
+            return templates;
+        }
+
+        for (String path : new TreeSet<>(paths))
+        {
+            if (path.startsWith(WEB_INF_PATH))
+            {
+                continue;
+            }
+
+            if (path.endsWith("/"))
+            {
+                templates.addAll(findTemplates(path));
+            }
+            else if (path.endsWith(TEMPLATE_EXTENSION))
+            {
+                templates.add(path);
+            }
+        }
+
+        return templates;
+    }
+
+    /**
+     * Loads the given template into the template cache of the servlet.
+     *
+     * @param path Servlet path of the template
+     */
+    private void compile(String path)
+    {
+        try
+        {
+            processor.loadTemplate(servletContext, path);
+            compiledTemplates.incrementAndGet();
+        }
+        catch (IOException | URISyntaxException | RuntimeException exception)
+        {
+            failures.incrementAndGet();
+            System.err.println("Unable to precompile the template " + path);
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Renders the given sample URL through the servlet, discarding the output.
+     *
+     * @param url Path of the template, optionally followed by a query string
+     */
+    private void render(String url)
+    {
+        try
+        {
+            processor.processRequest(newRequest(url), newResponse());
+            renderedRequests.incrementAndGet();
+        }
+        catch (IOException | ServletException | RuntimeException exception)
+        {
+            failures.incrementAndGet();
+            System.err.println("Unable to render the warm-up request " + url);
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a synthetic GET request for the given URL.
+     *
+     * @param url Path of the template, optionally followed by a query string
+     *
+     * @return The request.
+     */
+    static HttpServletRequest newRequest(String url)
+    {
+        int queryStart = url.indexOf('?');
+        String path = queryStart < 0 ? url : url.substring(0, queryStart);
+        String query = queryStart < 0 ? null : url.substring(queryStart + 1);
+        Map<String, String[]> parameters = parseQuery(query);
+
+        return proxy(HttpServletRequest.class, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "getMethod":
+                    return "GET";
+                case "getPathInfo":
+                case "getRequestURI":
+                    return path;
+                case "getQueryString":
+                    return query;
+                case "getProtocol":
+                    return "HTTP/1.1";
+                case "getParameter":
+                    String[] values = parameters.get(args[0]);
+                    return values == null ? null : values[0];
+                case "getParameterValues":
+                    return parameters.get(args[0]);
+                case "getParameterMap":
+                    return Collections.unmodifiableMap(parameters);
+                case "getParameterNames":
+                    return Collections.enumeration(parameters.keySet());
+                case "getHeaders":
+                case "getHeaderNames":
+                case "getAttributeNames":
+                    return Collections.emptyEnumeration();
+                case "getDateHeader":
+                case "getIntHeader":
+                    return -1;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Creates a response that discards everything written to it.
+     *
+     * @return The response.
+     */
+    static HttpServletResponse newResponse()
+    {
+        ServletOutputStream outputStream = new DiscardingOutputStream();
+        PrintWriter writer = new PrintWriter(outputStream);
+        return proxy(HttpServletResponse.class, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "getOutputStream":
+                    return outputStream;
+                case "getWriter":
+                    return writer;
+                case "getCharacterEncoding":
+                    return StandardCharsets.UTF_8.name();
+                case "getStatus":
+                    return HttpServletResponse.SC_OK;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Parses the given query string, decoding the names and values of the parameters.
+     *
+     * @param query Query string, or {@code null} if there's none
+     *
+     * @return The parameter values by name, in the order they appear.
+     */
+    static Map<String, String[]> parseQuery(String query)
+    {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        if (query == null || query.isEmpty())
+        {
+            return parameters;
+        }
+
+        for (String pair : query.split("&"))
+        {
+            if (pair.isEmpty())
+            {
+                continue;
+            }
+
+            int separator = pair.indexOf('=');
+            String name = decode(separator < 0 ? pair : pair.substring(0, separator));
+            String value = separator < 0 ? "" : decode(pair.substring(separator + 1));
+            String[] values = parameters.get(name);
+            if (values == null)
+            {
+                parameters.put(name, new String[]{value});
+            }
+            else
+            {
+                String[] newValues = new String[values.length + 1];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                newValues[values.length] = value;
+                parameters.put(name, newValues);
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Decodes a URL encoded query string component.
+     *
+     * @param value Encoded value
+     *
+     * @return The decoded value.
+     */
+    private static String decode(String value)
+    {
+        try
+        {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException uee)
+        {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Creates a dynamic proxy implementing the given interface.
+     *
+     * @param type Interface to implement
+     * @param handler Handler of the method calls
+     * @param <T> Type of the interface
+     *
+     * @return The proxy.
+     */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(
+            Proxy.newProxyInstance(Warmup.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Returns the default value of the given type, used for the methods the synthetic requests
+     * and responses don't implement.
+     *
+     * @param type Return type of a method
+     *
+     * @return {@code null}, {@code false} or zero.
+     */
+    private static Object defaultValue(Class<?> type)
+    {
+        if (!type.isPrimitive() || type == void.class)
+        {
+            return null;
+        }
+
+        if (type == boolean.class)
+        {
+            return false;
+        }
+
+        if (type == long.class)
+        {
+            return 0L;
+        }
+
+        if (type == float.class)
+        {
+            return 0f;
+        }
+
+        if (type == double.class)
+        {
+            return 0d;
+        }
+
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Warmup [ready=" + ready + ", compiledTemplates=" + getCompiledTemplates()
+            + ", renderedRequests=" + getRenderedRequests() + ", failures=" + getFailures() + "]";
+    }
+
+    /**
+     * Servlet output stream that discards everything written to it.
+     */
+    private static final class DiscardingOutputStream extends ServletOutputStream
+    {
+        @Override
+        public void write(int value)
+        {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length)
+        {
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+        }
+    }
+}
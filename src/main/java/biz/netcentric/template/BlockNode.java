@@ -0,0 +1,42 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sequence of nodes rendered one after the other.
+ *
+ * @author Jhoan Muñoz
+ */
+final class BlockNode implements Node
+{
+    /** Nodes in the order they have to be rendered. */
+    private final Node[] children;
+
+    /**
+     * Creates a new block with the given nodes.
+     *
+     * @param children Nodes in the order they have to be rendered
+     */
+    BlockNode(List<Node> children)
+    {
+        this.children = children.toArray(new Node[children.size()]);
+    }
+
+    List<Node> getChildren()
+    {
+        return Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        for (Node child : children)
+        {
+            child.render(context);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package biz.netcentric.template;
+
+/**
+ * Thrown when the Javascript code of a request runs more instructions or for longer than allowed
+ * by its {@link TemplateContextFactory}. It's an {@link Error} instead of an exception so the
+ * template code can't catch it with a {@code try/catch} block and keep running.
+ *
+ * @author Jhoan Muñoz
+ */
+public class BudgetExceededError extends Error
+{
+    private static final long serialVersionUID = -3148806472715306281L;
+
+    /**
+     * Creates a new error.
+     *
+     * @param message Description of the exceeded budget
+     */
+    public BudgetExceededError(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,112 @@
+package biz.netcentric.template;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Value of a {@code data-cache} attribute, which has the form {@code "keyExpr; ttl=60s"}:
+ * <ul>
+ *     <li><b>keyExpr:</b> Optional Javascript expression identifying the cached output.</li>
+ *     <li><b>ttl:</b> Optional time the output is kept in the cache, a number followed by
+ *     {@code ms}, {@code s}, {@code m} or {@code h}. Seconds are assumed when no unit is given,
+ *     and {@link #DEFAULT_TTL_MILLIS} when the whole option is missing.</li>
+ * </ul>
+ *
+ * @author Jhoan Muñoz
+ */
+public final class CacheDirective
+{
+    /** Time the output is kept in the cache when no TTL is given. */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /** Name of the TTL option. */
+    static final String TTL_OPTION = "ttl=";
+
+    /** Format of the TTL values. */
+    private static final Pattern TTL_PATTERN = Pattern.compile("(\\d+)\\s*(ms|s|m|h)?");
+
+    /** Javascript expression identifying the cached output, empty if none was given. */
+    private final String keyExpression;
+
+    /** Number of milliseconds the output is kept in the cache. */
+    private final long ttlMillis;
+
+    private CacheDirective(String keyExpression, long ttlMillis)
+    {
+        this.keyExpression = keyExpression;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Parses the value of a {@code data-cache} attribute.
+     *
+     * @param value Value of the attribute
+     *
+     * @return The parsed directive.
+     *
+     * @throws IllegalArgumentException If the TTL is not valid.
+     */
+    public static CacheDirective parse(String value)
+    {
+        String keyExpression = value.trim();
+        long ttlMillis = DEFAULT_TTL_MILLIS;
+        int separator = keyExpression.lastIndexOf(';');
+        String option = keyExpression.substring(separator + 1).trim();
+        if (option.startsWith(TTL_OPTION))
+        {
+            ttlMillis = parseTtl(option.substring(TTL_OPTION.length()).trim());
+            keyExpression = separator < 0 ? "" : keyExpression.substring(0, separator).trim();
+        }
+
+        return new CacheDirective(keyExpression, ttlMillis);
+    }
+
+    public String getKeyExpression()
+    {
+        return keyExpression;
+    }
+
+    public long getTtlMillis()
+    {
+        return ttlMillis;
+    }
+
+    /**
+     * Parses a TTL value.
+     *
+     * @param ttl Number followed by an optional unit
+     *
+     * @return The TTL in milliseconds.
+     *
+     * @throws IllegalArgumentException If the TTL is not valid.
+     */
+    private static long parseTtl(String ttl)
+    {
+        Matcher matcher = TTL_PATTERN.matcher(ttl);
+        if (!matcher.matches())
+        {
+            throw new IllegalArgumentException("Invalid data-cache TTL: " + ttl);
+        }
+
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2) == null ? "s" : matcher.group(2);
+        switch (unit)
+        {
+            case "ms":
+                return amount;
+            case "m":
+                return TimeUnit.MINUTES.toMillis(amount);
+            case "h":
+                return TimeUnit.HOURS.toMillis(amount);
+            default:
+                return TimeUnit.SECONDS.toMillis(amount);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CacheDirective [keyExpression=" + keyExpression + ", ttlMillis=" + ttlMillis + "]";
+    }
+}
@@ -0,0 +1,90 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+
+/**
+ * Element with a {@code data-cache} attribute. The element is rendered once and its HTML is kept in
+ * the {@link OutputCache} for the TTL of the directive, so the next renderings copy it instead of
+ * evaluating its expressions again. The cache key is made of the template version, the position
+ * of the element in the template and the value of the key expression, if any. When the rendering
+ * context has no output cache, the element is rendered every time.
+ *
+ * @author Jhoan Muñoz
+ */
+final class CacheNode implements Node
+{
+    /** Initial capacity of the buffer where the element is rendered, in bytes. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Identifier of the element in the template version, first part of the cache keys. */
+    private final String keyPrefix;
+
+    /** Javascript expression and TTL taken from the data-cache attribute. */
+    private final CacheDirective directive;
+
+    /** Element to cache. */
+    private final Node body;
+
+    /**
+     * Creates a new data-cache node.
+     *
+     * @param keyPrefix Identifier of the element in the template version
+     * @param directive Javascript expression and TTL taken from the data-cache attribute
+     * @param body Element to cache
+     */
+    CacheNode(String keyPrefix, CacheDirective directive, Node body)
+    {
+        this.keyPrefix = keyPrefix;
+        this.directive = directive;
+        this.body = body;
+    }
+
+    String getKeyPrefix()
+    {
+        return keyPrefix;
+    }
+
+    CacheDirective getDirective()
+    {
+        return directive;
+    }
+
+    Node getBody()
+    {
+        return body;
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        OutputCache cache = context.getOutputCache();
+        if (cache == null)
+        {
+            body.render(context);
+            return;
+        }
+
+        String keyExpression = directive.getKeyExpression();
+        String key =
+            keyExpression.isEmpty()
+                ? keyPrefix
+                : keyPrefix + ':' + RenderContext.toText(context.evaluate(keyExpression));
+        byte[] html =
+            cache.get(key, directive.getTtlMillis(), () -> {
+                Utf8Buffer buffer = new Utf8Buffer(INITIAL_CAPACITY);
+                Appendable previous = context.redirect(buffer);
+                try
+                {
+                    body.render(context);
+                }
+                finally
+                {
+                    context.redirect(previous);
+                }
+
+                return buffer.toByteArray();
+            });
+        context.writeUtf8(html);
+    }
+}
@@ -0,0 +1,49 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+
+/**
+ * $-expression. The expression is evaluated by the Javascript engine and its value is written to
+ * the output. Java objects are written with their {@code toString} method and Javascript values
+ * with the Javascript conversion rules, so the number 1 is written as "1" and not "1.0".
+ * Expressions that are just a property path, like {@code ${person.name}}, are resolved without
+ * Rhino when possible, see {@link PropertyPath}.
+ *
+ * @author Jhoan Muñoz
+ */
+final class ExpressionNode implements Node
+{
+    /** Javascript expression contained inside the {@code ${ }} characters. */
+    private final String expression;
+
+    /** Expression parsed as a property path, {@code null} if it's not one. */
+    private final PropertyPath path;
+
+    /**
+     * Creates a new node for the given $-expression.
+     *
+     * @param expression Javascript expression contained inside the {@code ${ }} characters
+     */
+    ExpressionNode(String expression)
+    {
+        this.expression = expression;
+        this.path = PropertyPath.parse(expression);
+    }
+
+    String getExpression()
+    {
+        return expression;
+    }
+
+    PropertyPath getPath()
+    {
+        return path;
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        context.write(RenderContext.toText(context.evaluate(expression, path)));
+    }
+}
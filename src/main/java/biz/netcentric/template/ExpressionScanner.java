@@ -0,0 +1,174 @@
+package biz.netcentric.template;
+
+/**
+ * Single pass tokenizer of the $-expressions found in a piece of HTML. The text is scanned once,
+ * without copying it, and every static chunk and expression is reported to a {@link Handler} as a
+ * range of the original text.
+ * <p>
+ * The end of an expression is found by balancing the braces, so expressions can contain object
+ * literals or blocks, for example <code>${ {a: 1}.a }</code>. Braces inside Javascript string
+ * literals are ignored, including strings delimited with the {@code &quot;} entity, which is how
+ * double quotes inside attribute values are serialized. A <code>${</code> without its closing
+ * brace is reported as static text, and the scan goes on right after it, so a stray
+ * <code>${</code> doesn't hide the expressions that follow it.
+ *
+ * @author Jhoan Muñoz
+ */
+public final class ExpressionScanner
+{
+    /** Prefix used for $-expressions. */
+    public static final String EXPR_PREFIX = "${";
+
+    /** Suffix used for $-expressions. */
+    public static final String EXPR_SUFFIX = "}";
+
+    /** HTML entity used for the double quotes inside attribute values. */
+    static final String QUOTE_ENTITY = "&quot;";
+
+    private ExpressionScanner()
+    {
+    }
+
+    /**
+     * Receives the tokens found by the scanner, in the order they appear in the text.
+     */
+    public interface Handler
+    {
+        /**
+         * Receives a chunk of static text.
+         *
+         * @param source Scanned text
+         * @param start Index of the first character of the chunk
+         * @param end Index after the last character of the chunk
+         */
+        void text(String source, int start, int end);
+
+        /**
+         * Receives the code of a $-expression, without the <code>${</code> and <code>}</code>
+         * delimiters.
+         *
+         * @param source Scanned text
+         * @param start Index of the first character of the expression code
+         * @param end Index after the last character of the expression code
+         */
+        void expression(String source, int start, int end);
+    }
+
+    /**
+     * Scans the given text and reports its static chunks and $-expressions to the given handler.
+     * Empty static chunks are not reported.
+     *
+     * @param source Text to scan
+     * @param handler Handler receiving the tokens
+     */
+    public static void scan(String source, Handler handler)
+    {
+        int position = 0;
+        int exprStart = source.indexOf(EXPR_PREFIX);
+        while (exprStart >= 0)
+        {
+            int codeStart = exprStart + EXPR_PREFIX.length();
+            int exprEnd = findExpressionEnd(source, codeStart);
+            if (exprEnd < 0)
+            {
+                // A stray prefix is kept as static text, the expressions after it are still found
+                exprStart = source.indexOf(EXPR_PREFIX, codeStart);
+                continue;
+            }
+
+            if (exprStart > position)
+            {
+                handler.text(source, position, exprStart);
+            }
+
+            handler.expression(source, codeStart, exprEnd);
+            position = exprEnd + EXPR_SUFFIX.length();
+            exprStart = source.indexOf(EXPR_PREFIX, position);
+        }
+
+        if (position < source.length())
+        {
+            handler.text(source, position, source.length());
+        }
+    }
+
+    /**
+     * Finds the brace closing the expression whose code starts at the given index.
+     *
+     * @param source Scanned text
+     * @param from Index of the first character of the expression code
+     *
+     * @return The index of the closing brace, or -1 if the expression is not closed.
+     */
+    static int findExpressionEnd(String source, int from)
+    {
+        int depth = 1;
+        int length = source.length();
+        int i = from;
+        while (i < length)
+        {
+            char c = source.charAt(i);
+            if (c == '}')
+            {
+                if (--depth == 0)
+                {
+                    return i;
+                }
+            }
+            else if (c == '{')
+            {
+                depth++;
+            }
+            else if (c == '\'' || c == '"' || c == '`')
+            {
+                i = skipString(source, i + 1, c);
+                if (i < 0)
+                {
+                    return -1;
+                }
+            }
+            else if (c == '&' && source.startsWith(QUOTE_ENTITY, i))
+            {
+                i = source.indexOf(QUOTE_ENTITY, i + QUOTE_ENTITY.length());
+                if (i < 0)
+                {
+                    return -1;
+                }
+
+                i += QUOTE_ENTITY.length() - 1;
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Skips a Javascript string literal.
+     *
+     * @param source Scanned text
+     * @param from Index of the first character after the opening quote
+     * @param quote Quote character delimiting the string
+     *
+     * @return The index of the closing quote, or -1 if the string is not closed.
+     */
+    private static int skipString(String source, int from, char quote)
+    {
+        int length = source.length();
+        for (int i = from; i < length; i++)
+        {
+            char c = source.charAt(i);
+            if (c == '\\')
+            {
+                i++;
+            }
+            else if (c == quote)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
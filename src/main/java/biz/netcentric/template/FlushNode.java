@@ -0,0 +1,28 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+
+/**
+ * Flush point of a template. It asks the output to send the HTML rendered so far to the client,
+ * which is useful right after the {@code <head>} element so the browser can start loading the
+ * page resources while the body is still being rendered. Outputs that don't support flushing
+ * ignore it.
+ *
+ * @author Jhoan Muñoz
+ */
+final class FlushNode implements Node
+{
+    /** Single instance shared by all the templates, since the node has no state. */
+    static final FlushNode INSTANCE = new FlushNode();
+
+    private FlushNode()
+    {
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        context.flush();
+    }
+}
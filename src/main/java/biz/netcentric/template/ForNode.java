@@ -0,0 +1,207 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * data-for-x element. The element is rendered once for each item of the collection returned by its
+ * expression. The body is rendered in a child scope where the variable "x" holds the current item,
+ * so the expressions inside it can use the item itself, {@code ${x}}, or its properties,
+ * {@code ${x.name}}.
+ * <p>
+ * The expression can return a Javascript array or any of these Java types: {@link Iterable},
+ * {@link Iterator}, {@link Enumeration}, {@link Stream} or an array. The items are consumed one at
+ * a time, so iterators and streams backed by a cursor or a generator are never materialized in
+ * memory, and streams are closed once the loop ends. A {@code null} or {@code undefined} result
+ * renders nothing.
+ *
+ * @author Jhoan Muñoz
+ */
+final class ForNode implements Node
+{
+    /** Name of the loop variable, this is the "x" in data-for-x. */
+    private final String variable;
+
+    /** Javascript expression returning the collection to iterate over. */
+    private final String expression;
+
+    /** Expression parsed as a property path, {@code null} if it's not one. */
+    private final PropertyPath path;
+
+    /** Element to render for each item. */
+    private final Node body;
+
+    /**
+     * Creates a new data-for-x node.
+     *
+     * @param variable Name of the loop variable
+     * @param expression Javascript expression returning the collection to iterate over
+     * @param body Element to render for each item
+     */
+    ForNode(String variable, String expression, Node body)
+    {
+        this.variable = variable;
+        this.expression = expression;
+        this.body = body;
+        this.path = PropertyPath.parse(expression);
+    }
+
+    String getVariable()
+    {
+        return variable;
+    }
+
+    String getExpression()
+    {
+        return expression;
+    }
+
+    Node getBody()
+    {
+        return body;
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        Object items = RenderContext.unwrap(context.evaluate(expression, path));
+        if (items == null || items instanceof Undefined)
+        {
+            return;
+        }
+
+        Iterator<?> iterator = toIterator(items);
+        Scriptable previous = context.enterScope();
+        try
+        {
+            while (iterator.hasNext())
+            {
+                context.setVariable(variable, iterator.next());
+                body.render(context);
+            }
+        }
+        finally
+        {
+            context.exitScope(previous);
+            if (items instanceof Stream)
+            {
+                ((Stream<?>)items).close();
+            }
+        }
+    }
+
+    /**
+     * Helper method that returns an iterator over the items of the given collection, without
+     * copying them.
+     *
+     * @param items Collection returned by the data-for-x expression
+     *
+     * @return An iterator over the given items.
+     *
+     * @throws EvaluatorException If the given object can't be iterated.
+     */
+    private Iterator<?> toIterator(Object items)
+    {
+        if (items instanceof NativeArray)
+        {
+            NativeArray array = (NativeArray)items;
+            return new IndexIterator(
+                array.getLength(),
+                index -> {
+                    Object item = array.get(index, array);
+                    return item == Scriptable.NOT_FOUND ? Undefined.instance : item;
+                });
+        }
+
+        if (items instanceof Iterable)
+        {
+            return ((Iterable<?>)items).iterator();
+        }
+
+        if (items instanceof Iterator)
+        {
+            return (Iterator<?>)items;
+        }
+
+        if (items instanceof Stream)
+        {
+            return ((Stream<?>)items).iterator();
+        }
+
+        if (items instanceof Enumeration)
+        {
+            Enumeration<?> enumeration = (Enumeration<?>)items;
+            return new Iterator<Object>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return enumeration.hasMoreElements();
+                }
+
+                @Override
+                public Object next()
+                {
+                    return enumeration.nextElement();
+                }
+            };
+        }
+
+        if (items.getClass().isArray())
+        {
+            return new IndexIterator(Array.getLength(items), index -> Array.get(items, index));
+        }
+
+        throw Context.reportRuntimeError(
+            "The data-for-" + variable + " expression \"" + expression + "\" is not iterable");
+    }
+
+    /**
+     * Iterator over the items of an indexed collection, such as an array.
+     */
+    private static final class IndexIterator implements Iterator<Object>
+    {
+        /** Number of items. */
+        private final long length;
+
+        /** Function returning the item at the given index. */
+        private final IntFunction<Object> getter;
+
+        /** Index of the next item. */
+        private int index;
+
+        IndexIterator(long length, IntFunction<Object> getter)
+        {
+            this.length = length;
+            this.getter = getter;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return index < length;
+        }
+
+        @Override
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            return getter.apply(index++);
+        }
+    }
+}
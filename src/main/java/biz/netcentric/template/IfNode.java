@@ -0,0 +1,56 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+
+/**
+ * data-if element. The element is rendered only if its expression is evaluated to {@code true}.
+ * Conditions that are just a boolean property, like {@code person.married}, are resolved without
+ * Rhino when possible, see {@link PropertyPath}.
+ *
+ * @author Jhoan Muñoz
+ */
+final class IfNode implements Node
+{
+    /** Javascript expression taken from the data-if attribute. */
+    private final String condition;
+
+    /** Condition parsed as a property path, {@code null} if it's not one. */
+    private final PropertyPath path;
+
+    /** Element to render when the condition is met. */
+    private final Node body;
+
+    /**
+     * Creates a new data-if node.
+     *
+     * @param condition Javascript expression taken from the data-if attribute
+     * @param body Element to render when the condition is met
+     */
+    IfNode(String condition, Node body)
+    {
+        this.condition = condition;
+        this.body = body;
+        this.path = PropertyPath.parse(condition);
+    }
+
+    String getCondition()
+    {
+        return condition;
+    }
+
+    Node getBody()
+    {
+        return body;
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        Object result = context.evaluate(condition, path);
+        if (Boolean.valueOf(String.valueOf(RenderContext.unwrap(result))))
+        {
+            body.render(context);
+        }
+    }
+}
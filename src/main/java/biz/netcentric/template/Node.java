@@ -0,0 +1,22 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+
+/**
+ * Instruction of a compiled template. A template is compiled once into a tree of nodes, which is
+ * then walked on every request to write the rendered HTML straight to the output.
+ *
+ * @author Jhoan Muñoz
+ */
+public interface Node
+{
+    /**
+     * Renders this node using the given context.
+     *
+     * @param context Context holding the Javascript scope and the output of the current request
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    void render(RenderContext context)
+    throws IOException;
+}
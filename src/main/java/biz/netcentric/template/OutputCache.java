@@ -0,0 +1,340 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of rendered output, this is whole pages or fragments of them, stored as UTF-8 bytes. Every
+ * entry expires after the time to live given when it's stored.
+ * <p>
+ * The cache is bounded by the number of bytes it holds, see {@link #getMaxBytes()}. Every entry
+ * is weighed by its output, its key and a fixed overhead, so keys computed from request data can't
+ * grow the cache without limit even when the output is empty. When that limit is exceeded, the
+ * least recently used entries are evicted first. Concurrent lookups of the
+ * same missing key wait for a single rendering instead of rendering the same output several times,
+ * so an expired popular page doesn't trigger a burst of renderings.
+ *
+ * @author Jhoan Muñoz
+ */
+public class OutputCache
+{
+    /** Default maximum number of bytes kept in the cache. */
+    public static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Estimated number of bytes used by an entry besides its output and the characters of its key:
+     * the map entry, the cache entry, the key string and the headers of their arrays.
+     */
+    static final int ENTRY_OVERHEAD = 128;
+
+    /** Renders the output of a key that is not in the cache. */
+    @FunctionalInterface
+    public interface Renderer
+    {
+        /**
+         * Renders the output.
+         *
+         * @return The rendered output, or {@code null} if it must not be cached.
+         *
+         * @throws IOException If there's any problem rendering the output.
+         */
+        byte[] render()
+        throws IOException;
+    }
+
+    /** Maximum number of bytes kept in the cache. */
+    private final long maxBytes;
+
+    /** Cache entries in access order. Every access to the map must be synchronized on it. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Renderings in progress, keyed by the key they render. */
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> renderings =
+        new ConcurrentHashMap<>();
+
+    /** Number of bytes held by the cache, guarded by {@link #entries}. */
+    private long bytes;
+
+    /** Number of lookups served without rendering. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that required a rendering. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of entries removed from the cache because of the size limit. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxBytes Maximum number of bytes kept in the cache
+     */
+    public OutputCache(long maxBytes)
+    {
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("The cache size can't be negative");
+        }
+
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached output for the given key, rendering it with the given renderer if it's
+     * not in the cache or if it expired. If the same key is being rendered by another thread, this
+     * method waits for that rendering; should it fail, the output is rendered again, without
+     * caching it.
+     *
+     * @param key Key identifying the output
+     * @param ttlMillis Number of milliseconds the rendered output is kept in the cache
+     * @param renderer Renderer of the output
+     *
+     * @return The output, or {@code null} if it was rendered and the renderer returned
+     *         {@code null}.
+     *
+     * @throws IOException If there's any problem rendering the output.
+     */
+    public byte[] get(String key, long ttlMillis, Renderer renderer)
+    throws IOException
+    {
+        byte[] output = lookup(key);
+        if (output != null)
+        {
+            hits.incrementAndGet();
+            return output;
+        }
+
+        CompletableFuture<byte[]> rendering = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = renderings.putIfAbsent(key, rendering);
+        if (running != null)
+        {
+            output = running.join();
+            if (output != null)
+            {
+                hits.incrementAndGet();
+                return output;
+            }
+
+            misses.incrementAndGet();
+            return renderer.render();
+        }
+
+        try
+        {
+            // The previous rendering may have finished after the lookup
+            output = lookup(key);
+            if (output != null)
+            {
+                hits.incrementAndGet();
+                return output;
+            }
+
+            misses.incrementAndGet();
+            output = renderer.render();
+            if (output != null)
+            {
+                put(key, output, ttlMillis);
+            }
+
+            return output;
+        }
+        finally
+        {
+            renderings.remove(key, rendering);
+            rendering.complete(output);
+        }
+    }
+
+    /**
+     * Removes all the entries from the cache. The counters are not reset.
+     */
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by the cache, this is the weight of all its entries, see
+     * {@link #weigh(String, byte[])}.
+     *
+     * @return The estimated size of the cached entries.
+     */
+    public long getBytes()
+    {
+        synchronized (entries)
+        {
+            return bytes;
+        }
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the fraction of lookups served without rendering.
+     *
+     * @return A value between 0 and 1, or 0 if there were no lookups yet.
+     */
+    public double getHitRate()
+    {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double)hitCount / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "OutputCache [size=" + size() + ", bytes=" + getBytes() + ", maxBytes=" + maxBytes
+            + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+            + getEvictionCount() + ", hitRate=" + String.format("%.4f", getHitRate()) + "]";
+    }
+
+    /**
+     * Returns the estimated number of bytes used by an entry of the cache: the length of its
+     * output, two bytes per character of its key and {@link #ENTRY_OVERHEAD}.
+     *
+     * @param key Key identifying the output
+     * @param output Rendered output
+     *
+     * @return The weight of the entry.
+     */
+    static long weigh(String key, byte[] output)
+    {
+        return output.length + 2L * key.length() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Returns the cached output for the given key, removing it if it expired.
+     *
+     * @param key Key identifying the output
+     *
+     * @return The output, or {@code null} if it's not in the cache.
+     */
+    private byte[] lookup(String key)
+    {
+        synchronized (entries)
+        {
+            Entry entry = entries.get(key);
+            if (entry == null)
+            {
+                return null;
+            }
+
+            if (System.nanoTime() - entry.expiresAt >= 0)
+            {
+                remove(key);
+                return null;
+            }
+
+            return entry.output;
+        }
+    }
+
+    /**
+     * Stores the given output and evicts the least recently used entries until the cache is within
+     * its size limit. Entries weighing more than the whole cache are not stored.
+     *
+     * @param key Key identifying the output
+     * @param output Rendered output
+     * @param ttlMillis Number of milliseconds the output is kept in the cache
+     */
+    private void put(String key, byte[] output, long ttlMillis)
+    {
+        long weight = weigh(key, output);
+        if (weight > maxBytes || ttlMillis <= 0)
+        {
+            return;
+        }
+
+        Entry entry =
+            new Entry(
+                output, weight, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        synchronized (entries)
+        {
+            remove(key);
+            entries.put(key, entry);
+            bytes += weight;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext())
+            {
+                bytes -= eldest.next().getValue().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the given key from the cache. Must be called while holding the lock of
+     * {@link #entries}.
+     *
+     * @param key Key identifying the output
+     */
+    private void remove(String key)
+    {
+        Entry removed = entries.remove(key);
+        if (removed != null)
+        {
+            bytes -= removed.weight;
+        }
+    }
+
+    /**
+     * Cached output with its expiration time.
+     */
+    private static final class Entry
+    {
+        /** Rendered output. */
+        private final byte[] output;
+
+        /** Estimated number of bytes used by the entry. */
+        private final long weight;
+
+        /** Value of {@link System#nanoTime()} when the entry expires. */
+        private final long expiresAt;
+
+        Entry(byte[] output, long weight, long expiresAt)
+        {
+            this.output = output;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package biz.netcentric.template;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeJavaObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Expression made only of a variable name followed by bean properties, like {@code person.name} or
+ * {@code person.married}. Such expressions are resolved without running any Javascript code: the
+ * variable is looked up in the scope and each property is read by calling its getter through a
+ * {@link MethodHandle}, which is looked up once per bean class and property.
+ * <p>
+ * The result is the same Rhino would return, as seen by {@link RenderContext#toText(Object)} and
+ * {@link RenderContext#unwrap(Object)}. Rhino's rules to resolve a property of a Java object are
+ * followed, so a public field or method with the same name as the property takes precedence over
+ * the getter. Whenever the path can't be resolved exactly like Rhino would, for example because a
+ * value is a Javascript object, {@code null}, or an object of a non public class,
+ * {@link #resolve(Context, Scriptable)} returns {@link #UNRESOLVED} and the expression must be
+ * evaluated by Rhino, which also reports the errors.
+ *
+ * @author Jhoan Muñoz
+ */
+public final class PropertyPath
+{
+    /** Value returned when the path can't be resolved without Rhino. */
+    public static final Object UNRESOLVED = new Object();
+
+    /** Format of the property paths, Javascript identifiers separated by dots. */
+    private static final Pattern PATH_PATTERN =
+        Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+
+    /** Javascript reserved words and literals, which are never variable or property names. */
+    private static final Set<String> RESERVED_WORDS =
+        Collections.unmodifiableSet(
+            new HashSet<>(
+                Arrays.asList(
+                    "break", "case", "catch", "class", "const", "continue", "debugger", "default",
+                    "delete", "do", "else", "enum", "export", "extends", "false", "finally", "for",
+                    "function", "if", "import", "in", "instanceof", "let", "new", "null",
+                    "return", "super", "switch", "this", "throw", "true", "try", "typeof", "var",
+                    "void", "while", "with", "yield")));
+
+    /** Type of the getters once adapted, so they can be invoked without knowing the bean class. */
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /** Getters of every bean class, by property name. */
+    private static final ClassValue<ConcurrentMap<String, Getter>> GETTERS =
+        new ClassValue<ConcurrentMap<String, Getter>>()
+        {
+            @Override
+            protected ConcurrentMap<String, Getter> computeValue(Class<?> type)
+            {
+                return new ConcurrentHashMap<>();
+            }
+        };
+
+    /** Name of the variable holding the first object of the path. */
+    private final String variable;
+
+    /** Names of the properties read one after the other. */
+    private final String[] properties;
+
+    /** Last getter used for each property, which saves the lookup while the bean class repeats. */
+    private final Getter[] lastGetters;
+
+    private PropertyPath(String variable, String[] properties)
+    {
+        this.variable = variable;
+        this.properties = properties;
+        this.lastGetters = new Getter[properties.length];
+    }
+
+    /**
+     * Parses the given expression as a property path.
+     *
+     * @param expression Javascript expression
+     *
+     * @return The property path, or {@code null} if the expression is not a property path.
+     */
+    public static PropertyPath parse(String expression)
+    {
+        String path = expression.trim();
+        if (!PATH_PATTERN.matcher(path).matches())
+        {
+            return null;
+        }
+
+        String[] names = path.split("\\.");
+        for (String name : names)
+        {
+            if (RESERVED_WORDS.contains(name))
+            {
+                return null;
+            }
+        }
+
+        return new PropertyPath(names[0], Arrays.copyOfRange(names, 1, names.length));
+    }
+
+    public String getVariable()
+    {
+        return variable;
+    }
+
+    /**
+     * Returns the names of the properties read after looking up the variable.
+     *
+     * @return A copy of the property names, empty if the path is a single variable.
+     */
+    public String[] getProperties()
+    {
+        return properties.clone();
+    }
+
+    /**
+     * Resolves the path in the given scope. A single variable is returned as it's stored in the
+     * scope. The value of a property is returned as a plain Java object when Rhino's wrapper
+     * wouldn't change its text nor its unwrapped value, so no wrapper is created.
+     *
+     * @param context Javascript engine execution context
+     * @param scope Scope holding the variable
+     *
+     * @return The value of the path, or {@link #UNRESOLVED} if it must be evaluated by Rhino.
+     */
+    public Object resolve(Context context, Scriptable scope)
+    {
+        Object value = ScriptableObject.getProperty(scope, variable);
+        if (value == Scriptable.NOT_FOUND || properties.length == 0)
+        {
+            return value == Scriptable.NOT_FOUND ? UNRESOLVED : value;
+        }
+
+        // Only plain Java objects have bean properties, not Java classes, arrays or packages
+        if (value == null || value.getClass() != NativeJavaObject.class)
+        {
+            return UNRESOLVED;
+        }
+
+        Object bean = ((NativeJavaObject)value).unwrap();
+        Class<?> type = null;
+        for (int i = 0; i < properties.length; i++)
+        {
+            if (bean == null || bean instanceof Scriptable || (type != null && type.isPrimitive()))
+            {
+                return UNRESOLVED;
+            }
+
+            Getter getter = getter(i, bean.getClass());
+            if (getter.handle == null)
+            {
+                return UNRESOLVED;
+            }
+
+            try
+            {
+                bean = getter.handle.invokeExact(bean);
+            }
+            catch (Throwable throwable)
+            {
+                throw Context.throwAsScriptRuntimeEx(throwable);
+            }
+
+            type = getter.type;
+        }
+
+        if (type == char.class)
+        {
+            return Integer.valueOf((Character)bean);
+        }
+
+        // Rhino wraps the numbers and characters returned as objects, which changes their text
+        if (!type.isPrimitive() && (bean instanceof Number || bean instanceof Character))
+        {
+            return context.getWrapFactory().wrap(context, scope, bean, type);
+        }
+
+        return bean;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder path = new StringBuilder(variable);
+        for (String property : properties)
+        {
+            path.append('.').append(property);
+        }
+
+        return path.toString();
+    }
+
+    /**
+     * Returns the getter of the given property for the given bean class.
+     *
+     * @param index Index of the property in the path
+     * @param beanClass Class of the bean holding the property
+     *
+     * @return The getter, whose handle is {@code null} if the property can't be read without
+     *         Rhino.
+     */
+    private Getter getter(int index, Class<?> beanClass)
+    {
+        Getter getter = lastGetters[index];
+        if (getter == null || getter.beanClass != beanClass)
+        {
+            getter =
+                GETTERS.get(beanClass).computeIfAbsent(
+                    properties[index], property -> findGetter(beanClass, property));
+            lastGetters[index] = getter;
+        }
+
+        return getter;
+    }
+
+    /**
+     * Looks up the getter of the given property, following the rules Rhino uses to expose the
+     * bean properties of Java objects.
+     *
+     * @param beanClass Class of the bean holding the property
+     * @param property Name of the property
+     *
+     * @return The getter, whose handle is {@code null} if the property can't be read without
+     *         Rhino.
+     */
+    static Getter findGetter(Class<?> beanClass, String property)
+    {
+        if (!Modifier.isPublic(beanClass.getModifiers()) || beanClass.isArray())
+        {
+            return new Getter(beanClass, null, null);
+        }
+
+        // Fields and methods with the same name hide the bean property
+        for (Field field : beanClass.getFields())
+        {
+            if (field.getName().equals(property))
+            {
+                return new Getter(beanClass, null, null);
+            }
+        }
+
+        for (Method method : beanClass.getMethods())
+        {
+            if (method.getName().equals(property))
+            {
+                return new Getter(beanClass, null, null);
+            }
+        }
+
+        // Rhino names the property of getName "name" and the one of getURL "URL"
+        if (Character.isUpperCase(property.charAt(0))
+            || (property.length() > 1 && Character.isUpperCase(property.charAt(1))))
+        {
+            return new Getter(beanClass, null, null);
+        }
+
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        Method method = findGetterMethod(beanClass, "get" + suffix);
+        if (method == null)
+        {
+            method = findGetterMethod(beanClass, "is" + suffix);
+        }
+
+        if (method == null)
+        {
+            return new Getter(beanClass, null, null);
+        }
+
+        try
+        {
+            return new Getter(
+                beanClass,
+                MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE),
+                method.getReturnType());
+        }
+        catch (IllegalAccessException iae)
+        {
+            // Public methods declared by non public classes can't be called through a handle
+            return new Getter(beanClass, null, null);
+        }
+    }
+
+    /**
+     * Returns the public instance method with the given name and no parameters, if it returns a
+     * value.
+     *
+     * @param beanClass Class of the bean holding the property
+     * @param name Name of the method
+     *
+     * @return The getter method, or {@code null} if there's none.
+     */
+    private static Method findGetterMethod(Class<?> beanClass, String name)
+    {
+        try
+        {
+            Method method = beanClass.getMethod(name);
+            return Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class
+                ? null : method;
+        }
+        catch (NoSuchMethodException nsme)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Getter of a property for a bean class.
+     */
+    static final class Getter
+    {
+        /** Class of the bean holding the property. */
+        private final Class<?> beanClass;
+
+        /** Handle of the getter method, {@code null} if the property must be read by Rhino. */
+        private final MethodHandle handle;
+
+        /** Type returned by the getter method. */
+        private final Class<?> type;
+
+        Getter(Class<?> beanClass, MethodHandle handle, Class<?> type)
+        {
+            this.beanClass = beanClass;
+            this.handle = handle;
+            this.type = type;
+        }
+
+        boolean isResolved()
+        {
+            return handle != null;
+        }
+    }
+}
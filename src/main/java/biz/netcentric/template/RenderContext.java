@@ -0,0 +1,293 @@
+package biz.netcentric.template;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Wrapper;
+
+/**
+ * State of a single template rendering: the Javascript context and scope used to evaluate the
+ * expressions and the output where the HTML is written. Each data-for-x loop evaluates its body in
+ * a child scope holding the loop variable, so expressions can access the properties of the current
+ * item, for example {@code ${child.name}}. Elements with a {@code data-cache} attribute are
+ * rendered once into the {@link OutputCache} and then copied from it. Instances are not thread safe
+ * and must be used by a single request.
+ *
+ * @author Jhoan Muñoz
+ */
+public class RenderContext
+{
+    /** Javascript engine execution context. */
+    private final Context context;
+
+    /** Scope used to evaluate the expressions, the innermost loop scope while rendering a loop. */
+    private Scriptable scope;
+
+    /** Cache of the compiled expressions. */
+    private final ScriptCache scriptCache;
+
+    /** Path of the rendered template, part of the key of the compiled expressions. */
+    private final String templatePath;
+
+    /** Output where the rendered HTML is written, a buffer while rendering a cached element. */
+    private Appendable out;
+
+    /** Cache of the rendered elements, {@code null} if elements are not cached. */
+    private final OutputCache outputCache;
+
+    /** Number of evaluated expressions. */
+    private int evaluationCount;
+
+    /**
+     * Creates a new rendering context.
+     *
+     * @param context Javascript engine execution context. This object should come from the
+     *                execution of the {@link Context#enter()} method.
+     * @param scope Scope used to evaluate the expressions
+     * @param scriptCache Cache of the compiled expressions
+     * @param templatePath Path of the rendered template
+     * @param out Output where the rendered HTML is written
+     */
+    public RenderContext(
+        Context context, Scriptable scope, ScriptCache scriptCache, String templatePath,
+        Appendable out)
+    {
+        this(context, scope, scriptCache, templatePath, out, null);
+    }
+
+    /**
+     * Creates a new rendering context that caches the elements with a {@code data-cache}
+     * attribute.
+     *
+     * @param context Javascript engine execution context. This object should come from the
+     *                execution of the {@link Context#enter()} method.
+     * @param scope Scope used to evaluate the expressions
+     * @param scriptCache Cache of the compiled expressions
+     * @param templatePath Path of the rendered template
+     * @param out Output where the rendered HTML is written
+     * @param outputCache Cache of the rendered elements, {@code null} to render them every time
+     */
+    public RenderContext(
+        Context context, Scriptable scope, ScriptCache scriptCache, String templatePath,
+        Appendable out, OutputCache outputCache)
+    {
+        this.context = context;
+        this.scope = scope;
+        this.scriptCache = scriptCache;
+        this.templatePath = templatePath;
+        this.out = out;
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Evaluates the given expression in the current scope, so it can use the variables of the
+     * enclosing data-for-x loops. Expressions are compiled only once, see {@link ScriptCache}.
+     *
+     * @param expression Javascript expression to evaluate
+     *
+     * @return The result of the evaluation.
+     */
+    public Object evaluate(String expression)
+    {
+        evaluationCount++;
+        return scriptCache.exec(context, scope, templatePath, expression);
+    }
+
+    /**
+     * Evaluates the given expression in the current scope. If the expression is a property path,
+     * it's resolved without running any Javascript code when possible, see {@link PropertyPath}.
+     *
+     * @param expression Javascript expression to evaluate
+     * @param path Same expression parsed as a property path, or {@code null} if it's not one
+     *
+     * @return The result of the evaluation.
+     */
+    Object evaluate(String expression, PropertyPath path)
+    {
+        if (path != null)
+        {
+            Object value = path.resolve(context, scope);
+            if (value != PropertyPath.UNRESOLVED)
+            {
+                evaluationCount++;
+                return value;
+            }
+        }
+
+        return evaluate(expression);
+    }
+
+    /**
+     * Returns the number of expressions evaluated so far with this context.
+     *
+     * @return The number of evaluated data-if, data-for-x and $-expressions.
+     */
+    public int getEvaluationCount()
+    {
+        return evaluationCount;
+    }
+
+    /**
+     * Writes the given text to the output.
+     *
+     * @param text Text to write
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    public void write(CharSequence text)
+    throws IOException
+    {
+        out.append(text);
+    }
+
+    /**
+     * Writes the given static text. Outputs that take encoded text get the given bytes, so the text
+     * is not encoded again.
+     *
+     * @param text Text to write
+     * @param encoded Same text encoded in UTF-8
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    public void write(String text, byte[] encoded)
+    throws IOException
+    {
+        if (out instanceof Utf8Output)
+        {
+            ((Utf8Output)out).writeUtf8(encoded);
+        }
+        else
+        {
+            out.append(text);
+        }
+    }
+
+    /**
+     * Writes the given text, already encoded in UTF-8. It's decoded only when the output doesn't
+     * take encoded text.
+     *
+     * @param encoded Text encoded in UTF-8
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    public void writeUtf8(byte[] encoded)
+    throws IOException
+    {
+        if (out instanceof Utf8Output)
+        {
+            ((Utf8Output)out).writeUtf8(encoded);
+        }
+        else
+        {
+            out.append(new String(encoded, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Asks the output to send the text written so far to the client. It does nothing when the
+     * output is not {@link Flushable}.
+     *
+     * @throws IOException If there's any problem flushing the output.
+     */
+    public void flush()
+    throws IOException
+    {
+        if (out instanceof Flushable)
+        {
+            ((Flushable)out).flush();
+        }
+    }
+
+    /**
+     * Returns the cache of the rendered elements.
+     *
+     * @return The output cache, or {@code null} if elements are not cached.
+     */
+    OutputCache getOutputCache()
+    {
+        return outputCache;
+    }
+
+    /**
+     * Makes the given output the current one, so the HTML rendered from now on is written there.
+     *
+     * @param output New output
+     *
+     * @return The previous output, to be restored by calling this method again.
+     */
+    Appendable redirect(Appendable output)
+    {
+        Appendable previous = out;
+        out = output;
+        return previous;
+    }
+
+    /**
+     * Creates a child of the current scope and makes it the current scope. Variables set in the
+     * child scope hide the ones with the same name in the outer scopes.
+     *
+     * @return The previous scope, to be restored with {@link #exitScope(Scriptable)}.
+     */
+    Scriptable enterScope()
+    {
+        Scriptable parent = scope;
+        NativeObject child = new NativeObject();
+        child.setPrototype(parent);
+        child.setParentScope(null);
+        scope = child;
+        return parent;
+    }
+
+    /**
+     * Restores the scope that was current before calling {@link #enterScope()}.
+     *
+     * @param previous Scope returned by {@link #enterScope()}
+     */
+    void exitScope(Scriptable previous)
+    {
+        scope = previous;
+    }
+
+    /**
+     * Sets a variable in the current scope. Java objects are wrapped so their properties and
+     * methods can be used from the expressions.
+     *
+     * @param name Name of the variable
+     * @param value Value of the variable
+     */
+    void setVariable(String name, Object value)
+    {
+        scope.put(name, scope, Context.javaToJS(value, scope));
+    }
+
+    /**
+     * Helper method that unwraps the Java object behind the given Javascript value, if any.
+     *
+     * @param value Value returned by the Javascript engine
+     *
+     * @return The wrapped Java object, or the given value if it's not a wrapper.
+     */
+    public static Object unwrap(Object value)
+    {
+        return value instanceof Wrapper ? ((Wrapper)value).unwrap() : value;
+    }
+
+    /**
+     * Helper method that converts the given Javascript value to the text written to the output.
+     * Java objects are converted with their {@code toString} method and Javascript values with
+     * the Javascript conversion rules, so the number 1 is converted to "1" and not "1.0".
+     *
+     * @param value Value returned by the Javascript engine
+     *
+     * @return The text of the value.
+     */
+    public static String toText(Object value)
+    {
+        return value instanceof Wrapper
+            ? String.valueOf(((Wrapper)value).unwrap())
+            : Context.toString(value);
+    }
+}
@@ -0,0 +1,83 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Destination of the pages rendered by {@link TemplateEngine#renderAll}. The pages are rendered in
+ * parallel, so the sink is called from several threads at the same time and must be thread safe.
+ * The page buffer is reused for the next page once the sink returns, so it must not be kept.
+ *
+ * @author Jhoan Muñoz
+ */
+@FunctionalInterface
+public interface RenderSink
+{
+    /**
+     * Receives a rendered page.
+     *
+     * @param index Position of the item in the rendered sequence, starting at 0
+     * @param bindings Variables the page was rendered with
+     * @param page Rendered page, encoded in UTF-8
+     *
+     * @throws IOException If the page can't be written.
+     */
+    void write(long index, Map<String, ?> bindings, Utf8Buffer page)
+    throws IOException;
+
+    /**
+     * Returns a sink writing every page to its own file in the given directory. Existing files are
+     * replaced.
+     *
+     * @param directory Directory where the pages are written, it must exist
+     * @param fileName Function returning the name of the file of a page, relative to the directory,
+     *                 from the index and the bindings of the page
+     *
+     * @return The sink.
+     */
+    static RenderSink toDirectory(
+        Path directory, BiFunction<Long, Map<String, ?>, String> fileName)
+    {
+        return (index, bindings, page) -> {
+            try (OutputStream stream =
+                Files.newOutputStream(directory.resolve(fileName.apply(index, bindings))))
+            {
+                page.writeTo(stream);
+            }
+        };
+    }
+
+    /**
+     * Returns a sink writing all the pages to the given stream, one after the other. The pages are
+     * written in the order they are rendered, which is not the order of the items.
+     *
+     * @param stream Stream where the pages are written, it's not closed by the sink
+     *
+     * @return The sink.
+     */
+    static RenderSink toOutputStream(OutputStream stream)
+    {
+        return (index, bindings, page) -> {
+            synchronized (stream)
+            {
+                page.writeTo(stream);
+            }
+        };
+    }
+
+    /**
+     * Returns a sink storing the pages in the given map, by the index of their item.
+     *
+     * @param pages Map where the pages are stored, it must be thread safe
+     *
+     * @return The sink.
+     */
+    static RenderSink toMap(Map<Long, String> pages)
+    {
+        return (index, bindings, page) -> pages.put(index, page.toString());
+    }
+}
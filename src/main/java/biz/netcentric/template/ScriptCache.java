@@ -0,0 +1,237 @@
+package biz.netcentric.template;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Cache of compiled Javascript code. Every distinct snippet of a template, this is the server side
+ * script and each data-if, data-for-x and $-expression, is compiled only once with
+ * {@link Context#compileString(String, String, int, Object)} and the resulting {@link Script} is
+ * executed on every request.
+ * <p>
+ * The cache is safe to use from several threads at the same time. It holds at most
+ * {@link #getMaxEntries()} scripts; when that limit is exceeded, the oldest compiled scripts are
+ * evicted first.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ScriptCache
+{
+    /** Default maximum number of compiled scripts kept in the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    /** Source name used to compile the code when no template path is given. */
+    public static final String DEFAULT_SOURCE_NAME = "<code>";
+
+    /** Maximum number of compiled scripts kept in the cache. */
+    private final int maxEntries;
+
+    /** Compiled scripts keyed by template path and source code. */
+    private final ConcurrentMap<Key, Script> scripts = new ConcurrentHashMap<>();
+
+    /** Keys in the order they were compiled, used to pick the entries to evict. */
+    private final Queue<Key> compilationOrder = new ConcurrentLinkedQueue<>();
+
+    /** Number of lookups served with an already compiled script. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of scripts compiled. */
+    private final AtomicLong compilations = new AtomicLong();
+
+    /** Number of scripts removed from the cache because of the size limit. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries Maximum number of compiled scripts kept in the cache
+     */
+    public ScriptCache(int maxEntries)
+    {
+        if (maxEntries < 1)
+        {
+            throw new IllegalArgumentException("The cache must hold at least one script");
+        }
+
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the compiled form of the given source code, compiling it if it's not cached yet.
+     *
+     * @param context Javascript engine execution context used to compile the code
+     * @param templatePath Path of the template containing the code. It's also used as source name
+     *                     so errors point to the template.
+     * @param source Javascript code
+     *
+     * @return The compiled script.
+     */
+    public Script get(Context context, String templatePath, String source)
+    {
+        Key key = new Key(templatePath, source);
+        Script script = scripts.get(key);
+        if (script != null)
+        {
+            hits.incrementAndGet();
+            return script;
+        }
+
+        boolean[] compiled = new boolean[1];
+        script =
+            scripts.computeIfAbsent(key, newKey -> {
+                compiled[0] = true;
+                return context.compileString(
+                    source, templatePath == null ? DEFAULT_SOURCE_NAME : templatePath, 1, null);
+            });
+
+        if (compiled[0])
+        {
+            compilations.incrementAndGet();
+            compilationOrder.add(key);
+            evictExcess();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+
+        return script;
+    }
+
+    /**
+     * Compiles, if needed, and executes the given source code in the given scope.
+     *
+     * @param context Javascript engine execution context
+     * @param scope Scope used to execute the code
+     * @param templatePath Path of the template containing the code
+     * @param source Javascript code
+     *
+     * @return An object containing the result of the execution.
+     */
+    public Object exec(Context context, Scriptable scope, String templatePath, String source)
+    {
+        return get(context, templatePath, source).exec(context, scope);
+    }
+
+    /**
+     * Removes all the scripts from the cache. The counters are not reset.
+     */
+    public void clear()
+    {
+        scripts.clear();
+        compilationOrder.clear();
+    }
+
+    public int size()
+    {
+        return scripts.size();
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getCompileCount()
+    {
+        return compilations.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the fraction of lookups served without compiling.
+     *
+     * @return A value between 0 and 1, or 0 if there were no lookups yet.
+     */
+    public double getHitRate()
+    {
+        long hitCount = getHitCount();
+        long total = hitCount + getCompileCount();
+        return total == 0 ? 0 : (double)hitCount / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ScriptCache [size=" + size() + ", maxEntries=" + maxEntries + ", hits="
+            + getHitCount() + ", compilations=" + getCompileCount() + ", evictions="
+            + getEvictionCount() + ", hitRate=" + String.format("%.4f", getHitRate()) + "]";
+    }
+
+    /**
+     * Removes the oldest compiled scripts until the cache is within its size limit.
+     */
+    private void evictExcess()
+    {
+        while (scripts.size() > maxEntries)
+        {
+            Key oldest = compilationOrder.poll();
+            if (oldest == null)
+            {
+                return;
+            }
+
+            if (scripts.remove(oldest) != null)
+            {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Cache key made of the template path and the source code.
+     */
+    private static final class Key
+    {
+        private final String templatePath;
+        private final String source;
+        private final int hash;
+
+        Key(String templatePath, String source)
+        {
+            this.templatePath = templatePath;
+            this.source = source;
+            this.hash = 31 * Objects.hashCode(templatePath) + source.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (this == other)
+            {
+                return true;
+            }
+
+            if (!(other instanceof Key))
+            {
+                return false;
+            }
+
+            Key key = (Key)other;
+            return hash == key.hash && source.equals(key.source)
+                && Objects.equals(templatePath, key.templatePath);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package biz.netcentric.template;
+
+import java.util.Collection;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.NativeJavaClass;
+import org.mozilla.javascript.NativeJavaPackage;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Sealed top level scope shared by all the requests. The standard Javascript objects and the
+ * preloaded Java classes and packages are initialized only once, when this object is created.
+ * Every request then gets a lightweight scope from {@link #newRequestScope()}, which has the shared
+ * scope as prototype and holds the variables defined by the request.
+ * <p>
+ * The shared scope can't be modified once it's sealed, so the {@code importClass} and
+ * {@code importPackage} functions are replaced by versions that import into the request scope.
+ * Importing a class that is already preloaded is a no-op, so templates can keep their
+ * {@code importClass} calls without paying for them on every request.
+ *
+ * @author Jhoan Muñoz
+ */
+public class SharedScope
+{
+    /** Name of the Javascript function used to import Java classes. */
+    static final String IMPORT_CLASS = "importClass";
+
+    /** Name of the Javascript function used to import Java packages. */
+    static final String IMPORT_PACKAGE = "importPackage";
+
+    /** Suffix used in the preloaded imports to tell a package apart from a class. */
+    public static final String PACKAGE_SUFFIX = ".*";
+
+    /** Top level scope shared by all the requests. */
+    private final ImporterTopLevel scope;
+
+    /**
+     * Creates and seals a new shared scope.
+     *
+     * @param context Javascript engine execution context used to initialize the scope
+     * @param preloadedImports Fully qualified names of the Java classes to import. Names ending
+     *                         with {@link #PACKAGE_SUFFIX} are imported as packages.
+     */
+    public SharedScope(Context context, Collection<String> preloadedImports)
+    {
+        scope = new ImporterTopLevel(context, true);
+        for (String name : preloadedImports)
+        {
+            preload(context, name.trim());
+        }
+
+        defineFunction(new ImportFunction(IMPORT_CLASS, false));
+        defineFunction(new ImportFunction(IMPORT_PACKAGE, true));
+
+        // Force the initialization of the lazily loaded objects, which can't be done once sealed
+        for (Object id : scope.getAllIds())
+        {
+            if (id instanceof String)
+            {
+                ScriptableObject.getProperty(scope, (String)id);
+            }
+        }
+
+        scope.sealObject();
+    }
+
+    /**
+     * Creates a new scope for a single request. The new scope has the shared scope as prototype,
+     * so it doesn't need to initialize the standard objects again.
+     *
+     * @return A new top level scope for the request.
+     */
+    public ScriptableObject newRequestScope()
+    {
+        ImporterTopLevel requestScope = new ImporterTopLevel();
+        requestScope.setPrototype(scope);
+        requestScope.setParentScope(null);
+        return requestScope;
+    }
+
+    /**
+     * Returns the sealed shared scope.
+     *
+     * @return The shared scope.
+     */
+    public ScriptableObject getScope()
+    {
+        return scope;
+    }
+
+    /**
+     * Imports the given class or package in the shared scope.
+     *
+     * @param context Javascript engine execution context
+     * @param name Fully qualified name of the class or package to import
+     */
+    private void preload(Context context, String name)
+    {
+        if (name.isEmpty())
+        {
+            return;
+        }
+
+        boolean isPackage = name.endsWith(PACKAGE_SUFFIX);
+        String qualifiedName =
+            isPackage ? name.substring(0, name.length() - PACKAGE_SUFFIX.length()) : name;
+        Object value =
+            context.evaluateString(scope, "Packages." + qualifiedName, "<preload>", 1, null);
+        if (isPackage ? !(value instanceof NativeJavaPackage) : !(value instanceof NativeJavaClass))
+        {
+            throw new IllegalArgumentException("Unable to import " + name);
+        }
+
+        ScriptableObject.callMethod(
+            context, scope, isPackage ? IMPORT_PACKAGE : IMPORT_CLASS, new Object[]{value});
+    }
+
+    /**
+     * Replaces one of the import functions of the shared scope.
+     *
+     * @param function New import function
+     */
+    private void defineFunction(ImportFunction function)
+    {
+        ScriptRuntime.setFunctionProtoAndParent(function, scope);
+        scope.put(function.getFunctionName(), scope, function);
+        function.sealObject();
+    }
+
+    /**
+     * Version of {@code importClass} and {@code importPackage} that imports into the scope of the
+     * request calling it instead of the shared scope.
+     */
+    private final class ImportFunction extends BaseFunction
+    {
+        private static final long serialVersionUID = 6403470961718525823L;
+
+        /** Name of the function. */
+        private final String name;
+
+        /** Whether this function imports packages or classes. */
+        private final boolean packages;
+
+        ImportFunction(String name, boolean packages)
+        {
+            this.name = name;
+            this.packages = packages;
+        }
+
+        @Override
+        public String getFunctionName()
+        {
+            return name;
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable callScope, Scriptable thisObj, Object[] args)
+        {
+            if (thisObj == scope || !(thisObj instanceof ImporterTopLevel))
+            {
+                throw Context.reportRuntimeError(name + " must be called from a request scope");
+            }
+
+            ImporterTopLevel target = (ImporterTopLevel)thisObj;
+            for (Object arg : args)
+            {
+                if (packages)
+                {
+                    importPackage(cx, target, arg);
+                }
+                else
+                {
+                    importClass(target, arg);
+                }
+            }
+
+            return Context.getUndefinedValue();
+        }
+
+        /**
+         * Imports the given class in the given scope, unless it's already visible there.
+         *
+         * @param target Request scope
+         * @param arg Class to import
+         */
+        private void importClass(ImporterTopLevel target, Object arg)
+        {
+            if (!(arg instanceof NativeJavaClass))
+            {
+                throw Context.reportRuntimeError(Context.toString(arg) + " is not a Java class");
+            }
+
+            NativeJavaClass javaClass = (NativeJavaClass)arg;
+            String className = javaClass.getClassObject().getName();
+            String simpleName = className.substring(className.lastIndexOf('.') + 1);
+            Object current = ScriptableObject.getProperty(target, simpleName);
+            if (current instanceof NativeJavaClass
+                && ((NativeJavaClass)current).getClassObject() == javaClass.getClassObject())
+            {
+                return;
+            }
+
+            if (current != Scriptable.NOT_FOUND)
+            {
+                throw Context.reportRuntimeError(
+                    "Can't import " + className + ", " + simpleName + " is already defined");
+            }
+
+            target.put(simpleName, target, javaClass);
+        }
+
+        /**
+         * Imports the given package in the given scope.
+         *
+         * @param cx Javascript engine execution context
+         * @param target Request scope
+         * @param arg Package to import
+         */
+        @SuppressWarnings("deprecation")
+        private void importPackage(Context cx, ImporterTopLevel target, Object arg)
+        {
+            if (!(arg instanceof NativeJavaPackage))
+            {
+                throw Context.reportRuntimeError(Context.toString(arg) + " is not a Java package");
+            }
+
+            target.importPackage(cx, target, new Object[]{arg}, this);
+        }
+    }
+}
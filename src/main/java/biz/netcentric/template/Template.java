@@ -0,0 +1,133 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compiled form of an HTML template. Instances are immutable and can be shared across threads: the
+ * template is compiled once into a tree of {@link Node}s, which is walked on every request to
+ * write the rendered HTML straight to the output.
+ *
+ * @author Jhoan Muñoz
+ */
+public class Template
+{
+    /** Servlet path used to request the template. */
+    private final String path;
+
+    /** Hash of the template content, used to tell apart different versions of the same file. */
+    private final long contentHash;
+
+    /**
+     * Javascript code found inside the {@code <script type="server/javascript">} tag. It has to be
+     * executed before rendering the template.
+     */
+    private final String script;
+
+    /** Root of the compiled node tree. */
+    private final Node root;
+
+    /**
+     * Names of the request parameters the rendered page depends on, or {@code null} if the
+     * template doesn't declare them.
+     */
+    private final List<String> varyParameters;
+
+    /** Number of milliseconds the rendered page is cached, zero if it's not cached. */
+    private final long pageCacheTtlMillis;
+
+    /**
+     * Creates a new compiled template that doesn't declare the request parameters it depends on.
+     *
+     * @param path Servlet path used to request the template
+     * @param contentHash Hash of the template content
+     * @param script Javascript code to execute before rendering the template
+     * @param root Root of the compiled node tree
+     */
+    public Template(String path, long contentHash, String script, Node root)
+    {
+        this(path, contentHash, script, root, null, 0);
+    }
+
+    /**
+     * Creates a new compiled template.
+     *
+     * @param path Servlet path used to request the template
+     * @param contentHash Hash of the template content
+     * @param script Javascript code to execute before rendering the template
+     * @param root Root of the compiled node tree
+     * @param varyParameters Names of the request parameters the rendered page depends on, or
+     *                       {@code null} if the template doesn't declare them
+     * @param pageCacheTtlMillis Number of milliseconds the rendered page is cached, zero if it's
+     *                           not cached
+     */
+    public Template(
+        String path, long contentHash, String script, Node root, List<String> varyParameters,
+        long pageCacheTtlMillis)
+    {
+        this.path = path;
+        this.contentHash = contentHash;
+        this.script = script;
+        this.root = root;
+        this.varyParameters = varyParameters;
+        this.pageCacheTtlMillis = pageCacheTtlMillis;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public long getContentHash()
+    {
+        return contentHash;
+    }
+
+    public String getScript()
+    {
+        return script;
+    }
+
+    /**
+     * Returns the names of the request parameters the rendered page depends on, declared with the
+     * {@code data-vary} attribute of the server side script. When they are declared, the same
+     * template version and parameter values always render the same page.
+     *
+     * @return The parameter names, or {@code null} if the template doesn't declare them.
+     */
+    public List<String> getVaryParameters()
+    {
+        return varyParameters;
+    }
+
+    /**
+     * Returns the number of milliseconds the rendered page is cached, declared with the
+     * {@code data-cache} attribute of the {@code <html>} element. The page is cached by the values
+     * of its {@link #getVaryParameters()}, so it's only cached when they are declared.
+     *
+     * @return The TTL of the page, zero if it's not cached.
+     */
+    public long getPageCacheTtlMillis()
+    {
+        return varyParameters == null ? 0 : pageCacheTtlMillis;
+    }
+
+    Node getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Renders the template. The server side script must have been executed in the scope of the
+     * given context before calling this method.
+     *
+     * @param context Context holding the Javascript scope and the output of the current request
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    public void render(RenderContext context)
+    throws IOException
+    {
+        root.render(context);
+    }
+}
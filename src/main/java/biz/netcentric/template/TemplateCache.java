@@ -0,0 +1,372 @@
+package biz.netcentric.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compiled templates keyed by servlet path. Each template is compiled only once and
+ * reused until the backing file changes. A change is detected by comparing the last modification
+ * time of the file; when it differs, the content hash is compared too, so touching a file without
+ * changing it doesn't trigger a new compilation.
+ * <p>
+ * The cache holds at most {@link #getMaxEntries()} templates and evicts the least recently used
+ * one when that limit is exceeded. Concurrent requests for the same template wait for a single
+ * compilation instead of compiling it several times.
+ * <p>
+ * When the template files are watched, see {@link TemplateWatcher}, the templates can be taken
+ * from the cache with {@link #getIfPresent(String)}, without touching the file system, and the
+ * watcher compiles the changed files in the background with {@link #reload(String, File)}.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateCache
+{
+    /** Default maximum number of templates kept in the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+
+    /** Algorithm used to hash the template content. */
+    static final String HASH_ALGORITHM = "SHA-256";
+
+    /** Compiler used to build the templates not found in the cache. */
+    private final TemplateCompiler compiler;
+
+    /** Maximum number of templates kept in the cache. */
+    private final int maxEntries;
+
+    /** Cache entries in access order. Every access to the map must be synchronized on it. */
+    private final Map<String, Entry> entries;
+
+    /** Number of requests served with an already compiled template. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of requests that required a template compilation. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of templates removed from the cache because of the size limit. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Number of templates compiled again in the background because their file changed. */
+    private final AtomicLong reloads = new AtomicLong();
+
+    /** Number of background compilations that failed, keeping the previous template. */
+    private final AtomicLong reloadFailures = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param compiler Compiler used to build the templates not found in the cache
+     * @param maxEntries Maximum number of templates kept in the cache
+     */
+    public TemplateCache(TemplateCompiler compiler, int maxEntries)
+    {
+        if (maxEntries < 1)
+        {
+            throw new IllegalArgumentException("The cache must hold at least one template");
+        }
+
+        this.compiler = compiler;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = -3960485129746335723L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                boolean evict = size() > TemplateCache.this.maxEntries;
+                if (evict)
+                {
+                    evictions.incrementAndGet();
+                }
+
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled template for the given path, compiling the given file if the template
+     * is not in the cache yet or if the file changed since it was compiled.
+     *
+     * @param path Servlet path used to request the template
+     * @param file File containing the template
+     *
+     * @return The compiled template.
+     *
+     * @throws IOException If the template file can't be read.
+     */
+    public Template get(String path, File file)
+    throws IOException
+    {
+        Entry entry;
+        synchronized (entries)
+        {
+            entry = entries.computeIfAbsent(path, key -> new Entry());
+        }
+
+        synchronized (entry)
+        {
+            return entry.resolve(path, file);
+        }
+    }
+
+    /**
+     * Returns the compiled template for the given path without checking its file.
+     *
+     * @param path Servlet path used to request the template
+     *
+     * @return The compiled template, or {@code null} if it's not in the cache.
+     */
+    public Template getIfPresent(String path)
+    {
+        Entry entry;
+        synchronized (entries)
+        {
+            entry = entries.get(path);
+        }
+
+        Template template = entry == null ? null : entry.template;
+        if (template != null)
+        {
+            hits.incrementAndGet();
+        }
+
+        return template;
+    }
+
+    /**
+     * Compiles the given file again and replaces the cached template with the result. The file is
+     * compiled before taking the lock of the template, so the requests keep using the previous
+     * version until the new one is ready. Templates not in the cache are ignored, they are
+     * compiled when they are requested.
+     *
+     * @param path Servlet path used to request the template
+     * @param file File containing the template
+     *
+     * @return {@code true} if the template was replaced, {@code false} if it's not in the cache or
+     *         its content didn't change.
+     *
+     * @throws IOException If the template file can't be read. The previous template is kept.
+     */
+    public boolean reload(String path, File file)
+    throws IOException
+    {
+        Entry entry;
+        synchronized (entries)
+        {
+            entry = entries.get(path);
+        }
+
+        if (entry == null || entry.template == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            long fileLastModified = file.lastModified();
+            byte[] content = readContent(file);
+            long contentHash = hash(content);
+            Template template =
+                contentHash == entry.template.getContentHash()
+                    ? null : compiler.compile(path, content, contentHash);
+            synchronized (entry)
+            {
+                entry.lastModified = fileLastModified;
+                if (template == null || entry.template.getContentHash() == contentHash)
+                {
+                    return false;
+                }
+
+                entry.template = template;
+            }
+
+            reloads.incrementAndGet();
+            return true;
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            reloadFailures.incrementAndGet();
+            throw exception;
+        }
+    }
+
+    /**
+     * Removes the template for the given path, for example because its file was deleted.
+     *
+     * @param path Servlet path used to request the template
+     */
+    public void remove(String path)
+    {
+        synchronized (entries)
+        {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Removes all the templates from the cache. The counters are not reset.
+     */
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public long getReloadCount()
+    {
+        return reloads.get();
+    }
+
+    public long getReloadFailureCount()
+    {
+        return reloadFailures.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TemplateCache [size=" + size() + ", maxEntries=" + maxEntries + ", hits="
+            + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+            + ", reloads=" + getReloadCount() + ", reloadFailures=" + getReloadFailureCount()
+            + "]";
+    }
+
+    /**
+     * Reads the whole content of the given file.
+     *
+     * @param file File to read
+     *
+     * @return The bytes of the file.
+     *
+     * @throws IOException If the file doesn't exist or can't be read.
+     */
+    static byte[] readContent(File file)
+    throws IOException
+    {
+        try (InputStream in = new FileInputStream(file))
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.max(file.length(), 32));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Computes the hash used to identify the given template content.
+     *
+     * @param content Template content
+     *
+     * @return The first 64 bits of the content digest.
+     */
+    static long hash(byte[] content)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance(HASH_ALGORITHM).digest(content);
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++)
+            {
+                hash = (hash << Byte.SIZE) | (digest[i] & 0xFF);
+            }
+
+            return hash;
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported", nsae);
+        }
+    }
+
+    /**
+     * Cache slot for a single template path. Changes to the fields are guarded by the entry itself;
+     * the template can also be read without the lock through {@link #getIfPresent(String)}.
+     */
+    private class Entry
+    {
+        /** Last modification time of the file when the template was validated. */
+        private long lastModified;
+
+        /** Compiled template, {@code null} until the first compilation. */
+        private volatile Template template;
+
+        /**
+         * Returns the compiled template, compiling it again if the file changed.
+         *
+         * @param path Servlet path used to request the template
+         * @param file File containing the template
+         *
+         * @return The compiled template.
+         *
+         * @throws IOException If the template file can't be read.
+         */
+        Template resolve(String path, File file)
+        throws IOException
+        {
+            long fileLastModified = file.lastModified();
+            if (template != null && fileLastModified == lastModified)
+            {
+                hits.incrementAndGet();
+                return template;
+            }
+
+            byte[] content = readContent(file);
+            long contentHash = hash(content);
+            if (template != null && template.getContentHash() == contentHash)
+            {
+                lastModified = fileLastModified;
+                hits.incrementAndGet();
+                return template;
+            }
+
+            misses.incrementAndGet();
+            template = compiler.compile(path, content, contentHash);
+            lastModified = fileLastModified;
+            return template;
+        }
+    }
+}
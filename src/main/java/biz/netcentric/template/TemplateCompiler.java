@@ -0,0 +1,476 @@
+package biz.netcentric.template;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.jsoup.parser.Parser;
+
+/**
+ * Turns the raw content of an HTML template into its compiled {@link Template} form. The
+ * compilation is done by following these steps:
+ * <ol>
+ *     <li>Parse the HTML document and extract the Javascript code contained inside the
+ *     {@code <script>} tag with the {@code type} attribute set to {@code "server/javascript"}</li>
+ *     <li>Surround every data-if, data-cache and data-for-x element with marker comments and
+ *     remove those attributes so clean HTML is returned. The markers hold a random nonce that
+ *     doesn't appear in the template, so comments written by the author are never taken for
+ *     markers.</li>
+ *     <li>Serialize the document and split it at the markers into a tree of static text chunks,
+ *     $-expressions, data-if branches, cached elements and data-for-x loops. A flush point is
+ *     added right after the {@code </head>} tag so the head can be sent to the client before the
+ *     body is rendered.</li>
+ * </ol>
+ *
+ * The resulting tree is rendered on every request without touching the DOM again.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateCompiler
+{
+    /** Charset used to decode the template content. */
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    /** Prefix of the attribute used for data-for-x expressions. */
+    static final String DATA_FOR_ATTR_PREFIX = "data-for";
+
+    /** Index of the "x" variable in the data-for-x expressions. */
+    static final int DATA_FOR_X_IDX = 2;
+
+    /** Name of the attribute used for data-if expressions. */
+    static final String DATA_IF_ATTR_NAME = "data-if";
+
+    /**
+     * Name of the attribute expected to be used in the {@code <script>} tag containing the
+     * Javascript code to be executed by the servlet
+     */
+    static final String JS_ATTR_NAME = "type";
+
+    /**
+     * Value for the attribute expected to be used in the {@code <script>} tag containing the
+     * Javascript code to be executed by the servlet.
+     */
+    static final String JS_ATTR_VAL = "server/javascript";
+
+    /**
+     * Name of the attribute of the server side script listing the request parameters the page
+     * depends on, comma separated.
+     */
+    static final String VARY_ATTR_NAME = "data-vary";
+
+    /** Name of the attribute declaring that the output of an element is cached. */
+    static final String CACHE_ATTR_NAME = "data-cache";
+
+    /**
+     * Prefix of the comments marking the beginning of an element with a directive. It's followed
+     * by the nonce of the compilation, see {@link #newMarker(String)}.
+     */
+    static final String MARKER_START = "slightly:";
+
+    /** Prefix of the comments marking the end of an element, followed by its start marker. */
+    static final String MARKER_END = "/";
+
+    /** Closing tag after which a flush point is added, see {@link FlushNode}. */
+    static final String FLUSH_AFTER = "</head>";
+
+    /** Opening characters of an HTML comment. */
+    private static final String COMMENT_OPEN = "<!--";
+
+    /** Closing characters of an HTML comment. */
+    private static final String COMMENT_CLOSE = "-->";
+
+    /**
+     * Compiles the given template content.
+     *
+     * @param path Servlet path used to request the template
+     * @param content Raw bytes of the template file
+     * @param contentHash Hash of the given content
+     *
+     * @return The compiled template.
+     */
+    public Template compile(String path, byte[] content, long contentHash)
+    {
+        String source = new String(content, CHARSET);
+        Document document = Jsoup.parse(source);
+        Elements scripts = document.getElementsByAttributeValue(JS_ATTR_NAME, JS_ATTR_VAL);
+        String script = scripts.html();
+        List<String> varyParameters = extractVaryParameters(scripts);
+        long pageCacheTtlMillis = extractPageCacheTtl(document);
+        String marker = newMarker(source);
+        List<Directive> directives = markDirectives(document, marker);
+        Node root =
+            buildTree(document.html(), directives, marker, cacheKeyPrefix(path, contentHash));
+
+        return new Template(path, contentHash, script, root, varyParameters, pageCacheTtlMillis);
+    }
+
+    /**
+     * Reads and removes the {@code data-cache} attribute of the {@code <html>} element. The page is
+     * cached by the request parameters listed in the {@code data-vary} attribute, so the attribute
+     * can only hold the TTL.
+     *
+     * @param document HTML document to modify
+     *
+     * @return The TTL of the page in milliseconds, zero if the attribute is missing.
+     *
+     * @throws IllegalArgumentException If the attribute has a key expression or an invalid TTL.
+     */
+    long extractPageCacheTtl(Document document)
+    {
+        Element html = document.child(0);
+        if (!html.hasAttr(CACHE_ATTR_NAME))
+        {
+            return 0;
+        }
+
+        CacheDirective directive = CacheDirective.parse(html.attr(CACHE_ATTR_NAME));
+        if (!directive.getKeyExpression().isEmpty())
+        {
+            throw new IllegalArgumentException(
+                "The page cache key is declared with " + VARY_ATTR_NAME + ", the " + CACHE_ATTR_NAME
+                    + " attribute of <html> can only hold the TTL");
+        }
+
+        html.removeAttr(CACHE_ATTR_NAME);
+        return directive.getTtlMillis();
+    }
+
+    /**
+     * Reads and removes the {@code data-vary} attribute of the given server side scripts.
+     *
+     * @param scripts Server side scripts of the template
+     *
+     * @return The names of the request parameters listed in the attribute, or {@code null} if no
+     *         script has it.
+     */
+    List<String> extractVaryParameters(Elements scripts)
+    {
+        if (!scripts.hasAttr(VARY_ATTR_NAME))
+        {
+            return null;
+        }
+
+        List<String> parameters = new ArrayList<>();
+        for (String name : scripts.attr(VARY_ATTR_NAME).split(","))
+        {
+            if (!name.trim().isEmpty())
+            {
+                parameters.add(name.trim());
+            }
+        }
+
+        scripts.removeAttr(VARY_ATTR_NAME);
+        return Collections.unmodifiableList(parameters);
+    }
+
+    /**
+     * Returns the first part of the cache keys of the data-cache elements in the given template.
+     * The keys include the hash of the content so a modified template doesn't use the output
+     * cached for its previous version.
+     *
+     * @param path Servlet path used to request the template
+     * @param contentHash Hash of the template content
+     *
+     * @return The prefix of the cache keys.
+     */
+    static String cacheKeyPrefix(String path, long contentHash)
+    {
+        return path + '@' + Long.toHexString(contentHash) + '#';
+    }
+
+    /**
+     * Creates the prefix of the marker comments of a compilation: {@link #MARKER_START} followed
+     * by a random nonce. A nonce found in the given source is discarded, so the template can't
+     * contain a comment that looks like a marker, not even one copied from a previous compilation.
+     *
+     * @param source Content of the template
+     *
+     * @return The marker prefix, followed by the directive index in every marker.
+     */
+    static String newMarker(String source)
+    {
+        String marker;
+        do
+        {
+            marker =
+                MARKER_START + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ':';
+        }
+        while (source.contains(marker));
+
+        return marker;
+    }
+
+    /**
+     * Surrounds every data-if, data-cache and data-for-x element in the given document with marker
+     * comments and removes the corresponding attributes. Each marker holds the index of its
+     * directive in the returned list. When an element has several attributes, the data-if is
+     * evaluated first and the data-cache element holds the output of the whole data-for-x loop.
+     *
+     * @param document HTML document to modify
+     * @param marker Prefix of the marker comments, see {@link #newMarker(String)}
+     *
+     * @return The directives found in the document.
+     *
+     * @throws IllegalArgumentException If a data-cache attribute has an invalid TTL.
+     */
+    List<Directive> markDirectives(Document document, String marker)
+    {
+        List<Directive> directives = new ArrayList<>();
+        for (Element element : document.getAllElements())
+        {
+            List<Integer> indexes = new ArrayList<>(3);
+            if (element.hasAttr(DATA_IF_ATTR_NAME))
+            {
+                indexes.add(directives.size());
+                directives.add(new Directive(null, element.attr(DATA_IF_ATTR_NAME)));
+                element.removeAttr(DATA_IF_ATTR_NAME);
+            }
+
+            if (element.hasAttr(CACHE_ATTR_NAME))
+            {
+                indexes.add(directives.size());
+                directives.add(new Directive(CacheDirective.parse(element.attr(CACHE_ATTR_NAME))));
+                element.removeAttr(CACHE_ATTR_NAME);
+            }
+
+            Optional<Attribute> forAttr =
+                element.attributes().asList().stream().filter(
+                    attribute -> attribute.getKey().startsWith(DATA_FOR_ATTR_PREFIX)).findFirst();
+            if (forAttr.isPresent())
+            {
+                String fullForAttr = forAttr.get().getKey();
+                indexes.add(directives.size());
+                directives.add(
+                    new Directive(
+                        fullForAttr.split("-")[DATA_FOR_X_IDX], forAttr.get().getValue()));
+                element.removeAttr(fullForAttr);
+            }
+
+            for (int i = 0; i < indexes.size(); i++)
+            {
+                element.before(new Comment(marker + indexes.get(i), ""));
+                element.after(new Comment(MARKER_END + marker + indexes.get(i), ""));
+            }
+        }
+
+        return directives;
+    }
+
+    /**
+     * Splits the serialized HTML at the marker comments and builds the node tree.
+     *
+     * @param html Serialized HTML document containing marker comments
+     * @param directives Directives referenced by the marker comments
+     * @param marker Prefix of the marker comments, see {@link #newMarker(String)}
+     * @param cacheKeyPrefix First part of the cache keys of the data-cache elements, see
+     *                       {@link #cacheKeyPrefix(String, long)}
+     *
+     * @return The root of the node tree.
+     */
+    Node buildTree(String html, List<Directive> directives, String marker, String cacheKeyPrefix)
+    {
+        String endMarker = MARKER_END + marker;
+        Deque<List<Node>> blocks = new ArrayDeque<>();
+        Deque<Directive> open = new ArrayDeque<>();
+        Deque<Integer> openIndexes = new ArrayDeque<>();
+        blocks.push(new ArrayList<>());
+
+        int position = 0;
+        int commentStart = html.indexOf(COMMENT_OPEN);
+        while (commentStart >= 0)
+        {
+            int markerStart = commentStart + COMMENT_OPEN.length();
+            boolean isStart = html.startsWith(marker, markerStart);
+            boolean isEnd = html.startsWith(endMarker, markerStart);
+            int commentEnd = html.indexOf(COMMENT_CLOSE, markerStart);
+            if ((!isStart && !isEnd) || commentEnd < 0)
+            {
+                commentStart = html.indexOf(COMMENT_OPEN, markerStart);
+                continue;
+            }
+
+            addText(blocks.peek(), stripMarkerIndent(html.substring(position, commentStart)));
+            int index =
+                Integer.parseInt(
+                    html.substring(
+                        markerStart + (isStart ? marker : endMarker).length(), commentEnd));
+            if (isStart)
+            {
+                open.push(directives.get(index));
+                openIndexes.push(index);
+                blocks.push(new ArrayList<>());
+            }
+            else
+            {
+                Directive directive = open.pop();
+                int directiveIndex = openIndexes.pop();
+                Node body = toNode(blocks.pop());
+                if (directive.cache != null)
+                {
+                    blocks.peek().add(
+                        new CacheNode(cacheKeyPrefix + directiveIndex, directive.cache, body));
+                }
+                else
+                {
+                    blocks.peek().add(
+                        directive.variable == null
+                            ? new IfNode(directive.expression, body)
+                            : new ForNode(directive.variable, directive.expression, body));
+                }
+            }
+
+            position = commentEnd + COMMENT_CLOSE.length();
+            commentStart = html.indexOf(COMMENT_OPEN, position);
+        }
+
+        addText(blocks.peek(), html.substring(position));
+        return toNode(blocks.pop());
+    }
+
+    /**
+     * Splits the given static HTML into text and $-expression nodes, see
+     * {@link ExpressionScanner}.
+     *
+     * @param nodes List where the nodes are added
+     * @param text Static HTML that may contain $-expressions
+     */
+    void addText(List<Node> nodes, String text)
+    {
+        ExpressionScanner.scan(
+            text,
+            new ExpressionScanner.Handler()
+            {
+                @Override
+                public void text(String source, int start, int end)
+                {
+                    addStaticText(nodes, source.substring(start, end));
+                }
+
+                @Override
+                public void expression(String source, int start, int end)
+                {
+                    nodes.add(
+                        new ExpressionNode(
+                            Parser.unescapeEntities(source.substring(start, end), true)));
+                }
+            });
+    }
+
+    /**
+     * Adds the given static text to the list of nodes. If the text contains the
+     * {@link #FLUSH_AFTER} tag, it's split there and a flush point is added.
+     *
+     * @param nodes List where the node is added
+     * @param text Static HTML
+     */
+    private void addStaticText(List<Node> nodes, String text)
+    {
+        int flushAt = text.indexOf(FLUSH_AFTER);
+        if (flushAt >= 0)
+        {
+            flushAt += FLUSH_AFTER.length();
+            addTextNode(nodes, text.substring(0, flushAt));
+            nodes.add(FlushNode.INSTANCE);
+            addStaticText(nodes, text.substring(flushAt));
+        }
+        else
+        {
+            addTextNode(nodes, text);
+        }
+    }
+
+    /**
+     * Adds a static text node, merging it with the previous node when that's static text too.
+     *
+     * @param nodes List where the node is added
+     * @param text Static HTML without flush points
+     */
+    private static void addTextNode(List<Node> nodes, String text)
+    {
+        if (text.isEmpty())
+        {
+            return;
+        }
+
+        int last = nodes.size() - 1;
+        if (last >= 0 && nodes.get(last) instanceof TextNode)
+        {
+            nodes.set(last, new TextNode(((TextNode)nodes.get(last)).getText() + text));
+        }
+        else
+        {
+            nodes.add(new TextNode(text));
+        }
+    }
+
+    /**
+     * Removes the line break and indentation that the pretty printer adds before a marker comment,
+     * so the rendered HTML keeps the same layout the original document had.
+     *
+     * @param text HTML preceding a marker comment
+     *
+     * @return The given HTML without the trailing indentation.
+     */
+    private static String stripMarkerIndent(String text)
+    {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == ' ')
+        {
+            end--;
+        }
+
+        return end > 0 && text.charAt(end - 1) == '\n' ? text.substring(0, end - 1) : text;
+    }
+
+    /**
+     * Helper method that turns a list of nodes into a single node.
+     *
+     * @param nodes Nodes in rendering order
+     *
+     * @return The only node in the list, or a {@link BlockNode} containing all of them.
+     */
+    private static Node toNode(List<Node> nodes)
+    {
+        return nodes.size() == 1 ? nodes.get(0) : new BlockNode(nodes);
+    }
+
+    /**
+     * data-if, data-cache or data-for-x directive found while compiling a template.
+     */
+    static final class Directive
+    {
+        /** Name of the data-for-x variable, or {@code null} for the other directives. */
+        final String variable;
+
+        /** Javascript expression of the directive, {@code null} for data-cache directives. */
+        final String expression;
+
+        /** Value of the data-cache attribute, or {@code null} for the other directives. */
+        final CacheDirective cache;
+
+        Directive(String variable, String expression)
+        {
+            this.variable = variable;
+            this.expression = expression;
+            this.cache = null;
+        }
+
+        Directive(CacheDirective cache)
+        {
+            this.variable = null;
+            this.expression = null;
+            this.cache = cache;
+        }
+    }
+}
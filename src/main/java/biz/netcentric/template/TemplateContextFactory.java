@@ -0,0 +1,225 @@
+package biz.netcentric.template;
+
+import java.util.concurrent.TimeUnit;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Factory of the Javascript contexts used to execute the templates. It configures every context
+ * it creates with the same optimization level and language version:
+ * <ul>
+ *     <li><b>Optimization level -1:</b> The code is run by the Rhino interpreter. Compiling is
+ *     cheap but the execution is slower.</li>
+ *     <li><b>Optimization levels 0 to 9:</b> The code is compiled to Java bytecode. Compiling is
+ *     more expensive but the execution is faster, and higher levels apply more optimizations.</li>
+ * </ul>
+ *
+ * The factory can also limit the Javascript code run by every context, so a template with an
+ * endless loop or a heavy computation can't hold a thread forever:
+ * <ul>
+ *     <li><b>Instruction budget:</b> Maximum number of instructions run by a context.</li>
+ *     <li><b>Time limit:</b> Maximum number of milliseconds since the context was entered.</li>
+ * </ul>
+ *
+ * Both limits are checked through {@link #observeInstructionCount(Context, int)} every
+ * {@link #OBSERVER_THRESHOLD} instructions, so they only interrupt Javascript code: a slow call to
+ * a Java method is noticed once it returns. When a limit is exceeded, a
+ * {@link BudgetExceededError} is thrown. Since a context is created every time a thread enters it,
+ * the limits apply to each request separately.
+ * <p>
+ * The factory is sealed once created, so a single instance can be safely used by all the threads
+ * through {@link #enterContext()}.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateContextFactory extends ContextFactory
+{
+    /** Optimization level used when none is configured, this is Rhino's default. */
+    public static final int DEFAULT_OPTIMIZATION_LEVEL = 0;
+
+    /** Language version used when none is configured, this is Rhino's default. */
+    public static final int DEFAULT_LANGUAGE_VERSION = Context.VERSION_DEFAULT;
+
+    /** Value of the limits meaning the Javascript code can run without limits. */
+    public static final long UNLIMITED = 0;
+
+    /** Number of instructions run between two checks of the limits. */
+    static final int OBSERVER_THRESHOLD = 10000;
+
+    /** Optimization level set to every created context. */
+    private final int optimizationLevel;
+
+    /** Javascript language version set to every created context. */
+    private final int languageVersion;
+
+    /** Maximum number of instructions run by a context, or {@link #UNLIMITED}. */
+    private final long instructionBudget;
+
+    /** Maximum number of milliseconds a context can run code, or {@link #UNLIMITED}. */
+    private final long timeLimitMillis;
+
+    /**
+     * Creates a new sealed factory whose contexts run the Javascript code without limits.
+     *
+     * @param optimizationLevel Optimization level set to every created context, -1 for
+     *                          interpreted mode or 0 to 9 for compiled mode
+     * @param languageVersion Javascript language version set to every created context, one of the
+     *                        {@code Context.VERSION_*} constants
+     */
+    public TemplateContextFactory(int optimizationLevel, int languageVersion)
+    {
+        this(optimizationLevel, languageVersion, UNLIMITED, UNLIMITED);
+    }
+
+    /**
+     * Creates a new sealed factory.
+     *
+     * @param optimizationLevel Optimization level set to every created context, -1 for
+     *                          interpreted mode or 0 to 9 for compiled mode
+     * @param languageVersion Javascript language version set to every created context, one of the
+     *                        {@code Context.VERSION_*} constants
+     * @param instructionBudget Maximum number of instructions run by a context, or
+     *                          {@link #UNLIMITED}
+     * @param timeLimitMillis Maximum number of milliseconds a context can run code, or
+     *                        {@link #UNLIMITED}
+     */
+    public TemplateContextFactory(
+        int optimizationLevel, int languageVersion, long instructionBudget, long timeLimitMillis)
+    {
+        if (!Context.isValidOptimizationLevel(optimizationLevel))
+        {
+            throw new IllegalArgumentException("Invalid optimization level: " + optimizationLevel);
+        }
+
+        if (!Context.isValidLanguageVersion(languageVersion))
+        {
+            throw new IllegalArgumentException("Invalid language version: " + languageVersion);
+        }
+
+        if (instructionBudget < 0 || timeLimitMillis < 0)
+        {
+            throw new IllegalArgumentException("The execution limits can't be negative");
+        }
+
+        this.optimizationLevel = optimizationLevel;
+        this.languageVersion = languageVersion;
+        this.instructionBudget = instructionBudget;
+        this.timeLimitMillis = timeLimitMillis;
+        seal();
+    }
+
+    public int getOptimizationLevel()
+    {
+        return optimizationLevel;
+    }
+
+    public int getLanguageVersion()
+    {
+        return languageVersion;
+    }
+
+    public long getInstructionBudget()
+    {
+        return instructionBudget;
+    }
+
+    public long getTimeLimitMillis()
+    {
+        return timeLimitMillis;
+    }
+
+    /**
+     * Returns whether the contexts created by this factory run the code with any limit.
+     *
+     * @return {@code true} if there's an instruction budget or a time limit.
+     */
+    public boolean isLimited()
+    {
+        return instructionBudget != UNLIMITED || timeLimitMillis != UNLIMITED;
+    }
+
+    /**
+     * Returns whether the contexts created by this factory run the code in interpreted mode.
+     *
+     * @return {@code true} if the optimization level is -1.
+     */
+    public boolean isInterpreted()
+    {
+        return optimizationLevel < 0;
+    }
+
+    /**
+     * Creates a new context. When the code runs with limits, the context counts the instructions
+     * it runs, and the code it compiles is instrumented to count them too.
+     *
+     * @return The new context.
+     */
+    @Override
+    protected Context makeContext()
+    {
+        Context context = new LimitedContext(this);
+        context.setOptimizationLevel(optimizationLevel);
+        context.setLanguageVersion(languageVersion);
+        if (isLimited())
+        {
+            context.setInstructionObserverThreshold(
+                instructionBudget == UNLIMITED
+                    ? OBSERVER_THRESHOLD : (int)Math.min(instructionBudget, OBSERVER_THRESHOLD));
+        }
+
+        return context;
+    }
+
+    /**
+     * Checks the limits of the given context, which just ran the given number of instructions.
+     *
+     * @param context Context running the code
+     * @param instructionCount Number of instructions run since the last check
+     *
+     * @throws BudgetExceededError If the context exceeded any of its limits.
+     */
+    @Override
+    protected void observeInstructionCount(Context context, int instructionCount)
+    {
+        LimitedContext limitedContext = (LimitedContext)context;
+        limitedContext.instructions += instructionCount;
+        if (instructionBudget != UNLIMITED && limitedContext.instructions > instructionBudget)
+        {
+            throw new BudgetExceededError(
+                "The Javascript code ran more than " + instructionBudget + " instructions");
+        }
+
+        if (timeLimitMillis != UNLIMITED
+            && System.nanoTime() - limitedContext.startTime
+                > TimeUnit.MILLISECONDS.toNanos(timeLimitMillis))
+        {
+            throw new BudgetExceededError(
+                "The Javascript code ran for more than " + timeLimitMillis + " ms");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TemplateContextFactory [optimizationLevel=" + optimizationLevel
+            + ", languageVersion=" + languageVersion + ", instructionBudget=" + instructionBudget
+            + ", timeLimitMillis=" + timeLimitMillis + "]";
+    }
+
+    /**
+     * Context keeping track of the code it already ran.
+     */
+    private static final class LimitedContext extends Context
+    {
+        /** Value of {@link System#nanoTime()} when the context was created. */
+        private final long startTime = System.nanoTime();
+
+        /** Number of instructions run so far. */
+        private long instructions;
+
+        LimitedContext(ContextFactory factory)
+        {
+            super(factory);
+        }
+    }
+}
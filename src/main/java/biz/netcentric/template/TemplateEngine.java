@@ -0,0 +1,302 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Renders templates outside the servlet, for example to generate static pages offline for every
+ * item of a catalog. Each page is rendered from a map of bindings, which are defined as variables
+ * of the page scope before the server side script of the template runs, so both the script and
+ * the expressions can use them.
+ * <p>
+ * {@link #renderAll} renders the same template for many items in parallel across a
+ * {@link ForkJoinPool}, handing every page to a {@link RenderSink}. The template is compiled once,
+ * and its script and expressions are compiled once into the {@link ScriptCache} and then shared by
+ * all the threads, as is the {@link SharedScope}; every item only gets its own request scope. The
+ * items are read lazily and only a few of them per thread are queued at any time, so streams
+ * backed by a cursor are never materialized in memory.
+ * <p>
+ * Pages are rendered without the {@link OutputCache}: the elements with a {@code data-cache}
+ * attribute are rendered for every item, since their content usually depends on the bindings.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateEngine
+{
+    /** Initial size of the buffer where every thread renders its pages. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** Number of items queued for every thread of the pool. */
+    static final int QUEUED_ITEMS_PER_THREAD = 4;
+
+    /** Factory of the Javascript contexts. */
+    private final TemplateContextFactory contextFactory;
+
+    /** Scope with the standard objects and the preloaded classes, shared by all the pages. */
+    private final SharedScope sharedScope;
+
+    /** Cache of the compiled scripts and expressions. */
+    private final ScriptCache scriptCache;
+
+    /** Pool rendering the pages of {@link #renderAll}. */
+    private final ForkJoinPool pool;
+
+    /** Compiler of the templates. */
+    private final TemplateCompiler compiler = new TemplateCompiler();
+
+    /** Buffer where every thread renders its pages, reused for all of them. */
+    private final ThreadLocal<Utf8Buffer> buffers =
+        ThreadLocal.withInitial(() -> new Utf8Buffer(DEFAULT_BUFFER_SIZE));
+
+    /**
+     * Creates a new engine rendering in the common {@link ForkJoinPool}.
+     *
+     * @param contextFactory Factory of the Javascript contexts
+     * @param sharedScope Scope with the standard objects and the preloaded classes
+     */
+    public TemplateEngine(TemplateContextFactory contextFactory, SharedScope sharedScope)
+    {
+        this(
+            contextFactory, sharedScope, new ScriptCache(ScriptCache.DEFAULT_MAX_ENTRIES),
+            ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new engine.
+     *
+     * @param contextFactory Factory of the Javascript contexts
+     * @param sharedScope Scope with the standard objects and the preloaded classes
+     * @param scriptCache Cache of the compiled scripts and expressions
+     * @param pool Pool rendering the pages of {@link #renderAll}
+     */
+    public TemplateEngine(
+        TemplateContextFactory contextFactory, SharedScope sharedScope, ScriptCache scriptCache,
+        ForkJoinPool pool)
+    {
+        this.contextFactory = contextFactory;
+        this.sharedScope = sharedScope;
+        this.scriptCache = scriptCache;
+        this.pool = pool;
+    }
+
+    /**
+     * Reads and compiles the given template file.
+     *
+     * @param file Template file
+     *
+     * @return The compiled template, its path is the path of the file.
+     *
+     * @throws IOException If the file can't be read.
+     */
+    public Template compile(Path file)
+    throws IOException
+    {
+        byte[] content = TemplateCache.readContent(file.toFile());
+        return compiler.compile(file.toString(), content, TemplateCache.hash(content));
+    }
+
+    /**
+     * Renders the given template in the current thread.
+     *
+     * @param template Compiled template
+     * @param bindings Variables defined in the page scope, by name
+     * @param output Output where the rendered HTML is written
+     *
+     * @return The rendering context, which counted the evaluated expressions.
+     *
+     * @throws IOException If there's any problem writing the rendered HTML.
+     */
+    public RenderContext render(Template template, Map<String, ?> bindings, Appendable output)
+    throws IOException
+    {
+        Context context = contextFactory.enterContext();
+        try
+        {
+            ScriptableObject scope = sharedScope.newRequestScope();
+            for (Map.Entry<String, ?> binding : bindings.entrySet())
+            {
+                scope.put(binding.getKey(), scope, Context.javaToJS(binding.getValue(), scope));
+            }
+
+            scriptCache.exec(context, scope, template.getPath(), template.getScript());
+            RenderContext renderContext =
+                new RenderContext(context, scope, scriptCache, template.getPath(), output);
+            template.render(renderContext);
+            return renderContext;
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Renders the given template once for every item, in parallel, and writes the pages to the
+     * given sink. Items that fail to render or to be written are logged and skipped, the rest of
+     * the items are still rendered.
+     *
+     * @param template Compiled template
+     * @param items Bindings of every page
+     * @param sink Destination of the rendered pages
+     *
+     * @return The number of rendered and failed pages.
+     *
+     * @throws InterruptedException If the current thread is interrupted while waiting for the
+     *                              pages. The queued pages are still rendered.
+     */
+    public Result renderAll(
+        Template template, Iterable<? extends Map<String, ?>> items, RenderSink sink)
+    throws InterruptedException
+    {
+        return renderAll(template, items.iterator(), sink);
+    }
+
+    /**
+     * Renders the given template once for every item of the given stream, in parallel, and writes
+     * the pages to the given sink. The stream is consumed by the current thread and closed once
+     * all the pages are rendered. Items that fail to render or to be written are logged and
+     * skipped, the rest of the items are still rendered.
+     *
+     * @param template Compiled template
+     * @param items Bindings of every page
+     * @param sink Destination of the rendered pages
+     *
+     * @return The number of rendered and failed pages.
+     *
+     * @throws InterruptedException If the current thread is interrupted while waiting for the
+     *                              pages. The queued pages are still rendered.
+     */
+    public Result renderAll(
+        Template template, Stream<? extends Map<String, ?>> items, RenderSink sink)
+    throws InterruptedException
+    {
+        try (Stream<? extends Map<String, ?>> stream = items)
+        {
+            return renderAll(template, stream.iterator(), sink);
+        }
+    }
+
+    /**
+     * Submits a task to the pool for every item, waiting while too many items are queued, and then
+     * waits for all the tasks to finish.
+     *
+     * @param template Compiled template
+     * @param items Bindings of every page
+     * @param sink Destination of the rendered pages
+     *
+     * @return The number of rendered and failed pages.
+     *
+     * @throws InterruptedException If the current thread is interrupted while waiting.
+     */
+    private Result renderAll(
+        Template template, Iterator<? extends Map<String, ?>> items, RenderSink sink)
+    throws InterruptedException
+    {
+        int queueSize = pool.getParallelism() * QUEUED_ITEMS_PER_THREAD;
+        Semaphore queued = new Semaphore(queueSize);
+        AtomicLong rendered = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long index = 0;
+        while (items.hasNext())
+        {
+            Map<String, ?> bindings = items.next();
+            long itemIndex = index++;
+            queued.acquire();
+            try
+            {
+                pool.execute(() -> {
+                    try
+                    {
+                        boolean success = renderItem(template, itemIndex, bindings, sink);
+                        (success ? rendered : failed).incrementAndGet();
+                    }
+                    finally
+                    {
+                        queued.release();
+                    }
+                });
+            }
+            catch (RejectedExecutionException ree)
+            {
+                queued.release();
+                throw ree;
+            }
+        }
+
+        queued.acquire(queueSize);
+        return new Result(rendered.get(), failed.get());
+    }
+
+    /**
+     * Renders a single item into the buffer of the current thread and writes it to the sink.
+     *
+     * @param template Compiled template
+     * @param index Position of the item
+     * @param bindings Bindings of the page
+     * @param sink Destination of the rendered page
+     *
+     * @return {@code true} if the page was rendered and written.
+     */
+    boolean renderItem(Template template, long index, Map<String, ?> bindings, RenderSink sink)
+    {
+        Utf8Buffer page = buffers.get();
+        page.reset();
+        try
+        {
+            render(template, bindings, page);
+            sink.write(index, bindings, page);
+            return true;
+        }
+        catch (IOException | RuntimeException | BudgetExceededError exception)
+        {
+            System.err.println(
+                "Unable to render item " + index + " of " + template.getPath() + ": "
+                    + exception.getMessage());
+            exception.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Outcome of {@link TemplateEngine#renderAll}.
+     */
+    public static final class Result
+    {
+        /** Number of pages rendered and written. */
+        private final long rendered;
+
+        /** Number of pages that failed to render or to be written. */
+        private final long failed;
+
+        Result(long rendered, long failed)
+        {
+            this.rendered = rendered;
+            this.failed = failed;
+        }
+
+        public long getRendered()
+        {
+            return rendered;
+        }
+
+        public long getFailed()
+        {
+            return failed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Result [rendered=" + rendered + ", failed=" + failed + "]";
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package biz.netcentric.template;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watches the directories of the cached templates and compiles the changed files in a background
+ * thread, so the requests never pay the compilation nor check the files themselves. Each compiled
+ * template replaces the cached one at once, see {@link TemplateCache#reload(String, File)}:
+ * <ul>
+ *     <li><b>Modified or created files:</b> The template is compiled again. If it can't be read or
+ *     compiled, the error is reported and the last good version is kept.</li>
+ *     <li><b>Deleted files:</b> The template is removed from the cache, so the next request reports
+ *     the missing file.</li>
+ * </ul>
+ *
+ * Several events for the same file, like the ones an editor fires while saving it, are handled
+ * once. Only the directories of the templates given to {@link #watch(String, File)} are watched.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateWatcher implements Closeable
+{
+    /** Name of the background thread. */
+    static final String THREAD_NAME = "slightly-template-watcher";
+
+    /** Cache where the compiled templates are replaced. */
+    private final TemplateCache templateCache;
+
+    /** Service notifying the changes in the watched directories. */
+    private final WatchService watchService;
+
+    /** Servlet paths of the watched templates, by directory and file name. */
+    private final Map<Path, Map<Path, String>> templates = new ConcurrentHashMap<>();
+
+    /** Background thread handling the changes. */
+    private final Thread thread;
+
+    /**
+     * Creates a new watcher and starts its background thread.
+     *
+     * @param templateCache Cache where the compiled templates are replaced
+     *
+     * @throws IOException If the file system can't be watched.
+     */
+    public TemplateWatcher(TemplateCache templateCache)
+    throws IOException
+    {
+        this.templateCache = templateCache;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching the given template file. Watching the same file again does nothing.
+     *
+     * @param path Servlet path used to request the template
+     * @param file File containing the template
+     *
+     * @throws IOException If the directory of the file can't be watched.
+     */
+    public void watch(String path, File file)
+    throws IOException
+    {
+        Path filePath = file.toPath().toAbsolutePath();
+        Path directory = filePath.getParent();
+        Map<Path, String> files = templates.get(directory);
+        if (files == null)
+        {
+            synchronized (templates)
+            {
+                files = templates.get(directory);
+                if (files == null)
+                {
+                    directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                    files = new ConcurrentHashMap<>();
+                    templates.put(directory, files);
+                }
+            }
+        }
+
+        files.put(filePath.getFileName(), path);
+    }
+
+    /**
+     * Returns whether the given template file is watched.
+     *
+     * @param file File containing the template
+     *
+     * @return {@code true} if the file was given to {@link #watch(String, File)}.
+     */
+    public boolean isWatched(File file)
+    {
+        Path filePath = file.toPath().toAbsolutePath();
+        Map<Path, String> files = templates.get(filePath.getParent());
+        return files != null && files.containsKey(filePath.getFileName());
+    }
+
+    /**
+     * Stops the background thread.
+     *
+     * @throws IOException If there's any problem closing the watch service.
+     */
+    @Override
+    public void close()
+    throws IOException
+    {
+        watchService.close();
+    }
+
+    /**
+     * Handles the changes in the watched directories until the watcher is closed.
+     */
+    private void run()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watchService.take();
+                Path directory = (Path)key.watchable();
+                Map<Path, String> files = templates.getOrDefault(directory, Collections.emptyMap());
+                Set<Path> changed = new LinkedHashSet<>();
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    if (event.kind() == OVERFLOW)
+                    {
+                        changed.addAll(files.keySet());
+                    }
+                    else if (files.containsKey((Path)event.context()))
+                    {
+                        changed.add((Path)event.context());
+                    }
+                }
+
+                for (Path name : changed)
+                {
+                    update(files.get(name), directory.resolve(name));
+                }
+
+                key.reset();
+            }
+        }
+        catch (ClosedWatchServiceException | InterruptedException exception)
+        {
+            // The watcher was closed
+        }
+    }
+
+    /**
+     * Compiles the given template file again, or removes the template if the file was deleted.
+     * Errors are reported and the previous template is kept.
+     *
+     * @param path Servlet path used to request the template
+     * @param file File containing the template
+     */
+    void update(String path, Path file)
+    {
+        try
+        {
+            if (Files.exists(file))
+            {
+                templateCache.reload(path, file.toFile());
+            }
+            else
+            {
+                templateCache.remove(path);
+            }
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            System.err.println("Unable to compile " + path + ", keeping the previous version");
+            exception.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Static chunk of HTML, written to the output as is. The chunk is encoded in UTF-8 when the
+ * template is compiled, so outputs implementing {@link Utf8Output} copy its bytes instead of
+ * encoding it again on every rendering.
+ *
+ * @author Jhoan Muñoz
+ */
+final class TextNode implements Node
+{
+    /** HTML to be written. */
+    private final String text;
+
+    /** HTML to be written, encoded in UTF-8. */
+    private final byte[] encoded;
+
+    /**
+     * Creates a new node for the given static HTML.
+     *
+     * @param text HTML to be written
+     */
+    TextNode(String text)
+    {
+        this.text = text;
+        this.encoded = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    String getText()
+    {
+        return text;
+    }
+
+    @Override
+    public void render(RenderContext context)
+    throws IOException
+    {
+        context.write(text, encoded);
+    }
+}
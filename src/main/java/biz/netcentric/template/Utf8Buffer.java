@@ -0,0 +1,217 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable buffer of UTF-8 bytes. The text appended to it is encoded right away, and the text that
+ * was already encoded is copied as it is. Unpaired surrogates are encoded as {@code '?'}, like
+ * {@link String#getBytes(java.nio.charset.Charset)} does, so a surrogate pair must be appended in a
+ * single call.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @author Jhoan Muñoz
+ */
+public final class Utf8Buffer implements Utf8Output
+{
+    /** Byte written for the characters that can't be encoded. */
+    private static final byte REPLACEMENT = '?';
+
+    /** Encoded text, only the first {@link #count} bytes are used. */
+    private byte[] bytes;
+
+    /** Number of bytes in the buffer. */
+    private int count;
+
+    /**
+     * Creates a new empty buffer.
+     *
+     * @param capacity Initial number of bytes the buffer can hold without growing
+     */
+    public Utf8Buffer(int capacity)
+    {
+        bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    @Override
+    public Utf8Buffer append(CharSequence text)
+    {
+        CharSequence value = text == null ? "null" : text;
+        return append(value, 0, value.length());
+    }
+
+    @Override
+    public Utf8Buffer append(CharSequence text, int start, int end)
+    {
+        CharSequence value = text == null ? "null" : text;
+        ensureCapacity(count + utf8Length(value, start, end));
+        for (int i = start; i < end; i++)
+        {
+            char character = value.charAt(i);
+            if (character < 0x80)
+            {
+                bytes[count++] = (byte)character;
+            }
+            else if (character < 0x800)
+            {
+                bytes[count++] = (byte)(0xC0 | character >> 6);
+                bytes[count++] = (byte)(0x80 | character & 0x3F);
+            }
+            else if (Character.isHighSurrogate(character) && i + 1 < end
+                && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(character, value.charAt(++i));
+                bytes[count++] = (byte)(0xF0 | codePoint >> 18);
+                bytes[count++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                bytes[count++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                bytes[count++] = (byte)(0x80 | codePoint & 0x3F);
+            }
+            else if (Character.isSurrogate(character))
+            {
+                bytes[count++] = REPLACEMENT;
+            }
+            else
+            {
+                bytes[count++] = (byte)(0xE0 | character >> 12);
+                bytes[count++] = (byte)(0x80 | character >> 6 & 0x3F);
+                bytes[count++] = (byte)(0x80 | character & 0x3F);
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    public Utf8Buffer append(char character)
+    {
+        return append(String.valueOf(character), 0, 1);
+    }
+
+    @Override
+    public void writeUtf8(byte[] encoded)
+    {
+        ensureCapacity(count + encoded.length);
+        System.arraycopy(encoded, 0, bytes, count, encoded.length);
+        count += encoded.length;
+    }
+
+    /**
+     * Returns the number of bytes in the buffer.
+     *
+     * @return The length of the encoded text.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Empties the buffer, keeping the memory it already allocated.
+     */
+    public void reset()
+    {
+        count = 0;
+    }
+
+    /**
+     * Writes the content of the buffer to the given stream.
+     *
+     * @param stream Stream where the bytes are written
+     *
+     * @throws IOException If there's any problem writing to the stream.
+     */
+    public void writeTo(OutputStream stream)
+    throws IOException
+    {
+        stream.write(bytes, 0, count);
+    }
+
+    /**
+     * Returns a copy of the content of the buffer.
+     *
+     * @return The encoded text.
+     */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    /**
+     * Returns the number of bytes of the given text once encoded in UTF-8. Unpaired surrogates
+     * count as one byte, since they are encoded as a replacement character.
+     *
+     * @param text Text to measure
+     *
+     * @return The encoded length of the text.
+     */
+    public static int utf8Length(CharSequence text)
+    {
+        return utf8Length(text, 0, text.length());
+    }
+
+    /**
+     * Returns the number of bytes of the given part of a text once encoded in UTF-8.
+     *
+     * @param text Text to measure
+     * @param start Index of the first character to measure
+     * @param end Index after the last character to measure
+     *
+     * @return The encoded length of the characters.
+     */
+    static int utf8Length(CharSequence text, int start, int end)
+    {
+        int bytes = end - start;
+        for (int i = start; i < end; i++)
+        {
+            char character = text.charAt(i);
+            if (character < 0x80)
+            {
+                continue;
+            }
+
+            if (character < 0x800)
+            {
+                bytes++;
+            }
+            else if (Character.isHighSurrogate(character) && i + 1 < end
+                && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                bytes += 2;
+                i++;
+            }
+            else if (!Character.isSurrogate(character))
+            {
+                bytes += 2;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Grows the buffer, if needed, so it can hold the given number of bytes.
+     *
+     * @param capacity Number of bytes the buffer must be able to hold
+     */
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > bytes.length)
+        {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    /**
+     * Decodes the content of the buffer.
+     *
+     * @return The text in the buffer.
+     */
+    @Override
+    public String toString()
+    {
+        return new String(bytes, 0, count, StandardCharsets.UTF_8);
+    }
+}
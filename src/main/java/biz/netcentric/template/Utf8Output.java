@@ -0,0 +1,24 @@
+package biz.netcentric.template;
+
+import java.io.IOException;
+
+/**
+ * Output that writes bytes, so it can take text that was already encoded in UTF-8 without decoding
+ * it again. The static chunks of the templates are encoded once, when they are compiled, and then
+ * copied as they are on every rendering; only the values of the $-expressions are encoded at
+ * rendering time.
+ *
+ * @author Jhoan Muñoz
+ */
+public interface Utf8Output extends Appendable
+{
+    /**
+     * Writes the given text, already encoded in UTF-8.
+     *
+     * @param encoded Bytes of the text
+     *
+     * @throws IOException If there's any problem writing to the output.
+     */
+    void writeUtf8(byte[] encoded)
+    throws IOException;
+}
@@ -1,11 +1,17 @@
 package biz.netcentric.entity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Test cases for the {@link Book} class.
@@ -14,6 +20,8 @@ import org.junit.Test;
  */
 public class BookTest
 {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testCreateBook()
     {
@@ -33,6 +41,40 @@ public class BookTest
         assertBookInfo(book, "", "", 0, Collections.emptyList());
     }
 
+    @Test
+    public void testCatalog()
+    throws IOException
+    {
+        assertTrue("Not expected default catalog", Book.getCatalog().isEmpty());
+
+        Path file = temporaryFolder.newFile("books.col").toPath();
+        try (MappedBookStore.Writer writer = new MappedBookStore.Writer(file))
+        {
+            writer.add(new Book("Dune", "Frank Herbert", 1965, "Science Fiction"));
+        }
+
+        List<Book> defaultCatalog = Book.getCatalog();
+        try (MappedBookStore store = MappedBookStore.open(file))
+        {
+            List<Book> catalog = store.asList();
+            Book.setCatalog(catalog);
+            assertSame("Not expected catalog", catalog, Book.getCatalog());
+            assertBookInfo(
+                Book.getCatalog().get(0), "Dune", "Frank Herbert", 1965,
+                Collections.singletonList("Science Fiction"));
+        }
+        finally
+        {
+            Book.setCatalog(defaultCatalog);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetNullCatalog()
+    {
+        Book.setCatalog(null);
+    }
+
     private void assertBookInfo(Book book, String name, String author, int year, List<String> genres)
     {
         assertEquals("Not expected name", name, book.getName());
@@ -0,0 +1,61 @@
+package biz.netcentric.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ChildrenList} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ChildrenListTest
+{
+    @Test
+    public void testNames()
+    {
+        int count = ChildrenList.SHARED_SIZE + 10;
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            expected.add("Child " + i);
+        }
+
+        assertEquals(expected, ChildrenList.of(count));
+        assertEquals(expected.subList(0, 3), ChildrenList.of(3));
+        assertEquals(expected.toString(), ChildrenList.of(count).toString());
+    }
+
+    @Test
+    public void testNoChildren()
+    {
+        assertTrue(ChildrenList.of(0).isEmpty());
+        assertTrue(ChildrenList.of(-1).isEmpty());
+    }
+
+    @Test
+    public void testShared()
+    {
+        assertSame(ChildrenList.of(3), ChildrenList.of(3));
+        assertSame(ChildrenList.of(3).get(2), ChildrenList.of(5).get(2));
+        assertSame(
+            new Person("Erik", "Dora", true, 3).getChildren(),
+            new Person("Kerstin", "Jose", false, 3).getChildren());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds()
+    {
+        ChildrenList.of(3).get(3);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable()
+    {
+        ChildrenList.of(3).add("Child 3");
+    }
+}
@@ -0,0 +1,60 @@
+package biz.netcentric.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link GenreList} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class GenreListTest
+{
+    @Test
+    public void testOf()
+    {
+        List<String> genres = GenreList.of("Heroic Fantasy", "Political Strategy");
+
+        assertEquals(Arrays.asList("Heroic Fantasy", "Political Strategy"), genres);
+        assertTrue(GenreList.of().isEmpty());
+        assertTrue(GenreList.of((String[])null).isEmpty());
+    }
+
+    @Test
+    public void testShared()
+    {
+        // New strings, so the genres are only the same instance if they are shared
+        List<String> first = GenreList.of(new String("Novel"), new String("Magic Realism"));
+        List<String> second = GenreList.of(new String("Novel"), new String("Magic Realism"));
+        List<String> other = GenreList.of(new String("Magic Realism"));
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertSame(first.get(1), other.get(0));
+        assertSame(
+            new Book("A", "B", 2000, "Novel", "Magic Realism").getGenres(),
+            new Book("C", "D", 2001, "Novel", "Magic Realism").getGenres());
+    }
+
+    @Test
+    public void testArrayNotKept()
+    {
+        String[] genres = new String[]{"Poetry", "Drama"};
+        List<String> list = GenreList.of(genres);
+        genres[0] = "Comedy";
+
+        assertEquals(Arrays.asList("Poetry", "Drama"), list);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable()
+    {
+        GenreList.of("Poetry").set(0, "Drama");
+    }
+}
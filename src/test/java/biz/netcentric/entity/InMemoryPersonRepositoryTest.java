@@ -0,0 +1,174 @@
+package biz.netcentric.entity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the {@link InMemoryPersonRepository} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class InMemoryPersonRepositoryTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndLookup()
+    {
+        InMemoryPersonRepository testInstance = new InMemoryPersonRepository();
+        Person erik = new Person("Erik", "Dora", true, 3);
+        Person zero = new Person("Zero", "", false, 0);
+        Person negative = new Person("Negative", "", false, 0);
+        testInstance.put(2, erik);
+        testInstance.put(0, zero);
+        testInstance.put(-7, negative);
+
+        assertSame(erik, testInstance.lookup(2));
+        assertSame(zero, testInstance.lookup(0));
+        assertSame(negative, testInstance.lookup(-7));
+        assertNull(testInstance.lookup(1));
+        assertEquals(3, testInstance.size());
+    }
+
+    @Test
+    public void testReplace()
+    {
+        InMemoryPersonRepository testInstance = new InMemoryPersonRepository();
+        Person replacement = new Person("Svajune", "Thomas", true, 0);
+        testInstance.put(1, new Person("Kerstin", "Jose", false, 1));
+        testInstance.put(1, replacement);
+
+        assertSame(replacement, testInstance.lookup(1));
+        assertEquals(1, testInstance.size());
+    }
+
+    @Test
+    public void testGrow()
+    {
+        InMemoryPersonRepository testInstance = new InMemoryPersonRepository(2);
+        int count = 100000;
+        Person[] persons = new Person[count];
+        for (int i = 0; i < count; i++)
+        {
+            // Multiples of a power of two collide the most in a table without hash spreading
+            persons[i] = new Person("Person " + i, "", false, 0);
+            testInstance.put(i * 1024, persons[i]);
+        }
+
+        assertEquals(count, testInstance.size());
+        assertTrue("Table too full", testInstance.getCapacity() >= count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            assertSame(persons[i], testInstance.lookup(i * 1024));
+        }
+
+        assertNull(testInstance.lookup(count * 1024));
+    }
+
+    @Test
+    public void testLookupAll()
+    {
+        InMemoryPersonRepository testInstance = new InMemoryPersonRepository();
+        Person first = new Person("First", "", false, 0);
+        Person second = new Person("Second", "", false, 0);
+        testInstance.put(10, first);
+        testInstance.put(20, second);
+
+        assertArrayEquals(
+            new Person[]{second, null, first, second},
+            testInstance.lookupAll(new int[]{20, 30, 10, 20}));
+
+        Person[] reused = new Person[3];
+        testInstance.lookupAll(new int[]{10}, reused);
+        assertArrayEquals(new Person[]{first, null, null}, reused);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLookupAllShortArray()
+    {
+        new InMemoryPersonRepository().lookupAll(new int[]{1, 2}, new Person[1]);
+    }
+
+    @Test
+    public void testLoad()
+    throws IOException
+    {
+        File file = temporaryFolder.newFile("persons.tsv");
+        Files.write(
+            file.toPath(),
+            Arrays.asList(
+                "# id\tname\tspouse\tmarried\tchildren", "1\tKerstin\tJose\tfalse\t1", "",
+                "2\tErik\tDora\ttrue\t3", "1000000\tSvajune Ž\t\tfalse\t0"),
+            StandardCharsets.UTF_8);
+
+        InMemoryPersonRepository testInstance = InMemoryPersonRepository.load(file.toPath());
+        assertEquals(3, testInstance.size());
+        Person erik = testInstance.lookup(2);
+        assertEquals("Erik", erik.getName());
+        assertEquals("Dora", erik.getSpouse());
+        assertTrue(erik.isMarried());
+        assertEquals(3, erik.getChildren().size());
+        assertEquals("Svajune Ž", testInstance.lookup(1000000).getName());
+        assertEquals("", testInstance.lookup(1000000).getSpouse());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadMissingColumns()
+    throws IOException
+    {
+        File file = temporaryFolder.newFile("persons.tsv");
+        Files.write(file.toPath(), Arrays.asList("1\tKerstin\tJose"), StandardCharsets.UTF_8);
+        InMemoryPersonRepository.load(file.toPath());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadInvalidId()
+    throws IOException
+    {
+        File file = temporaryFolder.newFile("persons.tsv");
+        Files.write(
+            file.toPath(), Arrays.asList("one\tKerstin\tJose\tfalse\t1"), StandardCharsets.UTF_8);
+        InMemoryPersonRepository.load(file.toPath());
+    }
+
+    @Test
+    public void testTableSizeFor()
+    {
+        assertEquals(2, InMemoryPersonRepository.tableSizeFor(0));
+        assertEquals(2, InMemoryPersonRepository.tableSizeFor(1));
+        assertEquals(8, InMemoryPersonRepository.tableSizeFor(3));
+        assertEquals(
+            InMemoryPersonRepository.MAXIMUM_CAPACITY,
+            InMemoryPersonRepository.tableSizeFor(InMemoryPersonRepository.MAXIMUM_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTableSizeForTooManyPersons()
+    {
+        InMemoryPersonRepository.tableSizeFor(InMemoryPersonRepository.MAXIMUM_SIZE + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpectedSizeTooLarge()
+    {
+        new InMemoryPersonRepository(Integer.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNull()
+    {
+        new InMemoryPersonRepository().put(1, null);
+    }
+}
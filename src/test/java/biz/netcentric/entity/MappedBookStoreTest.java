@@ -0,0 +1,122 @@
+package biz.netcentric.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the {@link MappedBookStore} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MappedBookStoreTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("books.col").toPath();
+        try (MappedBookStore.Writer writer = new MappedBookStore.Writer(file))
+        {
+            writer.addAll(
+                new Book("Cien años de soledad", "Gabriel García Márquez", 1967, "Novel", "Magic"),
+                new Book());
+        }
+
+        try (MappedBookStore testInstance = MappedBookStore.open(file))
+        {
+            assertEquals(2, testInstance.size());
+            Book book = testInstance.get(0);
+            assertTrue(book instanceof MappedBook);
+            assertEquals("Cien años de soledad", book.getName());
+            assertEquals("Gabriel García Márquez", book.getAuthor());
+            assertEquals(1967, book.getYear());
+            assertEquals(Arrays.asList("Novel", "Magic"), book.getGenres());
+
+            Book empty = testInstance.get(1);
+            assertEquals("", empty.getName());
+            assertEquals("", empty.getAuthor());
+            assertEquals(0, empty.getYear());
+            assertEquals(Collections.emptyList(), empty.getGenres());
+        }
+    }
+
+    @Test
+    public void testAsList()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("books.col").toPath();
+        int count = 1000;
+        try (MappedBookStore.Writer writer = new MappedBookStore.Writer(file))
+        {
+            for (int i = 0; i < count; i++)
+            {
+                writer.add(new Book("Book " + i, "Author " + i, 1900 + i, "Genre " + i));
+            }
+        }
+
+        try (MappedBookStore testInstance = MappedBookStore.open(file))
+        {
+            List<Book> books = testInstance.asList();
+            assertEquals(count, books.size());
+            int i = 0;
+            for (Book book : books)
+            {
+                assertEquals("Book " + i, book.getName());
+                assertEquals(1900 + i, book.getYear());
+                assertEquals(Collections.singletonList("Genre " + i), book.getGenres());
+                i++;
+            }
+
+            assertEquals(count, i);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("books.col").toPath();
+        new MappedBookStore.Writer(file).close();
+
+        try (MappedBookStore testInstance = MappedBookStore.open(file))
+        {
+            testInstance.get(0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenPersonFile()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        new MappedPersonStore.Writer(file).close();
+        MappedBookStore.open(file);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("books.col").toPath();
+        try (MappedBookStore.Writer writer = new MappedBookStore.Writer(file))
+        {
+            writer.add(new Book("Book", "Author", 2000, "Genre"));
+        }
+
+        try (MappedBookStore testInstance = MappedBookStore.open(file))
+        {
+            testInstance.get(0).getGenres().add("Other");
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package biz.netcentric.entity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the {@link MappedPersonStore} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MappedPersonStoreTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndLookup()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+        {
+            writer.add(1, new Person("Kerstin", "Jose", false, 1));
+            writer.add(2, new Person("Erik", "Dora", true, 3));
+            writer.add(-7, new Person("Svajune Ž", null, false, 0));
+        }
+
+        try (MappedPersonStore testInstance = MappedPersonStore.open(file))
+        {
+            assertEquals(3, testInstance.size());
+            Person erik = testInstance.lookup(2);
+            assertTrue(erik instanceof MappedPerson);
+            assertEquals("Erik", erik.getName());
+            assertEquals("Dora", erik.getSpouse());
+            assertTrue(erik.isMarried());
+            assertEquals(Arrays.asList("Child 0", "Child 1", "Child 2"), erik.getChildren());
+            assertEquals(new Person("Erik", "Dora", true, 3).toString(), erik.toString());
+
+            Person svajune = testInstance.lookup(-7);
+            assertEquals("Svajune Ž", svajune.getName());
+            assertEquals("", svajune.getSpouse());
+            assertFalse(svajune.isMarried());
+            assertEquals(Collections.emptyList(), svajune.getChildren());
+
+            assertEquals(
+                Collections.singletonList("Child 0"), testInstance.lookup(1).getChildren());
+            assertNull(testInstance.lookup(3));
+        }
+    }
+
+    @Test
+    public void testManyPersons()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        int count = 10000;
+        try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+        {
+            for (int i = 0; i < count; i++)
+            {
+                // Multiples of a power of two collide the most in a table without hash spreading
+                writer.add(i * 1024, new Person("Person " + i, "Spouse " + i, i % 2 == 0, i % 4));
+            }
+        }
+
+        try (MappedPersonStore testInstance = MappedPersonStore.open(file))
+        {
+            assertEquals(count, testInstance.size());
+            for (int i = 0; i < count; i++)
+            {
+                Person person = testInstance.lookup(i * 1024);
+                assertEquals("Person " + i, person.getName());
+                assertEquals("Spouse " + i, person.getSpouse());
+                assertEquals(i % 2 == 0, person.isMarried());
+                assertEquals(i % 4, person.getChildren().size());
+            }
+
+            assertNull(testInstance.lookup(count * 1024));
+            assertArrayEquals(
+                new String[]{"Person 1", null},
+                Arrays.stream(testInstance.lookupAll(new int[]{1024, 1}))
+                    .map(person -> person == null ? null : person.getName())
+                    .toArray());
+        }
+    }
+
+    @Test
+    public void testRewriteWhileOpen()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+        {
+            writer.add(1, new Person("Kerstin", "Jose", false, 1));
+            writer.add(2, new Person("Erik", "Dora", true, 3));
+        }
+
+        try (MappedPersonStore testInstance = MappedPersonStore.open(file))
+        {
+            try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+            {
+                writer.add(3, new Person("Dora", "Erik", true, 0));
+            }
+
+            // The open store keeps reading the previous file
+            assertEquals(2, testInstance.size());
+            assertEquals("Erik", testInstance.lookup(2).getName());
+            assertEquals(Arrays.asList("Child 0"), testInstance.lookup(1).getChildren());
+        }
+
+        try (MappedPersonStore testInstance = MappedPersonStore.open(file))
+        {
+            assertEquals(1, testInstance.size());
+            assertEquals("Dora", testInstance.lookup(3).getName());
+            assertNull(testInstance.lookup(2));
+        }
+
+        assertArrayEquals(
+            "Temporary files left", new String[]{"persons.col"},
+            temporaryFolder.getRoot().list());
+    }
+
+    @Test
+    public void testDefaultPermissions()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        assumeTrue(file.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+        {
+            writer.add(1, new Person("Kerstin", "Jose", false, 1));
+        }
+
+        assertEquals(
+            "Not expected permissions",
+            Files.getPosixFilePermissions(temporaryFolder.newFile("other").toPath()),
+            Files.getPosixFilePermissions(file));
+    }
+
+    @Test
+    public void testEmptyStore()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        new MappedPersonStore.Writer(file).close();
+
+        try (MappedPersonStore testInstance = MappedPersonStore.open(file))
+        {
+            assertEquals(0, testInstance.size());
+            assertNull(testInstance.lookup(0));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDuplicatedId()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+        {
+            writer.add(1, new Person("Kerstin", "Jose", false, 1));
+            writer.add(1, new Person("Erik", "Dora", true, 3));
+        }
+    }
+
+    @Test
+    public void testIsMappedFile()
+    throws IOException
+    {
+        Path mapped = temporaryFolder.newFile("persons.col").toPath();
+        new MappedPersonStore.Writer(mapped).close();
+        File text = temporaryFolder.newFile("persons.tsv");
+        Files.write(
+            text.toPath(), Arrays.asList("1\tKerstin\tJose\tfalse\t1"), StandardCharsets.UTF_8);
+
+        assertTrue(MappedPersonStore.isMappedFile(mapped));
+        assertFalse(MappedPersonStore.isMappedFile(text.toPath()));
+        assertFalse(MappedPersonStore.isMappedFile(temporaryFolder.newFile("empty").toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenInvalidFile()
+    throws IOException
+    {
+        File text = temporaryFolder.newFile("persons.tsv");
+        Files.write(
+            text.toPath(), Arrays.asList("1\tKerstin\tJose\tfalse\t1"), StandardCharsets.UTF_8);
+        MappedPersonStore.open(text.toPath());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly()
+    throws IOException
+    {
+        Path file = temporaryFolder.newFile("persons.col").toPath();
+        try (MappedPersonStore.Writer writer = new MappedPersonStore.Writer(file))
+        {
+            writer.add(1, new Person("Kerstin", "Jose", false, 1));
+        }
+
+        try (MappedPersonStore testInstance = MappedPersonStore.open(file))
+        {
+            testInstance.lookup(1).setName("Erik");
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package biz.netcentric.entity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -47,6 +48,31 @@ public class PersonTest
         assertPersonInfo(person, "Empty Name", "Empty spouse", false, 0);
     }
 
+    @Test
+    public void testPersonLookup_Repository()
+    {
+        PersonRepository defaultRepository = Person.getRepository();
+        InMemoryPersonRepository repository = new InMemoryPersonRepository();
+        Person person = new Person("Ada", "", false, 0);
+        repository.put(5000000, person);
+        Person.setRepository(repository);
+        try
+        {
+            assertSame("Not expected person", person, Person.lookup("5000000"));
+            assertPersonInfo(Person.lookup(TEST_PERSON_ID), "Empty Name", "Empty spouse", false, 0);
+        }
+        finally
+        {
+            Person.setRepository(defaultRepository);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testPersonLookup_InvalidId()
+    {
+        Person.lookup("two");
+    }
+
     private void assertPersonInfo(
         Person person, String name, String spouse, boolean married, int numberOfChildren)
     {
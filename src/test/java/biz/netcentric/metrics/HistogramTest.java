@@ -0,0 +1,65 @@
+package biz.netcentric.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link Histogram} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class HistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        for (long value : new long[]{0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE})
+        {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue("Value above its bucket: " + value, value <= Histogram.upperBoundOf(bucket));
+            assertTrue(
+                "Value in the wrong bucket: " + value,
+                bucket == 0 || value > Histogram.upperBoundOf(bucket - 1));
+        }
+
+        assertEquals(
+            "Not expected number of buckets", Histogram.BUCKETS,
+            Histogram.bucketOf(Long.MAX_VALUE) + 1);
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        Histogram testInstance = new Histogram();
+        for (int i = 1; i <= 1000; i++)
+        {
+            testInstance.record(i * 1000L);
+        }
+
+        assertEquals("Not expected count", 1000, testInstance.getCount());
+        assertEquals("Not expected max", 1000000, testInstance.getMax());
+        assertEquals("Not expected mean", 500500, testInstance.getMean(), 0.001);
+        assertPercentile(500000, testInstance.getPercentile(50));
+        assertPercentile(990000, testInstance.getPercentile(99));
+        assertEquals("Not expected p100", 1000000, testInstance.getPercentile(100));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Histogram testInstance = new Histogram();
+        testInstance.record(-5);
+
+        assertEquals("Negative value not recorded as zero", 0, testInstance.getPercentile(50));
+        assertEquals("Not expected empty percentile", 0, new Histogram().getPercentile(50));
+    }
+
+    private static void assertPercentile(long expected, long actual)
+    {
+        assertTrue(
+            "Percentile out of the error bounds: " + actual,
+            actual >= expected && actual <= expected * 1.125);
+    }
+}
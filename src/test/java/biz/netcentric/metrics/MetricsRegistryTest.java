@@ -0,0 +1,120 @@
+package biz.netcentric.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import biz.netcentric.template.OutputCache;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.TemplateCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for the {@link MetricsRegistry} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MetricsRegistryTest
+{
+    private static final String TEST_PATH = "/index.html";
+    private static final String TEST_SERVLET = "MetricsRegistryTest";
+
+    @Mock private TemplateCache mockTemplateCache;
+    @Mock private ScriptCache mockScriptCache;
+    @Mock private OutputCache mockOutputCache;
+    private MetricsRegistry testInstance;
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        when(mockTemplateCache.getHitCount()).thenReturn(7L);
+        when(mockOutputCache.getBytes()).thenReturn(1024L);
+        testInstance = new MetricsRegistry(mockTemplateCache, mockScriptCache, mockOutputCache);
+    }
+
+    @After
+    public void tearDown()
+    {
+        testInstance.unregisterMBeans();
+    }
+
+    @Test
+    public void testForTemplate()
+    {
+        TemplateMetrics templateMetrics = testInstance.forTemplate(TEST_PATH);
+        templateMetrics.recordRequest(3, false);
+        templateMetrics.recordRequest(2, true);
+        testInstance.recordNotFound();
+
+        assertSame("Not the same metrics", templateMetrics, testInstance.forTemplate(TEST_PATH));
+        assertEquals("Not expected requests", 3, testInstance.getRequestCount());
+        assertEquals("Not expected errors", 1, testInstance.getScriptErrorCount());
+        assertEquals("Not expected evaluations", 5, templateMetrics.getExpressionEvaluationCount());
+    }
+
+    @Test
+    public void testWriteText()
+    throws IOException
+    {
+        TemplateMetrics templateMetrics = testInstance.forTemplate(TEST_PATH);
+        templateMetrics.record(Stage.RENDER, 2000000);
+        templateMetrics.recordRequest(1, false);
+        StringBuilder out = new StringBuilder();
+        testInstance.writeText(out);
+        String text = out.toString();
+
+        assertTrue("Cache hits missing", text.contains("slightly_template_cache_hits_total 7\n"));
+        assertTrue("Cache size missing", text.contains("slightly_output_cache_bytes 1024\n"));
+        assertTrue(
+            "Requests missing",
+            text.contains("slightly_requests_total{template=\"/index.html\"} 1\n"));
+        assertTrue(
+            "Stage missing",
+            text.contains(
+                "slightly_stage_seconds_max{template=\"/index.html\",stage=\"render\"} 0.002\n"));
+        assertTrue(
+            "Summary type missing", text.contains("# TYPE slightly_stage_seconds summary\n"));
+    }
+
+    @Test
+    public void testRegisterMBeans()
+    throws Exception
+    {
+        testInstance.forTemplate(TEST_PATH).record(Stage.TOTAL, 1000);
+        testInstance.registerMBeans(TEST_SERVLET);
+        testInstance.forTemplate("/other.html");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName registryName =
+            new ObjectName(MetricsRegistry.JMX_DOMAIN + ":servlet=\"" + TEST_SERVLET
+                + "\",type=HTLProcessor");
+        ObjectName templateName =
+            new ObjectName(MetricsRegistry.JMX_DOMAIN + ":servlet=\"" + TEST_SERVLET
+                + "\",type=Template,path=\"" + TEST_PATH + "\"");
+        assertEquals(
+            "Not expected cache hits", 7L,
+            server.getAttribute(registryName, "TemplateCacheHitCount"));
+        assertEquals(
+            "Not expected count", 1L,
+            ((CompositeData)server.getAttribute(templateName, "Total")).get("count"));
+        assertEquals(
+            "Template requested later not registered", 3,
+            server.queryNames(new ObjectName(MetricsRegistry.JMX_DOMAIN + ":servlet=\""
+                + TEST_SERVLET + "\",*"), null).size());
+
+        testInstance.unregisterMBeans();
+        assertFalse("MBean not unregistered", server.isRegistered(registryName));
+    }
+}
@@ -0,0 +1,299 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import biz.netcentric.metrics.MetricsRegistry;
+import biz.netcentric.template.OutputCache;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.TemplateCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for the {@link AsyncProcessor} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class AsyncProcessorTest
+{
+    private static final String TEST_HTML = "<html><body>Señor</body></html>";
+    private static final long WAIT_MILLIS = 5000;
+
+    @Mock private HttpServletRequest mockRequest;
+    @Mock private HttpServletResponse mockResponse;
+    @Mock private AsyncContext mockAsyncContext;
+    @Mock private ServletOutputStream mockOutputStream;
+
+    private MetricsRegistry metrics;
+    private AsyncProcessor testInstance;
+
+    @Before
+    public void setUp()
+    throws IOException
+    {
+        MockitoAnnotations.initMocks(this);
+        when(mockRequest.startAsync(mockRequest, mockResponse)).thenReturn(mockAsyncContext);
+        when(mockResponse.getOutputStream()).thenReturn(mockOutputStream);
+        metrics =
+            new MetricsRegistry(
+                mock(TemplateCache.class), mock(ScriptCache.class), mock(OutputCache.class));
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (testInstance != null)
+        {
+            testInstance.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcess()
+    throws IOException
+    {
+        testInstance =
+            new AsyncProcessor(
+                (request, response) -> response.getWriter().print(TEST_HTML), 1, 1, WAIT_MILLIS,
+                metrics);
+        testInstance.process(mockRequest, mockResponse);
+
+        ArgumentCaptor<WriteListener> listener = ArgumentCaptor.forClass(WriteListener.class);
+        verify(mockOutputStream, timeout(WAIT_MILLIS)).setWriteListener(listener.capture());
+        verify(mockAsyncContext).setTimeout(WAIT_MILLIS);
+
+        byte[] expected = TEST_HTML.getBytes(StandardCharsets.UTF_8);
+        verify(mockResponse).setContentLength(expected.length);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        when(mockOutputStream.isReady()).thenReturn(true);
+        recordWrites(written);
+        listener.getValue().onWritePossible();
+
+        assertArrayEquals("Not expected response", expected, written.toByteArray());
+        verify(mockAsyncContext).complete();
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull()
+    throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        testInstance =
+            new AsyncProcessor(
+                (request, response) -> {
+                    started.countDown();
+                    await(release);
+                }, 1, 1, WAIT_MILLIS, metrics);
+
+        HttpServletRequest[] requests = new HttpServletRequest[3];
+        HttpServletResponse[] responses = new HttpServletResponse[3];
+        AsyncContext[] asyncContexts = new AsyncContext[3];
+        for (int i = 0; i < requests.length; i++)
+        {
+            requests[i] = mock(HttpServletRequest.class);
+            responses[i] = mock(HttpServletResponse.class);
+            asyncContexts[i] = mock(AsyncContext.class);
+            when(requests[i].startAsync(requests[i], responses[i])).thenReturn(asyncContexts[i]);
+            when(responses[i].getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+            testInstance.process(requests[i], responses[i]);
+            if (i == 0)
+            {
+                started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        assertEquals("Not expected queue depth", 1, testInstance.getQueueDepth());
+        verify(responses[2]).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(responses[2]).setHeader("Retry-After", AsyncProcessor.RETRY_AFTER_SECONDS);
+        verify(asyncContexts[2]).complete();
+        verify(responses[1], never()).setStatus(anyInt());
+        assertEquals("Rejection not recorded", 1, metrics.getRejectedCount());
+        release.countDown();
+    }
+
+    @Test
+    public void testTimeout()
+    throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        testInstance =
+            new AsyncProcessor(
+                (request, response) -> {
+                    started.countDown();
+                    await(release);
+                    response.getWriter().print(TEST_HTML);
+                    finished.countDown();
+                }, 1, 1, WAIT_MILLIS, metrics);
+        testInstance.process(mockRequest, mockResponse);
+        started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(mockAsyncContext).addListener(listener.capture());
+        listener.getValue().onTimeout(new AsyncEvent(mockAsyncContext, mockRequest, mockResponse));
+
+        verify(mockResponse).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(mockAsyncContext).complete();
+        assertEquals("Timeout not recorded", 1, metrics.getTimeoutCount());
+
+        release.countDown();
+        finished.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        testInstance.shutdown();
+        verify(mockOutputStream, never()).setWriteListener(any(WriteListener.class));
+    }
+
+    @Test
+    public void testTimeoutWhileRendering()
+    throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        testInstance =
+            new AsyncProcessor(
+                (request, response) -> {
+                    started.countDown();
+                    await(release);
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    response.setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
+                    response.setHeader(ETag.HEADER, "\"late\"");
+                    response.getWriter().print(TEST_HTML);
+                    finished.countDown();
+                }, 1, 1, WAIT_MILLIS, metrics);
+        testInstance.process(mockRequest, mockResponse);
+        started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(mockAsyncContext).addListener(listener.capture());
+        listener.getValue().onTimeout(new AsyncEvent(mockAsyncContext, mockRequest, mockResponse));
+        release.countDown();
+        finished.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        testInstance.shutdown();
+
+        // The render thread finished after the 503, it must not touch the completed response
+        verify(mockResponse).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(mockResponse, never()).setStatus(HttpServletResponse.SC_OK);
+        verify(mockResponse, never()).setContentType(anyString());
+        verify(mockResponse, never()).setHeader(anyString(), anyString());
+        verify(mockResponse, never()).setContentLength(anyInt());
+        verify(mockAsyncContext).complete();
+    }
+
+    @Test
+    public void testBufferedHeaders()
+    throws IOException
+    {
+        testInstance =
+            new AsyncProcessor(
+                (request, response) -> {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    response.setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
+                    response.setHeader(ETag.HEADER, "\"tag\"");
+                    response.addHeader("Vary", "Accept-Encoding");
+                    response.addHeader("Vary", "Cookie");
+                }, 1, 1, WAIT_MILLIS, metrics);
+        testInstance.process(mockRequest, mockResponse);
+
+        verify(mockOutputStream, timeout(WAIT_MILLIS)).setWriteListener(any(WriteListener.class));
+        verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(mockResponse).setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
+        verify(mockResponse).setHeader(ETag.HEADER, "\"tag\"");
+        verify(mockResponse).setHeader("Vary", "Accept-Encoding");
+        verify(mockResponse).addHeader("Vary", "Cookie");
+    }
+
+    @Test
+    public void testErrorWhileRendering()
+    {
+        testInstance =
+            new AsyncProcessor(
+                (request, response) -> {
+                    throw new StackOverflowError("Too deep");
+                }, 1, 1, WAIT_MILLIS, metrics);
+        testInstance.process(mockRequest, mockResponse);
+
+        verify(mockOutputStream, timeout(WAIT_MILLIS)).setWriteListener(any(WriteListener.class));
+        verify(mockResponse).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    @Test
+    public void testWriteOnlyWhenReady()
+    throws IOException
+    {
+        byte[] content = new byte[AsyncProcessor.WRITE_CHUNK_SIZE + 10];
+        Arrays.fill(content, (byte)'a');
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        recordWrites(written);
+        AsyncProcessor.NonBlockingWriter writer =
+            new AsyncProcessor.NonBlockingWriter(mockAsyncContext, mockOutputStream, content);
+
+        when(mockOutputStream.isReady()).thenReturn(true, false);
+        writer.onWritePossible();
+        assertEquals("Not expected bytes written", AsyncProcessor.WRITE_CHUNK_SIZE, written.size());
+        verify(mockAsyncContext, never()).complete();
+
+        when(mockOutputStream.isReady()).thenReturn(true);
+        writer.onWritePossible();
+        assertArrayEquals("Not expected response", content, written.toByteArray());
+        verify(mockAsyncContext).complete();
+    }
+
+    /**
+     * Copies everything written to the mock output stream to the given buffer.
+     *
+     * @param written Buffer receiving the written bytes
+     *
+     * @throws IOException Never, declared by the mocked method.
+     */
+    private void recordWrites(ByteArrayOutputStream written)
+    throws IOException
+    {
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            written.write((byte[])args[0], (Integer)args[1], (Integer)args[2]);
+            return null;
+        }).when(mockOutputStream).write(any(byte[].class), anyInt(), anyInt());
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
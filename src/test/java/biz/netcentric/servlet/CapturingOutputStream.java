@@ -0,0 +1,55 @@
+package biz.netcentric.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Servlet output stream that keeps the bytes written to it, to be used as the output stream of
+ * mocked responses.
+ *
+ * @author Jhoan Muñoz
+ */
+class CapturingOutputStream extends ServletOutputStream
+{
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    @Override
+    public void write(int value)
+    {
+        bytes.write(value);
+    }
+
+    @Override
+    public boolean isReady()
+    {
+        return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener)
+    {
+    }
+
+    /**
+     * Returns the bytes written so far.
+     *
+     * @return A copy of the written bytes.
+     */
+    byte[] toByteArray()
+    {
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the bytes written so far.
+     *
+     * @return The text written to the stream.
+     */
+    @Override
+    public String toString()
+    {
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,133 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import biz.netcentric.template.Node;
+import biz.netcentric.template.Template;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ETag} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ETagTest
+{
+    private static final String TEST_PATH = "/index.html";
+
+    @Test
+    public void testNoVaryParameters()
+    {
+        assertNull(
+            "Entity tag computed",
+            ETag.compute(newTemplate(1L, null), request("id", "1")));
+    }
+
+    @Test
+    public void testCompute()
+    {
+        Template template = newTemplate(0xabcL, Arrays.asList("id"));
+        String etag = ETag.compute(template, request("id", "1"));
+
+        assertTrue("Not a strong tag", etag.startsWith("\"abc-") && etag.endsWith("\""));
+        assertEquals("Not stable", etag, ETag.compute(template, request("id", "1")));
+        assertNotEquals(
+            "Same tag for other value", etag, ETag.compute(template, request("id", "2")));
+        assertNotEquals("Same tag for missing value", etag, ETag.compute(template, request()));
+        assertNotEquals(
+            "Same tag for other version", etag,
+            ETag.compute(newTemplate(0xabdL, Arrays.asList("id")), request("id", "1")));
+        assertEquals(
+            "Undeclared parameter used", etag,
+            ETag.compute(template, request("id", "1", "other", "x")));
+    }
+
+    @Test
+    public void testComputeWithoutParameters()
+    {
+        Template template = newTemplate(7L, Collections.emptyList());
+
+        assertEquals(
+            "Parameters used", ETag.compute(template, request()),
+            ETag.compute(template, request("id", "1")));
+    }
+
+    @Test
+    public void testCacheKey()
+    {
+        Template template = newTemplate(0xabcL, Arrays.asList("name", "author"));
+        String key = ETag.cacheKey(template, request("name", "ab", "author", ""));
+
+        assertNull("Key computed", ETag.cacheKey(newTemplate(1L, null), request("id", "1")));
+        assertEquals(
+            "Not stable", key, ETag.cacheKey(template, request("name", "ab", "author", "")));
+        assertNotEquals(
+            "Same key for shifted values", key,
+            ETag.cacheKey(template, request("name", "a", "author", "b")));
+        assertNotEquals(
+            "Same key for missing value", ETag.cacheKey(template, request("name", "ab")),
+            ETag.cacheKey(template, request("name", "ab", "author", "")));
+        assertNotEquals(
+            "Same key for separators in values",
+            ETag.cacheKey(template, request("name", "a:1:b", "author", "")),
+            ETag.cacheKey(template, request("name", "a", "author", "b")));
+        assertNotEquals(
+            "Same key for other version", key,
+            ETag.cacheKey(
+                newTemplate(0xabdL, Arrays.asList("name", "author")),
+                request("name", "ab", "author", "")));
+
+        HttpServletRequest multiple = request();
+        when(multiple.getParameterValues("name")).thenReturn(new String[]{"a", "b"});
+        assertNotEquals(
+            "Same key for several values", ETag.cacheKey(template, request("name", "a:1:b")),
+            ETag.cacheKey(template, multiple));
+    }
+
+    @Test
+    public void testMatches()
+    {
+        String etag = "\"abc-1\"";
+
+        assertTrue("Not matched", ETag.matches(etag, etag));
+        assertTrue("List not matched", ETag.matches("\"x\", " + etag, etag));
+        assertTrue("Weak tag not matched", ETag.matches("W/" + etag, etag));
+        assertTrue("Wildcard not matched", ETag.matches(ETag.ANY, etag));
+        assertFalse("Other tag matched", ETag.matches("\"abc-2\"", etag));
+        assertFalse("Missing header matched", ETag.matches(null, etag));
+    }
+
+    @Test
+    public void testWeaken()
+    {
+        assertEquals("Not weakened", "W/\"1-2\"", ETag.weaken("\"1-2\""));
+        assertEquals("Weakened twice", "W/\"1-2\"", ETag.weaken("W/\"1-2\""));
+    }
+
+    private static Template newTemplate(long contentHash, List<String> varyParameters)
+    {
+        return new Template(TEST_PATH, contentHash, "", mock(Node.class), varyParameters, 0);
+    }
+
+    private static HttpServletRequest request(String... parameters)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        for (int i = 0; i < parameters.length; i += 2)
+        {
+            when(request.getParameterValues(parameters[i])).thenReturn(
+                new String[]{parameters[i + 1]});
+        }
+
+        return request;
+    }
+}
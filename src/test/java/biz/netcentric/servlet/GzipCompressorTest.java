@@ -0,0 +1,131 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link GzipCompressor} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class GzipCompressorTest
+{
+    private static final byte[] TEST_HTML =
+        "<html><body><p>Señor €</p><p>Señor €</p></body></html>".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testCompress()
+    throws IOException
+    {
+        GzipCompressor testInstance = new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 0, 1);
+
+        assertArrayEquals(
+            "Not expected content", TEST_HTML, decompress(testInstance.compress(TEST_HTML)));
+        assertArrayEquals(
+            "Empty content not expected", new byte[0],
+            decompress(testInstance.compress(new byte[0])));
+    }
+
+    @Test
+    public void testOpenWithFlushes()
+    throws IOException
+    {
+        GzipCompressor testInstance = new GzipCompressor(1, 0, 1);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream stream = testInstance.open(compressed))
+        {
+            stream.write(TEST_HTML, 0, 10);
+            stream.flush();
+            int flushedSize = compressed.size();
+            assertTrue("Nothing sent on flush", flushedSize > 10);
+
+            stream.write(TEST_HTML, 10, TEST_HTML.length - 10);
+        }
+
+        assertArrayEquals(
+            "Not expected content", TEST_HTML, decompress(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testDeflatersReused()
+    {
+        GzipCompressor testInstance = new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 0, 2);
+        for (int i = 0; i < 5; i++)
+        {
+            testInstance.compress(TEST_HTML);
+        }
+
+        assertEquals("Not expected pool size", 1, testInstance.getPoolSize());
+
+        testInstance.close();
+        assertEquals("Pool not emptied", 0, testInstance.getPoolSize());
+    }
+
+    @Test
+    public void testShouldCompress()
+    {
+        GzipCompressor testInstance = new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 100, 1);
+
+        assertFalse("Small body compressed", testInstance.shouldCompress(99));
+        assertTrue("Large body not compressed", testInstance.shouldCompress(100));
+    }
+
+    @Test
+    public void testAccepts()
+    {
+        assertFalse("No header", GzipCompressor.accepts(request(null)));
+        assertTrue("gzip", GzipCompressor.accepts(request("gzip, deflate, br")));
+        assertTrue("Upper case", GzipCompressor.accepts(request("deflate, GZIP")));
+        assertTrue("x-gzip", GzipCompressor.accepts(request("x-gzip")));
+        assertTrue("Quality", GzipCompressor.accepts(request("gzip;q=0.5")));
+        assertFalse("Refused", GzipCompressor.accepts(request("gzip;q=0, *")));
+        assertTrue("Any", GzipCompressor.accepts(request("br, *;q=0.1")));
+        assertFalse("Other", GzipCompressor.accepts(request("identity, br")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel()
+    {
+        new GzipCompressor(10, 0, 1);
+    }
+
+    /**
+     * Decompresses the given gzip bytes, checking their CRC and length.
+     */
+    static byte[] decompress(byte[] compressed)
+    throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(compressed)))
+        {
+            byte[] buffer = new byte[1024];
+            for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer))
+            {
+                content.write(buffer, 0, read);
+            }
+        }
+
+        return content.toByteArray();
+    }
+
+    private static HttpServletRequest request(String acceptEncoding)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader(GzipCompressor.ACCEPT_ENCODING)).thenReturn(acceptEncoding);
+        return request;
+    }
+}
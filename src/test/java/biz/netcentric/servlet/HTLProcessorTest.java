@@ -1,12 +1,11 @@
 package biz.netcentric.servlet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.eq;
-import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -19,21 +18,26 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Attributes;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import biz.netcentric.metrics.MetricsRegistry;
+import biz.netcentric.metrics.Stage;
+import biz.netcentric.metrics.TemplateMetrics;
+import biz.netcentric.template.BudgetExceededError;
+import biz.netcentric.template.Node;
+import biz.netcentric.template.RenderContext;
+import biz.netcentric.template.OutputCache;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.SharedScope;
+import biz.netcentric.template.Template;
+import biz.netcentric.template.TemplateCache;
+import biz.netcentric.template.TemplateContextFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,9 +45,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.JavaScriptException;
-import org.mozilla.javascript.NativeJavaObject;
 import org.mozilla.javascript.ScriptableObject;
-import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
@@ -53,96 +55,103 @@ import org.powermock.modules.junit4.PowerMockRunner;
  * @author Jhoan Muñoz
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({Jsoup.class, Context.class})
+@PrepareForTest({Context.class})
 public class HTLProcessorTest
 {
-    private static final String TEST_DATA_FOR_ATTR_NAME = "data-for-x";
-    private static final String TEST_DATA_FOR_ATTR_VAL = "x.collection";
+    private static final String TEST_PATH = HTLProcessor.INDEX_PATH;
     private static final String TEST_JS_CODE = "importClass(Packages.biz.netcentric.entity.Person)";
     private static final String TEST_RESPONSE = "Test Response";
 
     @Mock private ServletConfig mockServletConfig;
     @Mock private HttpServletRequest mockRequest;
     @Mock private HttpServletResponse mockResponse;
-    @Mock private Document mockHTMLDoc;
     @Mock private Context mockContext;
-    @Mock private PrintWriter mockPrintWriter;
     @Mock private Object mockJSEvalResult;
     @Mock private ScriptableObject mockScope;
+    @Mock private Node mockRootNode;
+    private Template testTemplate;
     private HTLProcessor testInstance;
+    private CapturingOutputStream output;
 
     @Before
     public void setUp()
     throws IOException, ServletException, URISyntaxException
     {
         MockitoAnnotations.initMocks(this);
-        mockStatic(Jsoup.class);
         mockStatic(Context.class);
         testInstance = spy(new HTLProcessor());
+        testTemplate = new Template(TEST_PATH, 0L, TEST_JS_CODE, mockRootNode);
 
-        Elements mockElements = mock(Elements.class);
         File mockFile = mock(File.class);
         ServletContext mockServletContext = mock(ServletContext.class);
         when(mockServletConfig.getServletContext()).thenReturn(mockServletContext);
-        when(mockResponse.getWriter()).thenReturn(mockPrintWriter);
-        when(mockElements.html()).thenReturn(TEST_JS_CODE);
+        output = new CapturingOutputStream();
+        when(mockResponse.getOutputStream()).thenReturn(output);
         when(mockRequest.getPathInfo()).thenReturn(HTLProcessor.DEFAULT_PATH);
         doReturn(mockFile).when(testInstance).loadHTMLFile(any(ServletContext.class), anyString());
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
         doReturn(mockScope).when(testInstance).createScope(any(Context.class));
-        when(mockHTMLDoc.getElementsByAttributeValue(
-            HTLProcessor.JS_ATTR_NAME, HTLProcessor.JS_ATTR_VAL)).thenReturn(mockElements);
+        doReturn(mock(TemplateContextFactory.class)).when(
+            testInstance).createContextFactory(any(ServletConfig.class));
+        doReturn(mock(SharedScope.class)).when(
+            testInstance).createSharedScope(any(ServletConfig.class));
+        doReturn(
+            new MetricsRegistry(
+                mock(TemplateCache.class), mock(ScriptCache.class), mock(OutputCache.class))).when(
+            testInstance).createMetricsRegistry(any(ServletConfig.class));
 
         testInstance.init(mockServletConfig);
-        PowerMockito.when(Context.enter()).thenReturn(mockContext);
-        PowerMockito.when(
-            Jsoup.parse(any(File.class), eq(HTLProcessor.CHARSET_NAME))).thenReturn(mockHTMLDoc);
+        doReturn(mockContext).when(testInstance).enterContext();
     }
 
     @Test
     public void testProcessResponse()
     throws IOException, ServletException
     {
-        doNothing().when(testInstance).evaluateIfExpressions(
-            any(Document.class), any(Context.class), any(ScriptableObject.class));
-        doNothing().when(testInstance).evaluateForExpressions(
-            any(Document.class), any(Context.class), any(ScriptableObject.class));
-        doReturn(TEST_RESPONSE).when(testInstance).evaluateExpressions(
-            any(Document.class), any(Context.class), any(ScriptableObject.class));
         doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
-            any(Context.class), any(ScriptableObject.class), anyString());
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
 
         testInstance.processRequest(mockRequest, mockResponse);
         verify(mockScope).put(HTLProcessor.REQUEST_OBJ_KEY, mockScope, mockRequest);
-        verify(testInstance).evaluateJS(mockContext, mockScope, TEST_JS_CODE);
-        verifyEvaluations(1);
-        verifyPrintResponse(TEST_RESPONSE);
+        verify(testInstance).evaluateJS(mockContext, mockScope, TEST_PATH, TEST_JS_CODE);
+        verifyRendering(1);
+        verify(mockRootNode).render(any(RenderContext.class));
+        verify(mockResponse).setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
+
+        TemplateMetrics templateMetrics = testInstance.getMetrics().forTemplate(TEST_PATH);
+        assertEquals("Request not recorded", 1, templateMetrics.getRequestCount());
+        assertEquals("Stage not recorded", 1, templateMetrics.getHistogram(Stage.TOTAL).getCount());
     }
 
     @Test
     public void testRequestedFileNotFound()
     throws IOException, ServletException, URISyntaxException
     {
+        doCallRealMethod().when(testInstance).loadTemplate(any(ServletContext.class), anyString());
         doThrow(FileNotFoundException.class).when(
             testInstance).loadHTMLFile(any(ServletContext.class), anyString());
 
         testInstance.processRequest(mockRequest, mockResponse);
         verify(mockScope, never()).put(HTLProcessor.REQUEST_OBJ_KEY, mockScope, mockRequest);
-        verify(testInstance, never()).evaluateJS(mockContext, mockScope, TEST_JS_CODE);
-        verifyEvaluations(0);
+        verify(testInstance, never()).evaluateJS(mockContext, mockScope, TEST_PATH, TEST_JS_CODE);
+        verifyRendering(0);
         verifyPrintResponse("The requested HTML file doesn't exist");
+        assertEquals("Error not recorded", 1, testInstance.getMetrics().getNotFoundCount());
     }
 
     @Test
     public void testMalformedURIForRequestedFile()
     throws IOException, ServletException, URISyntaxException
     {
+        doCallRealMethod().when(testInstance).loadTemplate(any(ServletContext.class), anyString());
         doThrow(URISyntaxException.class).when(
             testInstance).loadHTMLFile(any(ServletContext.class), anyString());
 
         testInstance.processRequest(mockRequest, mockResponse);
         verify(mockScope, never()).put(HTLProcessor.REQUEST_OBJ_KEY, mockScope, mockRequest);
-        verify(testInstance, never()).evaluateJS(mockContext, mockScope, TEST_JS_CODE);
-        verifyEvaluations(0);
+        verify(testInstance, never()).evaluateJS(mockContext, mockScope, TEST_PATH, TEST_JS_CODE);
+        verifyRendering(0);
         verifyPrintResponse("The provided URL is not correctly formed");
     }
 
@@ -151,110 +160,225 @@ public class HTLProcessorTest
     throws IOException, ServletException, URISyntaxException
     {
         doThrow(JavaScriptException.class).when(
-            testInstance).evaluateJS(mockContext, mockScope, TEST_JS_CODE);
+            testInstance).evaluateJS(mockContext, mockScope, TEST_PATH, TEST_JS_CODE);
 
         testInstance.processRequest(mockRequest, mockResponse);
         verify(mockScope).put(HTLProcessor.REQUEST_OBJ_KEY, mockScope, mockRequest);
-        verify(testInstance).evaluateJS(mockContext, mockScope, TEST_JS_CODE);
+        verify(testInstance).evaluateJS(mockContext, mockScope, TEST_PATH, TEST_JS_CODE);
 
-        verifyEvaluations(0);
+        verifyRendering(0);
         verifyPrintResponse("There's an error in the javascript code in the requested page.");
+        assertEquals("Error not recorded", 1, testInstance.getMetrics().getScriptErrorCount());
+    }
+
+    @Test
+    public void testExecuteJSCodeOverBudget()
+    throws IOException, ServletException, URISyntaxException
+    {
+        doThrow(BudgetExceededError.class).when(
+            testInstance).evaluateJS(mockContext, mockScope, TEST_PATH, TEST_JS_CODE);
+
+        testInstance.processRequest(mockRequest, mockResponse);
+        verifyRendering(0);
+        verifyPrintResponse(
+            "The javascript code in the requested page was aborted, it ran for too long.");
+        assertEquals("Abort not recorded", 1, testInstance.getMetrics().getBudgetExceededCount());
+        assertEquals("Error not recorded", 1, testInstance.getMetrics().getScriptErrorCount());
+    }
+
+    @Test
+    public void testNotModified()
+    throws IOException, ServletException, URISyntaxException
+    {
+        testTemplate =
+            new Template(
+                TEST_PATH, 0L, TEST_JS_CODE, mockRootNode, Collections.singletonList("id"), 0);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockRequest.getParameterValues("id")).thenReturn(new String[]{"1"});
+        String etag = ETag.compute(testTemplate, mockRequest);
+        when(mockRequest.getHeader(ETag.IF_NONE_MATCH)).thenReturn(etag);
+
+        testInstance.processRequest(mockRequest, mockResponse);
+        verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(mockResponse).setHeader(ETag.HEADER, etag);
+        verify(mockResponse).setHeader(
+            HTLProcessor.CACHE_CONTROL_HEADER, HTLProcessor.DEFAULT_CACHE_CONTROL);
+        verify(testInstance, never()).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        verifyRendering(0);
+        verify(mockResponse, never()).getOutputStream();
+        assertEquals("304 not recorded", 1, testInstance.getMetrics().getNotModifiedCount());
+    }
+
+    @Test
+    public void testCompressedNotModified()
+    throws IOException, ServletException, URISyntaxException
+    {
+        doReturn(new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 0, 1)).when(
+            testInstance).createCompressor(any(ServletConfig.class));
+        testInstance.init(mockServletConfig);
+        doReturn(mockContext).when(testInstance).enterContext();
+        doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        Node textNode = context -> context.write(TEST_RESPONSE);
+        testTemplate =
+            new Template(
+                TEST_PATH, 0L, TEST_JS_CODE, textNode, Collections.singletonList("id"), 0);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockRequest.getParameterValues("id")).thenReturn(new String[]{"1"});
+        when(mockRequest.getHeader(GzipCompressor.ACCEPT_ENCODING)).thenReturn("gzip");
+        String etag = ETag.compute(testTemplate, mockRequest);
+
+        // The 200 and the 304 carry the same weak tag, the one the client sends back
+        testInstance.processRequest(mockRequest, mockResponse);
+        when(mockRequest.getHeader(ETag.IF_NONE_MATCH)).thenReturn(ETag.weaken(etag));
+        testInstance.processRequest(mockRequest, mockResponse);
+        verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(mockResponse, times(2)).setHeader(ETag.HEADER, ETag.weaken(etag));
+        verify(mockResponse, never()).setHeader(ETag.HEADER, etag);
+        verifyRendering(1);
+        assertEquals("304 not recorded", 1, testInstance.getMetrics().getNotModifiedCount());
+    }
+
+    @Test
+    public void testModified()
+    throws IOException, ServletException, URISyntaxException
+    {
+        doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        testTemplate =
+            new Template(
+                TEST_PATH, 0L, TEST_JS_CODE, mockRootNode, Collections.singletonList("id"), 0);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockRequest.getHeader(ETag.IF_NONE_MATCH)).thenReturn("\"other\"");
+
+        testInstance.processRequest(mockRequest, mockResponse);
+        verifyRendering(1);
+        verify(mockResponse, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(mockResponse).setHeader(ETag.HEADER, ETag.compute(testTemplate, mockRequest));
+        verify(mockResponse).setContentLength(System.lineSeparator().length());
     }
 
     @Test
-    public void testEvaluateIfExpressions()
+    public void testCachedPage()
+    throws IOException, ServletException, URISyntaxException
     {
-        Element mockElement1 = mock(Element.class);
-        Element mockElement2 = mock(Element.class);
-        Document mockDocument = mock(Document.class);
-        Elements mockElements = new Elements(Arrays.asList(mockElement1, mockElement2));
-
-        when(mockElement1.attr(HTLProcessor.DATA_IF_ATTR_NAME)).thenReturn(String.valueOf(true));
-        when(mockElement2.attr(HTLProcessor.DATA_IF_ATTR_NAME)).thenReturn(String.valueOf(false));
-        when(mockDocument.getElementsByAttributeStarting(
-            HTLProcessor.DATA_IF_ATTR_NAME)).thenReturn(mockElements);
-        doReturn(true).when(
-            testInstance).evaluateJS(mockContext, mockScope, String.valueOf(true));
-        doReturn(false).when(
-            testInstance).evaluateJS(mockContext, mockScope, String.valueOf(false));
-
-        testInstance.evaluateIfExpressions(mockDocument, mockContext, mockScope);
-
-        verify(mockElement2).remove();
-        verify(mockElement2).removeAttr(HTLProcessor.DATA_IF_ATTR_NAME);
-        verify(mockElement1).removeAttr(HTLProcessor.DATA_IF_ATTR_NAME);
+        doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        Node textNode = context -> context.write(TEST_RESPONSE);
+        testTemplate =
+            new Template(
+                TEST_PATH, 0L, TEST_JS_CODE, textNode, Collections.singletonList("id"), 60000);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+        when(mockRequest.getMethod()).thenReturn("GET");
+
+        testInstance.processRequest(mockRequest, mockResponse);
+        testInstance.processRequest(mockRequest, mockResponse);
+        verify(testInstance, times(1)).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        verifyRendering(1);
+        verify(mockResponse, never()).getWriter();
+
+        String page = TEST_RESPONSE + System.lineSeparator();
+        assertEquals("Not expected response", page + page, output.toString());
+        assertEquals("Hit not recorded", 1, testInstance.getOutputCache().getHitCount());
     }
 
     @Test
-    public void testEvaluateForExpressions()
+    public void testCachedPageKeyedByParameters()
+    throws IOException, ServletException, URISyntaxException
     {
-        Attributes attributes = new Attributes();
-        Element mockElement1 = mock(Element.class);
-        Document mockDocument = mock(Document.class);
-        NativeJavaObject mockResult = mock(NativeJavaObject.class);
-        Elements mockElements = new Elements(Arrays.asList(mockElement1));
-        List<String> testCollection = new ArrayList<>();
-        testCollection.add("testElem1");
-        testCollection.add("testElem2");
-
-        attributes.put(TEST_DATA_FOR_ATTR_NAME, TEST_DATA_FOR_ATTR_VAL);
-        when(mockResult.unwrap()).thenReturn(testCollection);
-        when(mockElement1.attr(TEST_DATA_FOR_ATTR_NAME)).thenReturn(TEST_DATA_FOR_ATTR_VAL);
-        when(mockElement1.attributes()).thenReturn(attributes);
-        when(mockElement1.outerHtml()).thenReturn("Element: ${x}");
-        when(mockDocument.getElementsByAttributeStarting(
-            HTLProcessor.DATA_FOR_ATTR_PREFIX)).thenReturn(mockElements);
-        doReturn(mockResult).when(
-            testInstance).evaluateJS(mockContext, mockScope, TEST_DATA_FOR_ATTR_VAL);
-
-        testInstance.evaluateForExpressions(mockDocument, mockContext, mockScope);
-
-        verify(mockElement1).removeAttr(TEST_DATA_FOR_ATTR_NAME);
-        verify(mockElement1, times(2)).outerHtml();
-        verify(mockElement1).before("Element: testElem1");
-        verify(mockElement1).before("Element: testElem2");
-        verify(mockElement1).remove();
+        doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        Node textNode = context -> context.write(TEST_RESPONSE);
+        testTemplate =
+            new Template(
+                TEST_PATH, 0L, TEST_JS_CODE, textNode, Collections.singletonList("id"), 60000);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+        when(mockRequest.getMethod()).thenReturn("GET");
+
+        // Parameters whose entity tags collide still get their own pages
+        doReturn("\"collision\"").when(testInstance).computeETag(
+            any(Template.class), any(HttpServletRequest.class));
+        when(mockRequest.getParameterValues("id")).thenReturn(new String[]{"1"});
+        testInstance.processRequest(mockRequest, mockResponse);
+        when(mockRequest.getParameterValues("id")).thenReturn(new String[]{"2"});
+        testInstance.processRequest(mockRequest, mockResponse);
+        verifyRendering(2);
+
+        assertEquals("Not expected entries", 2, testInstance.getOutputCache().size());
+        assertEquals("Page shared", 0, testInstance.getOutputCache().getHitCount());
     }
 
     @Test
-    public void testEvaluateExpressions()
+    public void testCompressedCachedPage()
+    throws IOException, ServletException, URISyntaxException
     {
-        Document mockDocument = mock(Document.class);
-        String testExpression1 = "test.expression1";
-        String testExpression2 = "test.expression2";
-        String testResult1 = "Expression 1";
-        String testResult2 = "Expression 2";
-        String htmlTemplate =
-            "<body><h1>${" + testExpression1 + "}</h1><h1>${" + testExpression2 + "}</h2></body>";
-        String expectedHTML =
-            "<body><h1>" + testResult1 + "</h1><h1>" + testResult2 + "</h2></body>";
-        NativeJavaObject mockResult1 = mock(NativeJavaObject.class);
-        NativeJavaObject mockResult2 = mock(NativeJavaObject.class);
-
-        when(mockResult1.unwrap()).thenReturn(testResult1);
-        when(mockResult2.unwrap()).thenReturn(testResult2);
-        when(mockDocument.html()).thenReturn(htmlTemplate);
-        doReturn(mockResult1).when(testInstance).evaluateJS(mockContext, mockScope, testExpression1);
-        doReturn(mockResult2).when(testInstance).evaluateJS(mockContext, mockScope, testExpression2);
+        doReturn(new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 0, 1)).when(
+            testInstance).createCompressor(any(ServletConfig.class));
+        testInstance.init(mockServletConfig);
+        doReturn(mockContext).when(testInstance).enterContext();
+        doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        Node textNode = context -> context.write(TEST_RESPONSE);
+        testTemplate =
+            new Template(
+                TEST_PATH, 0L, TEST_JS_CODE, textNode, Collections.singletonList("id"), 60000);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockRequest.getHeader(GzipCompressor.ACCEPT_ENCODING)).thenReturn("gzip");
 
+        testInstance.processRequest(mockRequest, mockResponse);
+        byte[] compressed = output.toByteArray();
+        testInstance.processRequest(mockRequest, mockResponse);
+        verifyRendering(1);
+        verify(mockResponse, times(2)).setHeader(
+            GzipCompressor.VARY, GzipCompressor.ACCEPT_ENCODING);
+        verify(mockResponse, times(2)).setHeader(
+            GzipCompressor.CONTENT_ENCODING, GzipCompressor.GZIP);
         assertEquals(
-            "Not expected HTML",
-            expectedHTML,
-            testInstance.evaluateExpressions(mockDocument, mockContext, mockScope));
+            "Not expected response", TEST_RESPONSE + System.lineSeparator(),
+            new String(GzipCompressorTest.decompress(compressed), StandardCharsets.UTF_8));
+
+        // Identity and compressed pages are both cached, the second request hits both
+        assertEquals("Not expected entries", 2, testInstance.getOutputCache().size());
+        assertEquals("Hits not recorded", 2, testInstance.getOutputCache().getHitCount());
+    }
+
+    @Test
+    public void testRenderResponse()
+    throws IOException, ServletException, URISyntaxException
+    {
+        doReturn(mockJSEvalResult).when(testInstance).evaluateJS(
+            any(Context.class), any(ScriptableObject.class), anyString(), anyString());
+        Node textNode = context -> context.write(TEST_RESPONSE);
+        testTemplate = new Template(TEST_PATH, 0L, TEST_JS_CODE, textNode);
+        doReturn(testTemplate).when(
+            testInstance).loadTemplate(any(ServletContext.class), anyString());
+
+        testInstance.processRequest(mockRequest, mockResponse);
+        verifyPrintResponse(TEST_RESPONSE);
     }
 
-    private void verifyEvaluations(int times)
+    private void verifyRendering(int times)
+    throws IOException
     {
-        verify(
-            testInstance, times(times)).evaluateIfExpressions(mockHTMLDoc, mockContext, mockScope);
-        verify(
-            testInstance, times(times)).evaluateForExpressions(mockHTMLDoc, mockContext, mockScope);
-        verify(testInstance, times(times)).evaluateExpressions(mockHTMLDoc, mockContext, mockScope);
+        verify(testInstance, times(times)).renderTemplate(
+            any(Template.class), any(RenderContext.class));
     }
 
     private void verifyPrintResponse(String response)
     {
         verify(mockResponse).setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
-        verify(mockPrintWriter).println(startsWith(response));
+        assertTrue("Not expected response", output.toString().startsWith(response));
     }
 }
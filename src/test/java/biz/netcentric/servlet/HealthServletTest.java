@@ -0,0 +1,85 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for the {@link HealthServlet} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class HealthServletTest
+{
+    @Mock private ServletConfig mockServletConfig;
+    @Mock private ServletContext mockServletContext;
+    @Mock private HttpServletRequest mockRequest;
+    @Mock private HttpServletResponse mockResponse;
+    private HealthServlet testInstance;
+
+    @Before
+    public void setUp()
+    throws ServletException
+    {
+        MockitoAnnotations.initMocks(this);
+        when(mockServletConfig.getServletContext()).thenReturn(mockServletContext);
+        testInstance = new HealthServlet();
+        testInstance.init(mockServletConfig);
+    }
+
+    @Test
+    public void testReady()
+    throws IOException, ServletException
+    {
+        StringWriter output = new StringWriter();
+        when(mockResponse.getWriter()).thenReturn(new PrintWriter(output));
+        Warmup warmup = newWarmup();
+        warmup.start();
+        when(mockServletContext.getAttribute(Warmup.CONTEXT_ATTRIBUTE)).thenReturn(warmup);
+
+        testInstance.doGet(mockRequest, mockResponse);
+        verify(mockResponse).setContentType(HealthServlet.RESPONSE_CONTENT_TYPE);
+        assertEquals(HealthServlet.READY, output.toString());
+    }
+
+    @Test
+    public void testWarmingUp()
+    throws IOException, ServletException
+    {
+        when(mockServletContext.getAttribute(Warmup.CONTEXT_ATTRIBUTE)).thenReturn(newWarmup());
+
+        testInstance.doGet(mockRequest, mockResponse);
+        verify(mockResponse).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+    }
+
+    @Test
+    public void testNotInitialized()
+    throws IOException, ServletException
+    {
+        testInstance.doGet(mockRequest, mockResponse);
+        verify(mockResponse).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+    }
+
+    private Warmup newWarmup()
+    {
+        return new Warmup(
+            mock(HTLProcessor.class), mockServletContext, false, Collections.emptyList(), 0);
+    }
+}
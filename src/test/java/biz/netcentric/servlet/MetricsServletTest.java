@@ -0,0 +1,72 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import biz.netcentric.metrics.MetricsRegistry;
+import biz.netcentric.template.OutputCache;
+import biz.netcentric.template.ScriptCache;
+import biz.netcentric.template.TemplateCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for the {@link MetricsServlet} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class MetricsServletTest
+{
+    @Mock private ServletConfig mockServletConfig;
+    @Mock private ServletContext mockServletContext;
+    @Mock private HttpServletRequest mockRequest;
+    @Mock private HttpServletResponse mockResponse;
+    private MetricsServlet testInstance;
+
+    @Before
+    public void setUp()
+    throws ServletException
+    {
+        MockitoAnnotations.initMocks(this);
+        when(mockServletConfig.getServletContext()).thenReturn(mockServletContext);
+        testInstance = new MetricsServlet();
+        testInstance.init(mockServletConfig);
+    }
+
+    @Test
+    public void testPrintMetrics()
+    throws IOException, ServletException
+    {
+        StringWriter output = new StringWriter();
+        when(mockResponse.getWriter()).thenReturn(new PrintWriter(output));
+        when(mockServletContext.getAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE)).thenReturn(
+            new MetricsRegistry(
+                mock(TemplateCache.class), mock(ScriptCache.class), mock(OutputCache.class)));
+
+        testInstance.doGet(mockRequest, mockResponse);
+        verify(mockResponse).setContentType(MetricsServlet.RESPONSE_CONTENT_TYPE);
+        assertTrue("Metrics not printed", output.toString().contains("slightly_not_found_total 0"));
+    }
+
+    @Test
+    public void testMetricsNotAvailable()
+    throws IOException, ServletException
+    {
+        testInstance.doGet(mockRequest, mockResponse);
+        verify(mockResponse).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+    }
+}
@@ -0,0 +1,230 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for the {@link ResponseWriter} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ResponseWriterTest
+{
+    private static final String TEST_HEAD = "<head></head>";
+    private static final String TEST_BODY = "<body></body>";
+
+    @Mock private HttpServletResponse mockResponse;
+    private CapturingOutputStream output;
+
+    @Before
+    public void setUp()
+    throws IOException
+    {
+        MockitoAnnotations.initMocks(this);
+        output = new CapturingOutputStream();
+        when(mockResponse.getOutputStream()).thenReturn(output);
+    }
+
+    @Test
+    public void testBufferWholePage()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, false);
+        testInstance.append(TEST_HEAD).flush();
+        testInstance.append(TEST_BODY);
+
+        assertFalse("Response committed", testInstance.isCommitted());
+        assertEquals("Text sent before finishing", "", output.toString());
+
+        testInstance.finish();
+        verify(mockResponse).setContentType(HTLProcessor.RESPONSE_CONTENT_TYPE);
+        assertEquals(
+            "Not expected response", TEST_HEAD + TEST_BODY + System.lineSeparator(),
+            output.toString());
+    }
+
+    @Test
+    public void testFlushThreshold()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, TEST_HEAD.length(), false);
+        testInstance.append(TEST_HEAD);
+
+        assertTrue("Response not committed", testInstance.isCommitted());
+        assertEquals("Head not sent", TEST_HEAD, output.toString());
+    }
+
+    @Test
+    public void testFlushPoints()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, true);
+        testInstance.append(TEST_HEAD).flush();
+        testInstance.append(TEST_BODY);
+
+        assertTrue("Response not committed", testInstance.isCommitted());
+        assertEquals("Head not sent", TEST_HEAD, output.toString());
+    }
+
+    @Test
+    public void testResetBuffer()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, true);
+        testInstance.append(TEST_HEAD);
+        testInstance.resetBuffer();
+        testInstance.append(TEST_BODY);
+        testInstance.finish();
+
+        assertEquals(
+            "Not expected response", TEST_BODY + System.lineSeparator(), output.toString());
+    }
+
+    @Test
+    public void testContentLength()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, false);
+        testInstance.append("Señor \uD83D\uDE00");
+        testInstance.finish();
+
+        verify(mockResponse).setContentLength(
+            ("Señor \uD83D\uDE00" + System.lineSeparator())
+                .getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void testNoContentLengthOnceCommitted()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, TEST_HEAD.length(), false);
+        testInstance.append(TEST_HEAD).append(TEST_BODY);
+        testInstance.finish();
+
+        verify(mockResponse, never()).setContentLength(anyInt());
+    }
+
+    @Test
+    public void testWriteUtf8()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, false);
+        testInstance.writeUtf8("<p>Señor</p>".getBytes(StandardCharsets.UTF_8));
+        testInstance.append("€");
+        testInstance.finish();
+
+        assertEquals(
+            "Not expected response", "<p>Señor</p>€" + System.lineSeparator(), output.toString());
+        verify(mockResponse, never()).getWriter();
+    }
+
+    @Test
+    public void testPageHeaders()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, false);
+        testInstance.setPageHeader(ETag.HEADER, "\"1\"");
+        testInstance.append(TEST_BODY);
+        verify(mockResponse, never()).setHeader(anyString(), anyString());
+
+        testInstance.finish();
+        verify(mockResponse).setHeader(ETag.HEADER, "\"1\"");
+    }
+
+    @Test
+    public void testResetBufferDiscardsPageHeaders()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, false);
+        testInstance.setPageHeader(ETag.HEADER, "\"1\"");
+        testInstance.append(TEST_BODY);
+        testInstance.resetBuffer();
+        testInstance.finish();
+
+        verify(mockResponse, never()).setHeader(anyString(), anyString());
+    }
+
+    @Test
+    public void testDiscardBody()
+    throws IOException
+    {
+        ResponseWriter testInstance = new ResponseWriter(mockResponse, 0, false);
+        testInstance.append(TEST_BODY);
+        testInstance.discardBody();
+        testInstance.finish();
+
+        verify(mockResponse, never()).getOutputStream();
+        assertEquals("Body sent", "", output.toString());
+    }
+
+    @Test
+    public void testCompressWholePage()
+    throws IOException
+    {
+        ResponseWriter testInstance =
+            new ResponseWriter(
+                mockResponse, 0, false, new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 0, 1));
+        testInstance.setPageHeader(ETag.HEADER, "\"1\"");
+        testInstance.append(TEST_HEAD).append(TEST_BODY);
+        testInstance.finish();
+
+        byte[] compressed = output.toByteArray();
+        verify(mockResponse).setHeader(GzipCompressor.CONTENT_ENCODING, GzipCompressor.GZIP);
+        verify(mockResponse).setHeader(ETag.HEADER, "W/\"1\"");
+        verify(mockResponse).setContentLength(compressed.length);
+        assertEquals(
+            "Not expected response", TEST_HEAD + TEST_BODY + System.lineSeparator(),
+            new String(GzipCompressorTest.decompress(compressed), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompressBelowMinSize()
+    throws IOException
+    {
+        ResponseWriter testInstance =
+            new ResponseWriter(
+                mockResponse, 0, false,
+                new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, TEST_BODY.length() * 2, 1));
+        testInstance.append(TEST_BODY);
+        testInstance.finish();
+
+        verify(mockResponse, never()).setHeader(anyString(), anyString());
+        assertEquals(
+            "Not expected response", TEST_BODY + System.lineSeparator(), output.toString());
+    }
+
+    @Test
+    public void testCompressChunks()
+    throws IOException
+    {
+        ResponseWriter testInstance =
+            new ResponseWriter(
+                mockResponse, TEST_HEAD.length(), false,
+                new GzipCompressor(GzipCompressor.DEFAULT_LEVEL, 0, 1));
+        testInstance.append(TEST_HEAD);
+        assertTrue("Response not committed", testInstance.isCommitted());
+
+        testInstance.append(TEST_BODY);
+        testInstance.finish();
+        verify(mockResponse).setHeader(GzipCompressor.CONTENT_ENCODING, GzipCompressor.GZIP);
+        verify(mockResponse, never()).setContentLength(anyInt());
+        assertEquals(
+            "Not expected response", TEST_HEAD + TEST_BODY + System.lineSeparator(),
+            new String(
+                GzipCompressorTest.decompress(output.toByteArray()), StandardCharsets.UTF_8));
+    }
+}
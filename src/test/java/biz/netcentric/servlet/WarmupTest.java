@@ -0,0 +1,197 @@
+package biz.netcentric.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test cases for the {@link Warmup} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class WarmupTest
+{
+    @Mock private HTLProcessor mockProcessor;
+    @Mock private ServletContext mockServletContext;
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        when(mockServletContext.getResourcePaths("/")).thenReturn(
+            new HashSet<>(Arrays.asList("/index.html", "/tests/", "/WEB-INF/", "/style.css")));
+        when(mockServletContext.getResourcePaths("/tests/")).thenReturn(
+            new HashSet<>(Arrays.asList("/tests/test2.html", "/tests/test1.html")));
+    }
+
+    @Test
+    public void testFindTemplates()
+    {
+        Warmup warmup =
+            new Warmup(mockProcessor, mockServletContext, true, Collections.emptyList(), 0);
+        assertEquals(
+            Arrays.asList("/index.html", "/tests/test1.html", "/tests/test2.html"),
+            warmup.findTemplates("/"));
+        verify(mockServletContext, never()).getResourcePaths(Warmup.WEB_INF_PATH);
+    }
+
+    @Test
+    public void testPrecompile()
+    throws IOException, URISyntaxException
+    {
+        doThrow(new FileNotFoundException()).when(mockProcessor).loadTemplate(
+            mockServletContext, "/tests/test2.html");
+        Warmup warmup =
+            new Warmup(mockProcessor, mockServletContext, true, Collections.emptyList(), 0);
+
+        warmup.run();
+        verify(mockProcessor).loadTemplate(mockServletContext, "/index.html");
+        verify(mockProcessor).loadTemplate(mockServletContext, "/tests/test1.html");
+        assertEquals(2, warmup.getCompiledTemplates());
+        assertEquals(1, warmup.getFailures());
+        assertEquals(0, warmup.getRenderedRequests());
+        assertTrue("The warm-up didn't finish", warmup.isReady());
+    }
+
+    @Test
+    public void testSampleRequests()
+    throws IOException, ServletException, URISyntaxException
+    {
+        Warmup warmup =
+            new Warmup(
+                mockProcessor, mockServletContext, false,
+                Arrays.asList("/tests/test1.html?id=1", "/tests/test2.html?name=A+Book&year=2017"),
+                3);
+
+        warmup.run();
+        ArgumentCaptor<HttpServletRequest> requests =
+            ArgumentCaptor.forClass(HttpServletRequest.class);
+        verify(mockProcessor, times(6)).processRequest(
+            requests.capture(), any(HttpServletResponse.class));
+        verify(mockProcessor, never()).loadTemplate(any(ServletContext.class), anyString());
+        HttpServletRequest request = requests.getAllValues().get(1);
+        assertEquals("GET", request.getMethod());
+        assertEquals("/tests/test2.html", request.getPathInfo());
+        assertEquals("A Book", request.getParameter("name"));
+        assertEquals("2017", request.getParameter("year"));
+        assertNull(request.getParameter("author"));
+        assertNull(request.getHeader("If-None-Match"));
+        assertEquals(6, warmup.getRenderedRequests());
+        assertTrue("The warm-up didn't finish", warmup.isReady());
+    }
+
+    @Test
+    public void testRenderTemplatesByDefault()
+    throws IOException, ServletException
+    {
+        doThrow(new ServletException()).when(mockProcessor).processRequest(
+            any(HttpServletRequest.class), any(HttpServletResponse.class));
+        Warmup warmup =
+            new Warmup(mockProcessor, mockServletContext, false, Collections.emptyList(), 2);
+
+        warmup.run();
+        ArgumentCaptor<HttpServletRequest> requests =
+            ArgumentCaptor.forClass(HttpServletRequest.class);
+        verify(mockProcessor, times(6)).processRequest(
+            requests.capture(), any(HttpServletResponse.class));
+        assertEquals("/tests/test1.html", requests.getAllValues().get(1).getPathInfo());
+        assertEquals(6, warmup.getFailures());
+        assertTrue("The warm-up didn't finish", warmup.isReady());
+    }
+
+    @Test
+    public void testNothingToDo()
+    {
+        Warmup warmup =
+            new Warmup(mockProcessor, mockServletContext, false, Collections.emptyList(), 0);
+        assertFalse(warmup.isReady());
+
+        warmup.start();
+        assertTrue("The warm-up is not ready", warmup.isReady());
+        verify(mockServletContext, never()).getResourcePaths(anyString());
+    }
+
+    @Test
+    public void testStartInBackground()
+    throws InterruptedException, IOException, URISyntaxException
+    {
+        Warmup warmup =
+            new Warmup(mockProcessor, mockServletContext, true, Collections.emptyList(), 0);
+
+        warmup.start();
+        for (int i = 0; i < 100 && !warmup.isReady(); i++)
+        {
+            Thread.sleep(50);
+        }
+
+        assertTrue("The warm-up didn't finish", warmup.isReady());
+        verify(mockProcessor, times(3)).loadTemplate(eq(mockServletContext), anyString());
+    }
+
+    @Test
+    public void testInterrupted()
+    throws IOException, URISyntaxException
+    {
+        Warmup warmup =
+            new Warmup(mockProcessor, mockServletContext, true, Collections.emptyList(), 1);
+
+        Thread.currentThread().interrupt();
+        try
+        {
+            warmup.run();
+        }
+        finally
+        {
+            Thread.interrupted();
+        }
+
+        assertFalse("An interrupted warm-up must not be ready", warmup.isReady());
+        verify(mockProcessor, never()).loadTemplate(any(ServletContext.class), anyString());
+    }
+
+    @Test
+    public void testParseQuery()
+    {
+        Map<String, String[]> parameters = Warmup.parseQuery("a=1&b=x%20y&a=2&c&&d=");
+        assertEquals(Arrays.asList("a", "b", "c", "d"), new ArrayList<>(parameters.keySet()));
+        assertArrayEquals(new String[]{"1", "2"}, parameters.get("a"));
+        assertArrayEquals(new String[]{"x y"}, parameters.get("b"));
+        assertArrayEquals(new String[]{""}, parameters.get("c"));
+        assertArrayEquals(new String[]{""}, parameters.get("d"));
+        assertTrue(Warmup.parseQuery(null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRequests()
+    {
+        new Warmup(mockProcessor, mockServletContext, false, Collections.emptyList(), -1);
+    }
+}
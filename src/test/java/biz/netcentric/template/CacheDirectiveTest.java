@@ -0,0 +1,38 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link CacheDirective} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class CacheDirectiveTest
+{
+    @Test
+    public void testParse()
+    {
+        assertDirective("person.id", 60000, "person.id; ttl=60s");
+        assertDirective("a + ';' + b", 500, "a + ';' + b; ttl=500ms");
+        assertDirective("", 120000, "ttl=2m");
+        assertDirective("", 3600000, " ttl=1h ");
+        assertDirective("", 30000, "ttl=30");
+        assertDirective("key", CacheDirective.DEFAULT_TTL_MILLIS, "key");
+        assertDirective("", CacheDirective.DEFAULT_TTL_MILLIS, "");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTtl()
+    {
+        CacheDirective.parse("key; ttl=soon");
+    }
+
+    private static void assertDirective(String keyExpression, long ttlMillis, String value)
+    {
+        CacheDirective directive = CacheDirective.parse(value);
+        assertEquals("Not expected key for " + value, keyExpression, directive.getKeyExpression());
+        assertEquals("Not expected TTL for " + value, ttlMillis, directive.getTtlMillis());
+    }
+}
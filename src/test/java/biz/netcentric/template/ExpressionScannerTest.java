@@ -0,0 +1,92 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ExpressionScanner} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ExpressionScannerTest
+{
+    @Test
+    public void testScanExpressions()
+    {
+        assertEquals(
+            "Not expected tokens", Arrays.asList("text:<p>", "expr:a", "text: and ", "expr:b",
+                "text:</p>"),
+            scan("<p>${a} and ${b}</p>"));
+    }
+
+    @Test
+    public void testScanNestedBraces()
+    {
+        assertEquals(
+            "Not expected tokens", Arrays.asList("expr:{a: {b: 1}}.a.b", "text:!"),
+            scan("${{a: {b: 1}}.a.b}!"));
+    }
+
+    @Test
+    public void testScanBracesInsideStrings()
+    {
+        assertEquals(
+            "Not expected tokens",
+            Arrays.asList("expr:'}' + \"${\" + `{`", "text: ", "expr:x == &quot;}&quot;"),
+            scan("${'}' + \"${\" + `{`} ${x == &quot;}&quot;}"));
+    }
+
+    @Test
+    public void testScanEscapedQuotes()
+    {
+        assertEquals("Not expected tokens", Arrays.asList("expr:'\\'}'"), scan("${'\\'}'}"));
+    }
+
+    @Test
+    public void testScanUnclosedExpression()
+    {
+        assertEquals(
+            "Not expected tokens", Arrays.asList("expr:a", "text:<p>${b</p>"),
+            scan("${a}<p>${b</p>"));
+    }
+
+    @Test
+    public void testScanUnclosedExpressionBeforeExpressions()
+    {
+        assertEquals(
+            "Not expected tokens",
+            Arrays.asList(
+                "text:<p>Type ${ to open</p><h1>", "expr:person.name", "text:</h1><p>",
+                "expr:person.spouse", "text:</p>"),
+            scan("<p>Type ${ to open</p><h1>${person.name}</h1><p>${person.spouse}</p>"));
+        assertEquals(
+            "Not expected tokens", Arrays.asList("text:It's ${ here: ", "expr:a"),
+            scan("It's ${ here: ${a}"));
+    }
+
+    private List<String> scan(String source)
+    {
+        List<String> tokens = new ArrayList<>();
+        ExpressionScanner.scan(
+            source,
+            new ExpressionScanner.Handler()
+            {
+                @Override
+                public void text(String text, int start, int end)
+                {
+                    tokens.add("text:" + text.substring(start, end));
+                }
+
+                @Override
+                public void expression(String text, int start, int end)
+                {
+                    tokens.add("expr:" + text.substring(start, end));
+                }
+            });
+        return tokens;
+    }
+}
@@ -0,0 +1,208 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link OutputCache} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class OutputCacheTest
+{
+    private static final long TEST_TTL = 60000;
+    private static final byte[] TEST_OUTPUT = "<p>Erik</p>".getBytes(StandardCharsets.UTF_8);
+    private static final long TEST_MAX_BYTES = 2 * OutputCache.weigh("a", new byte[40]) + 50;
+
+    private OutputCache testInstance;
+    private AtomicInteger renderings;
+
+    @Before
+    public void setUp()
+    {
+        testInstance = new OutputCache(TEST_MAX_BYTES);
+        renderings = new AtomicInteger();
+    }
+
+    @Test
+    public void testGet()
+    throws IOException
+    {
+        assertSame("Not rendered", TEST_OUTPUT, testInstance.get("key", TEST_TTL, this::render));
+        assertSame("Not cached", TEST_OUTPUT, testInstance.get("key", TEST_TTL, this::render));
+
+        assertEquals("Not expected renderings", 1, renderings.get());
+        assertEquals("Not expected hits", 1, testInstance.getHitCount());
+        assertEquals("Not expected misses", 1, testInstance.getMissCount());
+        assertEquals(
+            "Not expected bytes", OutputCache.weigh("key", TEST_OUTPUT), testInstance.getBytes());
+        assertEquals("Not expected hit rate", 0.5, testInstance.getHitRate(), 0);
+    }
+
+    @Test
+    public void testExpiration()
+    throws IOException, InterruptedException
+    {
+        testInstance.get("key", 1, this::render);
+        Thread.sleep(5);
+        testInstance.get("key", 1, this::render);
+
+        assertEquals("Expired output served", 2, renderings.get());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed()
+    throws IOException
+    {
+        testInstance.get("a", TEST_TTL, () -> new byte[40]);
+        testInstance.get("b", TEST_TTL, () -> new byte[40]);
+        testInstance.get("a", TEST_TTL, this::render);
+        testInstance.get("c", TEST_TTL, () -> new byte[40]);
+
+        assertEquals("Not expected size", 2, testInstance.size());
+        assertEquals(
+            "Not expected bytes", 2 * OutputCache.weigh("a", new byte[40]),
+            testInstance.getBytes());
+        assertEquals("Not expected evictions", 1, testInstance.getEvictionCount());
+        testInstance.get("a", TEST_TTL, this::render);
+        testInstance.get("b", TEST_TTL, this::render);
+        assertEquals("Not expected renderings", 1, renderings.get());
+    }
+
+    @Test
+    public void testNotCached()
+    throws IOException
+    {
+        testInstance.get("big", TEST_TTL, () -> new byte[(int)TEST_MAX_BYTES]);
+        assertNull("Null output", testInstance.get("null", TEST_TTL, () -> null));
+
+        assertEquals("Output cached", 0, testInstance.size());
+        assertEquals("Not expected bytes", 0, testInstance.getBytes());
+    }
+
+    @Test
+    public void testKeysWeighed()
+    throws IOException
+    {
+        OutputCache cache = new OutputCache(1024);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            key.append('k');
+        }
+
+        for (int i = 0; i < 20000; i++)
+        {
+            cache.get(key.toString() + i, TEST_TTL, () -> new byte[0]);
+        }
+
+        assertEquals("Long keys cached", 0, cache.size());
+        assertEquals("Not expected bytes", 0, cache.getBytes());
+
+        for (int i = 0; i < 20000; i++)
+        {
+            cache.get(Integer.toString(i), TEST_TTL, () -> new byte[0]);
+        }
+
+        assertTrue("Cache not bounded", cache.getBytes() <= cache.getMaxBytes());
+        assertTrue("Empty outputs not weighed", cache.size() <= 1024 / OutputCache.ENTRY_OVERHEAD);
+        assertEquals(
+            "Not expected evictions", 20000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testSingleRenderingPerKey()
+    throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+            {
+                results.add(executor.submit(() -> testInstance.get("key", TEST_TTL, () -> {
+                    await(release);
+                    return render();
+                })));
+            }
+
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<byte[]> result : results)
+            {
+                assertArrayEquals(
+                    "Not expected output", TEST_OUTPUT, result.get(5, TimeUnit.SECONDS));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertEquals("Not expected renderings", 1, renderings.get());
+        assertEquals("Not expected hits", threads - 1, testInstance.getHitCount());
+    }
+
+    @Test
+    public void testFailedRenderingNotCached()
+    throws IOException
+    {
+        try
+        {
+            testInstance.get("key", TEST_TTL, () -> {
+                throw new IOException("Broken");
+            });
+            fail("Exception not thrown");
+        }
+        catch (IOException ioe)
+        {
+            // Expected
+        }
+
+        assertSame("Not rendered", TEST_OUTPUT, testInstance.get("key", TEST_TTL, this::render));
+        assertEquals("Not expected renderings", 1, renderings.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize()
+    {
+        new OutputCache(-1);
+    }
+
+    private byte[] render()
+    {
+        renderings.incrementAndGet();
+        return TEST_OUTPUT;
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
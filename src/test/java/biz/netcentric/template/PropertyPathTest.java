@@ -0,0 +1,218 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import biz.netcentric.entity.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.WrappedException;
+
+/**
+ * Test cases for the {@link PropertyPath} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class PropertyPathTest
+{
+    private Context context;
+    private ScriptableObject scope;
+
+    @Before
+    public void setUp()
+    {
+        context = Context.enter();
+        scope = new SharedScope(context, Collections.singletonList(Person.class.getName()))
+            .newRequestScope();
+        eval("var person = Person.lookup('2'); var text = 'Text'; var number = 1; var js = {a: 1};"
+            + " var bean = new Packages." + Bean.class.getName() + "();");
+    }
+
+    @After
+    public void tearDown()
+    {
+        Context.exit();
+    }
+
+    @Test
+    public void testParse()
+    {
+        PropertyPath path = PropertyPath.parse(" person.spouse ");
+        assertEquals("person", path.getVariable());
+        assertArrayEquals(new String[]{"spouse"}, path.getProperties());
+        assertEquals("person.spouse", path.toString());
+        assertEquals(0, PropertyPath.parse("child").getProperties().length);
+        assertEquals(2, PropertyPath.parse("$a._b.c1").getProperties().length);
+
+        for (String expression : Arrays.asList(
+            "person.name + 1", "person.getName()", "person['name']", "!person.married", "true",
+            "null", "this.person", "person.new", "person..name", "1a", "person.", ""))
+        {
+            assertNull("Parsed " + expression, PropertyPath.parse(expression));
+        }
+    }
+
+    @Test
+    public void testSameResultAsRhino()
+    {
+        for (String expression : Arrays.asList(
+            "person", "person.name", "person.married", "person.children", "person.name.empty",
+            "text", "number", "bean.price", "bean.amount", "bean.initial", "bean.empty",
+            "bean.nothing", "bean.text", "bean.hidden"))
+        {
+            Object value = resolve(expression);
+            Object expected = eval(expression);
+            assertNotSame("Not resolved " + expression, PropertyPath.UNRESOLVED, value);
+            assertEquals(
+                "Different text for " + expression,
+                RenderContext.toText(expected),
+                RenderContext.toText(value));
+            assertEquals(
+                "Different value for " + expression,
+                RenderContext.unwrap(expected),
+                RenderContext.unwrap(value));
+        }
+    }
+
+    @Test
+    public void testUnresolved()
+    {
+        for (String expression : Arrays.asList(
+            "missing", "missing.name", "text.length", "number.value", "js.a", "Person.name",
+            "person.name.length", "person.Name", "person.toString", "bean.nothing.length",
+            "bean.field", "bean.amount.value", "bean.hidden.name", "bean.uRL",
+            "bean.price.value.x"))
+        {
+            assertSame(
+                "Resolved " + expression, PropertyPath.UNRESOLVED, resolve(expression));
+        }
+    }
+
+    @Test
+    public void testBooleanProperty()
+    {
+        assertEquals(Boolean.TRUE, resolve("person.married"));
+        eval("person = Person.lookup('1')");
+        assertEquals(Boolean.FALSE, resolve("person.married"));
+    }
+
+    @Test
+    public void testLoopScope()
+    {
+        ScriptableObject loopScope = (ScriptableObject)context.newObject(scope);
+        loopScope.setPrototype(scope);
+        loopScope.setParentScope(null);
+        loopScope.put("child", loopScope, "Child 0");
+
+        assertEquals("Child 0", PropertyPath.parse("child").resolve(context, loopScope));
+        assertEquals("Erik", PropertyPath.parse("person.name").resolve(context, loopScope));
+    }
+
+    @Test(expected = WrappedException.class)
+    public void testGetterException()
+    {
+        resolve("bean.failure");
+    }
+
+    @Test
+    public void testFindGetter()
+    {
+        assertTrue(PropertyPath.findGetter(Person.class, "name").isResolved());
+        assertTrue(PropertyPath.findGetter(Person.class, "married").isResolved());
+        assertFalse(PropertyPath.findGetter(Person.class, "age").isResolved());
+        assertFalse(PropertyPath.findGetter(Hidden.class, "name").isResolved());
+        assertFalse(PropertyPath.findGetter(String[].class, "length").isResolved());
+    }
+
+    private Object resolve(String expression)
+    {
+        return PropertyPath.parse(expression).resolve(context, scope);
+    }
+
+    private Object eval(String code)
+    {
+        return context.evaluateString(scope, code, "<test>", 1, null);
+    }
+
+    /**
+     * Bean with properties of every kind of type.
+     */
+    public static class Bean
+    {
+        private static final StringBuilder TEXT = new StringBuilder("builder");
+        private static final Hidden HIDDEN = new Hidden();
+
+        public String field = "field";
+
+        public Double getPrice()
+        {
+            return 1d;
+        }
+
+        public double getAmount()
+        {
+            return 2d;
+        }
+
+        public char getInitial()
+        {
+            return 'J';
+        }
+
+        public boolean isEmpty()
+        {
+            return true;
+        }
+
+        public String getNothing()
+        {
+            return null;
+        }
+
+        public StringBuilder getText()
+        {
+            return TEXT;
+        }
+
+        public String getField()
+        {
+            return "getter";
+        }
+
+        public String getURL()
+        {
+            return "url";
+        }
+
+        public Hidden getHidden()
+        {
+            return HIDDEN;
+        }
+
+        public String getFailure()
+        {
+            throw new IllegalStateException("Failure");
+        }
+    }
+
+    /**
+     * Bean whose class is not public.
+     */
+    static class Hidden
+    {
+        public String getName()
+        {
+            return "hidden";
+        }
+    }
+}
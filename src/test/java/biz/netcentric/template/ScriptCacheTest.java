@@ -0,0 +1,92 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Test cases for the {@link ScriptCache} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class ScriptCacheTest
+{
+    private static final String TEST_PATH = "/index.html";
+    private static final String TEST_OTHER_PATH = "/tests/test1.html";
+    private static final String TEST_SOURCE = "1 + 2";
+
+    private Context context;
+
+    @Before
+    public void setUp()
+    {
+        context = Context.enter();
+    }
+
+    @After
+    public void tearDown()
+    {
+        Context.exit();
+    }
+
+    @Test
+    public void testScriptCompiledOnlyOnce()
+    {
+        ScriptCache cache = new ScriptCache(4);
+        Script script = cache.get(context, TEST_PATH, TEST_SOURCE);
+
+        assertSame("Not expected script", script, cache.get(context, TEST_PATH, TEST_SOURCE));
+        assertSame("Not expected script", script, cache.get(context, TEST_PATH, TEST_SOURCE));
+        assertEquals("Not expected compilations", 1, cache.getCompileCount());
+        assertEquals("Not expected hits", 2, cache.getHitCount());
+        assertEquals("Not expected hit rate", 2 / 3.0, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testScriptsKeyedByTemplate()
+    {
+        ScriptCache cache = new ScriptCache(4);
+
+        assertNotSame(
+            "Not expected script",
+            cache.get(context, TEST_PATH, TEST_SOURCE),
+            cache.get(context, TEST_OTHER_PATH, TEST_SOURCE));
+        assertEquals("Not expected compilations", 2, cache.getCompileCount());
+    }
+
+    @Test
+    public void testOldestScriptEvicted()
+    {
+        ScriptCache cache = new ScriptCache(2);
+        Script script = cache.get(context, TEST_PATH, "1");
+        cache.get(context, TEST_PATH, "2");
+        cache.get(context, TEST_PATH, "3");
+
+        assertEquals("Not expected size", 2, cache.size());
+        assertEquals("Not expected evictions", 1, cache.getEvictionCount());
+        assertNotSame("Not expected script", script, cache.get(context, TEST_PATH, "1"));
+    }
+
+    @Test
+    public void testExecuteScript()
+    {
+        ScriptCache cache = new ScriptCache(4);
+        ScriptableObject scope = new ImporterTopLevel(context);
+
+        assertEquals(
+            "Not expected result", 3, Context.toNumber(
+                cache.exec(context, scope, TEST_PATH, TEST_SOURCE)), 0);
+        assertEquals(
+            "Not expected result", 3, Context.toNumber(
+                cache.exec(context, scope, TEST_PATH, TEST_SOURCE)), 0);
+        assertEquals("Not expected compilations", 1, cache.getCompileCount());
+    }
+}
@@ -0,0 +1,114 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import biz.netcentric.entity.Book;
+import biz.netcentric.entity.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.NativeJavaClass;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Test cases for the {@link SharedScope} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class SharedScopeTest
+{
+    private Context context;
+    private SharedScope testInstance;
+
+    @Before
+    public void setUp()
+    {
+        context = Context.enter();
+        testInstance =
+            new SharedScope(context, Arrays.asList(Person.class.getName(), "java.util.*"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        Context.exit();
+    }
+
+    @Test
+    public void testPreloadedImports()
+    {
+        ScriptableObject scope = testInstance.newRequestScope();
+
+        assertEquals("Not expected class", Person.class, unwrapClass(eval(scope, "Person")));
+        assertEquals(
+            "Not expected package import", "[]", Context.toString(eval(scope, "new ArrayList()")));
+    }
+
+    @Test
+    public void testImportPreloadedClass()
+    {
+        ScriptableObject scope = testInstance.newRequestScope();
+        eval(scope, "importClass(Packages.biz.netcentric.entity.Person)");
+
+        assertFalse("Class imported again", scope.has("Person", scope));
+        assertEquals(
+            "Not expected result",
+            "Erik",
+            Context.toString(eval(scope, "Person.lookup('2').name")));
+    }
+
+    @Test
+    public void testImportClassInRequestScope()
+    {
+        ScriptableObject scope1 = testInstance.newRequestScope();
+        ScriptableObject scope2 = testInstance.newRequestScope();
+        eval(scope1, "importClass(Packages.biz.netcentric.entity.Book)");
+
+        assertEquals("Not expected class", Book.class, unwrapClass(eval(scope1, "Book")));
+        assertFalse("Class leaked", ScriptableObject.hasProperty(scope2, "Book"));
+        assertFalse("Class leaked", ScriptableObject.hasProperty(testInstance.getScope(), "Book"));
+    }
+
+    @Test
+    public void testRequestVariablesIsolated()
+    {
+        ScriptableObject scope1 = testInstance.newRequestScope();
+        ScriptableObject scope2 = testInstance.newRequestScope();
+        eval(scope1, "var id = 1; undeclared = 2");
+
+        assertTrue("Variable not defined", scope1.has("id", scope1));
+        assertFalse("Variable leaked", ScriptableObject.hasProperty(scope2, "id"));
+        assertFalse("Variable leaked", ScriptableObject.hasProperty(scope2, "undeclared"));
+        assertSame("Not expected prototype", testInstance.getScope(), scope1.getPrototype());
+    }
+
+    @Test(expected = EvaluatorException.class)
+    public void testSharedScopeSealed()
+    {
+        eval(testInstance.newRequestScope(), "Object.prototype.leak = 1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreloadMissingClass()
+    {
+        new SharedScope(context, Collections.singletonList("biz.netcentric.Missing"));
+    }
+
+    private Object eval(Scriptable scope, String code)
+    {
+        return context.evaluateString(scope, code, "test", 1, null);
+    }
+
+    private Class<?> unwrapClass(Object value)
+    {
+        return ((NativeJavaClass)value).getClassObject();
+    }
+}
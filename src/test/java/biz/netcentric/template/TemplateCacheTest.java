@@ -0,0 +1,197 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the {@link TemplateCache} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateCacheTest
+{
+    private static final String TEST_PATH = "/index.html";
+    private static final String TEST_OTHER_PATH = "/tests/test1.html";
+    private static final String TEST_HTML = "<html><body><h1>${person.name}</h1></body></html>";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TemplateCompiler compiler;
+
+    @Before
+    public void setUp()
+    {
+        compiler = spy(new TemplateCompiler());
+    }
+
+    @Test
+    public void testTemplateCompiledOnlyOnce()
+    throws IOException
+    {
+        File file = createFile("index.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+
+        Template template = cache.get(TEST_PATH, file);
+
+        assertSame("Not expected template", template, cache.get(TEST_PATH, file));
+        assertEquals("Not expected path", TEST_PATH, template.getPath());
+        verify(compiler, times(1)).compile(eq(TEST_PATH), any(byte[].class), anyLong());
+        assertCounters(cache, 1, 1, 0);
+    }
+
+    @Test
+    public void testTemplateCompiledAgainWhenFileChanges()
+    throws IOException
+    {
+        File file = createFile("index.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+        Template template = cache.get(TEST_PATH, file);
+
+        Files.write(file.toPath(), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(file.lastModified() + 2000);
+
+        assertNotSame("Not expected template", template, cache.get(TEST_PATH, file));
+        assertCounters(cache, 0, 2, 0);
+    }
+
+    @Test
+    public void testTemplateNotCompiledWhenOnlyModificationTimeChanges()
+    throws IOException
+    {
+        File file = createFile("index.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+        Template template = cache.get(TEST_PATH, file);
+
+        file.setLastModified(file.lastModified() + 2000);
+
+        assertSame("Not expected template", template, cache.get(TEST_PATH, file));
+        assertCounters(cache, 1, 1, 0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTemplateEvicted()
+    throws IOException
+    {
+        File file1 = createFile("index.html", TEST_HTML);
+        File file2 = createFile("test1.html", TEST_HTML);
+        File file3 = createFile("test2.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+
+        Template template1 = cache.get(TEST_PATH, file1);
+        cache.get(TEST_OTHER_PATH, file2);
+        cache.get(TEST_PATH, file1);
+        cache.get("/tests/test2.html", file3);
+
+        assertEquals("Not expected size", 2, cache.size());
+        assertSame("Not expected template", template1, cache.get(TEST_PATH, file1));
+        cache.get(TEST_OTHER_PATH, file2);
+        assertCounters(cache, 2, 4, 2);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingFile()
+    throws IOException
+    {
+        new TemplateCache(compiler, 2).get(TEST_PATH, new File(temporaryFolder.getRoot(), "none"));
+    }
+
+    @Test
+    public void testGetIfPresent()
+    throws IOException
+    {
+        File file = createFile("index.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+
+        assertNull("Template not compiled yet", cache.getIfPresent(TEST_PATH));
+        Template template = cache.get(TEST_PATH, file);
+        assertSame("Not expected template", template, cache.getIfPresent(TEST_PATH));
+        assertCounters(cache, 1, 1, 0);
+    }
+
+    @Test
+    public void testReload()
+    throws IOException
+    {
+        File file = createFile("index.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+        Template template = cache.get(TEST_PATH, file);
+
+        assertFalse("Unchanged template reloaded", cache.reload(TEST_PATH, file));
+        assertSame("Not expected template", template, cache.getIfPresent(TEST_PATH));
+
+        Files.write(file.toPath(), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        assertTrue("Template not reloaded", cache.reload(TEST_PATH, file));
+        assertNotSame("Template not replaced", template, cache.getIfPresent(TEST_PATH));
+        assertFalse("Missing template reloaded", cache.reload(TEST_OTHER_PATH, file));
+        assertEquals("Not expected reloads", 1, cache.getReloadCount());
+    }
+
+    @Test
+    public void testReloadFailureKeepsTemplate()
+    throws IOException
+    {
+        File file = createFile("index.html", TEST_HTML);
+        TemplateCache cache = new TemplateCache(compiler, 2);
+        Template template = cache.get(TEST_PATH, file);
+
+        Files.write(
+            file.toPath(), "<p data-cache=\"ttl=soon\">Text</p>".getBytes(StandardCharsets.UTF_8));
+        try
+        {
+            cache.reload(TEST_PATH, file);
+            fail("Invalid template compiled");
+        }
+        catch (IllegalArgumentException iae)
+        {
+            assertSame("Template replaced", template, cache.getIfPresent(TEST_PATH));
+            assertEquals("Failure not recorded", 1, cache.getReloadFailureCount());
+        }
+    }
+
+    @Test
+    public void testRemove()
+    throws IOException
+    {
+        TemplateCache cache = new TemplateCache(compiler, 2);
+        cache.get(TEST_PATH, createFile("index.html", TEST_HTML));
+        cache.remove(TEST_PATH);
+
+        assertNull("Template not removed", cache.getIfPresent(TEST_PATH));
+    }
+
+    private File createFile(String name, String content)
+    throws IOException
+    {
+        File file = temporaryFolder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private void assertCounters(TemplateCache cache, long hits, long misses, long evictions)
+    {
+        assertEquals("Not expected hits", hits, cache.getHitCount());
+        assertEquals("Not expected misses", misses, cache.getMissCount());
+        assertEquals("Not expected evictions", evictions, cache.getEvictionCount());
+    }
+}
@@ -0,0 +1,375 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import biz.netcentric.entity.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Test cases for the {@link TemplateCompiler} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateCompilerTest
+{
+    private static final String TEST_PATH = "/index.html";
+    private static final String TEST_SCRIPT = "var person = {name: 'Erik', married: true}";
+
+    private TemplateCompiler testInstance;
+    private Context context;
+    private ScriptableObject scope;
+
+    @Before
+    public void setUp()
+    {
+        testInstance = new TemplateCompiler();
+        context = Context.enter();
+        scope = new ImporterTopLevel(context);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Context.exit();
+    }
+
+    @Test
+    public void testCompileScript()
+    {
+        Template template =
+            compile("<script type=\"server/javascript\">" + TEST_SCRIPT + "</script><p>Text</p>");
+
+        assertEquals("Not expected script", TEST_SCRIPT, template.getScript());
+        assertEquals("Not expected path", TEST_PATH, template.getPath());
+    }
+
+    @Test
+    public void testCompileVaryParameters()
+    throws IOException
+    {
+        String html =
+            "<script type=\"server/javascript\" data-vary=\" id, ,name \">" + TEST_SCRIPT
+                + "</script><p>Text</p>";
+
+        assertEquals("Not expected parameters", Arrays.asList("id", "name"),
+            compile(html).getVaryParameters());
+        assertFalse("Attribute left in the output", render(html).contains("data-vary"));
+        assertNull("Parameters without attribute",
+            compile("<p>Text</p>").getVaryParameters());
+    }
+
+    @Test
+    public void testCompilePageCacheTtl()
+    throws IOException
+    {
+        String html =
+            "<html data-cache=\"ttl=2m\"><script type=\"server/javascript\" data-vary=\"id\">"
+                + TEST_SCRIPT + "</script><p>Text</p></html>";
+
+        assertEquals("Not expected TTL", 120000, compile(html).getPageCacheTtlMillis());
+        assertFalse("Attribute left in the output", render(html).contains("data-cache"));
+        assertEquals(
+            "Page cached without parameters", 0,
+            compile("<html data-cache=\"ttl=2m\"><p>Text</p></html>").getPageCacheTtlMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompilePageCacheKey()
+    {
+        compile("<html data-cache=\"person.id; ttl=2m\"><p>Text</p></html>");
+    }
+
+    @Test
+    public void testRenderExpressions()
+    throws IOException
+    {
+        scope.put("person", scope, new Person("Erik", "Dora", true, 0));
+        String html = render("<h1 title=\"${person.name}\">${person.name} ${person.spouse}</h1>");
+
+        assertTrue("Expression not rendered", html.contains("<h1 title=\"Erik\">Erik Dora</h1>"));
+        assertFalse("Expression left in the output", html.contains("${"));
+    }
+
+    @Test
+    public void testRenderIfExpressions()
+    throws IOException
+    {
+        context.evaluateString(scope, "var yes = true, no = false", "test", 1, null);
+        String html = render("<h1 data-if=\"yes\">Shown</h1><h2 data-if=\"no\">Hidden</h2>");
+
+        assertTrue("Element not rendered", html.contains("<h1>Shown</h1>"));
+        assertFalse("Element rendered", html.contains("Hidden"));
+        assertFalse("Attribute left in the output", html.contains("data-if"));
+    }
+
+    @Test
+    public void testRenderForExpressions()
+    throws IOException
+    {
+        scope.put("person", scope, new Person("Erik", "Dora", true, 2));
+        String html = render("<div data-for-child=\"person.children\">Child: ${child}</div>");
+
+        assertEquals("Not expected number of elements", 2, html.split("<div>").length - 1);
+        assertTrue("First element not rendered", html.contains("Child: Child 0"));
+        assertTrue("Second element not rendered", html.contains("Child: Child 1"));
+        assertFalse("Attribute left in the output", html.contains("data-for"));
+    }
+
+    @Test
+    public void testRenderForItemProperties()
+    throws IOException
+    {
+        scope.put(
+            "people", scope,
+            Arrays.asList(
+                new Person("Erik", "Dora", true, 2), new Person("Kerstin", "", false, 0)));
+        String html =
+            render("<p data-for-person=\"people\" data-if=\"true\">${person.name}: "
+                + "<i data-if=\"person.married\">${person.spouse}</i></p>");
+
+        assertTrue("First item not rendered", html.contains("<p>Erik: <i>Dora</i></p>"));
+        assertTrue("Second item not rendered", html.contains("<p>Kerstin: </p>"));
+    }
+
+    @Test
+    public void testRenderNestedForShadowing()
+    throws IOException
+    {
+        context.evaluateString(scope, "var x = 'outer'", "test", 1, null);
+        scope.put("items", scope, Arrays.asList("a", "b"));
+        String html =
+            render("<p data-for-x=\"items\"><b data-for-x=\"items\">${x}</b>${x}</p>${x}");
+
+        assertTrue("Not expected result", html.contains("<p><b>a</b><b>b</b>a</p>"));
+        assertTrue("Not expected result", html.contains("<p><b>a</b><b>b</b>b</p>outer"));
+    }
+
+    @Test
+    public void testRenderForSources()
+    throws IOException
+    {
+        String template = "<i data-for-x=\"items\">${x}</i>";
+        context.evaluateString(scope, "var items = [1, 'two', , 4]", "test", 1, null);
+        assertTrue(
+            "Javascript array",
+            renderCompact(template).contains("<i>1</i><i>two</i><i>undefined</i><i>4</i>"));
+
+        scope.put("items", scope, new int[]{1, 2});
+        assertTrue("Java array", renderCompact(template).contains("<i>1</i><i>2</i>"));
+
+        scope.put("items", scope, Arrays.asList("a", "b").iterator());
+        assertTrue("Iterator", renderCompact(template).contains("<i>a</i><i>b</i>"));
+
+        boolean[] closed = new boolean[1];
+        scope.put(
+            "items", scope, Stream.iterate(1, i -> i + 1).limit(3).onClose(() -> closed[0] = true));
+        assertTrue("Stream", renderCompact(template).contains("<i>1</i><i>2</i><i>3</i>"));
+        assertTrue("Stream not closed", closed[0]);
+
+        scope.put("items", scope, null);
+        assertFalse("Null", render(template).contains("<i>"));
+    }
+
+    @Test(expected = EvaluatorException.class)
+    public void testRenderForNotIterable()
+    throws IOException
+    {
+        scope.put("items", scope, new Person());
+        render("<i data-for-x=\"items\">${x}</i>");
+    }
+
+    @Test
+    public void testRenderForInsideIf()
+    throws IOException
+    {
+        String template =
+            "<div data-if=\"person.married\"><div data-for-child=\"person.children\">${child}"
+                + "</div></div>";
+        scope.put("person", scope, new Person("Erik", "Dora", true, 3));
+        String married = render(template);
+        scope.put("person", scope, new Person("Kerstin", "Jose", false, 1));
+        String single = render(template);
+
+        assertTrue("Loop not rendered", married.contains("Child 2"));
+        assertFalse("Loop rendered", single.contains("Child"));
+    }
+
+    @Test
+    public void testRenderEscapedExpression()
+    throws IOException
+    {
+        assertTrue("Not expected result", render("<p>${1 < 2}</p>").contains("<p>true</p>"));
+    }
+
+    @Test
+    public void testRenderExpressionWithBraces()
+    throws IOException
+    {
+        String html = render("<p title=\"${({a: &quot;}&quot;}).a}\">${'${' + '}'}</p>");
+
+        assertTrue("Not expected result", html.contains("<p title=\"}\">${}</p>"));
+    }
+
+    @Test
+    public void testFlushAfterHead()
+    throws IOException
+    {
+        FlushRecorder out = new FlushRecorder();
+        compile("<html><head><title>Title</title></head><body>Body</body></html>").render(
+            new RenderContext(context, scope, new ScriptCache(16), TEST_PATH, out));
+
+        assertEquals("Not expected number of flushes", 1, out.flushes.size());
+        assertTrue(
+            "Not flushed after the head",
+            out.flushes.get(0).endsWith(TemplateCompiler.FLUSH_AFTER));
+        assertTrue("Body not rendered", out.text.toString().contains("Body"));
+    }
+
+    @Test
+    public void testRenderCachedElement()
+    throws IOException
+    {
+        String html =
+            "<ul data-cache=\"ttl=1h\"><li data-for-child=\"person.children\">${child}</li></ul>"
+                + "<p data-cache=\"person.name\">${person.name}</p><p>${person.spouse}</p>";
+        Template template = compile(html);
+        OutputCache cache = new OutputCache(OutputCache.DEFAULT_MAX_BYTES);
+        scope.put("person", scope, new Person("Erik", "Dora", true, 3));
+        String first = render(template, cache);
+        scope.put("person", scope, new Person("Kerstin", "Jose", true, 1));
+        String second = render(template, cache);
+
+        assertFalse("Attribute left in the output", first.contains("data-cache"));
+        assertTrue("Cached loop not reused", second.contains("Child 2"));
+        assertTrue("Key expression ignored", second.contains("<p>Kerstin</p>"));
+        assertTrue("Uncached element not rendered", second.contains("<p>Jose</p>"));
+        assertEquals("Not expected number of entries", 3, cache.size());
+        assertEquals("Not expected number of hits", 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testRenderCachedElementWithoutCache()
+    throws IOException
+    {
+        Template template = compile("<p data-cache=\"ttl=1h\">${person.name}</p>");
+        scope.put("person", scope, new Person("Erik", "Dora", true, 3));
+        render(template, null);
+        scope.put("person", scope, new Person("Kerstin", "Jose", true, 1));
+
+        assertTrue("Not rendered again", render(template, null).contains("<p>Kerstin</p>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileCachedElementInvalidTtl()
+    {
+        compile("<p data-cache=\"ttl=soon\">Text</p>");
+    }
+
+    @Test
+    public void testCompileMarkerLikeComments()
+    throws IOException
+    {
+        scope.put("person", scope, new Person("Erik", "Dora", true, 0));
+        String html =
+            "<p>Intro</p><!--slightly:0--><p data-if=\"person.married\">Married</p><!--/slightly:0-->"
+                + "<!--/slightly:1--><div data-for-n=\"[1, 2]\">${n}</div><!--slightly:1-->";
+        String rendered = renderCompact(html);
+
+        assertTrue("Comment removed", rendered.contains("<!--slightly:0--><p>Married</p>"));
+        assertTrue("Comment removed", rendered.contains("<!--/slightly:0--><!--/slightly:1-->"));
+        assertTrue(
+            "Loop not rendered", rendered.contains("<div>1</div><div>2</div><!--slightly:1-->"));
+    }
+
+    @Test
+    public void testNewMarker()
+    {
+        String source = "<!--slightly:0--><p>Text</p>";
+        String marker = TemplateCompiler.newMarker(source);
+
+        assertTrue("Not expected marker", marker.startsWith(TemplateCompiler.MARKER_START));
+        assertFalse("Marker found in the source", source.contains(marker));
+        assertFalse("Marker reused", marker.equals(TemplateCompiler.newMarker(source)));
+    }
+
+    private Template compile(String html)
+    {
+        return testInstance.compile(TEST_PATH, html.getBytes(StandardCharsets.UTF_8), 0L);
+    }
+
+    private String render(String html)
+    throws IOException
+    {
+        StringBuilder out = new StringBuilder();
+        compile(html).render(
+            new RenderContext(context, scope, new ScriptCache(16), TEST_PATH, out));
+        return out.toString();
+    }
+
+    private String render(Template template, OutputCache cache)
+    throws IOException
+    {
+        StringBuilder out = new StringBuilder();
+        template.render(
+            new RenderContext(context, scope, new ScriptCache(16), TEST_PATH, out, cache));
+        return out.toString();
+    }
+
+    private String renderCompact(String html)
+    throws IOException
+    {
+        return render(html).replaceAll("\\s", "");
+    }
+
+    /**
+     * Output that records the text written before every flush.
+     */
+    private static final class FlushRecorder implements Appendable, Flushable
+    {
+        private final StringBuilder text = new StringBuilder();
+        private final List<String> flushes = new ArrayList<>();
+
+        @Override
+        public Appendable append(CharSequence csq)
+        {
+            text.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end)
+        {
+            text.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c)
+        {
+            text.append(c);
+            return this;
+        }
+
+        @Override
+        public void flush()
+        {
+            flushes.add(text.toString());
+        }
+    }
+}
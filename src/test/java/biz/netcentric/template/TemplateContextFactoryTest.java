@@ -0,0 +1,170 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+
+/**
+ * Test cases for the {@link TemplateContextFactory} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateContextFactoryTest
+{
+    @Test
+    public void testInterpretedMode()
+    {
+        TemplateContextFactory factory = new TemplateContextFactory(-1, Context.VERSION_1_8);
+        Context context = factory.enterContext();
+        try
+        {
+            assertTrue("Not interpreted", factory.isInterpreted());
+            assertEquals("Not expected level", -1, context.getOptimizationLevel());
+            assertEquals("Not expected version", Context.VERSION_1_8, context.getLanguageVersion());
+            assertSame("Not expected factory", factory, context.getFactory());
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void testCompiledModeFromSeveralThreads()
+    throws Exception
+    {
+        TemplateContextFactory factory =
+            new TemplateContextFactory(9, TemplateContextFactory.DEFAULT_LANGUAGE_VERSION);
+        Callable<Integer> task = () -> {
+            Context context = factory.enterContext();
+            try
+            {
+                return context.getOptimizationLevel();
+            }
+            finally
+            {
+                Context.exit();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            for (Future<Integer> level : executor.invokeAll(Collections.nCopies(4, task)))
+            {
+                assertEquals("Not expected level", 9, level.get().intValue());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertFalse("Interpreted", factory.isInterpreted());
+        assertTrue("Not sealed", factory.isSealed());
+    }
+
+    @Test
+    public void testInstructionBudget()
+    {
+        for (int optimizationLevel : new int[]{-1, 0, 9})
+        {
+            TemplateContextFactory factory =
+                new TemplateContextFactory(
+                    optimizationLevel, TemplateContextFactory.DEFAULT_LANGUAGE_VERSION, 100000,
+                    TemplateContextFactory.UNLIMITED);
+            assertEquals(
+                "Not expected result", 500500.0,
+                Context.toNumber(evaluate(factory, "var s = 0; for (var i = 1; i <= 1000; i++) "
+                    + "{ s += i; } s")), 0);
+            assertAborted(factory, "try { while (true) {} } catch (e) {} 'done'");
+        }
+    }
+
+    @Test
+    public void testTimeLimit()
+    {
+        TemplateContextFactory factory =
+            new TemplateContextFactory(
+                TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL,
+                TemplateContextFactory.DEFAULT_LANGUAGE_VERSION, TemplateContextFactory.UNLIMITED,
+                50);
+        assertTrue("Not limited", factory.isLimited());
+        assertAborted(factory, "while (true) {}");
+    }
+
+    @Test
+    public void testUnlimited()
+    {
+        TemplateContextFactory factory =
+            new TemplateContextFactory(
+                TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL,
+                TemplateContextFactory.DEFAULT_LANGUAGE_VERSION);
+        Context context = factory.enterContext();
+        try
+        {
+            assertFalse("Limited", factory.isLimited());
+            assertEquals("Instructions observed", 0, context.getInstructionObserverThreshold());
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit()
+    {
+        new TemplateContextFactory(
+            TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL,
+            TemplateContextFactory.DEFAULT_LANGUAGE_VERSION, -1, TemplateContextFactory.UNLIMITED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOptimizationLevel()
+    {
+        new TemplateContextFactory(10, TemplateContextFactory.DEFAULT_LANGUAGE_VERSION);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLanguageVersion()
+    {
+        new TemplateContextFactory(TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL, 123);
+    }
+
+    private static Object evaluate(TemplateContextFactory factory, String code)
+    {
+        Context context = factory.enterContext();
+        try
+        {
+            return context.evaluateString(context.initStandardObjects(), code, "<test>", 1, null);
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    private static void assertAborted(TemplateContextFactory factory, String code)
+    {
+        try
+        {
+            evaluate(factory, code);
+            fail("Code not aborted in " + factory);
+        }
+        catch (BudgetExceededError bee)
+        {
+            // Expected
+        }
+    }
+}
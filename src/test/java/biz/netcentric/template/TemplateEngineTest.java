@@ -0,0 +1,202 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import biz.netcentric.entity.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mozilla.javascript.Context;
+
+/**
+ * Test cases for the {@link TemplateEngine} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateEngineTest
+{
+    private static final String TEST_TEMPLATE =
+        "<html><script type=\"server/javascript\">"
+            + "if (fail) { throw 'Failed ' + person.name; } var title = 'Page of ' + person.name"
+            + "</script><body><h1>${title}</h1><p data-if=\"person.married\">${person.spouse}</p>"
+            + "<ul data-cache=\"ttl=1h\"><li data-for-child=\"person.children\">${child}</li></ul>"
+            + "</body></html>";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ForkJoinPool pool;
+    private TemplateEngine testInstance;
+    private Template template;
+
+    @Before
+    public void setUp()
+    throws IOException
+    {
+        TemplateContextFactory contextFactory =
+            new TemplateContextFactory(
+                TemplateContextFactory.DEFAULT_OPTIMIZATION_LEVEL,
+                TemplateContextFactory.DEFAULT_LANGUAGE_VERSION);
+        SharedScope sharedScope;
+        Context context = contextFactory.enterContext();
+        try
+        {
+            sharedScope =
+                new SharedScope(context, Collections.singletonList(Person.class.getName()));
+        }
+        finally
+        {
+            Context.exit();
+        }
+
+        pool = new ForkJoinPool(4);
+        testInstance =
+            new TemplateEngine(
+                contextFactory, sharedScope, new ScriptCache(ScriptCache.DEFAULT_MAX_ENTRIES),
+                pool);
+        Path file = temporaryFolder.newFile("person.html").toPath();
+        Files.write(file, TEST_TEMPLATE.getBytes(StandardCharsets.UTF_8));
+        template = testInstance.compile(file);
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testRender()
+    throws IOException
+    {
+        StringBuilder output = new StringBuilder();
+        RenderContext renderContext =
+            testInstance.render(template, bindings(new Person("Erik", "Dora", true, 2)), output);
+        String html = output.toString();
+
+        assertTrue("Missing title", html.contains("<h1>Page of Erik</h1>"));
+        assertTrue("Missing spouse", html.contains("<p>Dora</p>"));
+        assertTrue("Missing children", html.contains("<li>Child 0</li>"));
+        assertTrue("Missing children", html.contains("<li>Child 1</li>"));
+        assertTrue("Expressions not counted", renderContext.getEvaluationCount() > 0);
+    }
+
+    @Test
+    public void testRenderAll()
+    throws InterruptedException
+    {
+        int count = 200;
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            items.add(bindings(new Person("Person " + i, "Spouse " + i, i % 2 == 0, i % 3)));
+        }
+
+        Map<Long, String> pages = new ConcurrentHashMap<>();
+        TemplateEngine.Result result =
+            testInstance.renderAll(template, items, RenderSink.toMap(pages));
+
+        assertEquals(count, result.getRendered());
+        assertEquals(0, result.getFailed());
+        assertEquals(count, pages.size());
+        for (int i = 0; i < count; i++)
+        {
+            String html = pages.get((long)i);
+            assertTrue("Wrong page " + i, html.contains("<h1>Page of Person " + i + "</h1>"));
+            assertEquals("Wrong spouse " + i, i % 2 == 0, html.contains("Spouse " + i));
+            // The data-cache element is rendered for every item
+            assertEquals("Wrong children " + i, i % 3 > 0, html.contains("Child 0"));
+        }
+    }
+
+    @Test
+    public void testRenderAllStream()
+    throws InterruptedException, IOException
+    {
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<Map<String, Object>> items =
+            IntStream.range(0, 20)
+                .mapToObj(i -> bindings(new Person("Person " + i, "", false, 0)))
+                .onClose(() -> closed.set(true));
+        Path directory = temporaryFolder.newFolder("pages").toPath();
+
+        TemplateEngine.Result result =
+            testInstance.renderAll(
+                template, items,
+                RenderSink.toDirectory(directory, (index, bindings) -> "page" + index + ".html"));
+
+        assertEquals(20, result.getRendered());
+        assertTrue("Stream not closed", closed.get());
+        String html =
+            new String(Files.readAllBytes(directory.resolve("page7.html")), StandardCharsets.UTF_8);
+        assertTrue("Wrong page", html.contains("<h1>Page of Person 7</h1>"));
+    }
+
+    @Test
+    public void testRenderAllFailure()
+    throws InterruptedException
+    {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            Map<String, Object> bindings = bindings(new Person("Person " + i, "", false, 0));
+            bindings.put("fail", i == 3);
+            items.add(bindings);
+        }
+
+        Map<Long, String> pages = new ConcurrentHashMap<>();
+        TemplateEngine.Result result =
+            testInstance.renderAll(template, items, RenderSink.toMap(pages));
+
+        assertEquals(9, result.getRendered());
+        assertEquals(1, result.getFailed());
+        assertEquals(9, pages.size());
+        assertFalse("Failed page written", pages.containsKey(3L));
+    }
+
+    @Test
+    public void testRenderAllToOutputStream()
+    throws InterruptedException
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            items.add(bindings(new Person("Person " + i, "", false, 0)));
+        }
+
+        testInstance.renderAll(template, items, RenderSink.toOutputStream(stream));
+
+        String output = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+        for (int i = 0; i < 5; i++)
+        {
+            assertTrue("Missing page " + i, output.contains("<h1>Page of Person " + i + "</h1>"));
+        }
+    }
+
+    private static Map<String, Object> bindings(Person person)
+    {
+        Map<String, Object> bindings = new HashMap<>();
+        bindings.put("person", person);
+        bindings.put("fail", false);
+        return bindings;
+    }
+}
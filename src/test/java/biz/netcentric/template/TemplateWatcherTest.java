@@ -0,0 +1,140 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for the {@link TemplateWatcher} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class TemplateWatcherTest
+{
+    private static final String TEST_PATH = "/index.html";
+    private static final String TEST_HTML = "<html><body><h1>${person.name}</h1></body></html>";
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TemplateCache cache;
+    private TemplateWatcher testInstance;
+    private File file;
+
+    @Before
+    public void setUp()
+    throws IOException
+    {
+        cache = new TemplateCache(new TemplateCompiler(), 2);
+        testInstance = new TemplateWatcher(cache);
+        file = temporaryFolder.newFile("index.html");
+        write(TEST_HTML);
+        cache.get(TEST_PATH, file);
+    }
+
+    @After
+    public void tearDown()
+    throws IOException
+    {
+        testInstance.close();
+    }
+
+    @Test
+    public void testWatch()
+    throws IOException
+    {
+        assertFalse("File watched", testInstance.isWatched(file));
+
+        testInstance.watch(TEST_PATH, file);
+        assertTrue("File not watched", testInstance.isWatched(file));
+        assertFalse(
+            "Other file watched", testInstance.isWatched(new File(file.getParentFile(), "other")));
+    }
+
+    @Test
+    public void testChangedFileReloaded()
+    throws IOException
+    {
+        Template template = cache.getIfPresent(TEST_PATH);
+        testInstance.watch(TEST_PATH, file);
+        write("<html><body>Changed</body></html>");
+
+        waitFor(() -> cache.getIfPresent(TEST_PATH) != template);
+        assertTrue("Reload not recorded", cache.getReloadCount() > 0);
+    }
+
+    @Test
+    public void testDeletedFileRemoved()
+    throws IOException
+    {
+        testInstance.watch(TEST_PATH, file);
+        Files.delete(file.toPath());
+
+        waitFor(() -> cache.getIfPresent(TEST_PATH) == null);
+    }
+
+    @Test
+    public void testInvalidFileKeepsTemplate()
+    throws IOException
+    {
+        Template template = cache.getIfPresent(TEST_PATH);
+        write("<p data-cache=\"ttl=soon\">Text</p>");
+        testInstance.update(TEST_PATH, file.toPath());
+
+        assertSame("Template replaced", template, cache.getIfPresent(TEST_PATH));
+        assertTrue("Failure not recorded", cache.getReloadFailureCount() > 0);
+    }
+
+    @Test
+    public void testUpdate()
+    throws IOException
+    {
+        write("<html><body>Changed</body></html>");
+        testInstance.update(TEST_PATH, file.toPath());
+        assertNotNull("Template removed", cache.getIfPresent(TEST_PATH));
+
+        testInstance.update(TEST_PATH, new File(file.getParentFile(), "none").toPath());
+        assertNull("Template not removed", cache.getIfPresent(TEST_PATH));
+    }
+
+    private void write(String html)
+    throws IOException
+    {
+        Files.write(file.toPath(), html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Waits until the given condition holds, failing if it takes too long.
+     */
+    private static void waitFor(BooleanSupplier condition)
+    {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean())
+        {
+            assertTrue("Change not handled in time", System.currentTimeMillis() < deadline);
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
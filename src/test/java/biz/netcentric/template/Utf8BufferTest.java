@@ -0,0 +1,73 @@
+package biz.netcentric.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link Utf8Buffer} class.
+ *
+ * @author Jhoan Muñoz
+ */
+public class Utf8BufferTest
+{
+    private static final String[] TEST_TEXTS =
+        {"", "abc", "Señor", "€", "😀", "\uD83Dx", "x\uDE00"};
+
+    @Test
+    public void testAppend()
+    {
+        for (String text : TEST_TEXTS)
+        {
+            assertArrayEquals(
+                "Not expected bytes for " + text, text.getBytes(StandardCharsets.UTF_8),
+                new Utf8Buffer(0).append(text).toByteArray());
+        }
+    }
+
+    @Test
+    public void testAppendRange()
+    {
+        Utf8Buffer testInstance = new Utf8Buffer(0);
+        testInstance.append("<p>Señor</p>", 3, 8).append('!');
+
+        assertEquals("Not expected text", "Señor!", testInstance.toString());
+        assertEquals("Not expected size", 7, testInstance.size());
+    }
+
+    @Test
+    public void testWriteUtf8()
+    throws IOException
+    {
+        byte[] encoded = "€".getBytes(StandardCharsets.UTF_8);
+        Utf8Buffer testInstance = new Utf8Buffer(0);
+        for (int i = 0; i < 100; i++)
+        {
+            testInstance.append("a");
+            testInstance.writeUtf8(encoded);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        testInstance.writeTo(stream);
+        assertEquals("Not expected size", 400, testInstance.size());
+        assertArrayEquals("Not expected bytes", testInstance.toByteArray(), stream.toByteArray());
+
+        testInstance.reset();
+        assertEquals("Buffer not emptied", 0, testInstance.size());
+    }
+
+    @Test
+    public void testUtf8Length()
+    {
+        for (String text : TEST_TEXTS)
+        {
+            assertEquals(
+                "Not expected length for " + text, text.getBytes(StandardCharsets.UTF_8).length,
+                Utf8Buffer.utf8Length(text));
+        }
+    }
+}